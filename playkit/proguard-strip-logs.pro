@@ -0,0 +1,13 @@
+# Used by release builds with -PpkStripDebugLogs (see build.gradle).
+# Only strips logging - the library is not shrunk or obfuscated.
+
+-dontobfuscate
+-dontshrink
+-keepattributes *
+
+-assumenosideeffects class com.kaltura.playkit.PKLog {
+    public void v(...);
+    public void d(...);
+    public static void v(...);
+    public static void d(...);
+}
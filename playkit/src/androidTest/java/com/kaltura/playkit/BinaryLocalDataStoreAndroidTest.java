@@ -0,0 +1,311 @@
+package com.kaltura.playkit;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+@RunWith(AndroidJUnit4.class)
+public class BinaryLocalDataStoreAndroidTest {
+
+    private static final String TAG = "LocalDataStoreBenchmark";
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(context.getCacheDir(), "BinaryLocalDataStoreAndroidTest.bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void entriesSurviveReopen() throws FileNotFoundException {
+        BinaryLocalDataStore store = new BinaryLocalDataStore(file);
+        store.save("a", new byte[]{1, 2, 3});
+        store.save(new byte[]{0, -1, 42}, new byte[]{4});
+        store.save("b", new byte[]{5});
+        store.remove("b");
+        store.close();
+
+        store = new BinaryLocalDataStore(file);
+        assertArrayEquals(new byte[]{1, 2, 3}, store.load("a"));
+        assertArrayEquals(new byte[]{4}, store.load(new byte[]{0, -1, 42}));
+        assertNotFound(store, "b");
+    }
+
+    @Test
+    public void overwrittenEntriesAreCompacted() throws FileNotFoundException {
+        BinaryLocalDataStore store = new BinaryLocalDataStore(file);
+        byte[] value = new byte[1024];
+        for (int i = 0; i < 1000; i++) {
+            Arrays.fill(value, (byte) i);
+            store.save("key", value);
+        }
+        assertTrue("length=" + file.length(), file.length() < 200 * 1024);
+        store.close();
+
+        store = new BinaryLocalDataStore(file);
+        assertArrayEquals(value, store.load("key"));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void brokenEndIsDropped() throws IOException {
+        BinaryLocalDataStore store = new BinaryLocalDataStore(file);
+        store.save("a", new byte[]{1});
+        store.save("b", new byte[]{2});
+        store.close();
+        final long validLength = file.length();
+
+        // The process died while appending a record.
+        append(file, new byte[]{1, 0, 0, 0, 1, 0, 0});
+        store = new BinaryLocalDataStore(file);
+        assertArrayEquals(new byte[]{2}, store.load("b"));
+        assertEquals(validLength, file.length());
+        store.save("c", new byte[]{3});
+        store.close();
+
+        // A record with a bad checksum.
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.seek(file.length() - 1);
+            final int lastByte = randomAccessFile.read();
+            randomAccessFile.seek(file.length() - 1);
+            randomAccessFile.write(lastByte ^ 0xff);
+        } finally {
+            randomAccessFile.close();
+        }
+        store = new BinaryLocalDataStore(file);
+        assertEquals(2, store.size());
+        assertNotFound(store, "c");
+        assertEquals(validLength, file.length());
+        store.close();
+    }
+
+    @Test
+    public void unreadableFileIsKept() throws IOException {
+        BinaryLocalDataStore store = new BinaryLocalDataStore(file);
+        store.save("a", new byte[]{1});
+        store.close();
+
+        // Written by a newer version.
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.seek(4);
+            randomAccessFile.writeInt(2);
+        } finally {
+            randomAccessFile.close();
+        }
+        final long length = file.length();
+
+        store = new BinaryLocalDataStore(file);
+        assertNotFound(store, "a");
+        store.save("b", new byte[]{2});
+        store.remove("a");
+        assertEquals(0, store.size());
+        assertEquals(length, file.length());
+        store.close();
+    }
+
+    @Test
+    public void usersOfOneFileShareItsStore() throws FileNotFoundException {
+        // Like two LocalAssetsManagers of the app.
+        BinaryLocalDataStore first = BinaryLocalDataStore.getShared(file);
+        BinaryLocalDataStore second = BinaryLocalDataStore.getShared(file);
+        assertSame(first, second);
+        assertSame(BinaryLocalDataStore.getShared(context), BinaryLocalDataStore.getShared(context));
+
+        first.save("keySetId:1", new byte[]{1});
+        second.save("keySetId:2", new byte[]{2});
+        assertArrayEquals(new byte[]{2}, first.load("keySetId:2"));
+
+        // Compacting through one keeps the entries of the other.
+        byte[] value = new byte[1024];
+        for (int i = 0; i < 200; i++) {
+            second.save("assetId:1", value);
+        }
+        first.close();
+
+        BinaryLocalDataStore reopened = new BinaryLocalDataStore(file);
+        assertArrayEquals(new byte[]{1}, reopened.load("keySetId:1"));
+        assertArrayEquals(new byte[]{2}, reopened.load("keySetId:2"));
+        assertEquals(3, reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    public void sharedPreferencesAreCopied() throws FileNotFoundException {
+        File defaultFile = new File(context.getFilesDir(), "PlayKitLocalStorage.bin");
+        defaultFile.delete();
+        LocalAssetsManager.DefaultLocalDataStore defaultStore = new LocalAssetsManager.DefaultLocalDataStore(context);
+        defaultStore.save("assetId:1", new byte[]{7, 8});
+
+        BinaryLocalDataStore store = new BinaryLocalDataStore(context);
+        assertArrayEquals(new byte[]{7, 8}, store.load("assetId:1"));
+        store.remove("assetId:1");
+        store.close();
+
+        // The old store is left as it was.
+        assertArrayEquals(new byte[]{7, 8}, defaultStore.load("assetId:1"));
+        assertNotFound(new BinaryLocalDataStore(context), "assetId:1");
+
+        defaultStore.remove("assetId:1");
+        defaultFile.delete();
+    }
+
+    // Not a pass/fail test: logs the timings of both stores, at 1k and 10k assets. Both loads are cold:
+    // the binary log is read by a new store, the preferences are read from a copy of their file under a
+    // name the process hasn't loaded yet. Ignored by default; remove @Ignore to run it.
+    @LargeTest
+    @Ignore("Benchmark, logs timings only")
+    @Test
+    public void benchmark() throws IOException {
+        for (int assets : new int[]{1000, 10000}) {
+            BinaryLocalDataStore binaryStore = new BinaryLocalDataStore(file);
+            long saveMs = save(binaryStore, assets);
+            binaryStore.close();
+            long start = SystemClock.elapsedRealtime();
+            binaryStore = new BinaryLocalDataStore(file);
+            load(binaryStore, assets);
+            long reopenAndLoadMs = SystemClock.elapsedRealtime() - start;
+            Log.i(TAG, "BinaryLocalDataStore, " + assets + " assets: save " + saveMs + "ms, reopen and load " +
+                    reopenAndLoadMs + "ms, file " + file.length() + " bytes");
+            binaryStore.close();
+            file.delete();
+
+            final String name = "LocalDataStoreBenchmark-" + System.nanoTime();
+            final File preferencesDir = new File(context.getApplicationInfo().dataDir, "shared_prefs");
+            final File preferencesFile = new File(preferencesDir, name + ".xml");
+            final File coldPreferencesFile = new File(preferencesDir, name + "-cold.xml");
+            try {
+                saveMs = save(new PreferencesStore(context, name), assets);
+                copy(preferencesFile, coldPreferencesFile);
+                start = SystemClock.elapsedRealtime();
+                load(new PreferencesStore(context, name + "-cold"), assets);
+                long coldLoadMs = SystemClock.elapsedRealtime() - start;
+                Log.i(TAG, "SharedPreferences, " + assets + " assets: save " + saveMs + "ms, cold load " + coldLoadMs +
+                        "ms, file " + preferencesFile.length() + " bytes");
+            } finally {
+                preferencesFile.delete();
+                coldPreferencesFile.delete();
+            }
+        }
+    }
+
+    // Like WidevineModularAdapter and LocalAssetsManager: a keySetId per init data, and a format per asset.
+    private static long save(LocalDataStore store, int assets) {
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < assets; i++) {
+            store.save(Utils.toBase64(initData(i)), keySetId(i));
+            store.save("assetId:" + i, "dash:WidevineCENC".getBytes());
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private static void load(LocalDataStore store, int assets) throws FileNotFoundException {
+        for (int i = 0; i < assets; i++) {
+            assertArrayEquals(keySetId(i), store.load(Utils.toBase64(initData(i))));
+            store.load("assetId:" + i);
+        }
+    }
+
+    private static byte[] initData(int asset) {
+        byte[] initData = new byte[80];
+        Arrays.fill(initData, (byte) asset);
+        initData[0] = (byte) (asset >> 8);
+        return initData;
+    }
+
+    private static byte[] keySetId(int asset) {
+        return ("ksid" + asset).getBytes();
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        final byte[] bytes = new byte[(int) from.length()];
+        RandomAccessFile input = new RandomAccessFile(from, "r");
+        try {
+            input.readFully(bytes);
+        } finally {
+            input.close();
+        }
+        append(to, bytes);
+    }
+
+    private static void append(File file, byte[] bytes) throws IOException {
+        FileOutputStream output = new FileOutputStream(file, true);
+        try {
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+    }
+
+    // The format of LocalAssetsManager.DefaultLocalDataStore, in a file of its own. Saves are committed,
+    // so that they're on disk when the timer stops.
+    private static class PreferencesStore implements LocalDataStore {
+        private final SharedPreferences preferences;
+
+        PreferencesStore(Context context, String name) {
+            preferences = context.getSharedPreferences(name, 0);
+        }
+
+        @Override
+        public void save(String key, byte[] value) {
+            preferences.edit().putString(key, Utils.toBase64(value)).commit();
+        }
+
+        @Override
+        public byte[] load(String key) throws FileNotFoundException {
+            final String value = preferences.getString(key, null);
+            if (value == null) {
+                throw new FileNotFoundException(key);
+            }
+            return Base64.decode(value, Base64.NO_WRAP);
+        }
+
+        @Override
+        public void remove(String key) {
+            preferences.edit().remove(key).commit();
+        }
+    }
+
+    private static void assertNotFound(LocalDataStore store, String key) {
+        try {
+            store.load(key);
+            fail("Found " + key);
+        } catch (FileNotFoundException e) {
+            // Expected
+        }
+    }
+}
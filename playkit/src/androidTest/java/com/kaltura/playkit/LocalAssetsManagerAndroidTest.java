@@ -0,0 +1,218 @@
+package com.kaltura.playkit;
+
+import android.os.SystemClock;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.kaltura.playkit.drm.DrmAdapter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(AndroidJUnit4.class)
+public class LocalAssetsManagerAndroidTest {
+
+    private final MemoryDataStore dataStore = new MemoryDataStore();
+    private final LocalAssetsManager localAssetsManager = new LocalAssetsManager(
+            InstrumentationRegistry.getInstrumentation().getTargetContext(), dataStore);
+
+    // Spread over two managers: the bound is for the whole process.
+    @Test
+    public void backgroundOperationsAreBounded() throws InterruptedException {
+        final int maxConcurrent = 3;
+        final int operations = 50;
+        localAssetsManager.setMaxConcurrentDrmOperations(maxConcurrent);
+        final LocalAssetsManager otherManager = new LocalAssetsManager(
+                InstrumentationRegistry.getInstrumentation().getTargetContext(), new MemoryDataStore());
+
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(operations);
+        for (int i = 0; i < operations; i++) {
+            (i % 2 == 0 ? localAssetsManager : otherManager).doInBackground(() -> {
+                final int now = running.incrementAndGet();
+                int max;
+                while ((max = maxRunning.get()) < now && !maxRunning.compareAndSet(max, now)) {
+                    // Retry
+                }
+                SystemClock.sleep(20);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue("maxRunning=" + maxRunning.get(), maxRunning.get() <= maxConcurrent);
+        assertTrue("maxRunning=" + maxRunning.get(), maxRunning.get() > 1);
+    }
+
+    @Test
+    public void batchStatusReportsProgress() throws InterruptedException {
+        final List<LocalAssetsManager.LocalAsset> assets = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            assets.add(new LocalAssetsManager.LocalAsset("/sdcard/asset-" + i + ".mpd", "asset-" + i));
+        }
+
+        final AtomicInteger statusCount = new AtomicInteger();
+        final int[] completed = new int[2];
+        final CountDownLatch done = new CountDownLatch(1);
+        localAssetsManager.checkAssetsStatus(assets,
+                (localAssetPath, expiryTimeSeconds, availableTimeSeconds, isRegistered) -> statusCount.incrementAndGet(),
+                new LocalAssetsManager.BatchProgressListener() {
+                    @Override
+                    public void onProgress(int done, int failed, int total) {
+                    }
+
+                    @Override
+                    public void onCompleted(int failed, int total) {
+                        completed[0] = failed;
+                        completed[1] = total;
+                        done.countDown();
+                    }
+                });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(10, statusCount.get());
+        // None of them is registered.
+        assertEquals(10, completed[0]);
+        assertEquals(10, completed[1]);
+    }
+
+    @Test
+    public void batchSharesOneMediaDrm() throws InterruptedException {
+        final List<LocalAssetsManager.LocalAsset> assets = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            assets.add(new LocalAssetsManager.LocalAsset("/sdcard/asset-" + i + ".mpd", "asset-" + i));
+            dataStore.save("assetId:asset-" + i, "dash:WidevineCENC".getBytes());
+        }
+        final List<CountingDrmAdapter> adapters = new ArrayList<>();
+        localAssetsManager.drmAdapterFactory = (scheme, context, localDataStore) -> {
+            final CountingDrmAdapter adapter = new CountingDrmAdapter();
+            synchronized (adapters) {
+                adapters.add(adapter);
+            }
+            return adapter;
+        };
+
+        final int[] completed = new int[2];
+        final CountDownLatch done = new CountDownLatch(1);
+        localAssetsManager.checkAssetsStatus(assets, null, new LocalAssetsManager.BatchProgressListener() {
+            @Override
+            public void onProgress(int done, int failed, int total) {
+            }
+
+            @Override
+            public void onCompleted(int failed, int total) {
+                completed[0] = failed;
+                completed[1] = total;
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, completed[0]);
+        assertEquals(10, completed[1]);
+        assertEquals(1, adapters.size());
+        final CountingDrmAdapter adapter = adapters.get(0);
+        assertEquals(10, adapter.operations);
+        assertEquals(1, adapter.openedMediaDrms);
+        assertEquals(1, adapter.releasedMediaDrms);
+        assertEquals(0, adapter.operationsOutsideBatch);
+    }
+
+    // Shares its MediaDrm between the operations of a batch, like WidevineModularAdapter, and counts them.
+    private static class CountingDrmAdapter extends DrmAdapter {
+        int operations;
+        int operationsOutsideBatch;
+        int openedMediaDrms;
+        int releasedMediaDrms;
+        private boolean inBatch;
+        private Object batchMediaDrm;
+
+        @Override
+        public synchronized void beginBatch() {
+            inBatch = true;
+        }
+
+        @Override
+        public synchronized void endBatch() {
+            inBatch = false;
+            if (batchMediaDrm != null) {
+                batchMediaDrm = null;
+                releasedMediaDrms++;
+            }
+        }
+
+        @Override
+        public boolean checkAssetStatus(String localAssetPath, String assetId, LocalAssetsManager.AssetStatusListener listener) {
+            synchronized (this) {
+                operations++;
+                if (!inBatch) {
+                    operationsOutsideBatch++;
+                    openedMediaDrms++;
+                    releasedMediaDrms++;
+                } else if (batchMediaDrm == null) {
+                    batchMediaDrm = new Object();
+                    openedMediaDrms++;
+                }
+            }
+            SystemClock.sleep(5);
+            listener.onStatus(localAssetPath, 100, 100, true);
+            return true;
+        }
+
+        @Override
+        public boolean registerAsset(String localAssetPath, String assetId, String licenseUri, PKRequestParams.Adapter adapter,
+                                     LocalAssetsManager.AssetRegistrationListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean refreshAsset(String localAssetPath, String assetId, String licenseUri, PKRequestParams.Adapter adapter,
+                                    LocalAssetsManager.AssetRegistrationListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean unregisterAsset(String localAssetPath, String assetId, LocalAssetsManager.AssetRemovalListener listener) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class MemoryDataStore implements LocalDataStore {
+        private final Map<String, byte[]> values = new HashMap<>();
+
+        @Override
+        public synchronized void save(String key, byte[] value) {
+            values.put(key, value);
+        }
+
+        @Override
+        public synchronized byte[] load(String key) throws FileNotFoundException {
+            final byte[] value = values.get(key);
+            if (value == null) {
+                throw new FileNotFoundException(key);
+            }
+            return value;
+        }
+
+        @Override
+        public synchronized void remove(String key) {
+            values.remove(key);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.kaltura.playkit;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(AndroidJUnit4.class)
+public class MessageBusAndroidTest {
+
+    private static final Class[] EVENT_CLASSES = {
+            PlayerEvent.stateChanged, PlayerEvent.durationChanged, PlayerEvent.playheadUpdated
+    };
+
+    // Removal cost is checked by counting how often the removed listener is hashed, which is how
+    // a scan of the other registrations would show up, rather than by timing it.
+
+    @Test
+    public void removeListenerOnlyTouchesItsRegistrations() {
+        for (int unrelatedCount : new int[]{1000, 50000}) {
+            MessageBus messageBus = new MessageBus();
+            addUnrelatedListeners(messageBus, unrelatedCount);
+            CountingListener listener = new CountingListener();
+            addToAllClasses(messageBus, new Object(), listener);
+
+            listener.hashCodeCalls = 0;
+            messageBus.removeListener(listener);
+            assertTrue("removeListener hashed the listener " + listener.hashCodeCalls + " times with " + unrelatedCount + " unrelated listeners",
+                    listener.hashCodeCalls <= EVENT_CLASSES.length);
+            assertFalse(isRegistered(messageBus));
+        }
+    }
+
+    @Test
+    public void removeListenersOnlyTouchesItsRegistrations() {
+        for (int unrelatedCount : new int[]{1000, 50000}) {
+            MessageBus messageBus = new MessageBus();
+            addUnrelatedListeners(messageBus, unrelatedCount);
+            CountingListener listener = new CountingListener();
+            Object groupId = new Object();
+            addToAllClasses(messageBus, groupId, listener);
+
+            listener.hashCodeCalls = 0;
+            messageBus.removeListeners(groupId);
+            assertTrue("removeListeners hashed the listener " + listener.hashCodeCalls + " times with " + unrelatedCount + " unrelated listeners",
+                    listener.hashCodeCalls <= EVENT_CLASSES.length);
+            assertFalse(isRegistered(messageBus));
+        }
+    }
+
+    // Registrations are compared by listener, so a scan of the group would show up as equals() calls.
+    @Test
+    public void removeListenerDoesNotScanItsGroup() {
+        for (int groupSize : new int[]{1000, 50000}) {
+            MessageBus messageBus = new MessageBus();
+            Object groupId = new Object();
+            addUnrelatedListeners(messageBus, groupId, groupSize);
+            CountingListener listener = new CountingListener();
+            addToAllClasses(messageBus, groupId, listener);
+
+            listener.equalsCalls = 0;
+            messageBus.removeListener(listener);
+            assertTrue("removeListener compared the listener " + listener.equalsCalls + " times in a group of " + groupSize,
+                    listener.equalsCalls <= EVENT_CLASSES.length);
+            assertFalse(isRegistered(messageBus));
+            assertTrue(messageBus.hasListeners(PlayerEvent.Type.values()[0]));
+        }
+    }
+
+    @Test
+    public void removeListenersKeepsOtherGroups() throws InterruptedException {
+        MessageBus messageBus = new MessageBus();
+        Object removedGroup = new Object();
+        Object keptGroup = new Object();
+        CountDownLatch latch = new CountDownLatch(1);
+        List<String> calls = new ArrayList<>();
+
+        messageBus.addListener(removedGroup, PlayerEvent.durationChanged, event -> calls.add("removed"));
+        messageBus.addListener(keptGroup, PlayerEvent.durationChanged, event -> {
+            calls.add("kept");
+            latch.countDown();
+        });
+        messageBus.removeListeners(removedGroup);
+
+        messageBus.post(new PlayerEvent.DurationChanged(1000));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.size());
+        assertEquals("kept", calls.get(0));
+    }
+
+    @Test
+    public void listenersAddedAfterPostDoNotGetTheEvent() {
+        MessageBus messageBus = new MessageBus();
+        List<Runnable> tasks = new ArrayList<>();
+        List<String> calls = new ArrayList<>();
+
+        messageBus.addListener(this, PlayerEvent.durationChanged, event -> calls.add("before"), tasks::add);
+        messageBus.post(new PlayerEvent.DurationChanged(1000));
+        messageBus.addListener(this, PlayerEvent.durationChanged, event -> calls.add("after"), tasks::add);
+        runAll(tasks);
+
+        assertEquals(Collections.singletonList("before"), calls);
+    }
+
+    @Test
+    public void stickyEventIsDeliveredOnceToListenersAddedAfterPost() {
+        MessageBus messageBus = new MessageBus();
+        messageBus.setSticky(PlayerEvent.durationChanged, true);
+        List<Runnable> tasks = new ArrayList<>();
+        List<String> calls = new ArrayList<>();
+
+        messageBus.addListener(this, PlayerEvent.durationChanged, event -> calls.add("before"), tasks::add);
+        messageBus.post(new PlayerEvent.DurationChanged(1000));
+        messageBus.addListener(this, PlayerEvent.durationChanged, event -> calls.add("after"), tasks::add);
+        messageBus.addListener(this, PlayerEvent.Type.DURATION_CHANGE, event -> calls.add("after, by type"), tasks::add);
+        runAll(tasks);
+
+        assertEquals(Arrays.asList("before", "after", "after, by type"), calls);
+    }
+
+    private static void runAll(List<Runnable> tasks) {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+    // Spread over many groups and event types, so a scan of either would hash the removed listener many times.
+    private void addUnrelatedListeners(MessageBus messageBus, int count) {
+        final PlayerEvent.Type[] types = PlayerEvent.Type.values();
+        for (int i = 0; i < count; i++) {
+            messageBus.addListener("unrelated" + (i % 100), types[i % types.length], new NoOpListener());
+        }
+    }
+
+    // All in one group, spread over event types.
+    private void addUnrelatedListeners(MessageBus messageBus, Object groupId, int count) {
+        final PlayerEvent.Type[] types = PlayerEvent.Type.values();
+        for (int i = 0; i < count; i++) {
+            messageBus.addListener(groupId, types[i % types.length], new NoOpListener());
+        }
+    }
+
+    // Unrelated listeners are added by type, so the event classes only have the listener under test.
+    private boolean isRegistered(MessageBus messageBus) {
+        for (Class eventClass : EVENT_CLASSES) {
+            if (messageBus.hasListeners(eventClass)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addToAllClasses(MessageBus messageBus, Object groupId, PKEvent.Listener listener) {
+        for (Class eventClass : EVENT_CLASSES) {
+            messageBus.addListener(groupId, eventClass, listener);
+        }
+    }
+
+    // Lambdas that capture nothing may be shared instances, so use a class to get distinct listeners.
+    private static class NoOpListener implements PKEvent.Listener {
+        @Override
+        public void onEvent(PKEvent event) {
+        }
+    }
+
+    private static class CountingListener extends NoOpListener {
+        int hashCodeCalls;
+        int equalsCalls;
+
+        @Override
+        public int hashCode() {
+            hashCodeCalls++;
+            return super.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            equalsCalls++;
+            return super.equals(obj);
+        }
+    }
+}
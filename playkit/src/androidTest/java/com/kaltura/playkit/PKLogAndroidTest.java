@@ -0,0 +1,76 @@
+package com.kaltura.playkit;
+
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Compares allocations of a disabled verbose log call that concatenates its message
+ * with the same call using the format overload.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PKLogAndroidTest {
+
+    private static final String TAG = "PKLogAndroidTest";
+    private static final int ITERATIONS = 10000;
+
+    private final PKLog log = PKLog.get(TAG);
+    private PKLog.Level savedGlobalLevel;
+
+    @Before
+    public void setUp() {
+        savedGlobalLevel = PKLog.getGlobalLevel();
+    }
+
+    @After
+    public void tearDown() {
+        PKLog.setGlobalLevel(savedGlobalLevel);
+    }
+
+    @Test
+    public void disabledFormatLogDoesNotAllocate() {
+        PKLog.setGlobalLevel(PKLog.Level.info);
+
+        // Warm up
+        logConcatenated(100);
+        logFormatted(100);
+
+        int concatenated = countAllocations(() -> logConcatenated(ITERATIONS));
+        int formatted = countAllocations(() -> logFormatted(ITERATIONS));
+
+        Log.i(TAG, "Allocations for " + ITERATIONS + " disabled log.v() calls: concatenated=" + concatenated + " formatted=" + formatted);
+
+        assertTrue("concatenated=" + concatenated, concatenated >= ITERATIONS);
+        assertTrue("formatted=" + formatted, formatted < ITERATIONS / 100);
+    }
+
+    private void logConcatenated(int count) {
+        for (long position = 1; position <= count; position++) {
+            log.v("updateProgress new position/duration = " + position + "/" + count);
+        }
+    }
+
+    private void logFormatted(int count) {
+        for (long position = 1; position <= count; position++) {
+            log.v("updateProgress new position/duration = %d/%d", position, count);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static int countAllocations(Runnable block) {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        block.run();
+        Debug.stopAllocCounting();
+        return Debug.getThreadAllocCount();
+    }
+}
@@ -0,0 +1,239 @@
+package com.kaltura.playkit.drm;
+
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.kaltura.android.exoplayer2.drm.DrmInitData;
+import com.kaltura.android.exoplayer2.drm.DrmSession;
+import com.kaltura.android.exoplayer2.drm.DrmSessionManager;
+import com.kaltura.android.exoplayer2.drm.FrameworkMediaCrypto;
+import com.kaltura.playkit.player.MediaSupport;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(AndroidJUnit4.class)
+public class DrmSessionCacheAndroidTest {
+
+    private static final String LICENSE_URL = "https://license.example.com/widevine";
+    private static final byte[] KEY_ID = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+
+    private final Looper looper = Looper.getMainLooper();
+    private final DrmSessionCache cache = new DrmSessionCache();
+    private final FakeSessionManager sessionManager = new FakeSessionManager();
+
+    @Test
+    public void episodesWithSameKeyIdShareKey() {
+        // Version 0 boxes, the key id is in the Widevine data next to a different content id.
+        String episode1 = DrmSessionCache.buildKey(buildPssh(widevineData("episode-1")), LICENSE_URL);
+        String episode2 = DrmSessionCache.buildKey(buildPssh(widevineData("episode-2")), LICENSE_URL);
+        assertEquals(episode1, episode2);
+
+        // The Widevine data alone is keyed the same as its box.
+        assertEquals(episode1, DrmSessionCache.buildKey(widevineData("episode-3"), LICENSE_URL));
+    }
+
+    @Test
+    public void otherLicenseUrlIsOtherKey() {
+        byte[] pssh = buildPssh(widevineData("episode-1"));
+        assertNotEquals(DrmSessionCache.buildKey(pssh, LICENSE_URL), DrmSessionCache.buildKey(pssh, LICENSE_URL + "?user=2"));
+    }
+
+    @Test
+    public void sessionIsReleasedWhenEvictedAndUnused() {
+        cache.setMaxSessions(1);
+        FakeSession session = new FakeSession();
+        DrmSessionCache.Entry entry = cache.put("a", looper, session, sessionManager);
+        entry.release();
+        assertTrue(sessionManager.released.isEmpty());
+
+        // Reused by the next two media.
+        assertSame(entry, cache.acquire("a", looper));
+        assertSame(entry, cache.acquire("a", looper));
+
+        // Evicted while two media use it: released by the last one.
+        cache.put("b", looper, new FakeSession(), sessionManager);
+        assertFalse(cache.contains("a"));
+        entry.release();
+        assertTrue(sessionManager.released.isEmpty());
+        entry.release();
+        assertEquals(1, sessionManager.released.size());
+        assertSame(session, sessionManager.released.get(0));
+
+        // Released once only.
+        entry.release();
+        assertEquals(1, sessionManager.released.size());
+    }
+
+    @Test
+    public void unusedSessionsAreEvictedBeforeSessionsInUse() {
+        cache.setMaxSessions(2);
+        FakeSession inUse = new FakeSession();
+        FakeSession unused = new FakeSession();
+        cache.put("in-use", looper, inUse, sessionManager);
+        cache.put("unused", looper, unused, sessionManager).release();
+
+        // The least recently used session is in use: the unused one goes.
+        cache.put("new", looper, new FakeSession(), sessionManager);
+        assertTrue(cache.contains("in-use"));
+        assertFalse(cache.contains("unused"));
+        assertTrue(cache.contains("new"));
+        assertEquals(1, sessionManager.released.size());
+        assertSame(unused, sessionManager.released.get(0));
+    }
+
+    @Test
+    public void leastRecentlyUsedSessionIsEvicted() {
+        cache.setMaxSessions(2);
+        cache.put("a", looper, new FakeSession(), sessionManager).release();
+        FakeSession b = new FakeSession();
+        cache.put("b", looper, b, sessionManager).release();
+        cache.acquire("a", looper).release();
+
+        cache.put("c", looper, new FakeSession(), sessionManager).release();
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertSame(b, sessionManager.released.get(0));
+
+        // Shrinking evicts the rest.
+        cache.setMaxSessions(0);
+        assertFalse(cache.isEnabled());
+        assertEquals(3, sessionManager.released.size());
+    }
+
+    @Test
+    public void expiringSessionIsNotReused() {
+        FakeSession session = new FakeSession();
+        cache.put("a", looper, session, sessionManager).release();
+
+        session.keyStatus.put("LicenseDurationRemaining", "3600");
+        assertTrue(cache.contains("a"));
+
+        session.keyStatus.put("LicenseDurationRemaining", "30");
+        assertFalse(cache.contains("a"));
+        assertNull(cache.acquire("a", looper));
+        assertSame(session, sessionManager.released.get(0));
+    }
+
+    @Test
+    public void failedSessionIsNotReused() {
+        FakeSession session = new FakeSession();
+        cache.put("a", looper, session, sessionManager).release();
+        session.state = DrmSession.STATE_ERROR;
+        assertNull(cache.acquire("a", looper));
+        assertEquals(1, sessionManager.released.size());
+    }
+
+    @Test
+    public void sessionOfOtherPlaybackThreadIsNotReused() {
+        HandlerThread thread = new HandlerThread("DrmSessionCacheAndroidTest");
+        thread.start();
+        try {
+            cache.put("a", looper, new FakeSession(), sessionManager).release();
+            assertNull(cache.acquire("a", thread.getLooper()));
+            assertTrue(cache.contains("a"));
+        } finally {
+            thread.quit();
+        }
+    }
+
+    @Test
+    public void disabledCacheReleasesWithTheMedia() {
+        cache.setMaxSessions(0);
+        DrmSessionCache.Entry entry = cache.put("a", looper, new FakeSession(), sessionManager);
+        assertFalse(cache.contains("a"));
+        entry.release();
+        assertEquals(1, sessionManager.released.size());
+    }
+
+    @Test
+    public void clearReleasesUnusedSessions() {
+        cache.put("a", looper, new FakeSession(), sessionManager).release();
+        DrmSessionCache.Entry inUse = cache.put("b", looper, new FakeSession(), sessionManager);
+        cache.clear();
+        assertEquals(1, sessionManager.released.size());
+        inUse.release();
+        assertEquals(2, sessionManager.released.size());
+    }
+
+    private static class FakeSession implements DrmSession<FrameworkMediaCrypto> {
+        int state = STATE_OPENED_WITH_KEYS;
+        final Map<String, String> keyStatus = new HashMap<>();
+
+        @Override
+        public int getState() {
+            return state;
+        }
+
+        @Override
+        public FrameworkMediaCrypto getMediaCrypto() {
+            return null;
+        }
+
+        @Override
+        public DrmSessionException getError() {
+            return null;
+        }
+
+        @Override
+        public Map<String, String> queryKeyStatus() {
+            return keyStatus;
+        }
+
+        @Override
+        public byte[] getOfflineLicenseKeySetId() {
+            return null;
+        }
+    }
+
+    private static class FakeSessionManager implements DrmSessionManager<FrameworkMediaCrypto> {
+        final List<DrmSession<FrameworkMediaCrypto>> released = new ArrayList<>();
+
+        @Override
+        public boolean canAcquireSession(DrmInitData drmInitData) {
+            return true;
+        }
+
+        @Override
+        public DrmSession<FrameworkMediaCrypto> acquireSession(Looper playbackLooper, DrmInitData drmInitData) {
+            return new FakeSession();
+        }
+
+        @Override
+        public void releaseSession(DrmSession<FrameworkMediaCrypto> drmSession) {
+            released.add(drmSession);
+        }
+    }
+
+    // WidevinePsshData with key_id (field 2) and content_id (field 4).
+    private static byte[] widevineData(String contentId) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + KEY_ID.length + contentId.length());
+        buffer.put((byte) 0x12).put((byte) KEY_ID.length).put(KEY_ID);
+        buffer.put((byte) 0x22).put((byte) contentId.length()).put(contentId.getBytes());
+        return buffer.array();
+    }
+
+    private static byte[] buildPssh(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(32 + data.length);
+        buffer.putInt(32 + data.length).put("pssh".getBytes()).putInt(0);
+        buffer.putLong(MediaSupport.WIDEVINE_UUID.getMostSignificantBits()).putLong(MediaSupport.WIDEVINE_UUID.getLeastSignificantBits());
+        buffer.putInt(data.length).put(data);
+        return buffer.array();
+    }
+}
@@ -0,0 +1,306 @@
+package com.kaltura.playkit.drm;
+
+import android.media.MediaDrm;
+import android.media.MediaDrmException;
+import android.net.Uri;
+import android.util.Base64;
+
+import androidx.annotation.Nullable;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.kaltura.android.exoplayer2.drm.DrmInitData;
+import com.kaltura.android.exoplayer2.drm.ExoMediaDrm;
+import com.kaltura.android.exoplayer2.drm.FrameworkMediaCrypto;
+import com.kaltura.android.exoplayer2.drm.MediaDrmCallback;
+import com.kaltura.android.exoplayer2.util.MimeTypes;
+import com.kaltura.playkit.PKMediaFormat;
+import com.kaltura.playkit.player.MediaSupport;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+
+@RunWith(AndroidJUnit4.class)
+public class PrefetchingMediaDrmAndroidTest {
+
+    private static final Uri MASTER_URI = Uri.parse("https://example.com/a/master.m3u8");
+    private static final byte[] PSSH = {0, 0, 0, 32, 'p', 's', 's', 'h', 1, 2, 3, 4};
+    private static final byte[] INIT_DATA = {1, 2, 3, 4};
+    private static final byte[] OTHER_INIT_DATA = {5, 6, 7, 8};
+    private static final byte[] LICENSE = {42};
+
+    private final FakeMediaDrm fakeMediaDrm = new FakeMediaDrm();
+    private final FakeCallback fakeCallback = new FakeCallback();
+    private final List<Runnable> queuedTasks = new ArrayList<>();
+
+    @Test
+    public void widevineInitDataIsFoundInHlsSessionKey() {
+        String playlist = "#EXTM3U\n" +
+                "#EXT-X-SESSION-KEY:METHOD=SAMPLE-AES,URI=\"skd://key\",KEYFORMAT=\"com.apple.streamingkeydelivery\"\n" +
+                "#EXT-X-SESSION-KEY:METHOD=SAMPLE-AES-CTR,URI=\"data:text/plain;base64," + Base64.encodeToString(PSSH, Base64.NO_WRAP) +
+                "\",KEYFORMAT=\"urn:uuid:edef8ba9-79d6-4ace-a3c8-27dcd51d21ed\",KEYFORMATVERSIONS=\"1\"\n" +
+                "#EXT-X-STREAM-INF:BANDWIDTH=800000\n" +
+                "low.m3u8\n";
+
+        byte[] initData = PrefetchingMediaDrm.findWidevineInitData(MASTER_URI, playlist.getBytes(Charset.forName("UTF-8")), PKMediaFormat.hls);
+        assertArrayEquals(PSSH, initData);
+    }
+
+    @Test
+    public void clearPlaylistHasNoInitData() {
+        String playlist = "#EXTM3U\n#EXT-X-STREAM-INF:BANDWIDTH=800000\nlow.m3u8\n";
+        assertNull(PrefetchingMediaDrm.findWidevineInitData(MASTER_URI, playlist.getBytes(Charset.forName("UTF-8")), PKMediaFormat.hls));
+    }
+
+    @Test
+    public void prefetchedKeysAreHandedOver() throws Exception {
+        PrefetchingMediaDrm mediaDrm = new PrefetchingMediaDrm(fakeMediaDrm, fakeCallback, Runnable::run, Runnable::run);
+        mediaDrm.prefetch(INIT_DATA);
+        assertEquals(1, fakeCallback.keyRequests);
+        assertEquals(1, fakeMediaDrm.providedResponses);
+
+        // ExoPlayer's session is the prefetched one, and its key request is answered without a license request.
+        byte[] sessionId = mediaDrm.openSession();
+        assertEquals(1, fakeMediaDrm.openedSessions);
+        ExoMediaDrm.KeyRequest request = mediaDrm.getKeyRequest(sessionId, schemeDatas(INIT_DATA), MediaDrm.KEY_TYPE_STREAMING, null);
+        byte[] response = mediaDrm.getCallback().executeKeyRequest(MediaSupport.WIDEVINE_UUID, request);
+        assertNull(mediaDrm.provideKeyResponse(sessionId, response));
+        assertEquals(1, fakeMediaDrm.keyRequests);
+        assertEquals(1, fakeCallback.keyRequests);
+        assertEquals(1, fakeMediaDrm.providedResponses);
+
+        // Later key requests of the session, e.g. renewals, are real.
+        request = mediaDrm.getKeyRequest(sessionId, schemeDatas(INIT_DATA), MediaDrm.KEY_TYPE_STREAMING, null);
+        mediaDrm.provideKeyResponse(sessionId, mediaDrm.getCallback().executeKeyRequest(MediaSupport.WIDEVINE_UUID, request));
+        assertEquals(2, fakeCallback.keyRequests);
+        assertEquals(2, fakeMediaDrm.providedResponses);
+    }
+
+    @Test
+    public void otherInitDataIsRequestedOnTheSameSession() throws Exception {
+        PrefetchingMediaDrm mediaDrm = new PrefetchingMediaDrm(fakeMediaDrm, fakeCallback, Runnable::run, Runnable::run);
+        mediaDrm.prefetch(INIT_DATA);
+
+        byte[] sessionId = mediaDrm.openSession();
+        ExoMediaDrm.KeyRequest request = mediaDrm.getKeyRequest(sessionId, schemeDatas(OTHER_INIT_DATA), MediaDrm.KEY_TYPE_STREAMING, null);
+        assertArrayEquals(LICENSE, mediaDrm.getCallback().executeKeyRequest(MediaSupport.WIDEVINE_UUID, request));
+        mediaDrm.provideKeyResponse(sessionId, LICENSE);
+        assertEquals(1, fakeMediaDrm.openedSessions);
+        assertEquals(2, fakeMediaDrm.keyRequests);
+        assertEquals(2, fakeCallback.keyRequests);
+        assertEquals(2, fakeMediaDrm.providedResponses);
+    }
+
+    @Test
+    public void failedPrefetchIsRequestedAgain() throws Exception {
+        fakeCallback.failNext = true;
+        PrefetchingMediaDrm mediaDrm = new PrefetchingMediaDrm(fakeMediaDrm, fakeCallback, Runnable::run, Runnable::run);
+        mediaDrm.prefetch(INIT_DATA);
+        assertEquals(0, fakeMediaDrm.providedResponses);
+
+        byte[] sessionId = mediaDrm.openSession();
+        ExoMediaDrm.KeyRequest request = mediaDrm.getKeyRequest(sessionId, schemeDatas(INIT_DATA), MediaDrm.KEY_TYPE_STREAMING, null);
+        byte[] response = mediaDrm.getCallback().executeKeyRequest(MediaSupport.WIDEVINE_UUID, request);
+        assertArrayEquals(LICENSE, response);
+        mediaDrm.provideKeyResponse(sessionId, response);
+        assertEquals(2, fakeMediaDrm.keyRequests);
+        assertEquals(2, fakeCallback.keyRequests);
+        assertEquals(1, fakeMediaDrm.providedResponses);
+    }
+
+    @Test
+    public void failedPrefetchSessionIsReplaced() throws Exception {
+        fakeMediaDrm.failNextOpen = true;
+        PrefetchingMediaDrm mediaDrm = new PrefetchingMediaDrm(fakeMediaDrm, fakeCallback, Runnable::run, Runnable::run);
+        mediaDrm.prefetch(INIT_DATA);
+        assertEquals(0, fakeCallback.keyRequests);
+
+        mediaDrm.openSession();
+        assertEquals(1, fakeMediaDrm.openedSessions);
+        assertFalse(mediaDrm.hasPrefetch());
+    }
+
+    @Test
+    public void prefetchRunsOnTheExecutors() throws Exception {
+        PrefetchingMediaDrm mediaDrm = new PrefetchingMediaDrm(fakeMediaDrm, fakeCallback, queuedTasks::add, queuedTasks::add);
+        mediaDrm.prefetch(INIT_DATA);
+        assertEquals(0, fakeMediaDrm.openedSessions);
+
+        // Replaced before it ran: never opens a session.
+        mediaDrm.prefetch(OTHER_INIT_DATA);
+        queuedTasks.remove(0).run();
+        assertEquals(0, fakeMediaDrm.openedSessions);
+
+        // The session is opened, then the license request is queued.
+        queuedTasks.remove(0).run();
+        assertEquals(1, fakeMediaDrm.openedSessions);
+        assertEquals(0, fakeCallback.keyRequests);
+        queuedTasks.remove(0).run();
+        assertEquals(1, fakeCallback.keyRequests);
+
+        // Replaced after it ran: its session is closed.
+        mediaDrm.cancelPrefetch();
+        assertEquals(1, fakeMediaDrm.closedSessions);
+        assertFalse(mediaDrm.hasPrefetch());
+    }
+
+    @Test
+    public void sessionIsHandedOverBeforeTheLicenseArrives() throws Exception {
+        PrefetchingMediaDrm mediaDrm = new PrefetchingMediaDrm(fakeMediaDrm, fakeCallback, Runnable::run, queuedTasks::add);
+        mediaDrm.prefetch(INIT_DATA);
+
+        // The license request is still queued; the session is open, so the playback thread doesn't wait.
+        byte[] sessionId = mediaDrm.openSession();
+        assertEquals(1, fakeMediaDrm.openedSessions);
+        assertEquals(0, fakeCallback.keyRequests);
+        ExoMediaDrm.KeyRequest request = mediaDrm.getKeyRequest(sessionId, schemeDatas(INIT_DATA), MediaDrm.KEY_TYPE_STREAMING, null);
+
+        queuedTasks.remove(0).run();
+        byte[] response = mediaDrm.getCallback().executeKeyRequest(MediaSupport.WIDEVINE_UUID, request);
+        assertNull(mediaDrm.provideKeyResponse(sessionId, response));
+        assertEquals(1, fakeCallback.keyRequests);
+        assertEquals(1, fakeMediaDrm.providedResponses);
+    }
+
+    @Test
+    public void slowSessionOpenIsNotAwaited() throws Exception {
+        PrefetchingMediaDrm mediaDrm = new PrefetchingMediaDrm(fakeMediaDrm, fakeCallback, queuedTasks::add, queuedTasks::add);
+        mediaDrm.prefetch(INIT_DATA);
+
+        // The prefetch never got to open its session: after a short wait, ExoPlayer gets a session of its own.
+        mediaDrm.openSession();
+        assertEquals(1, fakeMediaDrm.openedSessions);
+        assertFalse(mediaDrm.hasPrefetch());
+
+        // The abandoned prefetch doesn't open one when it finally runs.
+        queuedTasks.remove(0).run();
+        assertEquals(1, fakeMediaDrm.openedSessions);
+        assertEquals(0, queuedTasks.size());
+    }
+
+    private static List<DrmInitData.SchemeData> schemeDatas(byte[] initData) {
+        return Collections.singletonList(new DrmInitData.SchemeData(MediaSupport.WIDEVINE_UUID, MimeTypes.VIDEO_MP4, initData));
+    }
+
+    private static class FakeCallback implements MediaDrmCallback {
+        int keyRequests;
+        boolean failNext;
+
+        @Override
+        public byte[] executeProvisionRequest(UUID uuid, ExoMediaDrm.ProvisionRequest request) {
+            return new byte[0];
+        }
+
+        @Override
+        public byte[] executeKeyRequest(UUID uuid, ExoMediaDrm.KeyRequest request) throws IOException {
+            keyRequests++;
+            if (failNext) {
+                failNext = false;
+                throw new IOException("License server unavailable");
+            }
+            return LICENSE;
+        }
+    }
+
+    private static class FakeMediaDrm implements ExoMediaDrm<FrameworkMediaCrypto> {
+        int openedSessions;
+        int closedSessions;
+        int keyRequests;
+        int providedResponses;
+        boolean failNextOpen;
+
+        @Override
+        public void setOnEventListener(OnEventListener<? super FrameworkMediaCrypto> listener) {
+        }
+
+        @Override
+        public void setOnKeyStatusChangeListener(OnKeyStatusChangeListener<? super FrameworkMediaCrypto> listener) {
+        }
+
+        @Override
+        public byte[] openSession() throws MediaDrmException {
+            if (failNextOpen) {
+                failNextOpen = false;
+                throw new MediaDrmException("Not provisioned");
+            }
+            return new byte[]{(byte) ++openedSessions};
+        }
+
+        @Override
+        public void closeSession(byte[] sessionId) {
+            closedSessions++;
+        }
+
+        @Override
+        public KeyRequest getKeyRequest(byte[] scope, @Nullable List<DrmInitData.SchemeData> schemeDatas, int keyType,
+                                        @Nullable HashMap<String, String> optionalParameters) {
+            keyRequests++;
+            return new KeyRequest(new byte[]{(byte) keyRequests}, "");
+        }
+
+        @Override
+        public byte[] provideKeyResponse(byte[] scope, byte[] response) {
+            providedResponses++;
+            return null;
+        }
+
+        @Override
+        public ProvisionRequest getProvisionRequest() {
+            return new ProvisionRequest(new byte[0], "");
+        }
+
+        @Override
+        public void provideProvisionResponse(byte[] response) {
+        }
+
+        @Override
+        public Map<String, String> queryKeyStatus(byte[] sessionId) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public void release() {
+        }
+
+        @Override
+        public void restoreKeys(byte[] sessionId, byte[] keySetId) {
+        }
+
+        @Override
+        public String getPropertyString(String propertyName) {
+            return "";
+        }
+
+        @Override
+        public byte[] getPropertyByteArray(String propertyName) {
+            return new byte[0];
+        }
+
+        @Override
+        public void setPropertyString(String propertyName, String value) {
+        }
+
+        @Override
+        public void setPropertyByteArray(String propertyName, byte[] value) {
+        }
+
+        @Override
+        public FrameworkMediaCrypto createMediaCrypto(byte[] sessionId) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
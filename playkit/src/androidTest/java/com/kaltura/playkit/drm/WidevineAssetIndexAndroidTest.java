@@ -0,0 +1,87 @@
+package com.kaltura.playkit.drm;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.kaltura.playkit.BinaryLocalDataStore;
+import com.kaltura.playkit.Utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(AndroidJUnit4.class)
+public class WidevineAssetIndexAndroidTest {
+
+    private static final byte[] INIT_DATA = {0, 0, 0, 32, 'p', 's', 's', 'h', 1, 2, 3, 4};
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private File storeFile;
+    private File manifest;
+
+    @Before
+    public void setUp() throws IOException {
+        storeFile = new File(context.getCacheDir(), "WidevineAssetIndexAndroidTest.bin");
+        storeFile.delete();
+        manifest = new File(context.getCacheDir(), "WidevineAssetIndexAndroidTest.mpd");
+        write(manifest, "<MPD/>");
+    }
+
+    @After
+    public void tearDown() {
+        storeFile.delete();
+        manifest.delete();
+    }
+
+    @Test
+    public void entryIsFoundUntilManifestChanges() throws IOException {
+        WidevineAssetIndex index = new WidevineAssetIndex(new BinaryLocalDataStore(storeFile));
+        index.put("asset-1", manifest.getPath(), new WidevineAssetIndex.Entry(true, "video/mp4", INIT_DATA));
+
+        // A new index over the same store, as after an app restart.
+        index = new WidevineAssetIndex(new BinaryLocalDataStore(storeFile));
+        WidevineAssetIndex.Entry entry = index.get("asset-1", manifest.getPath());
+        assertNotNull(entry);
+        assertTrue(entry.hasContentProtection);
+        assertEquals("video/mp4", entry.mimeType);
+        assertArrayEquals(INIT_DATA, entry.widevineInitData);
+        assertEquals(Utils.toBase64(INIT_DATA), entry.keySetIdKey);
+
+        assertNull(index.get("asset-1", manifest.getPath() + ".other"));
+
+        write(manifest, "<MPD type=\"static\"/>");
+        assertNull(index.get("asset-1", manifest.getPath()));
+    }
+
+    @Test
+    public void removedEntryIsNotFound() throws IOException {
+        WidevineAssetIndex index = new WidevineAssetIndex(new BinaryLocalDataStore(storeFile));
+        index.put("asset-1", manifest.getPath(), new WidevineAssetIndex.Entry(false, null, null));
+        assertNotNull(index.get("asset-1", manifest.getPath()));
+        index.remove("asset-1");
+        assertNull(index.get("asset-1", manifest.getPath()));
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.kaltura.playkit.player;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.kaltura.android.exoplayer2.C;
+import com.kaltura.playkit.utils.Consts;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+
+@RunWith(AndroidJUnit4.class)
+public class BufferHealthMonitorAndroidTest {
+
+    private final BufferHealthMonitor.TrackBuffers trackBuffers = new BufferHealthMonitor.TrackBuffers();
+
+    @Test
+    public void trackWithoutLoadsHasNoValue() {
+        trackBuffers.onLoadCompleted(Consts.TRACK_TYPE_VIDEO, 0, 10000);
+        assertEquals(Consts.NO_VALUE, getForwardBufferMs(Consts.TRACK_TYPE_AUDIO, 0, 0, 1000));
+        assertEquals(Consts.NO_VALUE, getForwardBufferMs(Consts.TRACK_TYPE_TEXT, 0, 0, 1000));
+    }
+
+    @Test
+    public void bufferFollowsLatestCompletedLoad() {
+        trackBuffers.onLoadCompleted(Consts.TRACK_TYPE_VIDEO, 0, 10000);
+        trackBuffers.onLoadCompleted(Consts.TRACK_TYPE_VIDEO, 0, 20000);
+        // A load that ends earlier (a retried or lower layer) doesn't move the end back.
+        trackBuffers.onLoadCompleted(Consts.TRACK_TYPE_VIDEO, 0, 15000);
+        trackBuffers.onLoadCompleted(Consts.TRACK_TYPE_AUDIO, 0, 8000);
+
+        assertEquals(15000, getForwardBufferMs(Consts.TRACK_TYPE_VIDEO, 0, 5000, 3000));
+        assertEquals(3000, getForwardBufferMs(Consts.TRACK_TYPE_AUDIO, 0, 5000, 3000));
+        // Never less than the buffer of all tracks together.
+        assertEquals(4000, getForwardBufferMs(Consts.TRACK_TYPE_AUDIO, 0, 5000, 4000));
+    }
+
+    @Test
+    public void loadWithoutEndTimeOnlyMarksTheTrack() {
+        trackBuffers.onLoadCompleted(Consts.TRACK_TYPE_TEXT, 0, C.TIME_UNSET);
+        assertEquals(2000, getForwardBufferMs(Consts.TRACK_TYPE_TEXT, 0, 5000, 2000));
+    }
+
+    @Test
+    public void upstreamDiscardMovesEndBack() {
+        trackBuffers.onLoadCompleted(Consts.TRACK_TYPE_VIDEO, 0, 30000);
+        trackBuffers.onUpstreamDiscarded(Consts.TRACK_TYPE_VIDEO, 0, 20000);
+        assertEquals(15000, getForwardBufferMs(Consts.TRACK_TYPE_VIDEO, 0, 5000, 1000));
+
+        // A discard in another window, or without a start time, is ignored.
+        trackBuffers.onUpstreamDiscarded(Consts.TRACK_TYPE_VIDEO, 1, 10000);
+        trackBuffers.onUpstreamDiscarded(Consts.TRACK_TYPE_VIDEO, 0, C.TIME_UNSET);
+        assertEquals(15000, getForwardBufferMs(Consts.TRACK_TYPE_VIDEO, 0, 5000, 1000));
+    }
+
+    @Test
+    public void resetKeepsTrackTypesAndClearForgetsThem() {
+        trackBuffers.onLoadCompleted(Consts.TRACK_TYPE_VIDEO, 0, 30000);
+
+        trackBuffers.reset();
+        assertEquals(1000, getForwardBufferMs(Consts.TRACK_TYPE_VIDEO, 0, 5000, 1000));
+
+        trackBuffers.clear();
+        assertEquals(Consts.NO_VALUE, getForwardBufferMs(Consts.TRACK_TYPE_VIDEO, 0, 5000, 1000));
+    }
+
+    @Test
+    public void loadsOfNextWindowMeanCurrentIsFullyBuffered() {
+        trackBuffers.onLoadCompleted(Consts.TRACK_TYPE_VIDEO, 0, 60000);
+        trackBuffers.onLoadCompleted(Consts.TRACK_TYPE_VIDEO, 1, 4000);
+        // A later load of the current window doesn't replace the next one.
+        trackBuffers.onLoadCompleted(Consts.TRACK_TYPE_VIDEO, 0, 60000);
+
+        // 60s media at 50s, plus 4s of the next media.
+        assertEquals(14000, trackBuffers.getForwardBufferMs(Consts.TRACK_TYPE_VIDEO, 0, 50000, 1000, 60000));
+        assertEquals(1000, trackBuffers.getForwardBufferMs(Consts.TRACK_TYPE_VIDEO, 0, 50000, 1000, C.TIME_UNSET));
+
+        // Once playing the next media.
+        assertEquals(3000, getForwardBufferMs(Consts.TRACK_TYPE_VIDEO, 1, 1000, 500));
+        // Loads of past windows don't count.
+        assertEquals(500, getForwardBufferMs(Consts.TRACK_TYPE_VIDEO, 2, 1000, 500));
+    }
+
+    @Test
+    public void windowShiftKeepsLoadsOnTheirMedia() {
+        trackBuffers.onLoadCompleted(Consts.TRACK_TYPE_VIDEO, 1, 4000);
+
+        // The media before was removed: the loaded one is now window 0.
+        trackBuffers.shiftWindows(-1);
+        assertEquals(3000, getForwardBufferMs(Consts.TRACK_TYPE_VIDEO, 0, 1000, 500));
+        trackBuffers.onUpstreamDiscarded(Consts.TRACK_TYPE_VIDEO, 0, 2000);
+        assertEquals(1000, getForwardBufferMs(Consts.TRACK_TYPE_VIDEO, 0, 1000, 500));
+
+        // Tracks without loads stay unset.
+        trackBuffers.onLoadCompleted(Consts.TRACK_TYPE_AUDIO, 0, C.TIME_UNSET);
+        trackBuffers.shiftWindows(1);
+        assertEquals(500, getForwardBufferMs(Consts.TRACK_TYPE_AUDIO, 0, 1000, 500));
+    }
+
+    private long getForwardBufferMs(int trackType, int windowIndex, long positionMs, long forwardBufferMs) {
+        return trackBuffers.getForwardBufferMs(trackType, windowIndex, positionMs, forwardBufferMs, C.TIME_UNSET);
+    }
+}
@@ -0,0 +1,137 @@
+package com.kaltura.playkit.player;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.kaltura.android.exoplayer2.C;
+import com.kaltura.android.exoplayer2.upstream.DataSource;
+import com.kaltura.android.exoplayer2.upstream.DataSpec;
+import com.kaltura.android.exoplayer2.upstream.HttpDataSource;
+import com.kaltura.android.exoplayer2.upstream.TransferListener;
+import com.kaltura.playkit.PKMediaSource;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+
+@RunWith(AndroidJUnit4.class)
+public class CdnFailoverAndroidTest {
+
+    // Health is shared and persisted, so each test uses its own hosts.
+    private final String primaryHost = "cdn1-" + UUID.randomUUID() + ".example.com";
+    private final String alternateHost = "cdn2-" + UUID.randomUUID() + ".example.com";
+
+    @Test
+    public void noFailoverWithoutAlternates() {
+        PKMediaSource source = new PKMediaSource().setUrl("https://" + primaryHost + "/a/master.m3u8");
+        assertNull(CdnFailover.create(InstrumentationRegistry.getInstrumentation().getTargetContext(), source));
+    }
+
+    @Test
+    public void failedOpenIsRetriedOnAlternateAndKeepsPrimaryUri() throws IOException {
+        PKMediaSource source = new PKMediaSource()
+                .setUrl("https://" + primaryHost + "/a/master.m3u8")
+                .setAlternateBaseUrls(Arrays.asList("https://" + alternateHost));
+        CdnFailover cdnFailover = CdnFailover.create(InstrumentationRegistry.getInstrumentation().getTargetContext(), source);
+        assertNotNull(cdnFailover);
+
+        DataSource dataSource = cdnFailover.wrap(FailingPrimaryDataSource::new).createDataSource();
+        dataSource.open(new DataSpec(Uri.parse("https://" + primaryHost + "/a/seg-1.ts")));
+
+        // The request went to the alternate host, but relative URLs still resolve against the primary.
+        assertEquals("https://" + primaryHost + "/a/seg-1.ts", dataSource.getUri().toString());
+        dataSource.close();
+
+        // Two failures are enough for the primary to lose its head start.
+        dataSource.open(new DataSpec(Uri.parse("https://" + primaryHost + "/a/seg-2.ts")));
+        dataSource.close();
+        assertEquals("https://" + alternateHost, cdnFailover.selectOrigin(null));
+    }
+
+    @Test
+    public void steadyPrimaryIsKeptOverUntriedAlternate() {
+        CdnFailover cdnFailover = createFailover();
+        String primaryOrigin = "https://" + primaryHost;
+
+        // Normal noise: every sample between 40% and 100% of the fastest one.
+        long[] elapsedMs = {400, 1000, 600, 450, 900, 1000, 500, 700, 420, 1000, 650, 800};
+        for (int i = 0; i < 10; i++) {
+            for (long elapsed : elapsedMs) {
+                CdnFailover.onRequestFinished(primaryOrigin, true, 1_000_000, elapsed);
+                assertEquals(primaryOrigin, cdnFailover.selectOrigin(null));
+            }
+        }
+    }
+
+    @Test
+    public void sustainedThroughputDropLeavesPrimary() {
+        CdnFailover cdnFailover = createFailover();
+        String primaryOrigin = "https://" + primaryHost;
+
+        for (int i = 0; i < 20; i++) {
+            CdnFailover.onRequestFinished(primaryOrigin, true, 1_000_000, 500);
+        }
+        // A single slow segment is not enough.
+        CdnFailover.onRequestFinished(primaryOrigin, true, 1_000_000, 5000);
+        CdnFailover.onRequestFinished(primaryOrigin, true, 1_000_000, 500);
+        assertEquals(primaryOrigin, cdnFailover.selectOrigin(null));
+
+        for (int i = 0; i < 5; i++) {
+            CdnFailover.onRequestFinished(primaryOrigin, true, 1_000_000, 5000);
+        }
+        assertEquals("https://" + alternateHost, cdnFailover.selectOrigin(null));
+    }
+
+    private CdnFailover createFailover() {
+        PKMediaSource source = new PKMediaSource()
+                .setUrl("https://" + primaryHost + "/a/master.m3u8")
+                .setAlternateBaseUrls(Arrays.asList("https://" + alternateHost));
+        CdnFailover cdnFailover = CdnFailover.create(InstrumentationRegistry.getInstrumentation().getTargetContext(), source);
+        assertNotNull(cdnFailover);
+        return cdnFailover;
+    }
+
+    private class FailingPrimaryDataSource implements DataSource {
+        private Uri uri;
+
+        @Override
+        public void addTransferListener(TransferListener transferListener) {
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            if (primaryHost.equals(dataSpec.uri.getHost())) {
+                throw new HttpDataSource.HttpDataSourceException("Connection refused", dataSpec, HttpDataSource.HttpDataSourceException.TYPE_OPEN);
+            }
+            uri = dataSpec.uri;
+            return C.LENGTH_UNSET;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) {
+            return C.RESULT_END_OF_INPUT;
+        }
+
+        @Nullable
+        @Override
+        public Uri getUri() {
+            return uri;
+        }
+
+        @Override
+        public void close() {
+            uri = null;
+        }
+    }
+}
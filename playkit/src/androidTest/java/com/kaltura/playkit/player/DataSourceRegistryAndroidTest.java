@@ -0,0 +1,76 @@
+package com.kaltura.playkit.player;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.kaltura.android.exoplayer2.upstream.DataSource;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+
+/**
+ * Change media used to build the DRM, content and subtitle data sources from scratch; the player's
+ * registry builds them once per header set and reuses them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DataSourceRegistryAndroidTest {
+
+    private static final int CHANGE_MEDIA_COUNT = 200;
+    private static final int SUBTITLES_PER_MEDIA = 3;
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private final Map<String, String> headers = Collections.singletonMap("X-Test", "1");
+
+    @After
+    public void tearDown() {
+        PKHttpClientManager.setHttpProvider(null);
+    }
+
+    @Test
+    public void factoriesAreReusedPerHeaderSet() {
+        PKHttpClientManager.setHttpProvider(PKHttpClientManager.HTTP_PROVIDER_OK);
+        DataSourceRegistry registry = new DataSourceRegistry(context);
+
+        DataSource.Factory content = registry.getDataSourceFactory(headers, false, null);
+        assertSame(content, registry.getDataSourceFactory(Collections.singletonMap("X-Test", "1"), false, null));
+        assertNotSame(content, registry.getDataSourceFactory(null, false, null));
+        assertNotSame(content, registry.getDataSourceFactory(headers, true, null));
+    }
+
+    // Counts the distinct factories that the data source setup of many media changes gets.
+    @Test
+    public void changeMediaReusesFactories() {
+        PKHttpClientManager.setHttpProvider(PKHttpClientManager.HTTP_PROVIDER_OK);
+        DataSourceRegistry registry = new DataSourceRegistry(context);
+
+        Set<Object> factories = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < CHANGE_MEDIA_COUNT; i++) {
+            // License, content and subtitles.
+            factories.add(registry.getHttpDataSourceFactory(null, false, null));
+            factories.add(registry.getDataSourceFactory(headers, false, null));
+            for (int s = 0; s < SUBTITLES_PER_MEDIA; s++) {
+                factories.add(registry.getDataSourceFactory(null, false, null));
+            }
+        }
+        assertEquals(3, factories.size());
+
+        // A media with other headers gets its own factory, and the others are kept.
+        factories.add(registry.getDataSourceFactory(Collections.singletonMap("X-Test", "2"), false, null));
+        assertEquals(4, factories.size());
+        factories.add(registry.getDataSourceFactory(headers, false, null));
+        assertEquals(4, factories.size());
+    }
+}
@@ -0,0 +1,147 @@
+package com.kaltura.playkit.player;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.kaltura.android.exoplayer2.C;
+import com.kaltura.android.exoplayer2.upstream.DataSource;
+import com.kaltura.android.exoplayer2.upstream.DataSpec;
+import com.kaltura.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
+import com.kaltura.android.exoplayer2.upstream.TransferListener;
+import com.kaltura.playkit.utils.Consts;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(AndroidJUnit4.class)
+public class DeliveryInterceptionAndroidTest {
+
+    private final List<Uri> upstreamRequests = new ArrayList<>();
+    private final List<PKDeliveryRequest> interceptedRequests = new ArrayList<>();
+
+    @Test
+    public void servedRequestDoesNotReachUpstream() throws IOException {
+        final byte[] data = {1, 2, 3, 4};
+        DataSource dataSource = wrap(request -> {
+            interceptedRequests.add(request);
+            return PKDeliveryResponse.serve(data);
+        });
+
+        final Uri uri = Uri.parse("https://cdn.example.com/a/seg-1.m4s");
+        assertEquals(data.length, dataSource.open(new DataSpec(uri)));
+        byte[] buffer = new byte[16];
+        int read = dataSource.read(buffer, 0, buffer.length);
+        assertArrayEquals(data, Arrays.copyOf(buffer, read));
+        assertEquals(C.RESULT_END_OF_INPUT, dataSource.read(buffer, 0, buffer.length));
+        assertEquals(uri, dataSource.getUri());
+        dataSource.close();
+
+        assertTrue(upstreamRequests.isEmpty());
+        PKDeliveryRequest request = interceptedRequests.get(0);
+        assertEquals(PKDeliveryRequest.Type.MEDIA_SEGMENT, request.type);
+        assertEquals(Consts.TRACK_TYPE_UNKNOWN, request.trackType);
+        assertEquals(Consts.TIME_UNSET, request.mediaTimeMs);
+    }
+
+    @Test
+    public void rewrittenRequestKeepsOriginalUri() throws IOException {
+        final Uri rewritten = Uri.parse("https://edge.example.com/a/seg-1.m4s");
+        DataSource dataSource = wrap(request -> PKDeliveryResponse.rewrite(rewritten, null));
+
+        final Uri uri = Uri.parse("https://cdn.example.com/a/seg-1.m4s");
+        dataSource.open(new DataSpec(uri));
+        assertEquals(uri, dataSource.getUri());
+        dataSource.close();
+        assertEquals(rewritten, upstreamRequests.get(0));
+
+        dataSource = wrap(request -> PKDeliveryResponse.passThrough());
+        dataSource.open(new DataSpec(uri));
+        dataSource.close();
+        assertEquals(uri, upstreamRequests.get(1));
+    }
+
+    @Test
+    public void openingSegmentsOfLongMediaAreIndexed() throws IOException {
+        // 2 hours of 2 second segments in 8 representations: 28800 segments.
+        StringBuilder mpd = new StringBuilder("<?xml version=\"1.0\"?>" +
+                "<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" type=\"static\" mediaPresentationDuration=\"PT2H\" minBufferTime=\"PT2S\">" +
+                "<Period><AdaptationSet mimeType=\"video/mp4\" codecs=\"avc1.4d401f\">" +
+                "<SegmentTemplate timescale=\"1000\" duration=\"2000\" startNumber=\"1\"" +
+                " initialization=\"$RepresentationID$/init.mp4\" media=\"$RepresentationID$/seg-$Number$.m4s\"/>");
+        for (int i = 0; i < 8; i++) {
+            mpd.append("<Representation id=\"v").append(i).append("\" bandwidth=\"").append((i + 1) * 500000)
+                    .append("\" width=\"640\" height=\"360\"/>");
+        }
+        mpd.append("</AdaptationSet></Period></MPD>");
+
+        DeliveryRequestIndex index = new DeliveryRequestIndex();
+        index.wrapDashParser().parse(Uri.parse("https://cdn.example.com/a/manifest.mpd"),
+                new ByteArrayInputStream(mpd.toString().getBytes("UTF-8")));
+
+        PKDeliveryRequest request = buildRequest(index, "https://cdn.example.com/a/v0/seg-1.m4s");
+        assertEquals(PKDeliveryRequest.Type.MEDIA_SEGMENT, request.type);
+        assertEquals(Consts.TRACK_TYPE_VIDEO, request.trackType);
+        assertEquals(500000, request.bitrate);
+        assertEquals(0, request.mediaTimeMs);
+
+        request = buildRequest(index, "https://cdn.example.com/a/v7/seg-3600.m4s");
+        assertEquals(4000000, request.bitrate);
+        assertEquals(7198000, request.mediaTimeMs);
+
+        assertEquals(PKDeliveryRequest.Type.INIT_SEGMENT, buildRequest(index, "https://cdn.example.com/a/v3/init.mp4").type);
+        assertEquals(Consts.TRACK_TYPE_UNKNOWN, buildRequest(index, "https://cdn.example.com/a/v3/other.m4s").trackType);
+    }
+
+    private static PKDeliveryRequest buildRequest(DeliveryRequestIndex index, String url) {
+        return index.buildRequest(new DataSpec(Uri.parse(url)), null, PKDeliveryRequest.Type.MEDIA_SEGMENT, Consts.TRACK_TYPE_UNKNOWN);
+    }
+
+    private DataSource wrap(PKDeliveryInterceptor interceptor) {
+        DeliveryInterception deliveryInterception = new DeliveryInterception(interceptor, null, new DefaultHttpDataSourceFactory("test"));
+        return deliveryInterception.wrap(FakeDataSource::new, PKDeliveryRequest.Type.MEDIA_SEGMENT, Consts.TRACK_TYPE_UNKNOWN).createDataSource();
+    }
+
+    private class FakeDataSource implements DataSource {
+        private Uri uri;
+
+        @Override
+        public void addTransferListener(TransferListener transferListener) {
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) {
+            uri = dataSpec.uri;
+            upstreamRequests.add(uri);
+            return C.LENGTH_UNSET;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) {
+            return C.RESULT_END_OF_INPUT;
+        }
+
+        @Nullable
+        @Override
+        public Uri getUri() {
+            return uri;
+        }
+
+        @Override
+        public void close() {
+            uri = null;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.kaltura.playkit.player;
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.kaltura.android.exoplayer2.C;
+import com.kaltura.android.exoplayer2.upstream.DataSource;
+import com.kaltura.android.exoplayer2.upstream.DataSpec;
+import com.kaltura.android.exoplayer2.upstream.TransferListener;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(AndroidJUnit4.class)
+public class HedgedRequestsAndroidTest {
+
+    private static final long SLOW_OPEN_MS = 3000;
+
+    private final AtomicInteger closedCount = new AtomicInteger();
+    private long lastTotalHedges;
+    private long lastTotalHedgeWins;
+
+    @Test
+    public void slowRequestIsHedgedToAlternateHost() throws IOException {
+        HedgedRequests hedgedRequests = new HedgedRequests(new HedgedRequestSettings()
+                .setMinSamples(1)
+                .setMinDeadlineMs(100)
+                .setMaxDeadlineMs(100)
+                .setAlternateHost("fast.example.com"),
+                (hedgeWon, totalRequests, totalHedges, totalHedgeWins) -> {
+                    lastTotalHedges = totalHedges;
+                    lastTotalHedgeWins = totalHedgeWins;
+                });
+        DataSource.Factory factory = hedgedRequests.wrap(FakeDataSource::new);
+
+        // The first request is not hedged, it only provides a response time.
+        DataSource dataSource = factory.createDataSource();
+        dataSource.open(new DataSpec(Uri.parse("https://fast.example.com/seg-1.m4s")));
+        dataSource.close();
+
+        long start = SystemClock.elapsedRealtime();
+        dataSource = factory.createDataSource();
+        dataSource.open(new DataSpec(Uri.parse("https://slow.example.com/seg-2.m4s")));
+        long openTime = SystemClock.elapsedRealtime() - start;
+
+        assertEquals("fast.example.com", dataSource.getUri().getHost());
+        assertTrue("openTime=" + openTime, openTime < SLOW_OPEN_MS);
+        assertEquals(1, lastTotalHedges);
+        assertEquals(1, lastTotalHedgeWins);
+        dataSource.close();
+
+        // The slow request is dropped once it opens.
+        SystemClock.sleep(SLOW_OPEN_MS + 500);
+        assertEquals(3, closedCount.get());
+    }
+
+    private class FakeDataSource implements DataSource {
+        private Uri uri;
+
+        @Override
+        public void addTransferListener(TransferListener transferListener) {
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) {
+            if ("slow.example.com".equals(dataSpec.uri.getHost())) {
+                SystemClock.sleep(SLOW_OPEN_MS);
+            }
+            uri = dataSpec.uri;
+            return C.LENGTH_UNSET;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) {
+            return C.RESULT_END_OF_INPUT;
+        }
+
+        @Nullable
+        @Override
+        public Uri getUri() {
+            return uri;
+        }
+
+        @Override
+        public void close() {
+            closedCount.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.kaltura.playkit.player;
+
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.kaltura.android.exoplayer2.C;
+import com.kaltura.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
+import com.kaltura.android.exoplayer2.source.hls.playlist.HlsPlaylistParser;
+import com.kaltura.android.exoplayer2.upstream.DataSource;
+import com.kaltura.android.exoplayer2.upstream.DataSourceInputStream;
+import com.kaltura.android.exoplayer2.upstream.DataSpec;
+import com.kaltura.android.exoplayer2.upstream.TransferListener;
+import com.kaltura.android.exoplayer2.util.UriUtil;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+
+@RunWith(AndroidJUnit4.class)
+public class HlsDataSourcesAndroidTest {
+
+    private static final String PLAYLIST = "#EXTM3U\n" +
+            "#EXT-X-VERSION:7\n" +
+            "#EXT-X-TARGETDURATION:4\n" +
+            "#EXT-X-MEDIA-SEQUENCE:0\n" +
+            "#EXT-X-PLAYLIST-TYPE:VOD\n" +
+            "#EXT-X-KEY:METHOD=AES-128,URI=\"key-1.bin\",IV=0x00000000000000000000000000000001\n" +
+            "#EXT-X-MAP:URI=\"init.mp4\"\n" +
+            "#EXTINF:4.0,\n" +
+            "seg-1.m4s\n" +
+            "#EXTINF:4.0,\n" +
+            "seg-2.m4s\n" +
+            "#EXT-X-KEY:METHOD=AES-128,URI=\"https://keys.example.com/key-2.bin\"\n" +
+            "#EXTINF:4.0,\n" +
+            "seg-3.m4s\n" +
+            "#EXT-X-ENDLIST\n";
+
+    private final List<Uri> playlistRequests = new ArrayList<>();
+    private final List<Uri> mediaRequests = new ArrayList<>();
+    private final List<Uri> plainRequests = new ArrayList<>();
+
+    private final HlsDataSources hlsDataSources = new HlsDataSources(
+            () -> new FakeDataSource(playlistRequests), () -> new FakeDataSource(mediaRequests), () -> new FakeDataSource(plainRequests));
+
+    @Test
+    public void keysBypassTheMediaDataSource() throws IOException {
+        final Uri playlistUri = Uri.parse("https://cdn.example.com/a/index.m3u8");
+        HlsMediaPlaylist playlist = (HlsMediaPlaylist) new HlsPlaylistParser().parse(playlistUri,
+                new DataSourceInputStream(hlsDataSources.createDataSource(C.DATA_TYPE_MANIFEST), new DataSpec(playlistUri)));
+
+        // Load the segments the way the HLS chunk source does: key, then init segment, then media.
+        String lastKeyUri = null;
+        String lastInitUri = null;
+        for (HlsMediaPlaylist.Segment segment : playlist.segments) {
+            if (segment.fullSegmentEncryptionKeyUri != null && !segment.fullSegmentEncryptionKeyUri.equals(lastKeyUri)) {
+                lastKeyUri = segment.fullSegmentEncryptionKeyUri;
+                load(C.DATA_TYPE_DRM, UriUtil.resolveToUri(playlist.baseUri, lastKeyUri));
+            }
+            if (segment.initializationSegment != null && !segment.initializationSegment.url.equals(lastInitUri)) {
+                lastInitUri = segment.initializationSegment.url;
+                load(C.DATA_TYPE_MEDIA_INITIALIZATION, UriUtil.resolveToUri(playlist.baseUri, lastInitUri));
+            }
+            load(C.DATA_TYPE_MEDIA, UriUtil.resolveToUri(playlist.baseUri, segment.url));
+        }
+
+        assertEquals(Collections.singletonList(playlistUri), playlistRequests);
+        assertEquals(Arrays.asList(
+                Uri.parse("https://cdn.example.com/a/init.mp4"),
+                Uri.parse("https://cdn.example.com/a/seg-1.m4s"),
+                Uri.parse("https://cdn.example.com/a/seg-2.m4s"),
+                Uri.parse("https://cdn.example.com/a/seg-3.m4s")), mediaRequests);
+        assertEquals(Arrays.asList(
+                Uri.parse("https://cdn.example.com/a/key-1.bin"),
+                Uri.parse("https://keys.example.com/key-2.bin")), plainRequests);
+    }
+
+    @Test
+    public void otherDataTypesUseThePlainDataSource() throws IOException {
+        load(C.DATA_TYPE_UNKNOWN, Uri.parse("https://cdn.example.com/a/unknown"));
+        load(C.DATA_TYPE_AD, Uri.parse("https://cdn.example.com/a/ad"));
+        assertEquals(2, plainRequests.size());
+        assertEquals(0, mediaRequests.size());
+        assertEquals(0, playlistRequests.size());
+    }
+
+    private void load(int dataType, Uri uri) throws IOException {
+        DataSource dataSource = hlsDataSources.createDataSource(dataType);
+        dataSource.open(new DataSpec(uri));
+        dataSource.close();
+    }
+
+    private static class FakeDataSource implements DataSource {
+        private final List<Uri> requests;
+        private Uri uri;
+        private byte[] data;
+        private int position;
+
+        FakeDataSource(List<Uri> requests) {
+            this.requests = requests;
+        }
+
+        @Override
+        public void addTransferListener(TransferListener transferListener) {
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            uri = dataSpec.uri;
+            requests.add(uri);
+            data = uri.getPath().endsWith(".m3u8") ? PLAYLIST.getBytes("UTF-8") : new byte[16];
+            position = 0;
+            return data.length;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) {
+            if (position == data.length) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            final int length = Math.min(readLength, data.length - position);
+            System.arraycopy(data, position, buffer, offset, length);
+            position += length;
+            return length;
+        }
+
+        @Nullable
+        @Override
+        public Uri getUri() {
+            return uri;
+        }
+
+        @Override
+        public void close() {
+            uri = null;
+        }
+    }
+}
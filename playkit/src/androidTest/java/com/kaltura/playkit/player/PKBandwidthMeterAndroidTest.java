@@ -0,0 +1,87 @@
+package com.kaltura.playkit.player;
+
+import android.telephony.TelephonyManager;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(AndroidJUnit4.class)
+public class PKBandwidthMeterAndroidTest {
+
+    private static final long NOW = 1_600_000_000_000L;
+    private static final long DEFAULT_ESTIMATE = 1_000_000;
+
+    @Test
+    public void freshEstimateIsUsedAsIs() {
+        assertEquals(5_000_000, PKBandwidthMeter.getInitialEstimate(estimate(5_000_000, 0), DEFAULT_ESTIMATE, NOW));
+    }
+
+    @Test
+    public void estimateDecaysTowardsDefault() {
+        // Half way after one half-life, a quarter after two.
+        assertEquals(3_000_000, PKBandwidthMeter.getInitialEstimate(estimate(5_000_000, PKBandwidthMeter.HALF_LIFE_MS), DEFAULT_ESTIMATE, NOW));
+        assertEquals(2_000_000, PKBandwidthMeter.getInitialEstimate(estimate(5_000_000, 2 * PKBandwidthMeter.HALF_LIFE_MS), DEFAULT_ESTIMATE, NOW));
+        // Also from below.
+        assertEquals(750_000, PKBandwidthMeter.getInitialEstimate(estimate(500_000, PKBandwidthMeter.HALF_LIFE_MS), DEFAULT_ESTIMATE, NOW));
+    }
+
+    @Test
+    public void oldOrMissingEstimateGivesDefault() {
+        assertEquals(DEFAULT_ESTIMATE, PKBandwidthMeter.getInitialEstimate(null, DEFAULT_ESTIMATE, NOW));
+        assertEquals(DEFAULT_ESTIMATE, PKBandwidthMeter.getInitialEstimate(estimate(5_000_000, PKBandwidthMeter.MAX_AGE_MS + 1), DEFAULT_ESTIMATE, NOW));
+        assertTrue(PKBandwidthMeter.getInitialEstimate(estimate(5_000_000, PKBandwidthMeter.MAX_AGE_MS - 1), DEFAULT_ESTIMATE, NOW) > DEFAULT_ESTIMATE);
+        // From the future: the clock was changed.
+        assertEquals(DEFAULT_ESTIMATE, PKBandwidthMeter.getInitialEstimate(estimate(5_000_000, -1000), DEFAULT_ESTIMATE, NOW));
+    }
+
+    @Test
+    public void cellularNetworksAreGroupedByGeneration() {
+        assertEquals("2g", PKBandwidthMeter.getCellClass(TelephonyManager.NETWORK_TYPE_EDGE));
+        assertEquals("3g", PKBandwidthMeter.getCellClass(TelephonyManager.NETWORK_TYPE_UMTS));
+        assertEquals("3g", PKBandwidthMeter.getCellClass(TelephonyManager.NETWORK_TYPE_HSPAP));
+        assertEquals("4g", PKBandwidthMeter.getCellClass(TelephonyManager.NETWORK_TYPE_LTE));
+        assertEquals("5g", PKBandwidthMeter.getCellClass(20));
+        assertEquals("unknown", PKBandwidthMeter.getCellClass(TelephonyManager.NETWORK_TYPE_UNKNOWN));
+    }
+
+    @Test
+    public void pruningKeepsMostRecentlyUpdated() {
+        final Map<String, PKBandwidthMeter.Estimate> estimates = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            estimates.put("wifi-" + i, new PKBandwidthMeter.Estimate(1_000_000, NOW + i));
+        }
+
+        PKBandwidthMeter.pruneEstimates(estimates, 5);
+        assertEquals(5, estimates.size());
+
+        PKBandwidthMeter.pruneEstimates(estimates, 3);
+        assertEquals(3, estimates.size());
+        assertNull(estimates.get("wifi-0"));
+        assertNull(estimates.get("wifi-1"));
+        assertTrue(estimates.containsKey("wifi-4"));
+    }
+
+    @Test
+    public void estimateIsPersistedAndParsed() {
+        final PKBandwidthMeter.Estimate estimate = PKBandwidthMeter.Estimate.parse(new PKBandwidthMeter.Estimate(2_500_000, NOW).toString());
+        assertEquals(2_500_000, estimate.bitrate);
+        assertEquals(NOW, estimate.updateTime);
+
+        assertNull(PKBandwidthMeter.Estimate.parse("2500000"));
+        assertNull(PKBandwidthMeter.Estimate.parse("fast," + NOW));
+    }
+
+    private static PKBandwidthMeter.Estimate estimate(long bitrate, long ageMs) {
+        return new PKBandwidthMeter.Estimate(bitrate, NOW - ageMs);
+    }
+}
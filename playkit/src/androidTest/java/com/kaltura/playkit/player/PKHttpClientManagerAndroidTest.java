@@ -0,0 +1,37 @@
+package com.kaltura.playkit.player;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(AndroidJUnit4.class)
+public class PKHttpClientManagerAndroidTest {
+
+    @After
+    public void tearDown() {
+        PKHttpClientManager.setDefaultProtocolPolicy(null);
+        PKHttpClientManager.setProtocolPolicy("cdn.example.com", null);
+    }
+
+    @Test
+    public void http1IsTheDefault() {
+        assertEquals(PKHttpClientManager.HttpProtocolPolicy.HTTP_1_1, PKHttpClientManager.getProtocolPolicy("cdn.example.com"));
+        assertFalse(PKHttpClientManager.allowHttp2("cdn.example.com"));
+    }
+
+    @Test
+    public void hostPolicyOverridesDefault() {
+        PKHttpClientManager.setDefaultProtocolPolicy(PKHttpClientManager.HttpProtocolPolicy.AUTO);
+        PKHttpClientManager.setProtocolPolicy("CDN.example.com", PKHttpClientManager.HttpProtocolPolicy.HTTP_1_1);
+
+        assertFalse(PKHttpClientManager.allowHttp2("cdn.example.com"));
+        assertTrue(PKHttpClientManager.allowHttp2("other.example.com"));
+    }
+}
@@ -0,0 +1,61 @@
+package com.kaltura.playkit.player;
+
+import android.net.Uri;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(AndroidJUnit4.class)
+public class PKManifestCacheAndroidTest {
+
+    private final PKManifestCache manifestCache = new PKManifestCache(PKManifestCache.DEFAULT_MAX_BYTES);
+
+    @Test
+    public void cacheKeyMatchesAcrossSessions() {
+        Uri prefetched = Uri.parse("https://cdnapi.example.com/p/1/playManifest/entryId/0_abc/format/mpegdash/a.mpd?clientTag=playkit&playSessionId=aaa");
+        Uri played = Uri.parse("https://cdnapi.example.com/p/1/playManifest/entryId/0_abc/format/mpegdash/a.mpd?clientTag=playkit&playSessionId=bbb");
+
+        assertEquals(manifestCache.buildCacheKey(prefetched, null), manifestCache.buildCacheKey(played, Collections.emptyMap()));
+    }
+
+    @Test
+    public void cacheKeyIncludesHeaders() {
+        Uri uri = Uri.parse("https://cdn.example.com/master.m3u8");
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Authorization", "token1");
+
+        assertNotEquals(manifestCache.buildCacheKey(uri, null), manifestCache.buildCacheKey(uri, headers));
+    }
+
+    @Test
+    public void expiresAtFollowsCacheControl() {
+        assertEquals(1000 + 10_000, PKManifestCache.getExpiresAt(headers("Cache-Control", "public, max-age=10"), 1000));
+        assertEquals(1000 + 6_000, PKManifestCache.getExpiresAt(withAge(headers("cache-control", "max-age=10"), "4"), 1000));
+        assertEquals(0, PKManifestCache.getExpiresAt(headers("Cache-Control", "no-cache, max-age=10"), 1000));
+        assertEquals(0, PKManifestCache.getExpiresAt(headers("ETag", "\"v1\""), 1000));
+        assertTrue(PKManifestCache.getExpiresAt(headers("Cache-Control", "no-store"), 1000) < 0);
+    }
+
+    private static Map<String, List<String>> headers(String name, String value) {
+        Map<String, List<String>> headers = new HashMap<>();
+        headers.put(name, Collections.singletonList(value));
+        return headers;
+    }
+
+    private static Map<String, List<String>> withAge(Map<String, List<String>> headers, String age) {
+        headers.put("Age", Collections.singletonList(age));
+        return headers;
+    }
+}
@@ -0,0 +1,61 @@
+package com.kaltura.playkit.player;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+
+@RunWith(AndroidJUnit4.class)
+public class PKMediaCacheAndroidTest {
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private PKMediaCache mediaCache;
+
+    @Before
+    public void setUp() {
+        mediaCache = PKMediaCache.open(context, new File(context.getCacheDir(), "PKMediaCacheAndroidTest"), 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() {
+        mediaCache.clear();
+        mediaCache.release();
+    }
+
+    @Test
+    public void cacheKeyIgnoresPlaySessionId() {
+        String key1 = mediaCache.buildCacheKey(Uri.parse("https://cdn.example.com/seg-1.ts?playSessionId=aaa&token=t1"));
+        String key2 = mediaCache.buildCacheKey(Uri.parse("https://cdn.example.com/seg-1.ts?playSessionId=bbb&token=t1"));
+        String otherToken = mediaCache.buildCacheKey(Uri.parse("https://cdn.example.com/seg-1.ts?playSessionId=aaa&token=t2"));
+
+        assertEquals("https://cdn.example.com/seg-1.ts?token=t1", key1);
+        assertEquals(key1, key2);
+        assertNotEquals(key1, otherToken);
+    }
+
+    @Test
+    public void volatileQueryParametersAreConfigurable() {
+        mediaCache.setVolatileQueryParameters("playSessionId", "token");
+
+        assertEquals("https://cdn.example.com/seg-1.ts",
+                mediaCache.buildCacheKey(Uri.parse("https://cdn.example.com/seg-1.ts?playSessionId=aaa&token=t1")));
+    }
+
+    @Test
+    public void openReturnsTheCacheOfTheDirectory() {
+        assertSame(mediaCache, PKMediaCache.open(context, new File(context.getCacheDir(), "PKMediaCacheAndroidTest"), 1024));
+    }
+}
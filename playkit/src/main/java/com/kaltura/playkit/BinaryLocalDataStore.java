@@ -0,0 +1,474 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * {@link LocalDataStore} that keeps its entries in a binary append-only log file.
+ * <p>
+ * Each save or remove appends one record, instead of rewriting the whole store; keys and values are
+ * stored as raw bytes, without Base64. The log is read once, on first access. When more than half of
+ * it is overwritten or removed entries, it's compacted into a new file that atomically replaces it.
+ * A record that was cut short (e.g. the process died while writing it) is dropped when the log is read.
+ * Other read errors (e.g. too many open files) leave the file as it is: loads fail, saves and removes
+ * are dropped, and the log is read again on the next use.
+ * <p>
+ * Writes survive the death of the process, like {@link SharedPreferences.Editor#apply()}; they are
+ * synced to the disk when the log is compacted.
+ * <p>
+ * When created with a {@link Context}, the entries of {@link LocalAssetsManager.DefaultLocalDataStore}
+ * are copied to the new store the first time it's used. The shared preferences are only read, never
+ * changed: if the log file is deleted, they're copied again, and an app that goes back to
+ * {@link LocalAssetsManager.DefaultLocalDataStore} still finds the assets it registered before the switch.
+ * <p>
+ * A store keeps the entries of its file in memory. Two stores of the same file don't see each other's
+ * writes, and compacting one drops the entries written by the other; components that share a file
+ * should share its store, see {@link #getShared(Context)}.
+ */
+public class BinaryLocalDataStore implements LocalDataStore {
+
+    private static final PKLog log = PKLog.get("BinaryLocalDataStore");
+
+    private static final String FILE_NAME = "PlayKitLocalStorage.bin";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x504b4c53;    // "PKLS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte OP_SAVE = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final int RECORD_OVERHEAD = 1 + 4 + 4 + 4;  // op, key length, value length, crc
+    private static final int MAX_KEY_OR_VALUE_SIZE = 16 * 1024 * 1024;
+
+    private static final long MIN_COMPACTION_GARBAGE_BYTES = 64 * 1024;
+
+    // By absolute path. Guarded by BinaryLocalDataStore.class
+    private static final Map<String, BinaryLocalDataStore> sharedStores = new HashMap<>();
+
+    private final File file;
+    private final Context migrationContext;
+
+    // Guarded by this
+    private Map<Key, byte[]> entries;
+    private FileOutputStream output;
+    private long liveBytes;
+    private long garbageBytes;
+
+    /**
+     * @param context - the application context.
+     * @return The store in the app's files directory, shared by the whole process, with the entries of
+     * {@link LocalAssetsManager.DefaultLocalDataStore}. Used by {@link LocalAssetsManager#LocalAssetsManager(Context)}.
+     */
+    @NonNull
+    public static synchronized BinaryLocalDataStore getShared(@NonNull Context context) {
+        final File file = new File(context.getFilesDir(), FILE_NAME);
+        BinaryLocalDataStore store = sharedStores.get(file.getAbsolutePath());
+        if (store == null) {
+            store = new BinaryLocalDataStore(context);
+            sharedStores.put(file.getAbsolutePath(), store);
+        }
+        return store;
+    }
+
+    /**
+     * @param file - the log file; created on first save.
+     * @return The store of the file, shared by the whole process, without migration.
+     */
+    @NonNull
+    public static synchronized BinaryLocalDataStore getShared(@NonNull File file) {
+        BinaryLocalDataStore store = sharedStores.get(file.getAbsolutePath());
+        if (store == null) {
+            store = new BinaryLocalDataStore(file);
+            sharedStores.put(file.getAbsolutePath(), store);
+        }
+        return store;
+    }
+
+    /**
+     * Store in the app's files directory, with the entries of {@link LocalAssetsManager.DefaultLocalDataStore}.
+     * Prefer {@link #getShared(Context)}, unless no other store of the file is in use.
+     *
+     * @param context - the application context.
+     */
+    public BinaryLocalDataStore(@NonNull Context context) {
+        this.file = new File(context.getFilesDir(), FILE_NAME);
+        this.migrationContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+    }
+
+    /**
+     * Store in a file of the app's choice, without migration.
+     * Prefer {@link #getShared(File)}, unless no other store of the file is in use.
+     *
+     * @param file - the log file; created on first save.
+     */
+    public BinaryLocalDataStore(@NonNull File file) {
+        this.file = file;
+        this.migrationContext = null;
+    }
+
+    @Override
+    public void save(String key, byte[] value) {
+        save(key.getBytes(UTF_8), value);
+    }
+
+    @Override
+    public byte[] load(String key) throws FileNotFoundException {
+        return load(key.getBytes(UTF_8));
+    }
+
+    @Override
+    public void remove(String key) {
+        remove(key.getBytes(UTF_8));
+    }
+
+    public synchronized void save(@NonNull byte[] key, @NonNull byte[] value) {
+        if (!tryLoad()) {
+            log.e("Not saving " + new String(key, UTF_8));
+            return;
+        }
+        final byte[] previous = entries.put(new Key(key.clone()), value.clone());
+        if (previous != null) {
+            liveBytes -= recordSize(key.length, previous.length);
+            garbageBytes += recordSize(key.length, previous.length);
+        }
+        liveBytes += recordSize(key.length, value.length);
+        append(OP_SAVE, key, value);
+    }
+
+    @NonNull
+    public synchronized byte[] load(@NonNull byte[] key) throws FileNotFoundException {
+        try {
+            ensureLoaded();
+        } catch (IOException e) {
+            final FileNotFoundException notReadable = new FileNotFoundException("Local data store not readable: " + e);
+            notReadable.initCause(e);
+            throw notReadable;
+        }
+        final byte[] value = entries.get(new Key(key));
+        if (value == null) {
+            throw new FileNotFoundException("Key not found in the storage " + new String(key, UTF_8));
+        }
+        return value.clone();
+    }
+
+    public synchronized void remove(@NonNull byte[] key) {
+        if (!tryLoad()) {
+            log.e("Not removing " + new String(key, UTF_8));
+            return;
+        }
+        final byte[] previous = entries.remove(new Key(key));
+        if (previous == null) {
+            return;
+        }
+        liveBytes -= recordSize(key.length, previous.length);
+        garbageBytes += recordSize(key.length, previous.length) + recordSize(key.length, 0);
+        append(OP_REMOVE, key, new byte[0]);
+    }
+
+    /**
+     * @return The number of entries, or 0 if the file can't be read.
+     */
+    public synchronized int size() {
+        return tryLoad() ? entries.size() : 0;
+    }
+
+    /**
+     * Close the log file. The store reopens it if it's used again.
+     */
+    public synchronized void close() {
+        closeOutput();
+        entries = null;
+    }
+
+    // Guarded by this
+    private void ensureLoaded() throws IOException {
+        if (entries != null) {
+            return;
+        }
+        entries = new HashMap<>();
+        liveBytes = 0;
+        garbageBytes = 0;
+        boolean loaded = false;
+        try {
+            if (file.exists()) {
+                readLog();
+            } else if (migrationContext != null) {
+                migrateFromSharedPreferences();
+            }
+            loaded = true;
+        } finally {
+            if (!loaded) {
+                entries = null;
+            }
+        }
+    }
+
+    // Guarded by this
+    private boolean tryLoad() {
+        try {
+            ensureLoaded();
+            return true;
+        } catch (IOException e) {
+            log.e("Failed reading local data store " + file, e);
+            return false;
+        }
+    }
+
+    // Reads the entries, and cuts a broken end off the file. Throws, and leaves the file as it is,
+    // if it can't be read. Guarded by this
+    private void readLog() throws IOException {
+        long validLength = 0;
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (input.readInt() != MAGIC) {
+                throw new CorruptLogException("Not a local data store file");
+            }
+            final int version = input.readInt();
+            if (version != VERSION) {
+                // E.g. written by a newer version of the app: keep it.
+                throw new IOException("Unsupported local data store version " + version);
+            }
+            validLength = HEADER_SIZE;
+            final CRC32 crc = new CRC32();
+            while (true) {
+                final byte op;
+                try {
+                    op = input.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                final int keyLength = input.readInt();
+                final int valueLength = input.readInt();
+                if (keyLength < 0 || keyLength > MAX_KEY_OR_VALUE_SIZE || valueLength < 0 || valueLength > MAX_KEY_OR_VALUE_SIZE) {
+                    throw new CorruptLogException("Corrupt record length");
+                }
+                final byte[] key = new byte[keyLength];
+                final byte[] value = new byte[valueLength];
+                input.readFully(key);
+                input.readFully(value);
+                final int recordCrc = input.readInt();
+                crc.reset();
+                crc.update(ByteBuffer.allocate(9).put(op).putInt(keyLength).putInt(valueLength).array());
+                crc.update(key);
+                crc.update(value);
+                if ((int) crc.getValue() != recordCrc) {
+                    throw new CorruptLogException("Corrupt record checksum");
+                }
+                apply(op, key, value);
+                validLength += recordSize(keyLength, valueLength);
+            }
+            return;
+        } catch (EOFException | CorruptLogException e) {
+            // A record cut short, or garbage after it.
+            log.e("Dropping the end of the local data store at " + validLength + ": " + e);
+        } finally {
+            closeQuietly(input);
+        }
+
+        // Cut the broken record off, so that new records are appended after valid ones.
+        if (validLength < HEADER_SIZE) {
+            if (!file.delete()) {
+                throw new IOException("Failed deleting invalid local data store " + file);
+            }
+            return;
+        }
+        final RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+        try {
+            truncated.setLength(validLength);
+        } finally {
+            closeQuietly(truncated);
+        }
+    }
+
+    // Guarded by this
+    private void apply(byte op, byte[] key, byte[] value) {
+        final Key entryKey = new Key(key);
+        final byte[] previous = op == OP_SAVE ? entries.put(entryKey, value) : entries.remove(entryKey);
+        if (previous != null) {
+            liveBytes -= recordSize(key.length, previous.length);
+            garbageBytes += recordSize(key.length, previous.length);
+        }
+        if (op == OP_SAVE) {
+            liveBytes += recordSize(key.length, value.length);
+        } else {
+            garbageBytes += recordSize(key.length, value.length);
+        }
+    }
+
+    // Guarded by this
+    private void migrateFromSharedPreferences() {
+        final SharedPreferences preferences = migrationContext.getSharedPreferences(
+                LocalAssetsManager.DefaultLocalDataStore.LOCAL_SHARED_PREFERENCE_STORAGE, 0);
+        final Map<String, ?> all = preferences.getAll();
+        if (all.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, ?> entry : all.entrySet()) {
+            if (!(entry.getValue() instanceof String)) {
+                continue;
+            }
+            try {
+                final byte[] key = entry.getKey().getBytes(UTF_8);
+                final byte[] value = Base64.decode((String) entry.getValue(), Base64.NO_WRAP);
+                entries.put(new Key(key), value);
+                liveBytes += recordSize(key.length, value.length);
+            } catch (IllegalArgumentException e) {
+                log.e("Skipping invalid entry " + entry.getKey());
+            }
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            // The entries are in memory; try writing them again next time.
+            log.e("Failed migrating the local data store", e);
+            return;
+        }
+        log.d("Copied " + entries.size() + " entries from the shared preferences");
+    }
+
+    // Guarded by this
+    private void append(byte op, byte[] key, byte[] value) {
+        final ByteBuffer record = ByteBuffer.allocate(recordSize(key.length, value.length));
+        record.put(op).putInt(key.length).putInt(value.length).put(key).put(value);
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+
+        try {
+            if (output == null) {
+                if (!file.exists()) {
+                    compact();
+                    return;
+                }
+                output = new FileOutputStream(file, true);
+            }
+            output.write(record.array());
+        } catch (IOException e) {
+            // The entry is kept in memory, so it's still available until the app is restarted.
+            log.e("Failed writing to local data store", e);
+            closeOutput();
+            return;
+        }
+
+        if (garbageBytes > MIN_COMPACTION_GARBAGE_BYTES && garbageBytes > liveBytes) {
+            try {
+                compact();
+            } catch (IOException e) {
+                log.e("Failed compacting local data store", e);
+            }
+        }
+    }
+
+    // Write the live entries to a new file, and replace the log with it. Guarded by this
+    private void compact() throws IOException {
+        closeOutput();
+        final File tempFile = new File(file.getPath() + ".tmp");
+        final FileOutputStream fileOutput = new FileOutputStream(tempFile);
+        try {
+            final BufferedOutputStream bufferedOutput = new BufferedOutputStream(fileOutput);
+            bufferedOutput.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).array());
+            final CRC32 crc = new CRC32();
+            for (Map.Entry<Key, byte[]> entry : entries.entrySet()) {
+                final byte[] key = entry.getKey().bytes;
+                final byte[] value = entry.getValue();
+                final ByteBuffer header = ByteBuffer.allocate(9).put(OP_SAVE).putInt(key.length).putInt(value.length);
+                crc.reset();
+                crc.update(header.array());
+                crc.update(key);
+                crc.update(value);
+                bufferedOutput.write(header.array());
+                bufferedOutput.write(key);
+                bufferedOutput.write(value);
+                bufferedOutput.write(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+            }
+            bufferedOutput.flush();
+            fileOutput.getFD().sync();
+        } finally {
+            fileOutput.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Failed renaming " + tempFile + " to " + file);
+        }
+        garbageBytes = 0;
+        output = new FileOutputStream(file, true);
+    }
+
+    // Guarded by this
+    private void closeOutput() {
+        closeQuietly(output);
+        output = null;
+    }
+
+    private static int recordSize(int keyLength, int valueLength) {
+        return RECORD_OVERHEAD + keyLength + valueLength;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                log.d("Failed closing: " + e);
+            }
+        }
+    }
+
+    private static class CorruptLogException extends IOException {
+        CorruptLogException(String message) {
+            super(message);
+        }
+    }
+
+    private static class Key {
+        final byte[] bytes;
+        final int hashCode;
+
+        Key(byte[] bytes) {
+            this.bytes = bytes;
+            this.hashCode = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof Key && Arrays.equals(bytes, ((Key) o).bytes));
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
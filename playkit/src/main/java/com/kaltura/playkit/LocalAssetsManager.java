@@ -27,8 +27,13 @@ import com.kaltura.playkit.player.MediaSupport;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Responsible for managing the local(offline) assets. When offline playback of the
@@ -41,16 +46,49 @@ public class LocalAssetsManager {
     private static final PKLog log = PKLog.get("LocalAssetsManager");
     private static final String ASSET_ID_PREFIX = "assetId:";
 
+    public static final int DEFAULT_MAX_CONCURRENT_DRM_OPERATIONS = 2;
+
     private final Context context;
     private LocalDataStore localDataStore;
     private PKRequestParams.Adapter licenseRequestParamAdapter;
 
     private Handler mainHandler = new Handler(Looper.getMainLooper());
 
+    // Background operations of all the managers of the process. Each one may open a MediaDrm and wait for
+    // a license request, so the bound holds however many managers the app creates.
+    private static final ThreadPoolExecutor executor = newExecutor(DEFAULT_MAX_CONCURRENT_DRM_OPERATIONS);
+
+    // Creates the DRM adapter of an operation; replaced by tests.
+    interface DrmAdapterFactory {
+        @NonNull
+        DrmAdapter create(PKDrmParams.Scheme scheme, Context context, LocalDataStore localDataStore);
+    }
+
+    DrmAdapterFactory drmAdapterFactory = DrmAdapter::getDrmAdapter;
+
     public void setLicenseRequestAdapter(PKRequestParams.Adapter licenseRequestAdapter) {
         this.licenseRequestParamAdapter = licenseRequestAdapter;
     }
 
+    /**
+     * Set how many register, unregister and status operations run at the same time. Others wait in line.
+     * The limit is shared by all the managers of the process, so the last value set applies to all of them.
+     *
+     * @param maxConcurrentDrmOperations - number of operations, default is {@link #DEFAULT_MAX_CONCURRENT_DRM_OPERATIONS}.
+     */
+    public void setMaxConcurrentDrmOperations(int maxConcurrentDrmOperations) {
+        final int threads = Math.max(1, maxConcurrentDrmOperations);
+        synchronized (executor) {
+            if (threads > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(threads);
+                executor.setCorePoolSize(threads);
+            } else {
+                executor.setCorePoolSize(threads);
+                executor.setMaximumPoolSize(threads);
+            }
+        }
+    }
+
     /**
      * Listener that notify about the result when registration flow is ended.
      */
@@ -86,12 +124,61 @@ public class LocalAssetsManager {
     }
 
     /**
-     * Constructor which will create {@link DefaultLocalDataStore}
+     * Will notify about the progress of a batch operation, on the main thread.
+     */
+    public interface BatchProgressListener {
+        /**
+         * @param done   - number of assets that are done, including failed ones.
+         * @param failed - number of assets that failed.
+         * @param total  - number of assets in the batch.
+         */
+        void onProgress(int done, int failed, int total);
+
+        /**
+         * Called after the last {@link #onProgress(int, int, int)}.
+         */
+        void onCompleted(int failed, int total);
+    }
+
+    /**
+     * An asset of a batch operation.
+     */
+    public static class LocalAsset {
+        public final PKMediaSource mediaSource;
+        public final String localAssetPath;
+        public final String assetId;
+
+        /**
+         * @param mediaSource    - the source to register.
+         * @param localAssetPath - the url of the locally stored asset.
+         * @param assetId        - the asset id.
+         */
+        public LocalAsset(@Nullable PKMediaSource mediaSource, @NonNull String localAssetPath, @NonNull String assetId) {
+            this.mediaSource = mediaSource;
+            this.localAssetPath = localAssetPath;
+            this.assetId = assetId;
+        }
+
+        /**
+         * An asset that is already registered, e.g. for {@link #checkAssetsStatus(List, AssetStatusListener, BatchProgressListener)}.
+         */
+        public LocalAsset(@NonNull String localAssetPath, @NonNull String assetId) {
+            this(null, localAssetPath, assetId);
+        }
+    }
+
+    // One asset of a batch; returns false if it failed.
+    private interface BatchOperation {
+        boolean run(LocalAsset asset, DrmAdapter widevineAdapter) throws IOException;
+    }
+
+    /**
+     * Constructor which will use the shared {@link BinaryLocalDataStore}, with the entries of a previous {@link DefaultLocalDataStore}.
      *
      * @param context - the application context.
      */
     public LocalAssetsManager(Context context) {
-        this(context, new DefaultLocalDataStore(context));
+        this(context, BinaryLocalDataStore.getShared(context));
     }
 
     /**
@@ -153,13 +240,8 @@ public class LocalAssetsManager {
     private void registerDrmAsset(final String localAssetPath, final String assetId, final PKMediaFormat mediaFormat, final PKDrmParams drmParams, final AssetRegistrationListener listener) {
         doInBackground(() -> {
             try {
-                DrmAdapter drmAdapter = DrmAdapter.getDrmAdapter(drmParams.getScheme(), context, localDataStore);
-                String licenseUri = drmParams.getLicenseUri();
-
-                boolean isRegistered = drmAdapter.registerAsset(localAssetPath, assetId, licenseUri, licenseRequestParamAdapter, listener);
-                if (isRegistered) {
-                    localDataStore.save(buildAssetKey(assetId), buildMediaFormatValueAsByteArray(mediaFormat, drmParams.getScheme()));
-                }
+                DrmAdapter drmAdapter = drmAdapterFactory.create(drmParams.getScheme(), context, localDataStore);
+                registerDrmAsset(drmAdapter, localAssetPath, assetId, mediaFormat, drmParams, listener);
             } catch (final IOException e) {
                 log.e("Error", e);
                 if (listener != null) {
@@ -169,6 +251,74 @@ public class LocalAssetsManager {
         });
     }
 
+    private boolean registerDrmAsset(DrmAdapter drmAdapter, String localAssetPath, String assetId, PKMediaFormat mediaFormat,
+                                     PKDrmParams drmParams, AssetRegistrationListener listener) throws IOException {
+        String licenseUri = drmParams.getLicenseUri();
+
+        boolean isRegistered = drmAdapter.registerAsset(localAssetPath, assetId, licenseUri, licenseRequestParamAdapter, listener);
+        if (isRegistered) {
+            localDataStore.save(buildAssetKey(assetId), buildMediaFormatValueAsByteArray(mediaFormat, drmParams.getScheme()));
+        }
+        return isRegistered;
+    }
+
+    /**
+     * Register several assets, like {@link #registerAsset(PKMediaSource, String, String, AssetRegistrationListener)}
+     * does for one. The DRM assets share one DRM instance, and up to {@link #setMaxConcurrentDrmOperations(int)}
+     * of them are registered at the same time. The listeners are called on the main thread.
+     *
+     * @param assets           - the assets to register, with their media sources.
+     * @param listener         - notify about the success/fail of each asset.
+     * @param progressListener - notify about the progress of the batch.
+     */
+    public void registerAssets(@NonNull List<LocalAsset> assets, @Nullable AssetRegistrationListener listener,
+                               @Nullable BatchProgressListener progressListener) {
+        final AssetRegistrationListener mainThreadListener = listener == null ? null : new AssetRegistrationListener() {
+            @Override
+            public void onRegistered(String localAssetPath) {
+                mainHandler.post(() -> listener.onRegistered(localAssetPath));
+            }
+
+            @Override
+            public void onFailed(String localAssetPath, Exception error) {
+                mainHandler.post(() -> listener.onFailed(localAssetPath, error));
+            }
+        };
+
+        if (!isOnline(context)) {
+            runBatch(assets, progressListener, (asset, widevineAdapter) -> {
+                if (mainThreadListener != null) {
+                    mainThreadListener.onFailed(asset.localAssetPath, new Exception("Can't register/refresh when offline"));
+                }
+                return false;
+            });
+            return;
+        }
+
+        runBatch(assets, progressListener, (asset, widevineAdapter) -> {
+            final PKMediaSource mediaSource = asset.mediaSource;
+            try {
+                checkArg(mediaSource == null, "mediaSource must not be null");
+                checkIfParamsAreValid(mediaSource.getUrl(), asset.localAssetPath, asset.assetId);
+                checkArg(mediaSource.getMediaFormat() == null, "Can not register media, when PKMediaFormat and url of PKMediaSource not exist.");
+            } catch (IllegalArgumentException e) {
+                if (mainThreadListener != null) {
+                    mainThreadListener.onFailed(asset.localAssetPath, e);
+                }
+                return false;
+            }
+
+            final PKDrmParams drmParams = findSupportedDrmParams(mediaSource);
+            if (drmParams == null) {
+                registerClearAsset(asset.localAssetPath, asset.assetId, mediaSource.getMediaFormat(), mainThreadListener);
+                return true;
+            }
+            final DrmAdapter drmAdapter = drmParams.getScheme() == PKDrmParams.Scheme.WidevineCENC ? widevineAdapter :
+                    drmAdapterFactory.create(drmParams.getScheme(), context, localDataStore);
+            return registerDrmAsset(drmAdapter, asset.localAssetPath, asset.assetId, mediaSource.getMediaFormat(), drmParams, mainThreadListener);
+        });
+    }
+
     /**
      * Will register clear asset and store {@link PKMediaFormat} in local storage.
      *
@@ -179,7 +329,9 @@ public class LocalAssetsManager {
      */
     private void registerClearAsset(String localAssetPath, String assetId, PKMediaFormat mediaFormat, AssetRegistrationListener listener) {
         localDataStore.save(buildAssetKey(assetId), buildMediaFormatValueAsByteArray(mediaFormat, null));
-        listener.onRegistered(localAssetPath);
+        if (listener != null) {
+            listener.onRegistered(localAssetPath);
+        }
     }
 
     /**
@@ -201,7 +353,7 @@ public class LocalAssetsManager {
             return;
         }
 
-        final DrmAdapter drmAdapter = DrmAdapter.getDrmAdapter(scheme, context, localDataStore);
+        final DrmAdapter drmAdapter = drmAdapterFactory.create(scheme, context, localDataStore);
 
         doInBackground(() -> {
             drmAdapter.unregisterAsset(localAssetPath, assetId, localAssetPath1 -> {
@@ -243,7 +395,7 @@ public class LocalAssetsManager {
 
     private void checkDrmAssetStatus(final String localAssetPath, final String assetId, PKDrmParams.Scheme scheme, final AssetStatusListener listener) {
 
-        final DrmAdapter drmAdapter = DrmAdapter.getDrmAdapter(scheme, context, localDataStore);
+        final DrmAdapter drmAdapter = drmAdapterFactory.create(scheme, context, localDataStore);
 
         doInBackground(() -> drmAdapter.checkAssetStatus(localAssetPath, assetId, (localAssetPath1, expiryTimeSeconds, availableTimeSeconds, isRegistered) -> {
             if (listener != null) {
@@ -254,6 +406,38 @@ public class LocalAssetsManager {
         }));
     }
 
+    /**
+     * Check the status of several assets, like {@link #checkAssetStatus(String, String, AssetStatusListener)}
+     * does for one. The DRM assets share one DRM instance, and up to {@link #setMaxConcurrentDrmOperations(int)}
+     * of them are checked at the same time. The listeners are called on the main thread.
+     *
+     * @param assets           - the assets to check.
+     * @param listener         - will pass the status of each asset.
+     * @param progressListener - notify about the progress of the batch; an asset fails if it's not registered.
+     */
+    public void checkAssetsStatus(@NonNull List<LocalAsset> assets, @Nullable AssetStatusListener listener,
+                                  @Nullable BatchProgressListener progressListener) {
+        runBatch(assets, progressListener, (asset, widevineAdapter) -> {
+            final boolean[] registered = new boolean[1];
+            final AssetStatusListener statusListener = (localAssetPath, expiryTimeSeconds, availableTimeSeconds, isRegistered) -> {
+                registered[0] = isRegistered;
+                if (listener != null) {
+                    mainHandler.post(() -> listener.onStatus(localAssetPath, expiryTimeSeconds, availableTimeSeconds, isRegistered));
+                }
+            };
+
+            final PKDrmParams.Scheme scheme = getLocalAssetScheme(asset.assetId, localDataStore);
+            if (scheme == null) {
+                checkClearAssetStatus(asset.localAssetPath, asset.assetId, statusListener);
+            } else {
+                final DrmAdapter drmAdapter = scheme == PKDrmParams.Scheme.WidevineCENC ? widevineAdapter :
+                        drmAdapterFactory.create(scheme, context, localDataStore);
+                drmAdapter.checkAssetStatus(asset.localAssetPath, asset.assetId, statusListener);
+            }
+            return registered[0];
+        });
+    }
+
     private void checkClearAssetStatus(String localAssetPath, String assetId, AssetStatusListener listener) {
         try {
             localDataStore.load(buildAssetKey(assetId));
@@ -263,6 +447,51 @@ public class LocalAssetsManager {
         }
     }
 
+    // Run the operation on each asset in the background, and report the progress of the batch.
+    private void runBatch(@NonNull List<LocalAsset> assets, @Nullable BatchProgressListener progressListener, @NonNull BatchOperation operation) {
+        final int total = assets.size();
+        if (total == 0) {
+            if (progressListener != null) {
+                mainHandler.post(() -> progressListener.onCompleted(0, 0));
+            }
+            return;
+        }
+
+        // Opens one MediaDrm for all the Widevine assets of the batch, on first use.
+        final DrmAdapter widevineAdapter = drmAdapterFactory.create(PKDrmParams.Scheme.WidevineCENC, context, localDataStore);
+        widevineAdapter.beginBatch();
+
+        final AtomicInteger doneCount = new AtomicInteger();
+        final AtomicInteger failedCount = new AtomicInteger();
+        for (final LocalAsset asset : new ArrayList<>(assets)) {
+            doInBackground(() -> {
+                boolean succeeded;
+                try {
+                    succeeded = operation.run(asset, widevineAdapter);
+                } catch (IOException | RuntimeException e) {
+                    log.e("Batch operation failed for asset " + asset.assetId, e);
+                    succeeded = false;
+                }
+                if (!succeeded) {
+                    failedCount.incrementAndGet();
+                }
+                final int done = doneCount.incrementAndGet();
+                final int failed = failedCount.get();
+                if (done == total) {
+                    widevineAdapter.endBatch();
+                }
+                if (progressListener != null) {
+                    mainHandler.post(() -> {
+                        progressListener.onProgress(done, failed, total);
+                        if (done == total) {
+                            progressListener.onCompleted(failed, total);
+                        }
+                    });
+                }
+            });
+        }
+    }
+
     private static PKDrmParams findSupportedDrmParams(@NonNull PKMediaSource mediaSource) {
         if (mediaSource.getDrmData() == null) {
             return null;
@@ -350,8 +579,19 @@ public class LocalAssetsManager {
         checkArg(obj == null || obj.length() == 0, name + " must not be empty");
     }
 
-    private void doInBackground(Runnable runnable) {
-        new Thread(runnable).start();
+    void doInBackground(Runnable runnable) {
+        executor.execute(runnable);
+    }
+
+    private static ThreadPoolExecutor newExecutor(int threads) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "LocalAssetsManager");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     /**
@@ -426,6 +666,7 @@ public class LocalAssetsManager {
     /**
      * Default implementation of the {@link LocalDataStore}. Actually doing the basic save/load/remove actions
      * to the {@link SharedPreferences}.
+     * Replaced by {@link BinaryLocalDataStore}, which copies the entries of this store to its own file.
      * Created by anton.afanasiev on 13/12/2016.
      */
 
@@ -433,7 +674,7 @@ public class LocalAssetsManager {
 
         private final PKLog log = PKLog.get("DefaultLocalDataStore");
 
-        private static final String LOCAL_SHARED_PREFERENCE_STORAGE = "PlayKitLocalStorage";
+        static final String LOCAL_SHARED_PREFERENCE_STORAGE = "PlayKitLocalStorage";
         private final SharedPreferences sharedPreferences;
 
         public DefaultLocalDataStore(Context context) {
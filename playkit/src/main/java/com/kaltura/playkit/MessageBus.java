@@ -14,52 +14,166 @@ package com.kaltura.playkit;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Message;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 @SuppressWarnings("WeakerAccess")
 public class MessageBus {
 
     private static final PKLog log = PKLog.get("MessageBus");
 
-    private Handler postHandler = new Handler(Looper.getMainLooper());
-    private Map<Object, Set<PKEvent.Listener>> listeners;   // Key is the event type, value is the listeners to call.
-    private Map<Object, Set<PKEvent.Listener>> listenerGroups;  // Key is group id, value is the listeners to remove.
+    private static final int MSG_DISPATCH_EVENT = 1;
+    private static final int MSG_DISPATCH_CONFLATED = 2;
+
+    private final HandlerDispatcher mainDispatcher = new HandlerDispatcher(Looper.getMainLooper());
+    private Handler postHandler = mainDispatcher.handler;
+
+    // Stands for a null group id, which can't be held by a WeakReference.
+    private static final Object NO_GROUP = new Object();
+
+    // Key is the event type or class, value is the listeners to call.
+    private final Map<Object, ListenerList> listeners;
+    // Key is group id, value is the registrations to remove. Also guards all registration state.
+    private final Map<Object, Set<Registration>> listenerGroups;
+    // Reverse index: key is a listener, value is its registrations, for removing it without a full scan.
+    private final Map<PKEvent.Listener, List<Registration>> listenerRegistrations;
+
+    // Off-main dispatchers, shared by all listeners that asked for the same Looper/Executor.
+    private final Map<Object, Dispatcher> dispatchers;
+
+    // Event classes that use conflated delivery.
+    private final Set<Class<?>> conflatedClasses;
+
+    // Event classes that are replayed to new listeners, and the last posted event of each.
+    private final Set<Class<?>> stickyClasses;
+    private final Map<Class<?>, PKEvent> stickyEvents;
+
+    // Sequence of the last registration. An event is only delivered to the registrations that came before it.
+    // Written while holding the listenerGroups lock.
+    private volatile int lastRegistrationSequence;
+
+    @Nullable private volatile ListenersObserver listenersObserver;
+
+    /**
+     * Notified when an event type or class gets its first listener or loses its last one.
+     */
+    public interface ListenersObserver {
+        /**
+         * Called on the thread that added or removed the listener, while the bus is locked;
+         * it must not block.
+         */
+        void onListenersChanged(@NonNull Object type, boolean hasListeners);
+    }
 
     public MessageBus() {
-        listeners = Collections.synchronizedMap(new HashMap<>());
-        listenerGroups = Collections.synchronizedMap(new WeakHashMap<>());
+        listeners = new ConcurrentHashMap<>();
+        listenerGroups = new WeakHashMap<>();
+        listenerRegistrations = new HashMap<>();
+        dispatchers = new HashMap<>();
+        conflatedClasses = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        stickyClasses = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        stickyEvents = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Enable or disable conflated delivery for an event class.
+     * When enabled, posting an event of that class while a previous one is still waiting to be
+     * delivered replaces the pending event, so listeners only get the latest value and the queue
+     * never holds more than one event of that class.
+     * Only use it for events that carry absolute values, such as {@link PlayerEvent.PlayheadUpdated}
+     * or {@link PlayerEvent.PlaybackInfoUpdated}; with {@link PlayerEvent.BytesLoaded} and
+     * {@link PlayerEvent.VideoFramesDropped} only the totals stay accurate.
+     *
+     * @param eventClass    Event class, e.g. {@link PlayerEvent#playheadUpdated}.
+     * @param conflated     true to deliver only the latest pending event of this class.
+     */
+    public void setConflated(@NonNull Class<? extends PKEvent> eventClass, boolean conflated) {
+        if (conflated) {
+            conflatedClasses.add(eventClass);
+        } else {
+            // An event that is already pending is still delivered.
+            conflatedClasses.remove(eventClass);
+        }
+    }
+
+    public boolean isConflated(@NonNull Class<? extends PKEvent> eventClass) {
+        return conflatedClasses.contains(eventClass);
+    }
+
+    /**
+     * Enable or disable sticky mode for an event class.
+     * The last posted event of a sticky class is kept until {@link #clearStickyEvents()} is called,
+     * and is delivered to every listener that is added for it later, right after it is added.
+     * Meant for events that carry state, such as {@link PlayerEvent.StateChanged},
+     * {@link PlayerEvent.DurationChanged}, {@link PlayerEvent.TracksAvailable} and {@link PlayerEvent.SourceSelected}.
+     *
+     * @param eventClass    Event class, e.g. {@link PlayerEvent#tracksAvailable}.
+     * @param sticky        true to replay the last event of this class to new listeners.
+     */
+    public void setSticky(@NonNull Class<? extends PKEvent> eventClass, boolean sticky) {
+        if (sticky) {
+            stickyClasses.add(eventClass);
+        } else {
+            stickyClasses.remove(eventClass);
+            stickyEvents.remove(eventClass);
+        }
+    }
+
+    public boolean isSticky(@NonNull Class<? extends PKEvent> eventClass) {
+        return stickyClasses.contains(eventClass);
+    }
+
+    /**
+     * Forget the last events of all sticky classes, e.g. when a new media is set.
+     */
+    public void clearStickyEvents() {
+        stickyEvents.clear();
     }
 
     public void post(final PKEvent event) {
+        // Listeners that are added from now on don't get this event, except by sticky replay.
+        final int sequence;
+        if (stickyClasses.contains(event.getClass())) {
+            // Together with registration, so that a new listener gets the event by replay or by dispatch, never both.
+            synchronized (listenerGroups) {
+                stickyEvents.put(event.getClass(), event);
+                sequence = lastRegistrationSequence;
+            }
+        } else {
+            sequence = lastRegistrationSequence;
+        }
 
-        // Listeners that are listening for this event
-        final Set<PKEvent.Listener> postListeners = new HashSet<>();
-        // By event type (PlayerEvent.DURATION_CHANGED etc)
-        postListeners.addAll(safeSet(this.listeners.get(event.eventType())));
-        // By event class (PlayerEvent.DurationChanged.class etc)
-        postListeners.addAll(safeSet(this.listeners.get(event.getClass())));
-
-        if (!postListeners.isEmpty()) {
-            postHandler.post(() -> {
-                for (PKEvent.Listener listener : postListeners) {
-                    // If the listener type does not match event type (programming error),
-                    // there will be a ClassCastException. Log it but don't crash.
-                    try {
-                        //noinspection unchecked
-                        listener.onEvent(event);
-                    } catch (ClassCastException e) {
-                        log.e("Wrong type of listener " + listener.getClass() + " for event (" + event.eventType() + ")", e);
-                    }
-                }
-            });
+        // Listeners that are listening for this event, by event type (PlayerEvent.DURATION_CHANGED etc)
+        // and by event class (PlayerEvent.DurationChanged.class etc).
+        final Snapshot typeListeners = getListeners(event.eventType());
+        final Snapshot classListeners = getListeners(event.getClass());
+
+        // Enqueue once on every thread that has listeners for this event.
+        for (Dispatcher dispatcher : typeListeners.dispatchers) {
+            dispatcher.post(event, sequence);
+        }
+        for (Dispatcher dispatcher : classListeners.dispatchers) {
+            if (!typeListeners.hasDispatcher(dispatcher)) {
+                dispatcher.post(event, sequence);
+            }
         }
     }
 
@@ -69,32 +183,194 @@ public class MessageBus {
         }
     }
 
-    private static Set<PKEvent.Listener> safeSet(@Nullable Set<PKEvent.Listener> listeners) {
-        return listeners != null ? listeners : Collections.emptySet();
+    // Called on the dispatcher's thread, for an event that was posted after registration `sequence`.
+    // Listeners are called if they were registered when the event was posted and still are: a listener
+    // that was removed after the event was posted, or added after it, is not called.
+    private void dispatch(PKEvent event, Dispatcher dispatcher, int sequence) {
+        final Snapshot typeListeners = getListeners(event.eventType());
+        final Snapshot classListeners = getListeners(event.getClass());
+
+        for (Registration registration : typeListeners.registrations) {
+            if (registration.dispatcher == dispatcher && registration.isBefore(sequence)) {
+                notifyListener(registration.listener, event);
+            }
+        }
+        for (Registration registration : classListeners.registrations) {
+            // A listener that was added both by type and by class is only called once.
+            if (registration.dispatcher == dispatcher && registration.isBefore(sequence) &&
+                    !typeListeners.hasListener(registration.listener, sequence)) {
+                notifyListener(registration.listener, event);
+            }
+        }
     }
 
+    private static void notifyListener(PKEvent.Listener listener, PKEvent event) {
+        // If the listener type does not match event type (programming error),
+        // there will be a ClassCastException. Log it but don't crash.
+        try {
+            //noinspection unchecked
+            listener.onEvent(event);
+        } catch (ClassCastException e) {
+            log.e("Wrong type of listener " + listener.getClass() + " for event (" + event.eventType() + ")", e);
+        }
+    }
 
     /**
-     * Remove the listener regardless of event type.
-     * @param listener Listener to remove.
+     * @param type  Event type (e.g. {@link PlayerEvent.Type#PLAYHEAD_UPDATED}) or class (e.g. {@link PlayerEvent#playheadUpdated}).
+     * @return true if at least one listener is registered for exactly this type or class.
      */
-    public void removeListener(PKEvent.Listener listener) {
-        // Remove the listener from the type:listeners map
-        for (Set<PKEvent.Listener> listenerSet : listeners.values()) {
-            listenerSet.remove(listener);
+    public boolean hasListeners(@NonNull Object type) {
+        return listeners.containsKey(type);
+    }
+
+    public void setListenersObserver(@Nullable ListenersObserver listenersObserver) {
+        this.listenersObserver = listenersObserver;
+    }
+
+    private void notifyListenersChanged(Object type, boolean hasListeners) {
+        final ListenersObserver observer = listenersObserver;
+        if (observer != null) {
+            observer.onListenersChanged(type, hasListeners);
         }
+    }
 
-        // Remove the listener from the groupId:listeners map
-        for (Set<PKEvent.Listener> listenerSet : listenerGroups.values()) {
-            listenerSet.remove(listener);
+    @NonNull
+    private Snapshot getListeners(Object type) {
+        if (type == null) {
+            return Snapshot.EMPTY;
+        }
+        final ListenerList list = listeners.get(type);
+        if (list == null) {
+            return Snapshot.EMPTY;
         }
+        final Snapshot snapshot = list.snapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        // Rebuilt once after listeners were added or removed.
+        synchronized (listenerGroups) {
+            if (list.snapshot == null) {
+                list.snapshot = Snapshot.of(list.registrations);
+            }
+            return list.snapshot;
+        }
+    }
 
-        // Remove empty groups
-        final Iterator<Map.Entry<Object, Set<PKEvent.Listener>>> iterator = listenerGroups.entrySet().iterator();
-        while (iterator.hasNext()) {
-            final Set<PKEvent.Listener> value = iterator.next().getValue();
-            if (value == null || value.isEmpty()) {
-                iterator.remove();
+    // Must be called while holding the listenerGroups lock.
+    private void register(Object groupId, Object type, PKEvent.Listener listener, Object target) {
+        List<Registration> registrations = listenerRegistrations.get(listener);
+        if (registrations == null) {
+            registrations = new ArrayList<>(1);
+            listenerRegistrations.put(listener, registrations);
+        } else {
+            for (Registration registration : registrations) {
+                if (registration.type.equals(type) && groupId.equals(registration.groupId.get())) {
+                    return;     // Already registered
+                }
+            }
+        }
+
+        ListenerList list = listeners.get(type);
+        if (list == null) {
+            list = new ListenerList();
+            listeners.put(type, list);
+            notifyListenersChanged(type, true);
+        }
+
+        Set<Registration> groupRegistrations = listenerGroups.get(groupId);
+        if (groupRegistrations == null) {
+            // A set: a group may hold many listeners, and removing one of them must not scan the others.
+            groupRegistrations = new LinkedHashSet<>();
+            listenerGroups.put(groupId, groupRegistrations);
+        }
+
+        final Dispatcher dispatcher = getDispatcher(target);
+        final Registration registration = new Registration(groupId, type, listener, dispatcher, lastRegistrationSequence + 1);
+        registrations.add(registration);
+        groupRegistrations.add(registration);
+        list.registrations.add(registration);
+        list.snapshot = null;
+        dispatcher.registrationCount++;
+        lastRegistrationSequence = registration.sequence;
+
+        replayStickyEvents(type, listener, dispatcher);
+    }
+
+    private void replayStickyEvents(Object type, PKEvent.Listener listener, Dispatcher dispatcher) {
+        if (stickyEvents.isEmpty()) {
+            return;
+        }
+        if (type instanceof Class) {
+            final PKEvent event = stickyEvents.get(type);
+            if (event != null) {
+                dispatcher.replay(event, listener);
+            }
+        } else {
+            for (PKEvent event : stickyEvents.values()) {
+                if (type.equals(event.eventType())) {
+                    dispatcher.replay(event, listener);
+                }
+            }
+        }
+    }
+
+    // Must be called while holding the listenerGroups lock. Removes the registration from
+    // its type and releases its dispatcher; the caller removes it from the group and listener indexes.
+    private void unregister(Registration registration) {
+        final ListenerList list = listeners.get(registration.type);
+        if (list != null && list.registrations.remove(registration)) {
+            list.snapshot = null;
+            if (list.registrations.isEmpty()) {
+                listeners.remove(registration.type);
+                notifyListenersChanged(registration.type, false);
+            }
+        }
+
+        final Dispatcher dispatcher = registration.dispatcher;
+        if (--dispatcher.registrationCount == 0 && dispatcher != mainDispatcher) {
+            dispatchers.remove(dispatcher.key);
+        }
+    }
+
+    // Must be called while holding the listenerGroups lock.
+    private void removeFromGroup(Registration registration) {
+        final Object groupId = registration.groupId.get();
+        if (groupId == null) {
+            return;     // Group id was garbage collected, and the group with it.
+        }
+        final Set<Registration> groupRegistrations = listenerGroups.get(groupId);
+        if (groupRegistrations != null) {
+            groupRegistrations.remove(registration);
+            if (groupRegistrations.isEmpty()) {
+                listenerGroups.remove(groupId);
+            }
+        }
+    }
+
+    // Must be called while holding the listenerGroups lock.
+    private void removeFromListener(Registration registration) {
+        final List<Registration> registrations = listenerRegistrations.get(registration.listener);
+        if (registrations != null) {
+            registrations.remove(registration);
+            if (registrations.isEmpty()) {
+                listenerRegistrations.remove(registration.listener);
+            }
+        }
+    }
+
+    /**
+     * Remove the listener regardless of event type.
+     * @param listener Listener to remove.
+     */
+    public void removeListener(PKEvent.Listener listener) {
+        synchronized (listenerGroups) {
+            final List<Registration> registrations = listenerRegistrations.remove(listener);
+            if (registrations == null) {
+                return;
+            }
+            for (Registration registration : registrations) {
+                unregister(registration);
+                removeFromGroup(registration);
             }
         }
     }
@@ -108,17 +384,15 @@ public class MessageBus {
             return;
         }
 
-        final Set<PKEvent.Listener> listeners = listenerGroups.get(groupId);
-
-        if (listeners != null) {
-            // Remove the listener from the type:listeners map
-            for (PKEvent.Listener listener : listeners) {
-                for (Set<PKEvent.Listener> listenerSet : this.listeners.values()) {
-                    listenerSet.remove(listener);
-                }
+        synchronized (listenerGroups) {
+            final Set<Registration> groupRegistrations = listenerGroups.remove(groupId);
+            if (groupRegistrations == null) {
+                return;
+            }
+            for (Registration registration : groupRegistrations) {
+                unregister(registration);
+                removeFromListener(registration);
             }
-
-            listenerGroups.remove(groupId);
         }
     }
 
@@ -129,7 +403,7 @@ public class MessageBus {
      * @param listener  Listener to call when the event occurs.
      */
     public void addListener(Object groupId, Enum type, PKEvent.Listener listener) {
-        addListener(groupId, (Object)type, listener);
+        addListener(groupId, (Object)type, listener, null);
     }
 
     /**
@@ -139,26 +413,79 @@ public class MessageBus {
      * @param listener  Listener to call when the event occurs.
      */
     public <E extends PKEvent> void addListener(Object groupId, Class<E> type, PKEvent.Listener<E> listener) {
-        addListener(groupId, (Object)type, listener);
+        addListener(groupId, (Object)type, listener, null);
     }
 
-    private void addListener(Object groupId, Object type, PKEvent.Listener listener) {
-        addToMap(type, listener, listeners);
-        addToMap(groupId, listener, listenerGroups);
+    /**
+     * Add listener with groupId, to be called on the given executor instead of the main thread.
+     * Events are delivered to the executor one at a time and in order, even if it is a thread pool.
+     * @param groupId   Group to which the listener belongs, for {@link #removeListeners(Object)}.
+     * @param type      Type of event to listen to.
+     * @param listener  Listener to call when the event occurs.
+     * @param executor  Executor to run the listener on.
+     */
+    public void addListener(Object groupId, Enum type, PKEvent.Listener listener, @NonNull Executor executor) {
+        addListener(groupId, (Object)type, listener, executor);
     }
 
-    private void addToMap(Object key, PKEvent.Listener listener, Map<Object, Set<PKEvent.Listener>> map) {
-        Set<PKEvent.Listener> listenerSet;
-        listenerSet = map.get(key);
-        if (listenerSet == null) {
-            listenerSet = new HashSet<>();
-            listenerSet.add(listener);
-            map.put(key, listenerSet);
-        } else {
-            listenerSet.add(listener);
+    /**
+     * Add listener with groupId, to be called on the given executor instead of the main thread.
+     * Events are delivered to the executor one at a time and in order, even if it is a thread pool.
+     * @param groupId   Group to which the listener belongs, for {@link #removeListeners(Object)}.
+     * @param type      Type of event to listen to.
+     * @param listener  Listener to call when the event occurs.
+     * @param executor  Executor to run the listener on.
+     */
+    public <E extends PKEvent> void addListener(Object groupId, Class<E> type, PKEvent.Listener<E> listener, @NonNull Executor executor) {
+        addListener(groupId, (Object)type, listener, executor);
+    }
+
+    /**
+     * Add listener with groupId, to be called on the given looper's thread instead of the main thread.
+     * @param groupId   Group to which the listener belongs, for {@link #removeListeners(Object)}.
+     * @param type      Type of event to listen to.
+     * @param listener  Listener to call when the event occurs.
+     * @param looper    Looper of the thread to call the listener on.
+     */
+    public void addListener(Object groupId, Enum type, PKEvent.Listener listener, @NonNull Looper looper) {
+        addListener(groupId, (Object)type, listener, looper);
+    }
+
+    /**
+     * Add listener with groupId, to be called on the given looper's thread instead of the main thread.
+     * @param groupId   Group to which the listener belongs, for {@link #removeListeners(Object)}.
+     * @param type      Type of event to listen to.
+     * @param listener  Listener to call when the event occurs.
+     * @param looper    Looper of the thread to call the listener on.
+     */
+    public <E extends PKEvent> void addListener(Object groupId, Class<E> type, PKEvent.Listener<E> listener, @NonNull Looper looper) {
+        addListener(groupId, (Object)type, listener, looper);
+    }
+
+    // target is null (main thread), a Looper or an Executor.
+    private void addListener(Object groupId, Object type, PKEvent.Listener listener, Object target) {
+        if (type == null || listener == null) {
+            log.w("addListener: ignoring null event type or listener");
+            return;
+        }
+        synchronized (listenerGroups) {
+            register(groupId != null ? groupId : NO_GROUP, type, listener, target);
         }
     }
 
+    // Must be called while holding the listenerGroups lock.
+    private Dispatcher getDispatcher(Object target) {
+        if (target == null || target == Looper.getMainLooper()) {
+            return mainDispatcher;
+        }
+        Dispatcher dispatcher = dispatchers.get(target);
+        if (dispatcher == null) {
+            dispatcher = target instanceof Looper ? new HandlerDispatcher((Looper) target) : new ExecutorDispatcher((Executor) target);
+            dispatchers.put(target, dispatcher);
+        }
+        return dispatcher;
+    }
+
     // Deprecated
     /**
      *
@@ -182,10 +509,317 @@ public class MessageBus {
      */
     @Deprecated
     public void remove(PKEvent.Listener listener, Enum... eventTypes) {
-        for (Enum eventType : eventTypes) {
-            Set<PKEvent.Listener> listenerSet = listeners.get(eventType);
-            if (listenerSet != null) {
-                listenerSet.remove(listener);
+        synchronized (listenerGroups) {
+            final List<Registration> registrations = listenerRegistrations.get(listener);
+            if (registrations == null) {
+                return;
+            }
+            for (Enum eventType : eventTypes) {
+                final Iterator<Registration> iterator = registrations.iterator();
+                while (iterator.hasNext()) {
+                    final Registration registration = iterator.next();
+                    if (registration.type.equals(eventType)) {
+                        iterator.remove();
+                        unregister(registration);
+                        removeFromGroup(registration);
+                    }
+                }
+            }
+            if (registrations.isEmpty()) {
+                listenerRegistrations.remove(listener);
+            }
+        }
+    }
+
+    private static final class Registration {
+        final WeakReference<Object> groupId;
+        final Object type;
+        final PKEvent.Listener listener;
+        final Dispatcher dispatcher;
+        final int sequence;
+        // Not the group: it may be garbage collected while the registration is in a set.
+        private final int hashCode;
+
+        Registration(Object groupId, Object type, PKEvent.Listener listener, Dispatcher dispatcher, int sequence) {
+            this.groupId = new WeakReference<>(groupId);
+            this.type = type;
+            this.listener = listener;
+            this.dispatcher = dispatcher;
+            this.sequence = sequence;
+            this.hashCode = 31 * type.hashCode() + listener.hashCode();
+        }
+
+        // True if this registration came no later than registration `sequence`; safe when the sequence wraps.
+        boolean isBefore(int sequence) {
+            return this.sequence - sequence <= 0;
+        }
+
+        // A listener is registered at most once per type and group, so that's what identifies a registration.
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Registration)) {
+                return false;
+            }
+            final Registration other = (Registration) o;
+            return listener.equals(other.listener) && type.equals(other.type) && groupId.get() == other.groupId.get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Registrations for one event type or class. The set is only changed while holding the
+     * listenerGroups lock; post() reads the immutable snapshot, which is rebuilt after a change.
+     */
+    private static final class ListenerList {
+        final Set<Registration> registrations = new LinkedHashSet<>();
+        volatile Snapshot snapshot;
+    }
+
+    /**
+     * Immutable list of registrations for one event type or class, and the distinct
+     * dispatchers they use.
+     */
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new Registration[0], new Dispatcher[0]);
+
+        final Registration[] registrations;
+        final Dispatcher[] dispatchers;
+
+        private Snapshot(Registration[] registrations, Dispatcher[] dispatchers) {
+            this.registrations = registrations;
+            this.dispatchers = dispatchers;
+        }
+
+        static Snapshot of(Collection<Registration> registrations) {
+            // A listener that was added to the same type by several groups is only called once.
+            final Map<PKEvent.Listener, Registration> distinctListeners = new LinkedHashMap<>();
+            final Set<Dispatcher> distinctDispatchers = new LinkedHashSet<>();
+            for (Registration registration : registrations) {
+                if (!distinctListeners.containsKey(registration.listener)) {
+                    distinctListeners.put(registration.listener, registration);
+                    distinctDispatchers.add(registration.dispatcher);
+                }
+            }
+            return new Snapshot(distinctListeners.values().toArray(new Registration[0]),
+                    distinctDispatchers.toArray(new Dispatcher[0]));
+        }
+
+        boolean hasListener(PKEvent.Listener listener, int sequence) {
+            for (Registration registration : registrations) {
+                if (registration.listener.equals(listener) && registration.isBefore(sequence)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean hasDispatcher(Dispatcher dispatcher) {
+            for (Dispatcher item : dispatchers) {
+                if (item == dispatcher) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Delivers events to the listeners that were registered for one thread (or executor), in order.
+     */
+    private abstract class Dispatcher {
+        final Object key;
+        int registrationCount;  // Guarded by the listenerGroups lock.
+
+        // Key is a conflated event class, value holds the latest event of that class that was not delivered yet.
+        private final ConcurrentHashMap<Class<?>, PendingEvent> pendingEvents = new ConcurrentHashMap<>();
+
+        Dispatcher(Object key) {
+            this.key = key;
+        }
+
+        void post(PKEvent event, int sequence) {
+            final Class<?> eventClass = event.getClass();
+            if (!conflatedClasses.contains(eventClass)) {
+                enqueue(event, sequence);
+                return;
+            }
+
+            PendingEvent pendingEvent = pendingEvents.get(eventClass);
+            if (pendingEvent == null) {
+                pendingEvents.putIfAbsent(eventClass, new PendingEvent());
+                pendingEvent = pendingEvents.get(eventClass);
+            }
+            // Replace the undelivered event, if any; only the first one in a burst is enqueued.
+            // The sequence is set first, so the delivery sees it with the event or a later one.
+            pendingEvent.sequence = sequence;
+            if (pendingEvent.getAndSet(event) == null) {
+                enqueueConflated(pendingEvent);
+            }
+        }
+
+        abstract void enqueue(PKEvent event, int sequence);
+
+        abstract void enqueueConflated(PendingEvent pendingEvent);
+
+        // Deliver a sticky event to a single new listener, in order with the other events.
+        abstract void replay(PKEvent event, PKEvent.Listener listener);
+
+        void deliver(PKEvent event, int sequence) {
+            dispatch(event, this, sequence);
+        }
+
+        void deliverConflated(PendingEvent pendingEvent) {
+            final PKEvent latest = pendingEvent.getAndSet(null);
+            if (latest != null) {
+                dispatch(latest, this, pendingEvent.sequence);
+            }
+        }
+    }
+
+    /**
+     * The latest undelivered event of a conflated class, and the registration sequence when it was posted.
+     */
+    private static final class PendingEvent extends AtomicReference<PKEvent> {
+        volatile int sequence;
+    }
+
+    private final class HandlerDispatcher extends Dispatcher implements Handler.Callback {
+        final Handler handler;
+
+        HandlerDispatcher(Looper looper) {
+            super(looper);
+            handler = new Handler(looper, this);
+        }
+
+        @Override
+        void enqueue(PKEvent event, int sequence) {
+            // Messages come from the framework pool - nothing is allocated per post.
+            handler.sendMessage(handler.obtainMessage(MSG_DISPATCH_EVENT, sequence, 0, event));
+        }
+
+        @Override
+        void enqueueConflated(PendingEvent pendingEvent) {
+            handler.sendMessage(handler.obtainMessage(MSG_DISPATCH_CONFLATED, pendingEvent));
+        }
+
+        @Override
+        void replay(PKEvent event, PKEvent.Listener listener) {
+            handler.post(() -> notifyListener(listener, event));
+        }
+
+        @Override
+        public boolean handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_DISPATCH_EVENT:
+                    deliver((PKEvent) msg.obj, msg.arg1);
+                    return true;
+                case MSG_DISPATCH_CONFLATED:
+                    deliverConflated((PendingEvent) msg.obj);
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Runs one delivery task at a time on the executor, so listeners see events in order
+     * even when the executor is a thread pool.
+     */
+    private final class ExecutorDispatcher extends Dispatcher implements Runnable {
+        private final Executor executor;
+        // PKEvent, PendingEvent, a replay Runnable, or an Integer: the registration sequence of the events after it.
+        private final ArrayDeque<Object> queue = new ArrayDeque<>();
+        private boolean scheduled;  // Guarded by queue.
+        private int queuedSequence; // Guarded by queue.
+        private int deliverySequence;   // Only used by run().
+
+        ExecutorDispatcher(Executor executor) {
+            super(executor);
+            this.executor = executor;
+        }
+
+        @Override
+        void enqueue(PKEvent event, int sequence) {
+            final boolean start;
+            synchronized (queue) {
+                // Queued only when it changes, so nothing is allocated per post while listeners don't change.
+                if (sequence != queuedSequence) {
+                    queuedSequence = sequence;
+                    queue.add(sequence);
+                }
+                queue.add(event);
+                start = markScheduled();
+            }
+            if (start) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        void enqueueConflated(PendingEvent pendingEvent) {
+            schedule(pendingEvent);
+        }
+
+        @Override
+        void replay(PKEvent event, PKEvent.Listener listener) {
+            schedule((Runnable) () -> notifyListener(listener, event));
+        }
+
+        private void schedule(Object item) {
+            final boolean start;
+            synchronized (queue) {
+                queue.add(item);
+                start = markScheduled();
+            }
+            if (start) {
+                executor.execute(this);
+            }
+        }
+
+        // Guarded by queue. Returns true if the caller must start a delivery task.
+        private boolean markScheduled() {
+            if (scheduled) {
+                return false;
+            }
+            scheduled = true;
+            return true;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Object item;
+                synchronized (queue) {
+                    item = queue.poll();
+                    if (item == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                try {
+                    if (item instanceof PKEvent) {
+                        deliver((PKEvent) item, deliverySequence);
+                    } else if (item instanceof Integer) {
+                        deliverySequence = (Integer) item;
+                    } else if (item instanceof Runnable) {
+                        ((Runnable) item).run();
+                    } else {
+                        deliverConflated((PendingEvent) item);
+                    }
+                } catch (RuntimeException e) {
+                    // Don't let a failing listener stall the queue: keep draining in a new task,
+                    // and let the executor handle the error.
+                    executor.execute(this);
+                    throw e;
+                }
             }
         }
     }
@@ -61,6 +61,7 @@ public class PKDrmParams implements Parcelable {
 
     private String licenseUri;
     private Scheme scheme = Scheme.Unknown;
+    private byte[] initData;
 
     public PKDrmParams(String licenseUrl, Scheme scheme) {
         this.licenseUri = licenseUrl;
@@ -87,6 +88,18 @@ public class PKDrmParams implements Parcelable {
         this.scheme = scheme;
     }
 
+    /**
+     * DRM init data of the media: a PSSH box, or the data inside it. Optional; when the app knows it
+     * (e.g. from its backend), the player requests the license while the manifest is still loading.
+     */
+    public byte[] getInitData() {
+        return initData;
+    }
+
+    public void setInitData(byte[] initData) {
+        this.initData = initData;
+    }
+
     @Override
     public int describeContents() {
         return 0;
@@ -96,12 +109,14 @@ public class PKDrmParams implements Parcelable {
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeString(this.licenseUri);
         dest.writeInt(this.scheme == null ? -1 : this.scheme.ordinal());
+        dest.writeByteArray(this.initData);
     }
 
     protected PKDrmParams(Parcel in) {
         this.licenseUri = in.readString();
         int tmpScheme = in.readInt();
         this.scheme = tmpScheme == -1 ? Scheme.Unknown : Scheme.values()[tmpScheme];
+        this.initData = in.createByteArray();
     }
 
     public static final Creator<PKDrmParams> CREATOR = new Creator<PKDrmParams>() {
@@ -13,9 +13,14 @@
 package com.kaltura.playkit;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import static android.util.Log.DEBUG;
 import static android.util.Log.ERROR;
@@ -43,6 +48,10 @@ import static android.util.Log.WARN;
  *          log.d("name is '" + name + "'");
  *          log.v("setting name to " + name);
  *
+ *          // Nothing is formatted or concatenated unless the level is enabled
+ *          log.v("name length is %d", name.length());
+ *          log.d(() -> "name is '" + name + "'");
+ *
  *          this.name = name;
  *      }
  *
@@ -53,6 +62,8 @@ import static android.util.Log.WARN;
  * }
  * </pre>
  * <p>
+ * Verbose and debug logging can be compiled out of a release AAR by building with
+ * {@code -PpkStripDebugLogs}; see playkit/build.gradle.
  * <p>
  * Created by Noam Tamim @ Kaltura on 11/11/2016.
  */
@@ -61,10 +72,29 @@ import static android.util.Log.WARN;
 @SuppressWarnings("WeakerAccess")
 public class PKLog {
 
+    // False when verbose/debug logging is stripped at build time. It's a compile-time constant,
+    // so the checks below remove the Log calls from the v() and d() methods entirely.
+    private static final boolean DEBUG_LOGS_ENABLED = BuildConfig.PK_LOG_DEBUG_ENABLED;
+
     @NonNull
     public final String tag;
+    private final int tagId;
     private int level = VERBOSE;
 
+    // Tag ids for records in the recorder; a tag's id is its index in tagNames.
+    private static final Map<String, Integer> tagIds = new HashMap<>();
+    private static final List<String> tagNames = new ArrayList<>();
+
+    @Nullable
+    private static volatile PKLogRecorder recorder;
+
+    /**
+     * Builds a log message only if it is going to be printed.
+     */
+    public interface MessageSupplier {
+        String get();
+    }
+
     public enum Level {
         verbose(VERBOSE), debug(DEBUG), info(INFO), warn(WARN), error(ERROR), off(Integer.MAX_VALUE);
 
@@ -91,74 +121,239 @@ public class PKLog {
         PKLog.globalLevel = level.value;
     }
 
+    @NonNull
+    public static Level getGlobalLevel() {
+        for (Level level : Level.values()) {
+            if (level.value == globalLevel) {
+                return level;
+            }
+        }
+        return Level.debug;
+    }
+
     public void setLevel(@NonNull Level level) {
         this.level = level.value;
     }
 
     private PKLog(@NonNull String tag) {
         this.tag = shortenTag(tag);
+        this.tagId = getTagId(this.tag);
     }
 
     @NonNull public static PKLog get(@NonNull String tag) {
         return new PKLog(tag);
     }
 
+    /**
+     * Set an in-memory recorder that keeps recent log records regardless of the logcat level,
+     * for dumping them when the player reports an error. Pass null to stop recording.
+     */
+    public static void setRecorder(@Nullable PKLogRecorder recorder) {
+        PKLog.recorder = recorder;
+    }
+
+    @Nullable
+    public static PKLogRecorder getRecorder() {
+        return recorder;
+    }
+
+    private static synchronized int getTagId(String tag) {
+        Integer id = tagIds.get(tag);
+        if (id == null) {
+            id = tagNames.size();
+            tagNames.add(tag);
+            tagIds.put(tag, id);
+        }
+        return id;
+    }
+
+    static synchronized String tagName(int tagId) {
+        return tagId >= 0 && tagId < tagNames.size() ? tagNames.get(tagId) : "?";
+    }
+
+    @Nullable
+    private static PKLogRecorder recorderFor(int priority) {
+        final PKLogRecorder recorder = PKLog.recorder;
+        // Stripped verbose/debug calls are not recorded either.
+        if (recorder == null || (!DEBUG_LOGS_ENABLED && priority <= DEBUG) || !recorder.isRecording(priority)) {
+            return null;
+        }
+        return recorder;
+    }
+
+    private static boolean isRecording(int priority) {
+        return recorderFor(priority) != null;
+    }
+
+    private void record(int priority, String msg) {
+        final PKLogRecorder recorder = recorderFor(priority);
+        if (recorder != null) {
+            recorder.record(priority, tagId, msg);
+        }
+    }
+
+    private void record(int priority, String msg, Throwable tr) {
+        final PKLogRecorder recorder = recorderFor(priority);
+        if (recorder != null) {
+            recorder.record(priority, tagId, msg + ": " + tr);
+        }
+    }
+
+    private void record(int priority, String format, byte argType, long arg1, long arg2) {
+        final PKLogRecorder recorder = recorderFor(priority);
+        if (recorder != null) {
+            recorder.record(priority, tagId, format, argType, arg1, arg2);
+        }
+    }
+
+    private static void record(int priority, String tag, String msg) {
+        final PKLogRecorder recorder = recorderFor(priority);
+        if (recorder != null) {
+            recorder.record(priority, getTagId(tag), msg);
+        }
+    }
+
 
     // VERBOSE
 
     public void v(String msg) {
-        if (level <= VERBOSE && globalLevel <= VERBOSE) {
+        record(VERBOSE, msg);
+        if (DEBUG_LOGS_ENABLED && level <= VERBOSE && globalLevel <= VERBOSE) {
             Log.v(tag, msg);
         }
     }
 
     public void v(String msg, Throwable tr) {
-        if (level <= VERBOSE && globalLevel <= VERBOSE) {
+        record(VERBOSE, msg, tr);
+        if (DEBUG_LOGS_ENABLED && level <= VERBOSE && globalLevel <= VERBOSE) {
             Log.v(tag, msg, tr);
         }
     }
 
     public static void v(String tag, String msg) {
-        if (globalLevel <= VERBOSE) {
+        record(VERBOSE, tag, msg);
+        if (DEBUG_LOGS_ENABLED && globalLevel <= VERBOSE) {
             Log.v(tag, msg);
         }
     }
 
+    public boolean isVerboseEnabled() {
+        return DEBUG_LOGS_ENABLED && level <= VERBOSE && globalLevel <= VERBOSE;
+    }
+
+    public void v(@NonNull MessageSupplier msg) {
+        final boolean recording = isRecording(VERBOSE);
+        if (recording || isVerboseEnabled()) {
+            final String message = msg.get();
+            if (recording) {
+                record(VERBOSE, message);
+            }
+            if (isVerboseEnabled()) {
+                Log.v(tag, message);
+            }
+        }
+    }
+
+    public void v(String format, long arg) {
+        record(VERBOSE, format, PKLogRecorder.ARGS_LONG, arg, 0);
+        if (isVerboseEnabled()) {
+            Log.v(tag, String.format(Locale.ENGLISH, format, arg));
+        }
+    }
+
+    public void v(String format, long arg1, long arg2) {
+        record(VERBOSE, format, PKLogRecorder.ARGS_LONG_LONG, arg1, arg2);
+        if (isVerboseEnabled()) {
+            Log.v(tag, String.format(Locale.ENGLISH, format, arg1, arg2));
+        }
+    }
+
+    public void v(String format, boolean arg) {
+        record(VERBOSE, format, PKLogRecorder.ARGS_BOOLEAN, arg ? 1 : 0, 0);
+        if (isVerboseEnabled()) {
+            Log.v(tag, String.format(Locale.ENGLISH, format, arg));
+        }
+    }
+
     // DEBUG
 
     public void d(String msg) {
-        if (level <= DEBUG && globalLevel <= DEBUG) {
+        record(DEBUG, msg);
+        if (DEBUG_LOGS_ENABLED && level <= DEBUG && globalLevel <= DEBUG) {
             Log.d(tag, msg);
         }
     }
 
     public void d(String msg, Throwable tr) {
-        if (level <= DEBUG && globalLevel <= DEBUG) {
+        record(DEBUG, msg, tr);
+        if (DEBUG_LOGS_ENABLED && level <= DEBUG && globalLevel <= DEBUG) {
             Log.d(tag, msg, tr);
         }
     }
 
     public static void d(String tag, String msg) {
-        if (globalLevel <= DEBUG) {
+        record(DEBUG, tag, msg);
+        if (DEBUG_LOGS_ENABLED && globalLevel <= DEBUG) {
             Log.d(tag, msg);
         }
     }
 
+    public boolean isDebugEnabled() {
+        return DEBUG_LOGS_ENABLED && level <= DEBUG && globalLevel <= DEBUG;
+    }
+
+    public void d(@NonNull MessageSupplier msg) {
+        final boolean recording = isRecording(DEBUG);
+        if (recording || isDebugEnabled()) {
+            final String message = msg.get();
+            if (recording) {
+                record(DEBUG, message);
+            }
+            if (isDebugEnabled()) {
+                Log.d(tag, message);
+            }
+        }
+    }
+
+    public void d(String format, long arg) {
+        record(DEBUG, format, PKLogRecorder.ARGS_LONG, arg, 0);
+        if (isDebugEnabled()) {
+            Log.d(tag, String.format(Locale.ENGLISH, format, arg));
+        }
+    }
+
+    public void d(String format, long arg1, long arg2) {
+        record(DEBUG, format, PKLogRecorder.ARGS_LONG_LONG, arg1, arg2);
+        if (isDebugEnabled()) {
+            Log.d(tag, String.format(Locale.ENGLISH, format, arg1, arg2));
+        }
+    }
+
+    public void d(String format, boolean arg) {
+        record(DEBUG, format, PKLogRecorder.ARGS_BOOLEAN, arg ? 1 : 0, 0);
+        if (isDebugEnabled()) {
+            Log.d(tag, String.format(Locale.ENGLISH, format, arg));
+        }
+    }
+
     // INFO
 
     public void i(String msg) {
+        record(INFO, msg);
         if (level <= INFO && globalLevel <= INFO) {
             Log.i(tag, msg);
         }
     }
 
     public void i(String msg, Throwable tr) {
+        record(INFO, msg, tr);
         if (level <= INFO && globalLevel <= INFO) {
             Log.i(tag, msg, tr);
         }
     }
 
     public static void i(String tag, String msg) {
+        record(INFO, tag, msg);
         if (globalLevel <= INFO) {
             Log.i(tag, msg);
         }
@@ -168,18 +363,21 @@ public class PKLog {
     // WARN
 
     public void w(String msg) {
+        record(WARN, msg);
         if (level <= WARN && globalLevel <= WARN) {
             Log.w(tag, msg);
         }
     }
 
     public void w(String msg, Throwable tr) {
+        record(WARN, msg, tr);
         if (level <= WARN && globalLevel <= WARN) {
             Log.w(tag, msg, tr);
         }
     }
 
     public static void w(String tag, String msg) {
+        record(WARN, tag, msg);
         if (globalLevel <= WARN) {
             Log.w(tag, msg);
         }
@@ -188,18 +386,21 @@ public class PKLog {
 
     // ERROR
     public void e(String msg) {
+        record(ERROR, msg);
         if (level <= ERROR && globalLevel <= ERROR) {
             Log.e(tag, msg);
         }
     }
 
     public void e(String msg, Throwable tr) {
+        record(ERROR, msg, tr);
         if (level <= ERROR && globalLevel <= ERROR) {
             Log.e(tag, msg, tr);
         }
     }
 
     public static void e(String tag, String msg) {
+        record(ERROR, tag, msg);
         if (globalLevel <= ERROR) {
             Log.e(tag, msg);
         }
@@ -0,0 +1,319 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory "flight recorder" for {@link PKLog}.
+ * <p>
+ * Keeps the last log records in a fixed-size ring buffer, without going through logcat. Records are
+ * kept in their raw form (level, tag id, timestamp, message or format and arguments) and only
+ * formatted when the buffer is dumped, so recording is cheap enough to leave on in production.
+ * Writers never block: each record claims a slot with a single atomic increment. When a fatal player
+ * error is reported, the buffer is dumped to the {@link DumpListener} and/or a file.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ *     PKLogRecorder recorder = new PKLogRecorder(1024, PKLog.Level.debug);
+ *     recorder.setDumpDirectory(context.getCacheDir());
+ *     recorder.setDumpListener((error, dump) -&gt; uploadDump(error, dump));
+ *     PKLog.setRecorder(recorder);
+ * </pre>
+ */
+@SuppressWarnings("WeakerAccess")
+public class PKLogRecorder {
+
+    private static final PKLog log = PKLog.get("PKLogRecorder");
+
+    static final byte ARGS_NONE = 0;
+    static final byte ARGS_LONG = 1;
+    static final byte ARGS_LONG_LONG = 2;
+    static final byte ARGS_BOOLEAN = 3;
+
+    private static final char[] LEVEL_CHARS = {'?', '?', 'V', 'D', 'I', 'W', 'E', 'A'};
+
+    public interface DumpListener {
+        /**
+         * Called on a background thread with the formatted contents of the buffer.
+         */
+        void onDump(@NonNull PKError error, @NonNull String dump);
+    }
+
+    private final int minLevel;
+    private final int mask;
+
+    private final AtomicLong nextSequence = new AtomicLong();
+    // Sequence number of the record held by each slot, -1 while it is being written.
+    private final AtomicLongArray sequences;
+    private final long[] timestamps;
+    private final byte[] levels;
+    private final int[] tagIds;
+    private final String[] messages;
+    private final byte[] argTypes;
+    private final long[] args1;
+    private final long[] args2;
+
+    // Shared by all recorders; created on the first dump.
+    private static ExecutorService dumpExecutor;
+    private final AtomicBoolean dumpPending = new AtomicBoolean();
+
+    @Nullable private volatile DumpListener dumpListener;
+    @Nullable private volatile File dumpDirectory;
+
+    /**
+     * @param capacity  Number of records to keep, rounded up to a power of 2.
+     * @param minLevel  Records below this level are not recorded.
+     */
+    public PKLogRecorder(int capacity, @NonNull PKLog.Level minLevel) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.mask = size - 1;
+        this.minLevel = minLevel.value;
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, -1);
+        }
+        timestamps = new long[size];
+        levels = new byte[size];
+        tagIds = new int[size];
+        messages = new String[size];
+        argTypes = new byte[size];
+        args1 = new long[size];
+        args2 = new long[size];
+    }
+
+    public void setDumpListener(@Nullable DumpListener dumpListener) {
+        this.dumpListener = dumpListener;
+    }
+
+    /**
+     * Directory to write a dump file to on every fatal player error. Files are named
+     * {@code pklog-<timestamp>.txt}; the app is responsible for cleaning them up.
+     */
+    public void setDumpDirectory(@Nullable File dumpDirectory) {
+        this.dumpDirectory = dumpDirectory;
+    }
+
+    public boolean isRecording(int priority) {
+        return priority >= minLevel;
+    }
+
+    void record(int priority, int tagId, String message) {
+        record(priority, tagId, message, ARGS_NONE, 0, 0);
+    }
+
+    void record(int priority, int tagId, String message, byte argType, long arg1, long arg2) {
+        if (priority < minLevel) {
+            return;
+        }
+        final long sequence = nextSequence.getAndIncrement();
+        final int slot = (int) (sequence & mask);
+
+        sequences.set(slot, -1);
+        timestamps[slot] = System.currentTimeMillis();
+        levels[slot] = (byte) priority;
+        tagIds[slot] = tagId;
+        messages[slot] = message;
+        argTypes[slot] = argType;
+        args1[slot] = arg1;
+        args2[slot] = arg2;
+        sequences.lazySet(slot, sequence);
+    }
+
+    /**
+     * Format the current contents of the buffer, oldest record first.
+     */
+    @NonNull
+    public String dump() {
+        final StringBuilder sb = new StringBuilder();
+        try {
+            writeTo(sb);
+        } catch (IOException e) {
+            // StringBuilder doesn't throw
+        }
+        return sb.toString();
+    }
+
+    public void writeTo(@NonNull Appendable out) throws IOException {
+        snapshot().writeTo(out);
+    }
+
+    // Copy the raw records, oldest first; formatting them is left to the caller.
+    private Snapshot snapshot() {
+        final long end = nextSequence.get();
+        final long start = Math.max(0, end - (mask + 1));
+        final Snapshot snapshot = new Snapshot((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            final int slot = (int) (sequence & mask);
+            if (sequences.get(slot) != sequence) {
+                continue;   // Being written, or already overwritten by a newer record
+            }
+            final int i = snapshot.count;
+            snapshot.timestamps[i] = timestamps[slot];
+            snapshot.levels[i] = levels[slot];
+            snapshot.tagIds[i] = tagIds[slot];
+            snapshot.messages[i] = messages[slot];
+            snapshot.argTypes[i] = argTypes[slot];
+            snapshot.args1[i] = args1[slot];
+            snapshot.args2[i] = args2[slot];
+            if (sequences.get(slot) != sequence) {
+                continue;   // Overwritten while reading
+            }
+            snapshot.count++;
+        }
+        return snapshot;
+    }
+
+    private static class Snapshot {
+        final long[] timestamps;
+        final byte[] levels;
+        final int[] tagIds;
+        final String[] messages;
+        final byte[] argTypes;
+        final long[] args1;
+        final long[] args2;
+        int count;
+
+        Snapshot(int size) {
+            timestamps = new long[size];
+            levels = new byte[size];
+            tagIds = new int[size];
+            messages = new String[size];
+            argTypes = new byte[size];
+            args1 = new long[size];
+            args2 = new long[size];
+        }
+
+        void writeTo(Appendable out) throws IOException {
+            final SimpleDateFormat timeFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.ENGLISH);
+            final Date date = new Date();
+            for (int i = 0; i < count; i++) {
+                final int level = levels[i];
+                date.setTime(timestamps[i]);
+                out.append(timeFormat.format(date))
+                        .append(' ').append(level < LEVEL_CHARS.length ? LEVEL_CHARS[level] : '?')
+                        .append('/').append(PKLog.tagName(tagIds[i]))
+                        .append(": ").append(formatMessage(messages[i], argTypes[i], args1[i], args2[i])).append('\n');
+            }
+        }
+    }
+
+    private static String formatMessage(String message, byte argType, long arg1, long arg2) {
+        if (message == null || argType == ARGS_NONE) {
+            return message;
+        }
+        try {
+            switch (argType) {
+                case ARGS_LONG:
+                    return String.format(Locale.ENGLISH, message, arg1);
+                case ARGS_LONG_LONG:
+                    return String.format(Locale.ENGLISH, message, arg1, arg2);
+                case ARGS_BOOLEAN:
+                    return String.format(Locale.ENGLISH, message, arg1 != 0);
+                default:
+                    return message;
+            }
+        } catch (RuntimeException e) {
+            return message + " [" + arg1 + ", " + arg2 + "]";
+        }
+    }
+
+    /**
+     * Dump the buffer to the listener and the dump directory, if set. Called by the player
+     * when it reports an error, on the thread that posts player events.
+     * <p>
+     * Only fatal errors are dumped, and an error that comes while the previous dump is still
+     * being written is skipped. The caller only copies the raw records; formatting and writing
+     * them is done on a shared background thread.
+     */
+    public void onError(@NonNull PKError error) {
+        final DumpListener listener = dumpListener;
+        final File directory = dumpDirectory;
+        if ((listener == null && directory == null) || !error.isFatal()) {
+            return;
+        }
+        if (!dumpPending.compareAndSet(false, true)) {
+            log.d("Previous log dump still pending, skipping dump of " + error.errorType);
+            return;
+        }
+
+        final Snapshot snapshot = snapshot();
+        getDumpExecutor().execute(() -> {
+            try {
+                final StringBuilder sb = new StringBuilder();
+                sb.append("Error: ").append(error.errorType).append(" (").append(error.severity).append("): ")
+                        .append(error.message).append('\n');
+                try {
+                    snapshot.writeTo(sb);
+                } catch (IOException e) {
+                    // StringBuilder doesn't throw
+                }
+                final String dump = sb.toString();
+                if (directory != null) {
+                    writeDumpFile(directory, dump);
+                }
+                if (listener != null) {
+                    listener.onDump(error, dump);
+                }
+            } finally {
+                dumpPending.set(false);
+            }
+        });
+    }
+
+    private static synchronized ExecutorService getDumpExecutor() {
+        if (dumpExecutor == null) {
+            dumpExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "PKLogRecorder");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return dumpExecutor;
+    }
+
+    private static void writeDumpFile(File directory, String dump) {
+        final String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS", Locale.ENGLISH).format(new Date());
+        final File file = new File(directory, "pklog-" + timestamp + ".txt");
+        Writer writer = null;
+        try {
+            writer = new FileWriter(file);
+            writer.write(dump);
+        } catch (IOException e) {
+            log.e("Failed writing log dump to " + file, e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    log.e("Failed closing log dump " + file, e);
+                }
+            }
+        }
+    }
+}
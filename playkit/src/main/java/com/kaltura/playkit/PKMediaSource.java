@@ -23,6 +23,7 @@ public class PKMediaSource implements Parcelable {
     private String url;
     private PKMediaFormat mediaFormat;
     private List<PKDrmParams> drmData;
+    private List<String> alternateBaseUrls;
 
     public PKMediaSource() {
     }
@@ -32,6 +33,7 @@ public class PKMediaSource implements Parcelable {
         url = in.readString();
         mediaFormat = Utils.byValue(PKMediaFormat.class, in.readString());
         drmData = in.createTypedArrayList(PKDrmParams.CREATOR);
+        alternateBaseUrls = in.createStringArrayList();
     }
 
     public String getId() {
@@ -61,6 +63,26 @@ public class PKMediaSource implements Parcelable {
         return this;
     }
 
+    public List<String> getAlternateBaseUrls() {
+        return alternateBaseUrls;
+    }
+
+    /**
+     * Set the base URLs of other CDNs that serve the same content, e.g. "https://cdn2.example.com".
+     * Only the scheme, host and port are used: the player sends requests that go to the host of
+     * {@link #getUrl()} to whichever of these hosts is currently the healthiest, keeping the paths.
+     * @param alternateBaseUrls The base URLs.
+     * @return this
+     */
+    public PKMediaSource setAlternateBaseUrls(List<String> alternateBaseUrls) {
+        this.alternateBaseUrls = alternateBaseUrls;
+        return this;
+    }
+
+    public boolean hasAlternateBaseUrls() {
+        return (alternateBaseUrls != null && alternateBaseUrls.size() > 0);
+    }
+
     public PKMediaFormat getMediaFormat() {
         if (mediaFormat == null && url != null) {
             this.mediaFormat = PKMediaFormat.valueOfUrl(url);
@@ -93,6 +115,7 @@ public class PKMediaSource implements Parcelable {
         } else {
             dest.writeTypedList(Collections.EMPTY_LIST);
         }
+        dest.writeStringList(alternateBaseUrls);
     }
 
     public static final Creator<PKMediaSource> CREATOR = new Creator<PKMediaSource>() {
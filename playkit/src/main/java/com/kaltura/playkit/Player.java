@@ -16,8 +16,15 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.kaltura.playkit.player.ABRSettings;
+import com.kaltura.playkit.player.HedgedRequestSettings;
 import com.kaltura.playkit.player.LoadControlBuffers;
 import com.kaltura.playkit.player.PKAspectRatioResizeMode;
+import com.kaltura.playkit.player.PKBandwidthMeter;
+import com.kaltura.playkit.player.PKBufferHealth;
+import com.kaltura.playkit.player.PKDeliveryInterceptor;
+import com.kaltura.playkit.player.PKManifestCache;
+import com.kaltura.playkit.player.PKMediaCache;
+import com.kaltura.playkit.player.PKStartupTimings;
 import com.kaltura.playkit.player.PlayerView;
 import com.kaltura.playkit.player.SubtitleStyleSettings;
 import com.kaltura.playkit.player.vr.VRSettings;
@@ -211,6 +218,118 @@ public interface Player {
          * @param vrSettings vr configuration
          */
         Settings setVRSettings(VRSettings vrSettings);
+
+        /**
+         * Set the interval between {@link PlayerEvent.PlayheadUpdated} events.
+         * Playhead updates are only produced while playing, while someone listens to them
+         * and while the player view is attached to a window.
+         *
+         * @param playheadUpdateIntervalMs - interval in milliseconds, default is {@link Consts#DEFAULT_PLAYHEAD_UPDATE_MILI}.
+         * @return - Player Settings.
+         */
+        Settings setPlayheadUpdateInterval(long playheadUpdateIntervalMs);
+
+        /**
+         * Send {@link PlayerEvent.PlayheadUpdated} on display frames ({@link android.view.Choreographer}),
+         * at the first frame after the playhead update interval, instead of on a timer. Useful for smooth
+         * UI scrubbers. By default it is set to false.
+         *
+         * @param alignedToFrames - true to align playhead updates to display frames.
+         * @return - Player Settings.
+         */
+        Settings setPlayheadUpdateAlignedToFrames(boolean alignedToFrames);
+
+        /**
+         * Set an on-disk cache for media segments and progressive media, see {@link PKMediaCache}.
+         * Applied to media prepared after this call. By default there is no cache.
+         *
+         * @param mediaCache - the cache, or null to stop caching.
+         * @return - Player Settings.
+         */
+        Settings setMediaCache(PKMediaCache mediaCache);
+
+        /**
+         * Set an in-memory cache for DASH manifests and HLS playlists, see {@link PKManifestCache}.
+         * The same cache may be shared by several players, and used for prefetching. By default there is no cache.
+         *
+         * @param manifestCache - the cache, or null to stop caching.
+         * @return - Player Settings.
+         */
+        Settings setManifestCache(PKManifestCache manifestCache);
+
+        /**
+         * Warm up the connections to the hosts of the media on setMedia: the selected source, the DRM license
+         * URLs and the external subtitles, see {@link com.kaltura.playkit.player.PKHttpClientManager#warmUp(PKMediaEntry, Player)}.
+         * By default it is set to false.
+         *
+         * @param connectionWarmUpEnabled - true to warm up connections on setMedia.
+         * @return - Player Settings.
+         */
+        Settings setConnectionWarmUpEnabled(boolean connectionWarmUpEnabled);
+
+        /**
+         * Enable hedged media segment requests: a segment request that is slower than usual to respond is
+         * sent again, and the first response wins. Hedges are reported with {@link PlayerEvent.HedgedRequest}.
+         * Applied to media prepared after this call. By default hedging is disabled.
+         *
+         * @param hedgedRequestSettings - the settings, or null to disable hedging.
+         * @return - Player Settings.
+         */
+        Settings setHedgedRequestSettings(HedgedRequestSettings hedgedRequestSettings);
+
+        /**
+         * Set a delivery interceptor, that sees every manifest, segment, subtitle and license request
+         * with what it is for, and can serve, rewrite or pass it through.
+         * Applied to media prepared after this call, including its license requests.
+         *
+         * @param deliveryInterceptor - the interceptor, or null to send requests directly.
+         * @return - Player Settings.
+         */
+        Settings setDeliveryInterceptor(PKDeliveryInterceptor deliveryInterceptor);
+
+        /**
+         * Push the buffer health of the player (forward buffer per track type, bitrates, playback rate
+         * and stalls) to a listener, on a background thread. Meant for delivery layers that schedule
+         * their requests by urgency. Applied when the player is first prepared.
+         *
+         * @param bufferHealthListener - the listener, or null.
+         * @return - Player Settings.
+         */
+        Settings setBufferHealthListener(PKBufferHealth.Listener bufferHealthListener);
+
+        /**
+         * Set the interval between buffer health updates. Stall changes are pushed right away.
+         *
+         * @param bufferHealthUpdateIntervalMs - interval in milliseconds, default is {@link Consts#DEFAULT_BUFFER_HEALTH_UPDATE_MILI}.
+         * @return - Player Settings.
+         */
+        Settings setBufferHealthUpdateInterval(long bufferHealthUpdateIntervalMs);
+
+        /**
+         * Set the bandwidth meter of the player, e.g. {@link PKBandwidthMeter#getShared(android.content.Context)} to share
+         * the estimate between players. By default each player has its own meter, which still starts with
+         * the estimate remembered for the current network, or with {@link ABRSettings#setInitialBitrateEstimate(long)}.
+         *
+         * @param bandwidthMeter - the meter, or null for a meter of the player.
+         * @return - Player Settings.
+         */
+        Settings setBandwidthMeter(PKBandwidthMeter bandwidthMeter);
+
+        /**
+         * Set the number of DRM sessions kept open after their media is replaced. The next media with the
+         * same key IDs and license URL (e.g. the next episode of a series) reuses the session and its
+         * license, without a license request. Reuses are reported with {@link PlayerEvent.DrmSessionReused}.
+         * Sessions whose license is about to expire are not reused.
+         * <p>
+         * Default is {@link com.kaltura.playkit.utils.Consts#DEFAULT_DRM_SESSION_CACHE_SIZE}: unlike earlier versions,
+         * which closed each session when its media was replaced, up to 2 sessions of past media stay open
+         * until the player is released. Some devices only allow a few open MediaDrm sessions; set 0 to
+         * get the earlier behavior.
+         *
+         * @param drmSessionCacheSize - number of sessions, 0 to close each session with its media.
+         * @return - Player Settings.
+         */
+        Settings setDrmSessionCacheSize(int drmSessionCacheSize);
     }
 
     /**
@@ -381,6 +500,32 @@ public interface Player {
      */
     <T extends PKController> T getController(Class<T> type);
 
+    /**
+     * Set the media to play right after the current one, for gapless playlists.
+     * The source is selected now, the player loads its manifest while the current media plays
+     * and starts buffering it once the current media is fully buffered. When the current media
+     * ends, playback continues into it without a new {@link #prepare} and
+     * {@link PlayerEvent.NextMediaStarted} is sent; set the following media then.
+     * <p>
+     * It must be called after {@link #prepare}. It is not supported with a different player engine
+     * (e.g. VR), with ads plugins, or with a DRM configuration that differs from the current media;
+     * in these cases it returns false and the app should call {@link #prepare} when the current
+     * media ends.
+     *
+     * @param nextMediaConfig - the next media, or null to remove the one that was set.
+     * @return - true if the player will continue into the next media without re-preparing.
+     */
+    default boolean setNextMedia(@Nullable PKMediaConfig nextMediaConfig) { return false; }
+
+    /**
+     * Startup time breakdown of the current media. It is also sent with {@link PlayerEvent.StartupCompleted}
+     * when the first frame is rendered, or when playback starts for media without video.
+     *
+     * @return - the phases of the current media's startup that were reached so far.
+     */
+    @NonNull
+    default PKStartupTimings getStartupTimings() { return PKStartupTimings.NOT_STARTED; }
+
     /**
      * Update Subtitle Styles
      */
@@ -16,6 +16,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.kaltura.playkit.player.PKAspectRatioResizeMode;
+import com.kaltura.playkit.player.PKStartupTimings;
 import com.kaltura.playkit.player.PlayerView;
 import com.kaltura.playkit.player.SubtitleStyleSettings;
 
@@ -86,6 +87,17 @@ public class PlayerDecoratorBase implements Player {
         return player.getPlaybackRate();
     }
 
+    @Override
+    public boolean setNextMedia(@Nullable PKMediaConfig nextMediaConfig) {
+        return player.setNextMedia(nextMediaConfig);
+    }
+
+    @NonNull
+    @Override
+    public PKStartupTimings getStartupTimings() {
+        return player.getStartupTimings();
+    }
+
     @Override
     public void play() {
         player.play();
@@ -181,6 +181,11 @@ public class PlayerEngineWrapper implements PlayerEngine {
         this.playerEngine.setProfiler(profiler);
     }
 
+    @Override
+    public boolean setNextMedia(PKMediaSourceConfig nextSourceConfig) {
+        return playerEngine.setNextMedia(nextSourceConfig);
+    }
+
     @Override
     public void updateSubtitleStyle(SubtitleStyleSettings subtitleStyleSettings) {
         playerEngine.updateSubtitleStyle(subtitleStyleSettings);
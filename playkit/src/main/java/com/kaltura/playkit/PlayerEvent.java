@@ -16,6 +16,7 @@ import androidx.annotation.NonNull;
 
 import com.kaltura.playkit.player.AudioTrack;
 import com.kaltura.playkit.player.PKAspectRatioResizeMode;
+import com.kaltura.playkit.player.PKStartupTimings;
 import com.kaltura.playkit.player.PKTracks;
 import com.kaltura.playkit.player.TextTrack;
 import com.kaltura.playkit.player.VideoTrack;
@@ -44,6 +45,10 @@ public class PlayerEvent implements PKEvent {
     public static final Class<VideoFramesDropped> videoFramesDropped = VideoFramesDropped.class;
     public static final Class<BytesLoaded> bytesLoaded = BytesLoaded.class;
     public static final Class<SurfaceAspectRationResizeModeChanged> surfaceAspectRationSizeModeChanged = SurfaceAspectRationResizeModeChanged.class;
+    public static final Class<StartupCompleted> startupCompleted = StartupCompleted.class;
+    public static final Class<NextMediaStarted> nextMediaStarted = NextMediaStarted.class;
+    public static final Class<HedgedRequest> hedgedRequest = HedgedRequest.class;
+    public static final Class<DrmSessionReused> drmSessionReused = DrmSessionReused.class;
 
     public static final PlayerEvent.Type canPlay = Type.CAN_PLAY;
     public static final PlayerEvent.Type ended = Type.ENDED;
@@ -273,6 +278,78 @@ public class PlayerEvent implements PKEvent {
         }
     }
 
+    public static class StartupCompleted extends PlayerEvent {
+        public final PKStartupTimings startupTimings;
+
+        public StartupCompleted(PKStartupTimings startupTimings) {
+            super(Type.STARTUP_COMPLETED);
+            this.startupTimings = startupTimings;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "StartupCompleted{" +
+                    "startupTimings=" + startupTimings +
+                    '}';
+        }
+    }
+
+    public static class NextMediaStarted extends PlayerEvent {
+        public final PKMediaConfig mediaConfig;
+
+        public NextMediaStarted(PKMediaConfig mediaConfig) {
+            super(Type.NEXT_MEDIA_STARTED);
+            this.mediaConfig = mediaConfig;
+        }
+    }
+
+    public static class HedgedRequest extends PlayerEvent {
+        public final boolean hedgeWon;
+        public final long totalRequests;
+        public final long totalHedges;
+        public final long totalHedgeWins;
+
+        public HedgedRequest(boolean hedgeWon, long totalRequests, long totalHedges, long totalHedgeWins) {
+            super(Type.HEDGED_REQUEST);
+            this.hedgeWon = hedgeWon;
+            this.totalRequests = totalRequests;
+            this.totalHedges = totalHedges;
+            this.totalHedgeWins = totalHedgeWins;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "HedgedRequest{" +
+                    "hedgeWon=" + hedgeWon +
+                    ", totalRequests=" + totalRequests +
+                    ", totalHedges=" + totalHedges +
+                    ", totalHedgeWins=" + totalHedgeWins +
+                    '}';
+        }
+    }
+
+    public static class DrmSessionReused extends PlayerEvent {
+        public final long totalHits;
+        public final long totalMisses;
+
+        public DrmSessionReused(long totalHits, long totalMisses) {
+            super(Type.DRM_SESSION_REUSED);
+            this.totalHits = totalHits;
+            this.totalMisses = totalMisses;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "DrmSessionReused{" +
+                    "totalHits=" + totalHits +
+                    ", totalMisses=" + totalMisses +
+                    '}';
+        }
+    }
+
     public enum Type {
         STATE_CHANGED,
         CAN_PLAY,   // Sent when enough data is available that the media can be played, at least for a couple of frames. This corresponds to the HAVE_ENOUGH_DATA readyState.
@@ -301,7 +378,11 @@ public class PlayerEvent implements PKEvent {
         VIDEO_FRAMES_DROPPED,   // Video frames were dropped, see PlayerEvent.VideoFramesDropped
         BYTES_LOADED,           // Bytes were downloaded from the network
         SUBTITLE_STYLE_CHANGED,  // Subtitle style is changed.
-        ASPECT_RATIO_RESIZE_MODE_CHANGED //Send when updating the Surface Vide Aspect Ratio size mode.
+        ASPECT_RATIO_RESIZE_MODE_CHANGED, //Send when updating the Surface Vide Aspect Ratio size mode.
+        STARTUP_COMPLETED, // Sent when the first frame of a new media is rendered. Holds the PKStartupTimings of the media.
+        NEXT_MEDIA_STARTED, // Sent when playback moved on to the media set with Player.setNextMedia().
+        HEDGED_REQUEST, // Sent when a hedged segment request completes, see PlayerEvent.HedgedRequest
+        DRM_SESSION_REUSED // Sent when the media uses a DRM session kept open from a previous media, see PlayerEvent.DrmSessionReused
     }
 
     @Override
@@ -58,7 +58,26 @@ class PlayerLoader extends PlayerDecoratorBase {
         // By default, set Kaltura decorator.
         KalturaPlaybackRequestAdapter.install(playerController, context.getPackageName());
 
-        playerController.setEventListener(messageBus::post);
+        playerController.setEventListener(event -> {
+            if (event instanceof PlayerEvent.Error) {
+                dumpLogRecorder(((PlayerEvent.Error) event).error);
+            } else if (event instanceof PlayerEvent.NextMediaStarted) {
+                // Same as prepare(), for the media that playback moved on to.
+                messageBus.clearStickyEvents();
+                messageBus.post(event);
+                updatePluginsMedia(((PlayerEvent.NextMediaStarted) event).mediaConfig);
+                return;
+            }
+            messageBus.post(event);
+        });
+
+        // Playhead updates are only computed while someone listens to them.
+        messageBus.setListenersObserver((type, hasListeners) -> {
+            if (type == PlayerEvent.playheadUpdated || type == PlayerEvent.Type.PLAYHEAD_UPDATED) {
+                updatePlayheadListenersPresent();
+            }
+        });
+        updatePlayheadListenersPresent();
 
         Player player = playerController;
         PlayerEngineWrapper playerEngineWrapper = null;
@@ -111,6 +130,7 @@ class PlayerLoader extends PlayerDecoratorBase {
         stop();
         releasePlugins();
         releasePlayer();
+        messageBus.clearStickyEvents();
     }
 
     @Override
@@ -137,6 +157,9 @@ class PlayerLoader extends PlayerDecoratorBase {
     @Override
     public void prepare(@NonNull final PKMediaConfig mediaConfig) {
 
+        // Sticky events belong to the previous media.
+        messageBus.clearStickyEvents();
+
         //If mediaConfig is not valid, playback is impossible, so return.
         //setMedia() is responsible to notify application with exact error that happened.
         if (!playerController.setMedia(mediaConfig)) {
@@ -145,9 +168,7 @@ class PlayerLoader extends PlayerDecoratorBase {
 
         super.prepare(mediaConfig);
 
-        for (Map.Entry<String, LoadedPlugin> loadedPluginEntry : loadedPlugins.entrySet()) {
-            loadedPluginEntry.getValue().plugin.onUpdateMedia(mediaConfig);
-        }
+        updatePluginsMedia(mediaConfig);
 //        messageBus.post(new Runnable() {
 //            @Override
 //            public void run() {
@@ -185,6 +206,27 @@ class PlayerLoader extends PlayerDecoratorBase {
         setPlayer(currentLayer);
     }
 
+    private void updatePluginsMedia(PKMediaConfig mediaConfig) {
+        for (Map.Entry<String, LoadedPlugin> loadedPluginEntry : loadedPlugins.entrySet()) {
+            loadedPluginEntry.getValue().plugin.onUpdateMedia(mediaConfig);
+        }
+    }
+
+    private void updatePlayheadListenersPresent() {
+        final PlayerController controller = playerController;
+        if (controller != null) {
+            controller.setPlayheadListenersPresent(messageBus.hasListeners(PlayerEvent.playheadUpdated) ||
+                    messageBus.hasListeners(PlayerEvent.Type.PLAYHEAD_UPDATED));
+        }
+    }
+
+    private void dumpLogRecorder(PKError error) {
+        final PKLogRecorder recorder = PKLog.getRecorder();
+        if (recorder != null && error != null) {
+            recorder.onError(error);
+        }
+    }
+
     private PKPlugin loadPlugin(String name, Player player, Object config, MessageBus messageBus, Context context) {
         PKPlugin plugin = PlayKitManager.createPlugin(name);
         if (plugin != null) {
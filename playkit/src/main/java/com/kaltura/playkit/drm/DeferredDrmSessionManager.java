@@ -12,6 +12,7 @@
 
 package com.kaltura.playkit.drm;
 
+import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
@@ -22,6 +23,7 @@ import com.kaltura.android.exoplayer2.drm.DrmInitData;
 import com.kaltura.android.exoplayer2.drm.DrmSession;
 import com.kaltura.android.exoplayer2.drm.DrmSessionManager;
 import com.kaltura.android.exoplayer2.drm.FrameworkMediaCrypto;
+import com.kaltura.android.exoplayer2.drm.FrameworkMediaDrm;
 import com.kaltura.android.exoplayer2.drm.UnsupportedDrmException;
 import com.kaltura.android.exoplayer2.extractor.mp4.PsshAtomUtil;
 import com.kaltura.android.exoplayer2.util.Util;
@@ -29,14 +31,17 @@ import com.kaltura.playkit.LocalAssetsManager;
 import com.kaltura.playkit.PKDrmParams;
 import com.kaltura.playkit.PKError;
 import com.kaltura.playkit.PKLog;
+import com.kaltura.playkit.PKMediaFormat;
 import com.kaltura.playkit.PKMediaSource;
 import com.kaltura.playkit.player.MediaSupport;
 import com.kaltura.playkit.player.PKPlayerErrorType;
 
 import java.io.FileNotFoundException;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static com.kaltura.playkit.Utils.toBase64;
 
@@ -53,9 +58,19 @@ public class DeferredDrmSessionManager implements DrmSessionManager<FrameworkMed
     private DrmSessionListener drmSessionListener;
     private LocalAssetsManager.LocalMediaSource localMediaSource = null;
     private DefaultDrmSessionManager<FrameworkMediaCrypto> drmSessionManager = null;
+    private PrefetchingMediaDrm prefetchingMediaDrm = null;
+    private final DrmSessionCache sessionCache = new DrmSessionCache();
+    private String licenseUrl;
+    private boolean cacheSessions;
+    private final Set<String> lookedUpSessionKeys = new HashSet<>();    // Of the current media. Guarded by itself
 
     public interface DrmSessionListener {
         void onError(PKError error);
+
+        /**
+         * Called on the main thread when the media uses a session that was kept open from a previous media.
+         */
+        void onSessionReused(long totalHits, long totalMisses);
     }
 
     public DeferredDrmSessionManager(Handler mainHandler, DrmCallback drmCallback, DrmSessionListener drmSessionListener) {
@@ -70,14 +85,30 @@ public class DeferredDrmSessionManager implements DrmSessionManager<FrameworkMed
             return;
         }
 
+        if (prefetchingMediaDrm != null) {
+            prefetchingMediaDrm.cancelPrefetch();
+            prefetchingMediaDrm = null;
+        }
+        synchronized (lookedUpSessionKeys) {
+            lookedUpSessionKeys.clear();
+        }
+        cacheSessions = false;
+        licenseUrl = null;
+
         try {
             if (mediaSource instanceof LocalAssetsManager.LocalMediaSource) {
                 localMediaSource = (LocalAssetsManager.LocalMediaSource) mediaSource;
+                drmSessionManager = DefaultDrmSessionManager.newWidevineInstance(drmCallback, null);
             } else {
-                drmCallback.setLicenseUrl(getLicenseUrl(mediaSource));
+                licenseUrl = getLicenseUrl(mediaSource);
+                cacheSessions = true;
+                drmCallback.setLicenseUrl(licenseUrl);
+                prefetchingMediaDrm = new PrefetchingMediaDrm(FrameworkMediaDrm.newInstance(MediaSupport.WIDEVINE_UUID), drmCallback);
+                drmSessionManager = new DefaultDrmSessionManager<>(MediaSupport.WIDEVINE_UUID, prefetchingMediaDrm,
+                        prefetchingMediaDrm.getCallback(), null);
+                prefetchLicense(getInitData(mediaSource));
             }
 
-            drmSessionManager = DefaultDrmSessionManager.newWidevineInstance(drmCallback, null);
             if (mainHandler != null) {
                 drmSessionManager.addListener(mainHandler, this);
             }
@@ -89,6 +120,52 @@ public class DeferredDrmSessionManager implements DrmSessionManager<FrameworkMed
         }
     }
 
+    /**
+     * Request the license of the init data now, in parallel with the manifest load, instead of after
+     * ExoPlayer has parsed the manifest and the initialization segment. Called with the media source's
+     * {@link PKDrmParams#getInitData()} by {@link #setMediaSource(PKMediaSource)}.
+     *
+     * @param initData Widevine PSSH box or init data, or null.
+     */
+    public void prefetchLicense(byte[] initData) {
+        if (prefetchingMediaDrm != null && initData != null) {
+            if (cacheSessions && sessionCache.contains(DrmSessionCache.buildKey(initData, licenseUrl))) {
+                log.d("License of the init data is in a cached session, not prefetching it");
+                return;
+            }
+            prefetchingMediaDrm.prefetch(initData);
+        }
+    }
+
+    /**
+     * Request the license with the init data of an already loaded manifest, if it has any.
+     */
+    public void prefetchLicense(Uri manifestUri, byte[] manifest, PKMediaFormat format) {
+        if (prefetchingMediaDrm != null && manifest != null) {
+            prefetchLicense(PrefetchingMediaDrm.findWidevineInitData(manifestUri, manifest, format));
+        }
+    }
+
+    public boolean isLicensePrefetchStarted() {
+        return prefetchingMediaDrm != null && prefetchingMediaDrm.hasPrefetch();
+    }
+
+    /**
+     * @param maxSessions Number of DRM sessions kept open for the next media, 0 to close each session
+     *                    when its media is replaced.
+     */
+    public void setMaxCachedSessions(int maxSessions) {
+        sessionCache.setMaxSessions(maxSessions);
+    }
+
+    /**
+     * Close the DRM sessions kept open for the next media. Sessions still used by the player are
+     * closed once it releases them.
+     */
+    public void releaseCachedSessions() {
+        sessionCache.clear();
+    }
+
     @Override
     public boolean canAcquireSession(DrmInitData drmInitData) {
         return drmSessionManager != null && drmSessionManager.canAcquireSession(drmInitData);
@@ -115,9 +192,41 @@ public class DeferredDrmSessionManager implements DrmSessionManager<FrameworkMed
             }
         }
 
+        final String cacheKey = cacheSessions && sessionCache.isEnabled() ? DrmSessionCache.buildKey(drmInitData, licenseUrl) : null;
+        if (cacheKey != null) {
+            DrmSessionCache.Entry entry = sessionCache.acquire(cacheKey, playbackLooper);
+            final boolean hit = entry != null;
+            if (entry == null) {
+                entry = sessionCache.put(cacheKey, playbackLooper, drmSessionManager.acquireSession(playbackLooper, drmInitData), drmSessionManager);
+            }
+            onSessionLookup(cacheKey, hit);
+            return new SessionWrapper(entry);
+        }
+
         return new SessionWrapper(playbackLooper, drmInitData, drmSessionManager);
     }
 
+    // Counts the first lookup of each key of the media; ExoPlayer acquires a session per renderer.
+    private void onSessionLookup(String cacheKey, boolean hit) {
+        synchronized (lookedUpSessionKeys) {
+            if (!lookedUpSessionKeys.add(cacheKey)) {
+                return;
+            }
+        }
+        sessionCache.countLookup(hit);
+        if (!hit) {
+            return;
+        }
+        log.d("Reusing cached DRM session");
+        final long hits = sessionCache.getHitCount();
+        final long misses = sessionCache.getMissCount();
+        if (mainHandler != null) {
+            mainHandler.post(() -> drmSessionListener.onSessionReused(hits, misses));
+        } else {
+            drmSessionListener.onSessionReused(hits, misses);
+        }
+    }
+
     @Override
     public void releaseSession(DrmSession drmSession) {
         if (drmSession instanceof SessionWrapper) {
@@ -156,7 +265,18 @@ public class DeferredDrmSessionManager implements DrmSessionManager<FrameworkMed
         return schemeData;
     }
 
-    private String getLicenseUrl(PKMediaSource mediaSource) {
+    private static byte[] getInitData(PKMediaSource mediaSource) {
+        if (mediaSource.hasDrmParams()) {
+            for (PKDrmParams pkDrmParam : mediaSource.getDrmData()) {
+                if (PKDrmParams.Scheme.WidevineCENC == pkDrmParam.getScheme()) {
+                    return pkDrmParam.getInitData();
+                }
+            }
+        }
+        return null;
+    }
+
+    public static String getLicenseUrl(PKMediaSource mediaSource) {
         String licenseUrl = null;
 
         if (mediaSource.hasDrmParams()) {
@@ -201,14 +321,26 @@ class SessionWrapper implements DrmSession<FrameworkMediaCrypto> {
 
     private DrmSession<FrameworkMediaCrypto> realDrmSession;
     private DrmSessionManager<FrameworkMediaCrypto> realDrmSessionManager;
+    private DrmSessionCache.Entry cacheEntry;
 
     SessionWrapper(Looper playbackLooper, DrmInitData drmInitData, DrmSessionManager<FrameworkMediaCrypto> drmSessionManager) {
         this.realDrmSession = drmSessionManager.acquireSession(playbackLooper, drmInitData);
         this.realDrmSessionManager = drmSessionManager;
     }
 
+    // A reference to a cached session, which the cache releases.
+    SessionWrapper(DrmSessionCache.Entry cacheEntry) {
+        this.realDrmSession = cacheEntry.session;
+        this.cacheEntry = cacheEntry;
+    }
+
     void release() {
-        realDrmSessionManager.releaseSession(realDrmSession);
+        if (cacheEntry != null) {
+            cacheEntry.release();
+        } else {
+            realDrmSessionManager.releaseSession(realDrmSession);
+        }
+        cacheEntry = null;
         realDrmSessionManager = null;
         realDrmSession = null;
     }
@@ -60,6 +60,18 @@ public abstract class DrmAdapter {
 
     public abstract boolean checkAssetStatus(final String localAssetPath, final String assetId, final LocalAssetsManager.AssetStatusListener listener);
 
+    /**
+     * Share one DRM instance between the operations of this adapter, which may run concurrently, until {@link #endBatch()}.
+     */
+    public void beginBatch() {
+    }
+
+    /**
+     * Release the DRM instance shared since {@link #beginBatch()}. Called after all the operations of the batch are done.
+     */
+    public void endBatch() {
+    }
+
     private static class NullDrmAdapter extends DrmAdapter {
         @Override
         public boolean checkAssetStatus(String localAssetPath, String assetId, LocalAssetsManager.AssetStatusListener listener) {
@@ -1,15 +1,22 @@
 package com.kaltura.playkit.drm;
 
 import android.net.Uri;
+import android.text.TextUtils;
 
 import com.kaltura.android.exoplayer2.drm.ExoMediaDrm;
 import com.kaltura.android.exoplayer2.drm.HttpMediaDrmCallback;
 import com.kaltura.android.exoplayer2.drm.MediaDrmCallback;
 import com.kaltura.android.exoplayer2.upstream.HttpDataSource;
+import com.kaltura.android.exoplayer2.util.Util;
 import com.kaltura.playkit.PKLog;
 import com.kaltura.playkit.PKRequestParams;
+import com.kaltura.playkit.player.PKDeliveryInterceptor;
+import com.kaltura.playkit.player.PKDeliveryRequest;
+import com.kaltura.playkit.player.PKDeliveryResponse;
+import com.kaltura.playkit.utils.Consts;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -19,7 +26,9 @@ public class DrmCallback implements MediaDrmCallback {
 
     private final HttpDataSource.Factory dataSourceFactory;
     private final PKRequestParams.Adapter adapter;
+    private volatile PKDeliveryInterceptor deliveryInterceptor;
     private HttpMediaDrmCallback callback;
+    private PKRequestParams licenseParams;
 
     @Override
     public byte[] executeProvisionRequest(UUID uuid, ExoMediaDrm.ProvisionRequest request) throws IOException {
@@ -28,12 +37,52 @@ public class DrmCallback implements MediaDrmCallback {
 
     @Override
     public byte[] executeKeyRequest(UUID uuid, ExoMediaDrm.KeyRequest request) throws Exception {
-        return callback.executeKeyRequest(uuid, request);
+        final PKDeliveryInterceptor deliveryInterceptor = this.deliveryInterceptor;
+        if (deliveryInterceptor == null || licenseParams == null) {
+            return callback.executeKeyRequest(uuid, request);
+        }
+
+        // Same URL as the callback would use.
+        final Uri licenseUrl = TextUtils.isEmpty(request.getLicenseServerUrl()) ? licenseParams.url : Uri.parse(request.getLicenseServerUrl());
+        final PKDeliveryResponse response = deliveryInterceptor.intercept(new PKDeliveryRequest(PKDeliveryRequest.Type.LICENSE,
+                licenseUrl, licenseParams.headers, Consts.TRACK_TYPE_UNKNOWN, Consts.NO_VALUE, Consts.TIME_UNSET, 0, Consts.NO_VALUE, request.getData()));
+        if (response == null || response.isPassThrough()) {
+            return callback.executeKeyRequest(uuid, request);
+        }
+
+        final InputStream data = response.getData();
+        if (data != null) {
+            try {
+                return Util.toByteArray(data);
+            } finally {
+                data.close();
+            }
+        }
+
+        final Uri rewrittenUrl = response.getUrl() != null ? response.getUrl() : licenseUrl;
+        final HttpMediaDrmCallback rewrittenCallback = new HttpMediaDrmCallback(rewrittenUrl.toString(), true, dataSourceFactory);
+        setKeyRequestProperties(rewrittenCallback, licenseParams.headers);
+        if (response.getHeaders() != null) {
+            setKeyRequestProperties(rewrittenCallback, response.getHeaders());
+        }
+        return rewrittenCallback.executeKeyRequest(uuid, request);
     }
 
     public DrmCallback(HttpDataSource.Factory dataSourceFactory, PKRequestParams.Adapter adapter) {
+        this(dataSourceFactory, adapter, null);
+    }
+
+    public DrmCallback(HttpDataSource.Factory dataSourceFactory, PKRequestParams.Adapter adapter, PKDeliveryInterceptor deliveryInterceptor) {
         this.dataSourceFactory = dataSourceFactory;
         this.adapter = adapter;
+        this.deliveryInterceptor = deliveryInterceptor;
+    }
+
+    /**
+     * Replace the interceptor of the license requests. Applies to the next key request.
+     */
+    public void setDeliveryInterceptor(PKDeliveryInterceptor deliveryInterceptor) {
+        this.deliveryInterceptor = deliveryInterceptor;
     }
 
     void setLicenseUrl(String licenseUrl) {
@@ -54,8 +103,12 @@ public class DrmCallback implements MediaDrmCallback {
         }
 
         callback = new HttpMediaDrmCallback(params.url.toString(), dataSourceFactory);
+        setKeyRequestProperties(callback, params.headers);
+        licenseParams = params;
+    }
 
-        for (Map.Entry<String, String> entry : params.headers.entrySet()) {
+    private static void setKeyRequestProperties(HttpMediaDrmCallback callback, Map<String, String> headers) {
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
             callback.setKeyRequestProperty(entry.getKey(), entry.getValue());
         }
     }
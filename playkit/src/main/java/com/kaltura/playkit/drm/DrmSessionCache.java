@@ -0,0 +1,346 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.drm;
+
+import android.os.Looper;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kaltura.android.exoplayer2.drm.DrmInitData;
+import com.kaltura.android.exoplayer2.drm.DrmSession;
+import com.kaltura.android.exoplayer2.drm.DrmSessionManager;
+import com.kaltura.android.exoplayer2.drm.FrameworkMediaCrypto;
+import com.kaltura.playkit.PKLog;
+import com.kaltura.playkit.player.MediaSupport;
+import com.kaltura.playkit.utils.Consts;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Live DRM sessions of one player, kept open after their media is replaced.
+ * <p>
+ * Sessions are keyed by scheme, key IDs and license URL, so the next media protected by the same
+ * content keys (e.g. the next episode of a series) uses the session and its license as they are,
+ * without opening a new MediaDrm session or requesting the license again.
+ * <p>
+ * An entry holds one acquisition of the real session, and counts the {@link SessionWrapper}s that
+ * use it. The real session is released when the entry is evicted and no wrapper uses it anymore.
+ * Entries are evicted when their keys expire or fail, and in LRU order when there are more than
+ * {@link #setMaxSessions(int) max sessions}.
+ */
+class DrmSessionCache {
+
+    private static final PKLog log = PKLog.get("DrmSessionCache");
+
+    // Widevine reports the remaining license duration in seconds.
+    private static final String LICENSE_DURATION_REMAINING = "LicenseDurationRemaining";
+    private static final long MIN_LICENSE_DURATION_REMAINING_SEC = 60;
+
+    private static final int PSSH_HEADER_SIZE = 28;  // size, type, version and flags, system id
+    private static final int KEY_ID_SIZE = 16;
+    private static final int WIDEVINE_KEY_ID_FIELD = 2;
+
+    // Guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(8, 0.75f, true);
+    private int maxSessions = Consts.DEFAULT_DRM_SESSION_CACHE_SIZE;
+    private long hitCount;
+    private long missCount;
+
+    synchronized void setMaxSessions(int maxSessions) {
+        this.maxSessions = Math.max(0, maxSessions);
+        evictIfNeeded();
+    }
+
+    synchronized boolean isEnabled() {
+        return maxSessions > 0;
+    }
+
+    /**
+     * @return A live session of the key, or null. The caller must {@link Entry#release()} it.
+     */
+    @Nullable
+    synchronized Entry acquire(@NonNull String key, @NonNull Looper playbackLooper) {
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.playbackLooper != playbackLooper) {
+            return null;
+        }
+        if (!entry.isUsable()) {
+            log.d("Evicting expired DRM session");
+            entries.remove(key);
+            entry.evict();
+            return null;
+        }
+        entry.refCount++;
+        return entry;
+    }
+
+    /**
+     * Cache a newly acquired session, replacing (and evicting) another session of the key, if any.
+     *
+     * @return The entry of the session, acquired once for the caller.
+     */
+    @NonNull
+    synchronized Entry put(@NonNull String key, @NonNull Looper playbackLooper, @NonNull DrmSession<FrameworkMediaCrypto> session,
+                           @NonNull DrmSessionManager<FrameworkMediaCrypto> sessionManager) {
+        final Entry entry = new Entry(playbackLooper, session, sessionManager);
+        entry.refCount = 1;
+        if (maxSessions > 0) {
+            final Entry previous = entries.put(key, entry);
+            if (previous != null && previous != entry) {
+                previous.evict();
+            }
+            evictIfNeeded();
+        } else {
+            entry.evicted = true;
+        }
+        return entry;
+    }
+
+    synchronized boolean contains(@NonNull String key) {
+        final Entry entry = entries.get(key);
+        return entry != null && entry.isUsable();
+    }
+
+    synchronized void countLookup(boolean hit) {
+        if (hit) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+    synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            entry.evict();
+        }
+        entries.clear();
+    }
+
+    // Guarded by this
+    private void evictIfNeeded() {
+        final Iterator<Entry> iterator = entries.values().iterator();
+        int excess = entries.size() - maxSessions;
+        // Prefer evicting sessions that no media uses.
+        while (excess > 0 && iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (entry.refCount == 0) {
+                iterator.remove();
+                entry.evict();
+                excess--;
+            }
+        }
+        final Iterator<Entry> inUse = entries.values().iterator();
+        while (excess > 0 && inUse.hasNext()) {
+            final Entry entry = inUse.next();
+            inUse.remove();
+            entry.evict();
+            excess--;
+        }
+    }
+
+    /**
+     * @return The cache key of the Widevine init data, or null if there is none.
+     */
+    @Nullable
+    static String buildKey(@Nullable DrmInitData drmInitData, @Nullable String licenseUrl) {
+        if (drmInitData == null) {
+            return null;
+        }
+        for (int i = 0; i < drmInitData.schemeDataCount; i++) {
+            final DrmInitData.SchemeData schemeData = drmInitData.get(i);
+            if (schemeData != null && schemeData.matches(MediaSupport.WIDEVINE_UUID) && schemeData.data != null) {
+                return buildKey(schemeData.data, licenseUrl);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param initData Widevine PSSH box, or its data.
+     */
+    @NonNull
+    static String buildKey(@NonNull byte[] initData, @Nullable String licenseUrl) {
+        List<String> keyIds = new ArrayList<>();
+        byte[] widevineData = initData;
+        try {
+            if (isPsshBox(initData)) {
+                final ByteBuffer buffer = ByteBuffer.wrap(initData);
+                final int version = buffer.get(8);
+                buffer.position(PSSH_HEADER_SIZE);
+                if (version > 0) {
+                    final int keyIdCount = buffer.getInt();
+                    for (int i = 0; i < keyIdCount; i++) {
+                        final byte[] keyId = new byte[KEY_ID_SIZE];
+                        buffer.get(keyId);
+                        keyIds.add(toHex(keyId));
+                    }
+                }
+                final byte[] data = new byte[buffer.getInt()];
+                buffer.get(data);
+                widevineData = data;
+            }
+            if (keyIds.isEmpty()) {
+                keyIds = parseWidevineKeyIds(widevineData);
+            }
+        } catch (RuntimeException e) {
+            log.d("No key ids in init data: " + e);
+            keyIds.clear();
+        }
+
+        final String keys;
+        if (keyIds.isEmpty()) {
+            // Without key ids, only the same init data is known to be covered by the license.
+            keys = toHex(widevineData);
+        } else {
+            Collections.sort(keyIds);
+            keys = keyIds.toString();
+        }
+        return MediaSupport.WIDEVINE_UUID + " " + keys + " " + licenseUrl;
+    }
+
+    private static boolean isPsshBox(byte[] data) {
+        return data.length >= PSSH_HEADER_SIZE + 4 && ByteBuffer.wrap(data).getInt() == data.length &&
+                data[4] == 'p' && data[5] == 's' && data[6] == 's' && data[7] == 'h';
+    }
+
+    // The key_id fields of the WidevinePsshData protobuf.
+    private static List<String> parseWidevineKeyIds(byte[] data) {
+        final List<String> keyIds = new ArrayList<>();
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            final long tag = readVarint(buffer);
+            final int field = (int) (tag >>> 3);
+            switch ((int) (tag & 7)) {
+                case 0:
+                    readVarint(buffer);
+                    break;
+                case 1:
+                    buffer.position(buffer.position() + 8);
+                    break;
+                case 2:
+                    final byte[] value = new byte[(int) readVarint(buffer)];
+                    buffer.get(value);
+                    if (field == WIDEVINE_KEY_ID_FIELD) {
+                        keyIds.add(toHex(value));
+                    }
+                    break;
+                case 5:
+                    buffer.position(buffer.position() + 4);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Not a Widevine PSSH");
+            }
+        }
+        return keyIds;
+    }
+
+    private static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static String toHex(byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    class Entry {
+        final Looper playbackLooper;
+        final DrmSession<FrameworkMediaCrypto> session;
+        private final DrmSessionManager<FrameworkMediaCrypto> sessionManager;
+
+        // Guarded by DrmSessionCache.this
+        private int refCount;
+        private boolean evicted;
+        private boolean released;
+
+        Entry(Looper playbackLooper, DrmSession<FrameworkMediaCrypto> session, DrmSessionManager<FrameworkMediaCrypto> sessionManager) {
+            this.playbackLooper = playbackLooper;
+            this.session = session;
+            this.sessionManager = sessionManager;
+        }
+
+        // Called by the SessionWrapper that acquired it.
+        void release() {
+            synchronized (DrmSessionCache.this) {
+                refCount--;
+                releaseIfUnused();
+            }
+        }
+
+        // Guarded by DrmSessionCache.this
+        private void evict() {
+            evicted = true;
+            releaseIfUnused();
+        }
+
+        // Guarded by DrmSessionCache.this
+        private void releaseIfUnused() {
+            if (evicted && refCount <= 0 && !released) {
+                released = true;
+                sessionManager.releaseSession(session);
+            }
+        }
+
+        // Guarded by DrmSessionCache.this
+        private boolean isUsable() {
+            final int state = session.getState();
+            if (state != DrmSession.STATE_OPENED && state != DrmSession.STATE_OPENED_WITH_KEYS) {
+                return false;
+            }
+            final String remaining;
+            try {
+                final Map<String, String> keyStatus = session.queryKeyStatus();
+                remaining = keyStatus != null ? keyStatus.get(LICENSE_DURATION_REMAINING) : null;
+            } catch (RuntimeException e) {
+                // The session was closed under us, e.g. by the DRM framework.
+                return false;
+            }
+            if (remaining == null) {
+                return true;
+            }
+            try {
+                return Long.parseLong(remaining) >= MIN_LICENSE_DURATION_REMAINING_SEC;
+            } catch (NumberFormatException e) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,517 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+package com.kaltura.playkit.drm;
+
+import android.annotation.TargetApi;
+import android.media.DeniedByServerException;
+import android.media.MediaCryptoException;
+import android.media.MediaDrm;
+import android.media.MediaDrmException;
+import android.media.NotProvisionedException;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Base64;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kaltura.android.exoplayer2.drm.DrmInitData;
+import com.kaltura.android.exoplayer2.drm.ExoMediaDrm;
+import com.kaltura.android.exoplayer2.drm.FrameworkMediaCrypto;
+import com.kaltura.android.exoplayer2.drm.FrameworkMediaDrm;
+import com.kaltura.android.exoplayer2.drm.MediaDrmCallback;
+import com.kaltura.android.exoplayer2.extractor.mp4.PsshAtomUtil;
+import com.kaltura.android.exoplayer2.source.dash.manifest.AdaptationSet;
+import com.kaltura.android.exoplayer2.source.dash.manifest.DashManifest;
+import com.kaltura.android.exoplayer2.source.dash.manifest.DashManifestParser;
+import com.kaltura.android.exoplayer2.source.dash.manifest.Representation;
+import com.kaltura.android.exoplayer2.util.MimeTypes;
+import com.kaltura.playkit.PKLog;
+import com.kaltura.playkit.PKMediaFormat;
+import com.kaltura.playkit.player.MediaSupport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Widevine MediaDrm that can get the license of a media before ExoPlayer asks for it.
+ * <p>
+ * Without prefetch, the license request starts once ExoPlayer has loaded the manifest and the
+ * initialization segment. When the init data (PSSH) is known earlier, from {@link com.kaltura.playkit.PKDrmParams#getInitData()}
+ * or from a cached manifest, {@link #prefetch(byte[])} opens a session and sends its key request
+ * right away, in parallel with the manifest load. All of it runs in the background, as opening a
+ * session and building its key request are slow calls to the DRM plugin. Sessions are opened on a
+ * thread of their own, so that an open never waits behind license requests.
+ * <p>
+ * The first session that ExoPlayer opens is the prefetched one, if it opens within {@link #SESSION_OPEN_TIMEOUT_MS};
+ * otherwise ExoPlayer gets a session of its own. If ExoPlayer asks for the keys of the
+ * same init data, its key request is a placeholder that the {@link #getCallback() callback} answers once
+ * the prefetch is done, and the placeholder response is not provided again. If the init data differs
+ * or the prefetch failed, a real key request is made on the same session, as without prefetch.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class PrefetchingMediaDrm implements ExoMediaDrm<FrameworkMediaCrypto> {
+
+    private static final PKLog log = PKLog.get("PrefetchingMediaDrm");
+
+    private static final long PREFETCH_TIMEOUT_MS = 30_000;
+    // How long the playback thread waits for the prefetch to open its session. Opening one takes milliseconds.
+    static final long SESSION_OPEN_TIMEOUT_MS = 1000;
+    private static final String WIDEVINE_KEY_FORMAT = "urn:uuid:" + MediaSupport.WIDEVINE_UUID;
+    private static final Pattern HLS_KEY_URI = Pattern.compile("URI=\"data:[^,\"]*;base64,([^\"]+)\"");
+
+    // Placeholders passed through ExoPlayer for the prefetched keys, compared by identity.
+    private static final byte[] PREFETCHED_REQUEST = new byte[0];
+    private static final byte[] PREFETCHED_RESPONSE = new byte[0];
+
+    // License requests mostly wait for the network; a few threads are enough for all players.
+    private static final ThreadPoolExecutor sharedExecutor = newExecutor(2, "LicensePrefetch");
+    // Session opens only, so that the playback thread never waits for one behind a license request.
+    private static final ThreadPoolExecutor sharedSessionExecutor = newExecutor(1, "LicensePrefetchSession");
+
+    private final ExoMediaDrm<FrameworkMediaCrypto> mediaDrm;
+    private final MediaDrmCallback callback;
+    private final Executor sessionExecutor;
+    private final Executor executor;
+    private final MediaDrmCallback prefetchingCallback = new PrefetchingCallback();
+
+    // Guarded by this
+    private Prefetch prefetch;
+
+    PrefetchingMediaDrm(@NonNull FrameworkMediaDrm mediaDrm, @NonNull MediaDrmCallback callback) {
+        this(mediaDrm, callback, sharedSessionExecutor, sharedExecutor);
+    }
+
+    PrefetchingMediaDrm(@NonNull ExoMediaDrm<FrameworkMediaCrypto> mediaDrm, @NonNull MediaDrmCallback callback,
+                        @NonNull Executor sessionExecutor, @NonNull Executor executor) {
+        this.mediaDrm = mediaDrm;
+        this.callback = callback;
+        this.sessionExecutor = sessionExecutor;
+        this.executor = executor;
+    }
+
+    /**
+     * @return The callback to give to the DrmSessionManager, for the placeholder key requests.
+     */
+    @NonNull
+    MediaDrmCallback getCallback() {
+        return prefetchingCallback;
+    }
+
+    /**
+     * Get the license of the init data in the background. Replaces a previous prefetch that ExoPlayer didn't use.
+     */
+    void prefetch(@NonNull byte[] initData) {
+        cancelPrefetch();
+        final Prefetch newPrefetch = new Prefetch(initData);
+        synchronized (this) {
+            prefetch = newPrefetch;
+        }
+        log.d("License prefetch started");
+        sessionExecutor.execute(newPrefetch::open);
+    }
+
+    void cancelPrefetch() {
+        final Prefetch canceled;
+        synchronized (this) {
+            canceled = prefetch != null && !prefetch.handedOver ? prefetch : null;
+            if (canceled != null) {
+                prefetch = null;
+            }
+        }
+        if (canceled != null) {
+            canceled.abandon();
+        }
+    }
+
+    synchronized boolean hasPrefetch() {
+        return prefetch != null;
+    }
+
+    private synchronized Prefetch getUnusedPrefetch(byte[] sessionId) {
+        return prefetch != null && prefetch.handedOver && !prefetch.used && Arrays.equals(prefetch.sessionId, sessionId) ? prefetch : null;
+    }
+
+    private static byte[] getSchemeSpecificData(byte[] initData) {
+        final byte[] schemeSpecificData = PsshAtomUtil.parseSchemeSpecificData(initData, MediaSupport.WIDEVINE_UUID);
+        return schemeSpecificData != null ? schemeSpecificData : initData;
+    }
+
+    private static boolean hasInitData(List<DrmInitData.SchemeData> schemeDatas, byte[] schemeSpecificData) {
+        if (schemeDatas == null) {
+            return false;
+        }
+        for (DrmInitData.SchemeData schemeData : schemeDatas) {
+            if (schemeData.matches(MediaSupport.WIDEVINE_UUID) && schemeData.data != null &&
+                    Arrays.equals(getSchemeSpecificData(schemeData.data), schemeSpecificData)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the Widevine init data in a DASH manifest or an HLS playlist, if it's there.
+     */
+    @Nullable
+    static byte[] findWidevineInitData(@NonNull Uri uri, @NonNull byte[] manifest, @NonNull PKMediaFormat format) {
+        try {
+            switch (format) {
+                case dash:
+                    final DashManifest dashManifest = new DashManifestParser().parse(uri, new ByteArrayInputStream(manifest));
+                    for (int i = 0; i < dashManifest.getPeriodCount(); i++) {
+                        for (AdaptationSet adaptationSet : dashManifest.getPeriod(i).adaptationSets) {
+                            for (Representation representation : adaptationSet.representations) {
+                                final byte[] initData = getWidevineData(representation.format.drmInitData);
+                                if (initData != null) {
+                                    return initData;
+                                }
+                            }
+                        }
+                    }
+                    return null;
+                case hls:
+                    // EXT-X-SESSION-KEY in master playlists, EXT-X-KEY in media playlists.
+                    for (String line : new String(manifest, Charset.forName("UTF-8")).split("\n")) {
+                        if ((line.startsWith("#EXT-X-SESSION-KEY:") || line.startsWith("#EXT-X-KEY:")) && line.contains(WIDEVINE_KEY_FORMAT)) {
+                            final Matcher matcher = HLS_KEY_URI.matcher(line);
+                            if (matcher.find()) {
+                                return Base64.decode(matcher.group(1), Base64.DEFAULT);
+                            }
+                        }
+                    }
+                    return null;
+                default:
+                    return null;
+            }
+        } catch (IOException | RuntimeException e) {
+            log.w("Failed reading init data from manifest: " + e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static byte[] getWidevineData(@Nullable DrmInitData drmInitData) {
+        if (drmInitData == null) {
+            return null;
+        }
+        for (int i = 0; i < drmInitData.schemeDataCount; i++) {
+            final DrmInitData.SchemeData schemeData = drmInitData.get(i);
+            if (schemeData.matches(MediaSupport.WIDEVINE_UUID) && schemeData.data != null) {
+                return schemeData.data;
+            }
+        }
+        return null;
+    }
+
+    private static ThreadPoolExecutor newExecutor(int threads, String name) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Override
+    public void setOnEventListener(OnEventListener<? super FrameworkMediaCrypto> listener) {
+        mediaDrm.setOnEventListener(listener);
+    }
+
+    @Override
+    public void setOnKeyStatusChangeListener(OnKeyStatusChangeListener<? super FrameworkMediaCrypto> listener) {
+        mediaDrm.setOnKeyStatusChangeListener(listener);
+    }
+
+    @Override
+    public byte[] openSession() throws MediaDrmException {
+        final Prefetch handedOver;
+        synchronized (this) {
+            handedOver = prefetch != null && !prefetch.handedOver && !prefetch.abandoned ? prefetch : null;
+            if (handedOver != null) {
+                handedOver.handedOver = true;
+            }
+        }
+        if (handedOver != null) {
+            // Called on the playback thread; the prefetch is opening its session, or is about to.
+            final byte[] sessionId = handedOver.awaitSession();
+            if (sessionId != null) {
+                log.d("Handing over the prefetched license session");
+                return sessionId;
+            }
+            log.w("Prefetched license session not opened, opening another one");
+            synchronized (this) {
+                if (prefetch == handedOver) {
+                    prefetch = null;
+                }
+            }
+            handedOver.abandon();
+        }
+        return mediaDrm.openSession();
+    }
+
+    @Override
+    public void closeSession(byte[] sessionId) {
+        synchronized (this) {
+            if (prefetch != null && Arrays.equals(prefetch.sessionId, sessionId)) {
+                prefetch = null;
+            }
+        }
+        mediaDrm.closeSession(sessionId);
+    }
+
+    @Override
+    public KeyRequest getKeyRequest(byte[] scope, @Nullable List<DrmInitData.SchemeData> schemeDatas, int keyType,
+                                    @Nullable HashMap<String, String> optionalParameters) throws NotProvisionedException {
+        final Prefetch handedOver = getUnusedPrefetch(scope);
+        if (handedOver != null && keyType == MediaDrm.KEY_TYPE_STREAMING && hasInitData(schemeDatas, handedOver.schemeSpecificData)) {
+            handedOver.use(schemeDatas, optionalParameters);
+            return new KeyRequest(PREFETCHED_REQUEST, "");
+        }
+        return mediaDrm.getKeyRequest(scope, schemeDatas, keyType, optionalParameters);
+    }
+
+    @Override
+    public byte[] provideKeyResponse(byte[] scope, byte[] response) throws NotProvisionedException, DeniedByServerException {
+        if (response == PREFETCHED_RESPONSE) {
+            // The prefetch already provided the keys to this session.
+            return null;
+        }
+        return mediaDrm.provideKeyResponse(scope, response);
+    }
+
+    @Override
+    public ProvisionRequest getProvisionRequest() {
+        return mediaDrm.getProvisionRequest();
+    }
+
+    @Override
+    public void provideProvisionResponse(byte[] response) throws DeniedByServerException {
+        mediaDrm.provideProvisionResponse(response);
+    }
+
+    @Override
+    public Map<String, String> queryKeyStatus(byte[] sessionId) {
+        return mediaDrm.queryKeyStatus(sessionId);
+    }
+
+    @Override
+    public void release() {
+        cancelPrefetch();
+        mediaDrm.release();
+    }
+
+    @Override
+    public void restoreKeys(byte[] sessionId, byte[] keySetId) {
+        mediaDrm.restoreKeys(sessionId, keySetId);
+    }
+
+    @Override
+    public String getPropertyString(String propertyName) {
+        return mediaDrm.getPropertyString(propertyName);
+    }
+
+    @Override
+    public byte[] getPropertyByteArray(String propertyName) {
+        return mediaDrm.getPropertyByteArray(propertyName);
+    }
+
+    @Override
+    public void setPropertyString(String propertyName, String value) {
+        mediaDrm.setPropertyString(propertyName, value);
+    }
+
+    @Override
+    public void setPropertyByteArray(String propertyName, byte[] value) {
+        mediaDrm.setPropertyByteArray(propertyName, value);
+    }
+
+    @Override
+    public FrameworkMediaCrypto createMediaCrypto(byte[] sessionId) throws MediaCryptoException {
+        return mediaDrm.createMediaCrypto(sessionId);
+    }
+
+    private class Prefetch {
+        final byte[] initData;
+        final byte[] schemeSpecificData;
+        final CountDownLatch opened = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        // Guarded by PrefetchingMediaDrm.this
+        byte[] sessionId;
+        boolean handedOver;
+        boolean abandoned;
+        boolean used;
+        List<DrmInitData.SchemeData> schemeDatas;
+        HashMap<String, String> optionalParameters;
+
+        volatile boolean succeeded;
+
+        Prefetch(byte[] initData) {
+            this.initData = initData;
+            this.schemeSpecificData = getSchemeSpecificData(initData);
+        }
+
+        // On the session executor. Opens the session, and leaves the license request to the executor.
+        void open() {
+            synchronized (PrefetchingMediaDrm.this) {
+                if (abandoned) {
+                    opened.countDown();
+                    done.countDown();
+                    return;
+                }
+            }
+            final byte[] openedSessionId;
+            try {
+                openedSessionId = mediaDrm.openSession();
+            } catch (Exception e) {
+                // E.g. not provisioned yet: ExoPlayer will provision and request the license as usual.
+                log.w("License prefetch failed: " + e);
+                opened.countDown();
+                finish();
+                return;
+            }
+            synchronized (PrefetchingMediaDrm.this) {
+                sessionId = openedSessionId;
+            }
+            opened.countDown();
+            executor.execute(this::requestLicense);
+        }
+
+        // On the executor.
+        void requestLicense() {
+            final byte[] openedSessionId;
+            synchronized (PrefetchingMediaDrm.this) {
+                openedSessionId = abandoned ? null : sessionId;
+            }
+            if (openedSessionId != null) {
+                try {
+                    final List<DrmInitData.SchemeData> prefetchSchemeDatas = Collections.singletonList(
+                            new DrmInitData.SchemeData(MediaSupport.WIDEVINE_UUID, MimeTypes.VIDEO_MP4, initData));
+                    final KeyRequest keyRequest = mediaDrm.getKeyRequest(openedSessionId, prefetchSchemeDatas, MediaDrm.KEY_TYPE_STREAMING, null);
+                    final byte[] response = callback.executeKeyRequest(MediaSupport.WIDEVINE_UUID, keyRequest);
+                    mediaDrm.provideKeyResponse(openedSessionId, response);
+                    succeeded = true;
+                    log.d("License prefetch done");
+                } catch (Exception e) {
+                    log.w("License prefetch failed: " + e);
+                }
+            }
+            finish();
+        }
+
+        // Closes the session if the prefetch was abandoned while it ran.
+        private void finish() {
+            final byte[] toClose;
+            synchronized (PrefetchingMediaDrm.this) {
+                done.countDown();
+                toClose = abandoned ? sessionId : null;
+            }
+            if (toClose != null) {
+                mediaDrm.closeSession(toClose);
+            }
+        }
+
+        // Called after removing it.
+        void abandon() {
+            final byte[] toClose;
+            synchronized (PrefetchingMediaDrm.this) {
+                abandoned = true;
+                toClose = done.getCount() == 0 ? sessionId : null;
+            }
+            if (toClose != null) {
+                mediaDrm.closeSession(toClose);
+            }
+        }
+
+        void use(List<DrmInitData.SchemeData> schemeDatas, HashMap<String, String> optionalParameters) {
+            synchronized (PrefetchingMediaDrm.this) {
+                used = true;
+                this.schemeDatas = schemeDatas;
+                this.optionalParameters = optionalParameters;
+            }
+        }
+
+        /**
+         * @return The opened session, or null if opening it failed or took more than {@link #SESSION_OPEN_TIMEOUT_MS}.
+         */
+        @Nullable
+        byte[] awaitSession() {
+            try {
+                if (!opened.await(SESSION_OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    return null;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            synchronized (PrefetchingMediaDrm.this) {
+                return sessionId;
+            }
+        }
+
+        boolean await() throws InterruptedException {
+            return done.await(PREFETCH_TIMEOUT_MS, TimeUnit.MILLISECONDS) && succeeded;
+        }
+    }
+
+    // Answers the placeholder key request with the prefetch result; other requests go to the real callback.
+    private class PrefetchingCallback implements MediaDrmCallback {
+
+        @Override
+        public byte[] executeProvisionRequest(UUID uuid, ProvisionRequest request) throws IOException {
+            return callback.executeProvisionRequest(uuid, request);
+        }
+
+        @Override
+        public byte[] executeKeyRequest(UUID uuid, KeyRequest request) throws Exception {
+            if (request.getData() != PREFETCHED_REQUEST) {
+                return callback.executeKeyRequest(uuid, request);
+            }
+            final Prefetch used;
+            synchronized (PrefetchingMediaDrm.this) {
+                used = prefetch;
+            }
+            if (used == null) {
+                throw new IllegalStateException("Prefetched license session was closed");
+            }
+            if (used.await()) {
+                return PREFETCHED_RESPONSE;
+            }
+            log.w("Prefetched license not available, requesting it again");
+            final byte[] sessionId;
+            final List<DrmInitData.SchemeData> schemeDatas;
+            final HashMap<String, String> optionalParameters;
+            synchronized (PrefetchingMediaDrm.this) {
+                sessionId = used.sessionId;
+                schemeDatas = used.schemeDatas;
+                optionalParameters = used.optionalParameters;
+            }
+            return callback.executeKeyRequest(uuid, mediaDrm.getKeyRequest(sessionId, schemeDatas, MediaDrm.KEY_TYPE_STREAMING, optionalParameters));
+        }
+    }
+}
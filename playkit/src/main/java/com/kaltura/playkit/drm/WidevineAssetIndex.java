@@ -0,0 +1,144 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.drm;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kaltura.playkit.LocalDataStore;
+import com.kaltura.playkit.PKLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import static com.kaltura.playkit.Utils.toBase64;
+
+/**
+ * What {@link WidevineModularAdapter} needs to know about a registered asset, kept in the
+ * {@link LocalDataStore} so that unregistering and checking the asset don't parse its manifest and
+ * initialization segment again.
+ * <p>
+ * An entry is valid while the manifest has the path, size and modification time it had when the
+ * entry was written.
+ */
+class WidevineAssetIndex {
+
+    private static final PKLog log = PKLog.get("WidevineAssetIndex");
+
+    private static final String KEY_PREFIX = "widevineAssetIndex:";
+    private static final int VERSION = 1;
+
+    private final LocalDataStore localDataStore;
+
+    static class Entry {
+        final boolean hasContentProtection;
+        final String mimeType;          // Container mime type of the first video representation.
+        final byte[] widevineInitData;
+        final String keySetIdKey;       // Key of the offline keySetId in the LocalDataStore.
+
+        Entry(boolean hasContentProtection, @Nullable String mimeType, @Nullable byte[] widevineInitData) {
+            this(hasContentProtection, mimeType, widevineInitData, widevineInitData != null ? toBase64(widevineInitData) : null);
+        }
+
+        private Entry(boolean hasContentProtection, String mimeType, byte[] widevineInitData, String keySetIdKey) {
+            this.hasContentProtection = hasContentProtection;
+            this.mimeType = mimeType;
+            this.widevineInitData = widevineInitData;
+            this.keySetIdKey = keySetIdKey;
+        }
+    }
+
+    WidevineAssetIndex(@NonNull LocalDataStore localDataStore) {
+        this.localDataStore = localDataStore;
+    }
+
+    /**
+     * @return The entry of the asset, or null if there is none or the manifest changed since it was written.
+     */
+    @Nullable
+    Entry get(@NonNull String assetId, @NonNull String localPath) {
+        final byte[] value;
+        try {
+            value = localDataStore.load(KEY_PREFIX + assetId);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+
+        try {
+            final DataInputStream input = new DataInputStream(new ByteArrayInputStream(value));
+            if (input.readInt() != VERSION) {
+                return null;
+            }
+            final File manifest = new File(localPath);
+            if (!localPath.equals(input.readUTF()) || manifest.length() != input.readLong() || manifest.lastModified() != input.readLong()) {
+                log.d("Manifest of asset " + assetId + " changed");
+                return null;
+            }
+            final boolean hasContentProtection = input.readBoolean();
+            final String mimeType = input.readBoolean() ? input.readUTF() : null;
+            final String keySetIdKey = input.readBoolean() ? input.readUTF() : null;
+            byte[] widevineInitData = null;
+            final int initDataLength = input.readInt();
+            if (initDataLength >= 0) {
+                widevineInitData = new byte[initDataLength];
+                input.readFully(widevineInitData);
+            }
+            return new Entry(hasContentProtection, mimeType, widevineInitData, keySetIdKey);
+        } catch (IOException e) {
+            log.e("Invalid index entry of asset " + assetId + ": " + e);
+            return null;
+        }
+    }
+
+    void put(@NonNull String assetId, @NonNull String localPath, @NonNull Entry entry) {
+        final File manifest = new File(localPath);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            output.writeInt(VERSION);
+            output.writeUTF(localPath);
+            output.writeLong(manifest.length());
+            output.writeLong(manifest.lastModified());
+            output.writeBoolean(entry.hasContentProtection);
+            writeNullableUTF(output, entry.mimeType);
+            writeNullableUTF(output, entry.keySetIdKey);
+            if (entry.widevineInitData != null) {
+                output.writeInt(entry.widevineInitData.length);
+                output.write(entry.widevineInitData);
+            } else {
+                output.writeInt(-1);
+            }
+            output.flush();
+        } catch (IOException e) {
+            // Can't happen with a ByteArrayOutputStream.
+            throw new IllegalStateException(e);
+        }
+        localDataStore.save(KEY_PREFIX + assetId, bytes.toByteArray());
+    }
+
+    void remove(@NonNull String assetId) {
+        localDataStore.remove(KEY_PREFIX + assetId);
+    }
+
+    private static void writeNullableUTF(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+}
@@ -57,11 +57,17 @@ class WidevineModularAdapter extends DrmAdapter {
 
     private Context context;
     private final LocalDataStore localDataStore;
+    private final WidevineAssetIndex assetIndex;
+
+    // Guarded by this
+    private boolean inBatch;
+    private FrameworkMediaDrm batchMediaDrm;
 
 
     WidevineModularAdapter(Context context, LocalDataStore localDataStore) {
         this.context = context;
         this.localDataStore = localDataStore;
+        this.assetIndex = new WidevineAssetIndex(localDataStore);
     }
 
     @Override
@@ -84,14 +90,14 @@ class WidevineModularAdapter extends DrmAdapter {
     private boolean registerAsset(String localAssetPath, String assetId, String licenseUri, PKRequestParams.Adapter adapter) throws RegisterException {
 
         // obtain the dash manifest.
-        SimpleDashParser dash = parseDash(localAssetPath, assetId);
+        WidevineAssetIndex.Entry dash = getAssetInfo(localAssetPath, assetId);
 
         if (!dash.hasContentProtection) {
             // Not protected -- nothing to do.
             return true;
         }
 
-        String mimeType = dash.format.containerMimeType;
+        String mimeType = dash.mimeType;
         byte[] initData = dash.widevineInitData;
 
         MediaDrmSession session;
@@ -99,6 +105,7 @@ class WidevineModularAdapter extends DrmAdapter {
         try {
             session = MediaDrmSession.open(mediaDrm);
         } catch (MediaDrmException e) {
+            releaseMediaDrm(mediaDrm);
             throw new RegisterException("Can't open session", e);
         }
 
@@ -123,7 +130,7 @@ class WidevineModularAdapter extends DrmAdapter {
             // Provide keyResponse
             try {
                 byte[] offlineKeyId = session.provideKeyResponse(keyResponse);
-                localDataStore.save(toBase64(initData), offlineKeyId);
+                localDataStore.save(dash.keySetIdKey, offlineKeyId);
 
             } catch (DeniedByServerException e) {
                 throw new RegisterException("Request denied by server", e);
@@ -134,6 +141,7 @@ class WidevineModularAdapter extends DrmAdapter {
 
         } finally {
             session.close();
+            releaseMediaDrm(mediaDrm);
         }
 
 
@@ -150,6 +158,7 @@ class WidevineModularAdapter extends DrmAdapter {
             log.e("Failed to unregister", e);
             return false;
         } finally {
+            assetIndex.remove(assetId);
             if (listener != null) {
                 listener.onRemoved(localAssetPath);
             }
@@ -158,14 +167,14 @@ class WidevineModularAdapter extends DrmAdapter {
 
     private boolean unregisterAsset(String localAssetPath, String assetId) throws RegisterException {
 
-        SimpleDashParser dash = parseDash(localAssetPath, assetId);
+        WidevineAssetIndex.Entry dash = getAssetInfo(localAssetPath, assetId);
         if (!dash.hasContentProtection) {
             // Not protected -- nothing to do.
             return true;
         }
 
         // obtain key with which we will load the saved keySetId.
-        String key = toBase64(dash.widevineInitData);
+        String key = dash.keySetIdKey;
 
         byte[] keySetId;
         try {
@@ -180,6 +189,8 @@ class WidevineModularAdapter extends DrmAdapter {
             releaseRequest = mediaDrm.getKeyRequest(keySetId, null, MediaDrm.KEY_TYPE_RELEASE, null);
         } catch (NotProvisionedException e) {
             throw new WidevineNotSupportedException(e);
+        } finally {
+            releaseMediaDrm(mediaDrm);
         }
 
         log.d("releaseRequest:" + toBase64(releaseRequest.getData()));
@@ -241,7 +252,7 @@ class WidevineModularAdapter extends DrmAdapter {
     }
 
     private Map<String, String> checkAssetStatus(String localAssetPath, String assetId) throws RegisterException {
-        SimpleDashParser dash = parseDash(localAssetPath, assetId);
+        WidevineAssetIndex.Entry dash = getAssetInfo(localAssetPath, assetId);
 
         //no content protection, so there could not be any status info, so return null.
         if (!dash.hasContentProtection) {
@@ -256,24 +267,69 @@ class WidevineModularAdapter extends DrmAdapter {
 
         MediaDrmSession session;
         try {
-            String key = toBase64(dash.widevineInitData);
+            String key = dash.keySetIdKey;
             session = openSessionWithKeys(mediaDrm, key);
         } catch (MediaDrmException | FileNotFoundException | MediaCryptoException e) {
+            releaseMediaDrm(mediaDrm);
             throw new RegisterException("Can't open session with keys", e);
         }
 
 
-        Map<String, String> keyStatus = session.queryKeyStatus();
-        log.d("keyStatus: " + keyStatus);
-
-        session.close();
-        mediaDrm.release();
+        Map<String, String> keyStatus;
+        try {
+            keyStatus = session.queryKeyStatus();
+            log.d("keyStatus: " + keyStatus);
+        } finally {
+            session.close();
+            releaseMediaDrm(mediaDrm);
+        }
 
         return keyStatus;
     }
 
+    @Override
+    public synchronized void beginBatch() {
+        inBatch = true;
+    }
+
+    @Override
+    public void endBatch() {
+        final FrameworkMediaDrm mediaDrm;
+        synchronized (this) {
+            inBatch = false;
+            mediaDrm = batchMediaDrm;
+            batchMediaDrm = null;
+        }
+        if (mediaDrm != null) {
+            mediaDrm.release();
+        }
+    }
+
+    // Not released until the end of the batch, if it's shared.
+    private void releaseMediaDrm(FrameworkMediaDrm mediaDrm) {
+        synchronized (this) {
+            if (mediaDrm == batchMediaDrm) {
+                return;
+            }
+        }
+        mediaDrm.release();
+    }
+
     @NonNull
     private FrameworkMediaDrm createMediaDrm() throws RegisterException {
+        synchronized (this) {
+            if (inBatch) {
+                if (batchMediaDrm == null) {
+                    batchMediaDrm = newMediaDrm();
+                }
+                return batchMediaDrm;
+            }
+        }
+        return newMediaDrm();
+    }
+
+    @NonNull
+    private FrameworkMediaDrm newMediaDrm() throws RegisterException {
         FrameworkMediaDrm mediaDrm = null;
         try {
             mediaDrm = FrameworkMediaDrm.newInstance(MediaSupport.WIDEVINE_UUID);
@@ -288,6 +344,25 @@ class WidevineModularAdapter extends DrmAdapter {
         return mediaDrm;
     }
 
+    /**
+     * Get the format and init data of the asset from the index, or parse them and add them to the index
+     * if the asset is not there yet or its manifest changed.
+     *
+     * @param localPath - file from which to parse the dash manifest.
+     * @param assetId   - the asset id.
+     * @return - the asset info.
+     * @throws RegisterException - {@link RegisterException}
+     */
+    private WidevineAssetIndex.Entry getAssetInfo(String localPath, String assetId) throws RegisterException {
+        WidevineAssetIndex.Entry entry = assetIndex.get(assetId, localPath);
+        if (entry == null) {
+            SimpleDashParser dash = parseDash(localPath, assetId);
+            entry = new WidevineAssetIndex.Entry(dash.hasContentProtection, dash.format.containerMimeType, dash.widevineInitData);
+            assetIndex.put(assetId, localPath, entry);
+        }
+        return entry;
+    }
+
     /**
      * Parse the dash manifest for the specified file.
      *
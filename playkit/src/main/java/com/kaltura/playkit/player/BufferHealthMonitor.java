@@ -0,0 +1,297 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+package com.kaltura.playkit.player;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+
+import com.kaltura.android.exoplayer2.C;
+import com.kaltura.android.exoplayer2.Format;
+import com.kaltura.android.exoplayer2.Player;
+import com.kaltura.android.exoplayer2.SimpleExoPlayer;
+import com.kaltura.android.exoplayer2.analytics.AnalyticsListener;
+import com.kaltura.android.exoplayer2.source.MediaSourceEventListener;
+import com.kaltura.playkit.PKLog;
+import com.kaltura.playkit.utils.Consts;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Samples the buffer and playback state of an ExoPlayer and pushes it as {@link PKBufferHealth}.
+ * <p>
+ * ExoPlayer can only be queried on the main thread, so samples are taken there, every update interval
+ * and on stall changes; they are cheap getters. Delivery happens on a background thread shared by all
+ * players. A sample that is still waiting for delivery is replaced by the next one, so a slow listener
+ * never queues up stale states.
+ * <p>
+ * ExoPlayer only reports the buffered position of all tracks together (the smallest). The buffer of
+ * each track type is taken from the end time of its completed loads, minus what was discarded on
+ * quality switches, and is never less than the common buffered position.
+ */
+class BufferHealthMonitor implements AnalyticsListener {
+
+    private static final PKLog log = PKLog.get("BufferHealthMonitor");
+
+    private static Handler deliveryHandler;
+
+    private final Handler mainHandler;
+    private final SimpleExoPlayer player;
+    private final PKBufferHealth.Listener listener;
+    private final long intervalMs;
+    private final AtomicReference<PKBufferHealth> pending = new AtomicReference<>();
+    private final Runnable sampler = this::sampleAndReschedule;
+    private final Runnable deliverer = this::deliver;
+
+    // Main thread only.
+    private final TrackBuffers trackBuffers = new TrackBuffers();
+    private int currentWindowIndex;
+
+    // Buffering until the first READY after a prepare or a seek is not a stall.
+    private boolean awaitingReady = true;
+    private boolean stalled;
+    private long stallStartMs;
+    private int stallCount;
+    private volatile boolean released;
+
+    BufferHealthMonitor(@NonNull Handler mainHandler, @NonNull SimpleExoPlayer player,
+                        @NonNull PKBufferHealth.Listener listener, long intervalMs) {
+        this.mainHandler = mainHandler;
+        this.player = player;
+        this.listener = listener;
+        this.intervalMs = Math.max(intervalMs, 50);
+        player.addAnalyticsListener(this);
+        mainHandler.postDelayed(sampler, this.intervalMs);
+    }
+
+    void release() {
+        released = true;
+        mainHandler.removeCallbacks(sampler);
+        player.removeAnalyticsListener(this);
+        pending.set(null);
+    }
+
+    private void sampleAndReschedule() {
+        mainHandler.removeCallbacks(sampler);
+        if (released) {
+            return;
+        }
+        if (player.getPlaybackState() != Player.STATE_IDLE) {
+            publish(sample());
+        }
+        mainHandler.postDelayed(sampler, intervalMs);
+    }
+
+    private PKBufferHealth sample() {
+        final long now = SystemClock.elapsedRealtime();
+        final long positionMs = player.getCurrentPosition();
+        final long forwardBufferMs = Math.max(0, player.getBufferedPosition() - positionMs);
+        final Format videoFormat = player.getVideoFormat();
+        final Format audioFormat = player.getAudioFormat();
+        final int windowIndex = player.getCurrentWindowIndex();
+        final long durationMs = player.getDuration();
+        return new PKBufferHealth(now, positionMs, forwardBufferMs,
+                trackBuffers.getForwardBufferMs(Consts.TRACK_TYPE_VIDEO, windowIndex, positionMs, forwardBufferMs, durationMs),
+                trackBuffers.getForwardBufferMs(Consts.TRACK_TYPE_AUDIO, windowIndex, positionMs, forwardBufferMs, durationMs),
+                trackBuffers.getForwardBufferMs(Consts.TRACK_TYPE_TEXT, windowIndex, positionMs, forwardBufferMs, durationMs),
+                getBitrate(videoFormat), getBitrate(audioFormat),
+                player.getPlaybackParameters().speed, player.getPlayWhenReady(),
+                stalled, stalled ? now - stallStartMs : 0, stallCount);
+    }
+
+    private static long getBitrate(Format format) {
+        return format == null || format.bitrate == Format.NO_VALUE ? Consts.NO_VALUE : format.bitrate;
+    }
+
+    private void publish(PKBufferHealth bufferHealth) {
+        if (pending.getAndSet(bufferHealth) == null) {
+            getDeliveryHandler().post(deliverer);
+        }
+    }
+
+    private void deliver() {
+        final PKBufferHealth bufferHealth = pending.getAndSet(null);
+        if (bufferHealth == null || released) {
+            return;
+        }
+        try {
+            listener.onBufferHealth(bufferHealth);
+        } catch (RuntimeException e) {
+            log.e("Buffer health listener failed: " + e);
+        }
+    }
+
+    private static synchronized Handler getDeliveryHandler() {
+        if (deliveryHandler == null) {
+            final HandlerThread handlerThread = new HandlerThread("PKBufferHealth", Process.THREAD_PRIORITY_BACKGROUND);
+            handlerThread.start();
+            deliveryHandler = new Handler(handlerThread.getLooper());
+        }
+        return deliveryHandler;
+    }
+
+    private static int toTrackType(int exoTrackType) {
+        switch (exoTrackType) {
+            case C.TRACK_TYPE_VIDEO:
+                return Consts.TRACK_TYPE_VIDEO;
+            case C.TRACK_TYPE_AUDIO:
+                return Consts.TRACK_TYPE_AUDIO;
+            case C.TRACK_TYPE_TEXT:
+                return Consts.TRACK_TYPE_TEXT;
+            default:
+                return Consts.TRACK_TYPE_UNKNOWN;
+        }
+    }
+
+    @Override
+    public void onTimelineChanged(EventTime eventTime, int reason) {
+        final int windowIndex = player.getCurrentWindowIndex();
+        if (reason != Player.TIMELINE_CHANGE_REASON_DYNAMIC) {
+            // New media.
+            trackBuffers.clear();
+            awaitingReady = true;
+            stallCount = 0;
+        } else if (windowIndex != currentWindowIndex) {
+            // A previous media was removed from the playlist: indices moved.
+            trackBuffers.shiftWindows(windowIndex - currentWindowIndex);
+        }
+        currentWindowIndex = windowIndex;
+    }
+
+    @Override
+    public void onPositionDiscontinuity(EventTime eventTime, int reason) {
+        currentWindowIndex = player.getCurrentWindowIndex();
+    }
+
+    @Override
+    public void onSeekStarted(EventTime eventTime) {
+        trackBuffers.reset();
+        awaitingReady = true;
+        // Buffering for the seek replaces a stall in progress.
+        updateStalled(false);
+    }
+
+    @Override
+    public void onPlayerStateChanged(EventTime eventTime, boolean playWhenReady, int playbackState) {
+        if (playbackState == Player.STATE_READY) {
+            awaitingReady = false;
+        } else if (playbackState == Player.STATE_IDLE) {
+            awaitingReady = true;
+        }
+        updateStalled(playWhenReady && playbackState == Player.STATE_BUFFERING && !awaitingReady);
+    }
+
+    private void updateStalled(boolean isStalled) {
+        if (isStalled == stalled) {
+            return;
+        }
+        stalled = isStalled;
+        if (isStalled) {
+            stallStartMs = SystemClock.elapsedRealtime();
+            stallCount++;
+        }
+        // A stall start is the most urgent news for a delivery layer.
+        sampleAndReschedule();
+    }
+
+    @Override
+    public void onLoadCompleted(EventTime eventTime, MediaSourceEventListener.LoadEventInfo loadEventInfo,
+                                MediaSourceEventListener.MediaLoadData mediaLoadData) {
+        if (mediaLoadData.dataType == C.DATA_TYPE_MEDIA) {
+            trackBuffers.onLoadCompleted(toTrackType(mediaLoadData.trackType), eventTime.windowIndex, mediaLoadData.mediaEndTimeMs);
+        }
+    }
+
+    @Override
+    public void onUpstreamDiscarded(EventTime eventTime, MediaSourceEventListener.MediaLoadData mediaLoadData) {
+        trackBuffers.onUpstreamDiscarded(toTrackType(mediaLoadData.trackType), eventTime.windowIndex, mediaLoadData.mediaStartTimeMs);
+    }
+
+    /**
+     * Buffered end of each track type, by Consts track type.
+     */
+    static class TrackBuffers {
+        private final long[] loadedEndMs = new long[3];
+        private final int[] loadedWindowIndex = new int[3];
+        private final boolean[] hasTrackType = new boolean[3];
+
+        TrackBuffers() {
+            reset();
+        }
+
+        /** Forget the loads, as after a seek. */
+        void reset() {
+            Arrays.fill(loadedEndMs, C.TIME_UNSET);
+            Arrays.fill(loadedWindowIndex, C.INDEX_UNSET);
+        }
+
+        /** Forget the loads and the track types, as for new media. */
+        void clear() {
+            reset();
+            Arrays.fill(hasTrackType, false);
+        }
+
+        /** Window indices moved by delta, as when a previous media is removed from the playlist. */
+        void shiftWindows(int delta) {
+            for (int i = 0; i < loadedWindowIndex.length; i++) {
+                if (loadedWindowIndex[i] != C.INDEX_UNSET) {
+                    loadedWindowIndex[i] += delta;
+                }
+            }
+        }
+
+        void onLoadCompleted(int trackType, int windowIndex, long mediaEndTimeMs) {
+            if (trackType == Consts.TRACK_TYPE_UNKNOWN) {
+                return;
+            }
+            hasTrackType[trackType] = true;
+            if (mediaEndTimeMs == C.TIME_UNSET) {
+                return;
+            }
+            if (windowIndex > loadedWindowIndex[trackType] ||
+                    (windowIndex == loadedWindowIndex[trackType] && mediaEndTimeMs > loadedEndMs[trackType])) {
+                loadedWindowIndex[trackType] = windowIndex;
+                loadedEndMs[trackType] = mediaEndTimeMs;
+            }
+        }
+
+        void onUpstreamDiscarded(int trackType, int windowIndex, long mediaStartTimeMs) {
+            if (trackType != Consts.TRACK_TYPE_UNKNOWN && windowIndex == loadedWindowIndex[trackType] &&
+                    mediaStartTimeMs != C.TIME_UNSET) {
+                loadedEndMs[trackType] = Math.min(loadedEndMs[trackType], mediaStartTimeMs);
+            }
+        }
+
+        /**
+         * @param forwardBufferMs Buffer of all tracks together, the least a track can have.
+         * @return Buffer of the track type ahead of positionMs, or {@link Consts#NO_VALUE} if the media has none.
+         */
+        long getForwardBufferMs(int trackType, int windowIndex, long positionMs, long forwardBufferMs, long durationMs) {
+            if (!hasTrackType[trackType]) {
+                return Consts.NO_VALUE;
+            }
+            final long endMs = loadedEndMs[trackType];
+            if (endMs == C.TIME_UNSET || loadedWindowIndex[trackType] < windowIndex) {
+                // Not loaded since a seek, or only loaded in past windows.
+                return forwardBufferMs;
+            }
+            if (loadedWindowIndex[trackType] == windowIndex) {
+                return Math.max(forwardBufferMs, endMs - positionMs);
+            }
+            // Already loading the next media: the current one is fully buffered.
+            return durationMs == C.TIME_UNSET ? forwardBufferMs : Math.max(forwardBufferMs, durationMs - positionMs + endMs);
+        }
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.player;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kaltura.android.exoplayer2.upstream.DataSource;
+import com.kaltura.android.exoplayer2.upstream.DataSpec;
+import com.kaltura.android.exoplayer2.upstream.HttpDataSource;
+import com.kaltura.android.exoplayer2.upstream.TransferListener;
+import com.kaltura.playkit.PKLog;
+import com.kaltura.playkit.PKMediaSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multi-CDN failover of one media source, see {@link PKMediaSource#setAlternateBaseUrls(List)}.
+ * <p>
+ * Every request to the origin of the source URL is sent to the first healthy one of the equivalent
+ * origins, so hosts are switched at segment granularity and the player keeps its buffer, DRM sessions
+ * and track selections. A failed open is retried right away on the next origin; a failed read is
+ * reported to the player, which retries the load (on the origin that is then selected).
+ * <p>
+ * Origins are used in the order they were given, the source URL's first. An origin is only left when
+ * it fails: after consecutive failed requests, when its success rate drops, or when its throughput
+ * stays well below its own average for several requests in a row. A host that was left is tried
+ * again after {@link #RETRY_INTERVAL_MS}. Health is kept per origin, shared by all players and
+ * persisted, so later sessions don't start on a host that just failed.
+ */
+class CdnFailover {
+
+    private static final PKLog log = PKLog.get("CdnFailover");
+
+    private static final String PREFS_NAME = "PKCdnHealth";
+    private static final long MAX_PERSISTED_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final long SAVE_INTERVAL_MS = 30_000;
+
+    private static final double SUCCESS_ALPHA = 0.2;
+    private static final double MIN_SUCCESS = 0.5;
+    private static final int MAX_CONSECUTIVE_FAILURES = 2;
+
+    private static final double THROUGHPUT_ALPHA = 0.05;    // Slow, so the average is the host's history.
+    private static final int MIN_THROUGHPUT_SAMPLES = 5;
+    private static final double LOW_THROUGHPUT_RATIO = 0.5;
+    private static final int MAX_LOW_THROUGHPUT_SAMPLES = 5;
+    private static final long MIN_THROUGHPUT_SAMPLE_BYTES = 64 * 1024;
+
+    static final long RETRY_INTERVAL_MS = 60_000;
+
+    // By origin. Guarded by CdnFailover.class
+    private static final Map<String, HostHealth> healthByOrigin = new HashMap<>();
+    private static SharedPreferences preferences;
+    private static long lastSaveTime;
+
+    private final String primaryOrigin;
+    private final List<String> origins;
+
+    private CdnFailover(String primaryOrigin, List<String> origins) {
+        this.primaryOrigin = primaryOrigin;
+        this.origins = origins;
+    }
+
+    /**
+     * @return The failover of the source, or null if it has no alternate base URLs.
+     */
+    @Nullable
+    static CdnFailover create(@NonNull Context context, @NonNull PKMediaSource source) {
+        if (!source.hasAlternateBaseUrls() || source.getUrl() == null) {
+            return null;
+        }
+        final String primaryOrigin = getOrigin(Uri.parse(source.getUrl()));
+        if (primaryOrigin == null) {
+            return null;
+        }
+        final List<String> origins = new ArrayList<>();
+        origins.add(primaryOrigin);
+        for (String baseUrl : source.getAlternateBaseUrls()) {
+            final String origin = baseUrl != null ? getOrigin(Uri.parse(baseUrl)) : null;
+            if (origin != null && !origins.contains(origin)) {
+                origins.add(origin);
+            }
+        }
+        if (origins.size() < 2) {
+            return null;
+        }
+        loadHealth(context);
+        return new CdnFailover(primaryOrigin, Collections.unmodifiableList(origins));
+    }
+
+    @NonNull
+    DataSource.Factory wrap(@NonNull DataSource.Factory upstreamFactory) {
+        return () -> new FailoverDataSource(upstreamFactory.createDataSource());
+    }
+
+    // The first healthy origin, excluding the ones already tried for the current request.
+    @NonNull
+    String selectOrigin(@Nullable List<String> excluded) {
+        synchronized (CdnFailover.class) {
+            final long now = System.currentTimeMillis();
+            String leastBad = null;
+            double leastBadSuccess = -1;
+            for (String origin : origins) {
+                if (excluded != null && excluded.contains(origin)) {
+                    continue;
+                }
+                final HostHealth health = healthByOrigin.get(origin);
+                if (health == null || health.isHealthy(now)) {
+                    return origin;
+                }
+                if (health.success > leastBadSuccess) {
+                    leastBad = origin;
+                    leastBadSuccess = health.success;
+                }
+            }
+            return leastBad != null ? leastBad : primaryOrigin;
+        }
+    }
+
+    static void onRequestFinished(String origin, boolean success, long bytes, long elapsedMs) {
+        synchronized (CdnFailover.class) {
+            HostHealth health = healthByOrigin.get(origin);
+            if (health == null) {
+                health = new HostHealth();
+                healthByOrigin.put(origin, health);
+            }
+            if (health.onRequestFinished(success, bytes, elapsedMs, System.currentTimeMillis())) {
+                log.w("Leaving " + origin + " for " + RETRY_INTERVAL_MS + "ms: " + health);
+            }
+            saveHealthIfNeeded();
+        }
+    }
+
+    private static synchronized void loadHealth(Context context) {
+        if (preferences != null) {
+            return;
+        }
+        preferences = context.getApplicationContext() != null ?
+                context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE) :
+                context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        final long now = System.currentTimeMillis();
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            final HostHealth health = entry.getValue() instanceof String ? HostHealth.parse((String) entry.getValue()) : null;
+            if (health != null && now - health.updateTime < MAX_PERSISTED_AGE_MS && !healthByOrigin.containsKey(entry.getKey())) {
+                healthByOrigin.put(entry.getKey(), health);
+            }
+        }
+    }
+
+    // Guarded by CdnFailover.class
+    private static void saveHealthIfNeeded() {
+        final long now = SystemClock.elapsedRealtime();
+        if (preferences == null || (lastSaveTime != 0 && now - lastSaveTime < SAVE_INTERVAL_MS)) {
+            return;
+        }
+        lastSaveTime = now;
+        final SharedPreferences.Editor editor = preferences.edit().clear();
+        for (Map.Entry<String, HostHealth> entry : healthByOrigin.entrySet()) {
+            editor.putString(entry.getKey(), entry.getValue().toString());
+        }
+        editor.apply();
+    }
+
+    @Nullable
+    static String getOrigin(@NonNull Uri uri) {
+        final String scheme = uri.getScheme();
+        if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme) || uri.getEncodedAuthority() == null) {
+            return null;
+        }
+        return scheme.toLowerCase() + "://" + uri.getEncodedAuthority().toLowerCase();
+    }
+
+    private static Uri replaceOrigin(Uri uri, String origin) {
+        final Uri originUri = Uri.parse(origin);
+        return uri.buildUpon().scheme(originUri.getScheme()).encodedAuthority(originUri.getEncodedAuthority()).build();
+    }
+
+    private static boolean isHostFailure(IOException e) {
+        // Client errors other than 404 (e.g. 403 of an expired token) would fail on every host.
+        if (e instanceof HttpDataSource.InvalidResponseCodeException) {
+            final int responseCode = ((HttpDataSource.InvalidResponseCodeException) e).responseCode;
+            return responseCode >= 500 || responseCode == 404;
+        }
+        return e instanceof HttpDataSource.HttpDataSourceException;
+    }
+
+    static class HostHealth {
+        double success = 1;
+        double throughputBps;       // Slow moving average
+        int throughputSamples;
+        long failedTime;            // When the host was left, 0 if it is healthy.
+        long updateTime;
+
+        // Not persisted: a new session doesn't continue the streaks of the previous one.
+        int consecutiveFailures;
+        int lowThroughputSamples;
+
+        // Returns true if the host should be left now.
+        boolean onRequestFinished(boolean succeeded, long bytes, long elapsedMs, long now) {
+            updateTime = now;
+            success = success * (1 - SUCCESS_ALPHA) + (succeeded ? SUCCESS_ALPHA : 0);
+            if (!succeeded) {
+                return ++consecutiveFailures >= MAX_CONSECUTIVE_FAILURES || success < MIN_SUCCESS ? fail(now) : false;
+            }
+            consecutiveFailures = 0;
+            if (bytes < MIN_THROUGHPUT_SAMPLE_BYTES || elapsedMs <= 0) {
+                return false;
+            }
+            final double throughput = bytes * 8000.0 / elapsedMs;
+            final boolean low = throughputSamples >= MIN_THROUGHPUT_SAMPLES && throughput < throughputBps * LOW_THROUGHPUT_RATIO;
+            lowThroughputSamples = low ? lowThroughputSamples + 1 : 0;
+            throughputBps = throughputSamples == 0 ? throughput :
+                    throughputBps * (1 - THROUGHPUT_ALPHA) + throughput * THROUGHPUT_ALPHA;
+            throughputSamples++;
+            return lowThroughputSamples >= MAX_LOW_THROUGHPUT_SAMPLES ? fail(now) : false;
+        }
+
+        private boolean fail(long now) {
+            final boolean wasHealthy = failedTime == 0;
+            failedTime = now;
+            consecutiveFailures = 0;
+            lowThroughputSamples = 0;
+            return wasHealthy;
+        }
+
+        boolean isHealthy(long now) {
+            if (failedTime == 0) {
+                return true;
+            }
+            if (now - failedTime < RETRY_INTERVAL_MS) {
+                return false;
+            }
+            // Give the host another chance; its throughput history is kept.
+            failedTime = 0;
+            success = 1;
+            return true;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return success + "," + throughputBps + "," + throughputSamples + "," + failedTime + "," + updateTime;
+        }
+
+        @Nullable
+        static HostHealth parse(String value) {
+            final String[] parts = value.split(",");
+            if (parts.length != 5) {
+                return null;
+            }
+            try {
+                final HostHealth health = new HostHealth();
+                health.success = Double.parseDouble(parts[0]);
+                health.throughputBps = Double.parseDouble(parts[1]);
+                health.throughputSamples = Integer.parseInt(parts[2]);
+                health.failedTime = Long.parseLong(parts[3]);
+                health.updateTime = Long.parseLong(parts[4]);
+                return health;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private class FailoverDataSource implements DataSource {
+        private final DataSource upstream;
+
+        private String origin;      // Origin of the current request, if it was redirected by us.
+        private long openTime;
+        private long bytesRead;
+
+        FailoverDataSource(DataSource upstream) {
+            this.upstream = upstream;
+        }
+
+        @Override
+        public void addTransferListener(TransferListener transferListener) {
+            upstream.addTransferListener(transferListener);
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            origin = null;
+            bytesRead = 0;
+            if (!primaryOrigin.equals(getOrigin(dataSpec.uri))) {
+                return upstream.open(dataSpec);
+            }
+
+            final List<String> tried = new ArrayList<>(origins.size());
+            while (true) {
+                final String selected = selectOrigin(tried);
+                final Uri uri = selected.equals(primaryOrigin) ? dataSpec.uri : replaceOrigin(dataSpec.uri, selected);
+                openTime = SystemClock.elapsedRealtime();
+                try {
+                    final long length = upstream.open(new DataSpec(uri, dataSpec.httpMethod, dataSpec.httpBody,
+                            dataSpec.absoluteStreamPosition, dataSpec.position, dataSpec.length, dataSpec.key, dataSpec.flags));
+                    origin = selected;
+                    return length;
+                } catch (IOException e) {
+                    if (!isHostFailure(e)) {
+                        throw e;
+                    }
+                    onRequestFinished(selected, false, 0, 0);
+                    tried.add(selected);
+                    if (tried.size() >= origins.size()) {
+                        throw e;
+                    }
+                    log.w("Request to " + selected + " failed (" + e + "), trying another CDN");
+                    upstream.close();
+                }
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            try {
+                final int read = upstream.read(buffer, offset, readLength);
+                if (read > 0) {
+                    bytesRead += read;
+                }
+                return read;
+            } catch (IOException e) {
+                if (origin != null) {
+                    onRequestFinished(origin, false, 0, 0);
+                    origin = null;
+                }
+                throw e;
+            }
+        }
+
+        // Relative URLs in manifests must resolve against the primary origin, so that their requests fail over too.
+        @Nullable
+        @Override
+        public Uri getUri() {
+            final Uri uri = upstream.getUri();
+            if (uri != null && origin != null && !origin.equals(primaryOrigin) && origin.equals(getOrigin(uri))) {
+                return replaceOrigin(uri, primaryOrigin);
+            }
+            return uri;
+        }
+
+        @Override
+        public Map<String, List<String>> getResponseHeaders() {
+            return upstream.getResponseHeaders();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (origin != null) {
+                onRequestFinished(origin, true, bytesRead, SystemClock.elapsedRealtime() - openTime);
+                origin = null;
+            }
+            upstream.close();
+        }
+    }
+}
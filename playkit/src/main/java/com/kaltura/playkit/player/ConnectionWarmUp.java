@@ -0,0 +1,327 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.player;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+
+import com.kaltura.playkit.PKDrmParams;
+import com.kaltura.playkit.PKLog;
+import com.kaltura.playkit.PKMediaEntry;
+import com.kaltura.playkit.PKMediaSource;
+import com.kaltura.playkit.PKRequestParams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Opens connections ahead of the player: DNS lookup, TCP and TLS handshakes, and with OkHttp a
+ * connection left in the shared connection pool for the first real request to the same origin.
+ * <p>
+ * Warm-ups run on a small shared executor and never block the caller. An origin is warmed up at
+ * most once per {@link #REWARM_INTERVAL_MS}. With OkHttp, the first real request to a warmed up
+ * origin tells whether it got the warmed up connection; if none comes within {@link #REWARM_INTERVAL_MS},
+ * that stays unknown.
+ */
+class ConnectionWarmUp {
+
+    private static final PKLog log = PKLog.get("ConnectionWarmUp");
+
+    private static final int THREADS = 4;
+    private static final int MAX_QUEUED = 32;
+    private static final int MAX_RESULTS = 32;
+    private static final int TIMEOUT_MS = 3000;
+    static final long REWARM_INTERVAL_MS = 60_000;
+
+    private static final ThreadPoolExecutor executor = newExecutor();
+
+    // By origin, oldest first.
+    private static final Map<String, WarmUp> warmUps = new LinkedHashMap<>();
+    // Hosts of the OkHttp warm-ups whose origin got no real request yet, with their number. Changed while
+    // holding ConnectionWarmUp.class; read without it by the network interceptor, so that requests to
+    // other hosts don't take the lock.
+    private static final Map<String, Integer> awaitingHosts = new ConcurrentHashMap<>();
+
+    /**
+     * Warm up the origins of the media: the selected source, DRM license URLs and external subtitles.
+     */
+    static void warmUp(@NonNull PKMediaEntry mediaEntry, @NonNull PKMediaSource source, @NonNull PlayerSettings playerSettings) {
+        final Set<String> urls = new LinkedHashSet<>();
+
+        urls.add(new PKMediaSourceConfig(source, mediaEntry.getMediaType(), null, playerSettings).getRequestParams().url.toString());
+
+        if (source.getDrmData() != null) {
+            final PKRequestParams.Adapter licenseRequestAdapter = playerSettings.getLicenseRequestAdapter();
+            for (PKDrmParams drmParams : source.getDrmData()) {
+                final String licenseUri = drmParams.getLicenseUri();
+                if (licenseUri == null) {
+                    continue;
+                }
+                urls.add(licenseRequestAdapter == null ? licenseUri :
+                        licenseRequestAdapter.adapt(new PKRequestParams(Uri.parse(licenseUri), null)).url.toString());
+            }
+        }
+
+        if (mediaEntry.getExternalSubtitleList() != null) {
+            for (PKExternalSubtitle subtitle : mediaEntry.getExternalSubtitleList()) {
+                urls.add(subtitle.getUrl());
+            }
+        }
+
+        for (String url : urls) {
+            final HttpUrl httpUrl = url != null ? HttpUrl.parse(url) : null;
+            if (httpUrl != null) {
+                warmUp(httpUrl, getOrigin(httpUrl) + "/", true);
+            }
+        }
+    }
+
+    /**
+     * Warm up with a GET of the given URL, which should resolve to a valid pathname.
+     */
+    static void warmUpUrl(@NonNull String url) {
+        final HttpUrl httpUrl = HttpUrl.parse(url);
+        if (httpUrl != null) {
+            warmUp(httpUrl, url, false);
+        }
+    }
+
+    @NonNull
+    static synchronized List<PKHttpClientManager.WarmUpResult> getResults() {
+        final List<PKHttpClientManager.WarmUpResult> results = new ArrayList<>(warmUps.size());
+        for (WarmUp warmUp : warmUps.values()) {
+            results.add(warmUp.toResult());
+        }
+        return results;
+    }
+
+    // Network interceptor of the OkHttp clients of PKHttpClientManager; sees the connection of every request.
+    static Response interceptNetwork(Interceptor.Chain chain) throws IOException {
+        final Request request = chain.request();
+        final WarmUp tag = request.tag(WarmUp.class);
+        if (tag == null && !awaitingHosts.containsKey(request.url().host())) {
+            return chain.proceed(request);      // Nothing to find out; most requests take this path.
+        }
+        final Connection connection = chain.connection();
+
+        synchronized (ConnectionWarmUp.class) {
+            if (tag != null) {
+                tag.connection = connection;
+            } else {
+                expireAwaiting();
+                final WarmUp warmUp = warmUps.get(getOrigin(request.url()));
+                // A request that comes before the warm-up connected did not benefit from it.
+                if (warmUp != null && warmUp.awaiting) {
+                    warmUp.reused = warmUp.connection != null && warmUp.connection == connection;
+                    warmUp.connection = null;
+                    stopAwaiting(warmUp);
+                    log.d("First request to " + warmUp.origin + (warmUp.reused ? " reused" : " did not reuse") + " the warm-up connection");
+                }
+            }
+        }
+        return chain.proceed(request);
+    }
+
+    private static void warmUp(HttpUrl httpUrl, String url, boolean head) {
+        final String origin = getOrigin(httpUrl);
+        final WarmUp warmUp;
+        synchronized (ConnectionWarmUp.class) {
+            expireAwaiting();
+            final WarmUp previous = warmUps.get(origin);
+            if (previous != null && SystemClock.elapsedRealtime() - previous.startTime < REWARM_INTERVAL_MS) {
+                return;
+            }
+            warmUp = new WarmUp(origin, httpUrl.host(), url, head, PKHttpClientManager.useOkHttp());
+            remove(origin);
+            warmUps.put(origin, warmUp);
+            if (warmUp.okHttp) {
+                warmUp.awaiting = true;
+                final Integer count = awaitingHosts.get(warmUp.host);
+                awaitingHosts.put(warmUp.host, count == null ? 1 : count + 1);
+            }
+            if (warmUps.size() > MAX_RESULTS) {
+                remove(warmUps.keySet().iterator().next());
+            }
+        }
+
+        try {
+            executor.execute(warmUp);
+        } catch (RejectedExecutionException e) {
+            log.w("Too many pending warm-ups, skipping " + origin);
+            synchronized (ConnectionWarmUp.class) {
+                if (warmUps.get(origin) == warmUp) {
+                    remove(origin);
+                }
+            }
+        }
+    }
+
+    // Must be called while holding ConnectionWarmUp.class.
+    private static void remove(String origin) {
+        final WarmUp warmUp = warmUps.remove(origin);
+        if (warmUp != null && warmUp.awaiting) {
+            stopAwaiting(warmUp);
+        }
+    }
+
+    // Must be called while holding ConnectionWarmUp.class. An origin that got no request for that long
+    // may never get one; stop looking at the requests to its host.
+    private static void expireAwaiting() {
+        if (awaitingHosts.isEmpty()) {
+            return;
+        }
+        final long now = SystemClock.elapsedRealtime();
+        for (WarmUp warmUp : warmUps.values()) {
+            if (warmUp.awaiting && now - warmUp.startTime >= REWARM_INTERVAL_MS) {
+                warmUp.connection = null;
+                stopAwaiting(warmUp);
+            }
+        }
+    }
+
+    // Must be called while holding ConnectionWarmUp.class.
+    private static void stopAwaiting(WarmUp warmUp) {
+        warmUp.awaiting = false;
+        final Integer count = awaitingHosts.get(warmUp.host);
+        if (count == null || count <= 1) {
+            awaitingHosts.remove(warmUp.host);
+        } else {
+            awaitingHosts.put(warmUp.host, count - 1);
+        }
+    }
+
+    private static String getOrigin(HttpUrl url) {
+        return url.scheme() + "://" + url.host() + ":" + url.port();
+    }
+
+    private static ThreadPoolExecutor newExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(MAX_QUEUED), runnable -> {
+            final Thread thread = new Thread(runnable, "ConnectionWarmUp");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class WarmUp implements Runnable {
+        final String origin;
+        final String host;
+        final String url;
+        final boolean head;
+        final boolean okHttp;
+        final long startTime = SystemClock.elapsedRealtime();
+
+        // Guarded by ConnectionWarmUp.class
+        long duration;
+        boolean finished;
+        boolean succeeded;
+        Connection connection;
+        Boolean reused;
+        boolean awaiting;   // Counted in awaitingHosts, until the first request to the origin or expiry.
+
+        WarmUp(String origin, String host, String url, boolean head, boolean okHttp) {
+            this.origin = origin;
+            this.host = host;
+            this.url = url;
+            this.head = head;
+            this.okHttp = okHttp;
+        }
+
+        @Override
+        public void run() {
+            boolean success;
+            try {
+                if (okHttp) {
+                    runOkHttp();
+                } else {
+                    runSystem();
+                }
+                success = true;
+            } catch (Exception e) {
+                log.d("Warm-up of " + url + " failed: " + e);
+                success = false;
+            }
+
+            synchronized (ConnectionWarmUp.class) {
+                finished = true;
+                succeeded = success;
+                duration = SystemClock.elapsedRealtime() - startTime;
+                if (!success) {
+                    connection = null;
+                }
+            }
+            log.d("Warmed up " + origin + " in " + duration + "ms, success=" + success);
+        }
+
+        private void runOkHttp() throws IOException {
+            final Request.Builder builder = new Request.Builder()
+                    .url(url)
+                    .header("user-agent", PKHttpClientManager.warmUpUserAgent)
+                    .tag(WarmUp.class, this);
+            if (head) {
+                builder.head();
+            }
+            final Call call = PKHttpClientManager.okCallFactory.newCall(builder.build());
+            final Response response = call.execute();
+            final ResponseBody body = response.body();
+            if (body != null) {
+                body.close();
+            }
+        }
+
+        private void runSystem() throws IOException {
+            final HttpURLConnection urlConnection = (HttpURLConnection) new URL(url).openConnection();
+            urlConnection.setConnectTimeout(TIMEOUT_MS);
+            urlConnection.setReadTimeout(TIMEOUT_MS);
+            urlConnection.setInstanceFollowRedirects(false);
+            urlConnection.addRequestProperty("user-agent", PKHttpClientManager.warmUpUserAgent);
+            if (head) {
+                urlConnection.setRequestMethod("HEAD");
+            }
+            // Any response will do. Closing the stream (not disconnecting) lets the connection go back to the pool.
+            final InputStream inputStream = urlConnection.getResponseCode() < 400 ?
+                    urlConnection.getInputStream() : urlConnection.getErrorStream();
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        }
+
+        PKHttpClientManager.WarmUpResult toResult() {
+            return new PKHttpClientManager.WarmUpResult(origin, finished, succeeded, duration, reused);
+        }
+    }
+}
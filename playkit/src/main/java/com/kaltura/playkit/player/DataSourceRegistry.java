@@ -0,0 +1,231 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.player;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kaltura.android.exoplayer2.ExoPlayerLibraryInfo;
+import com.kaltura.android.exoplayer2.ext.okhttp.OkHttpDataSourceFactory;
+import com.kaltura.android.exoplayer2.upstream.DataSource;
+import com.kaltura.android.exoplayer2.upstream.DefaultDataSourceFactory;
+import com.kaltura.android.exoplayer2.upstream.DefaultHttpDataSource;
+import com.kaltura.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
+import com.kaltura.android.exoplayer2.upstream.HttpDataSource;
+import com.kaltura.playkit.PlayKitManager;
+import com.kaltura.playkit.utils.NativeCookieJarBridge;
+
+import java.net.CookieHandler;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+
+/**
+ * Data source factories of one player, for content, external subtitles and DRM licenses.
+ * <p>
+ * Factories are created once per set of request headers and redirect policy, and reused for the
+ * lifetime of the player (change media, re-prepare after BehindLiveWindowException, etc).
+ * With OkHttp, all factories of the player use a single {@link OkHttpClient}, derived from
+ * {@link PKHttpClientManager#newClientBuilder()}: it shares the connection pool and dispatcher of
+ * PKHttpClientManager (so warmed up connections are used by all players), cookies go through
+ * {@link NativeCookieJarBridge#sharedCookieJar}, like the system HTTP stack, and each request uses the
+ * protocol policy of its host ({@link PKHttpClientManager#setProtocolPolicy}).
+ * Headers are set as default request properties of each factory, which is why factories are not
+ * shared between header sets.
+ * <p>
+ * Not thread safe; used on the player's main thread.
+ */
+class DataSourceRegistry {
+
+    // Headers usually don't change between media of the same app, so a few entries are enough.
+    private static final int MAX_ENTRIES = 8;
+
+    private final Context context;
+    private String userAgent;
+
+    private OkHttpClient okClient;
+    private Call.Factory okCallFactory;
+    private boolean okClientCrossProtocolRedirect;
+    private EventListener.Factory okClientListenerFactory;
+
+    private final Map<Key, HttpDataSource.Factory> httpDataSourceFactories = newLruMap();
+    private final Map<Key, DataSource.Factory> dataSourceFactories = newLruMap();
+
+    DataSourceRegistry(@NonNull Context context) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+    }
+
+    @NonNull
+    HttpDataSource.Factory getHttpDataSourceFactory(@Nullable Map<String, String> headers, boolean crossProtocolRedirectEnabled,
+                                                    @Nullable EventListener.Factory okListenerFactory) {
+
+        final Key key = new Key(headers, crossProtocolRedirectEnabled, PKHttpClientManager.useOkHttp(), okListenerFactory);
+        HttpDataSource.Factory factory = httpDataSourceFactories.get(key);
+        if (factory == null) {
+            factory = createHttpDataSourceFactory(key);
+            httpDataSourceFactories.put(key, factory);
+        }
+        return factory;
+    }
+
+    @NonNull
+    DataSource.Factory getDataSourceFactory(@Nullable Map<String, String> headers, boolean crossProtocolRedirectEnabled,
+                                            @Nullable EventListener.Factory okListenerFactory) {
+
+        final Key key = new Key(headers, crossProtocolRedirectEnabled, PKHttpClientManager.useOkHttp(), okListenerFactory);
+        DataSource.Factory factory = dataSourceFactories.get(key);
+        if (factory == null) {
+            factory = new DefaultDataSourceFactory(context, getHttpDataSourceFactory(headers, crossProtocolRedirectEnabled, okListenerFactory));
+            dataSourceFactories.put(key, factory);
+        }
+        return factory;
+    }
+
+    void clear() {
+        httpDataSourceFactories.clear();
+        dataSourceFactories.clear();
+        okClient = null;
+        okCallFactory = null;
+        okClientListenerFactory = null;
+    }
+
+    private HttpDataSource.Factory createHttpDataSourceFactory(Key key) {
+        HttpDataSource.Factory httpDataSourceFactory;
+
+        if (CookieHandler.getDefault() == null) {
+            CookieHandler.setDefault(new CookieManager(null, CookiePolicy.ACCEPT_ORIGINAL_SERVER));
+        }
+
+        if (key.useOkHttp) {
+            httpDataSourceFactory = new OkHttpDataSourceFactory(getOkCallFactory(key.crossProtocolRedirectEnabled, key.okListenerFactory), getUserAgent());
+        } else {
+            httpDataSourceFactory = new DefaultHttpDataSourceFactory(getUserAgent(),
+                    DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                    DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS,
+                    key.crossProtocolRedirectEnabled);
+        }
+
+        if (!key.headers.isEmpty()) {
+            HttpDataSource.RequestProperties defaultRequestProperties = httpDataSourceFactory.getDefaultRequestProperties();
+            for (Map.Entry<String, String> headerEntry : key.headers.entrySet()) {
+                defaultRequestProperties.set(headerEntry.getKey(), headerEntry.getValue());
+            }
+        }
+        return httpDataSourceFactory;
+    }
+
+    private Call.Factory getOkCallFactory(boolean crossProtocolRedirectEnabled, EventListener.Factory okListenerFactory) {
+        if (okClient != null && okClientCrossProtocolRedirect == crossProtocolRedirectEnabled && okClientListenerFactory == okListenerFactory) {
+            return okCallFactory;
+        }
+
+        final OkHttpClient.Builder builder = PKHttpClientManager.newClientBuilder()
+                .cookieJar(NativeCookieJarBridge.sharedCookieJar)
+                .followRedirects(true)
+                .followSslRedirects(crossProtocolRedirectEnabled)
+                .connectTimeout(DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .readTimeout(DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        if (okListenerFactory != null) {
+            builder.eventListenerFactory(okListenerFactory);
+        }
+
+        okClient = builder.build();
+        okCallFactory = PKHttpClientManager.newCallFactory(okClient);
+        okClientCrossProtocolRedirect = crossProtocolRedirectEnabled;
+        okClientListenerFactory = okListenerFactory;
+        return okCallFactory;
+    }
+
+    private String getUserAgent() {
+        if (userAgent == null) {
+            userAgent = getUserAgent(context);
+        }
+        return userAgent;
+    }
+
+    private static String getUserAgent(Context context) {
+        String applicationName;
+        try {
+            String packageName = context.getPackageName();
+            PackageInfo info = context.getPackageManager().getPackageInfo(packageName, 0);
+            applicationName = packageName + "/" + info.versionName;
+        } catch (PackageManager.NameNotFoundException e) {
+            applicationName = "?";
+        }
+
+        return PlayKitManager.CLIENT_TAG + " " + applicationName + " (Linux;Android " + Build.VERSION.RELEASE
+                + ") " + "ExoPlayerLib/" + ExoPlayerLibraryInfo.VERSION;
+    }
+
+    private static <V> Map<Key, V> newLruMap() {
+        return new LinkedHashMap<Key, V>(MAX_ENTRIES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    private static class Key {
+        final Map<String, String> headers;
+        final boolean crossProtocolRedirectEnabled;
+        final boolean useOkHttp;
+        final EventListener.Factory okListenerFactory;
+
+        Key(Map<String, String> headers, boolean crossProtocolRedirectEnabled, boolean useOkHttp, EventListener.Factory okListenerFactory) {
+            // Copy, since the caller may change its map later.
+            this.headers = headers == null || headers.isEmpty() ? Collections.emptyMap() : new HashMap<>(headers);
+            this.crossProtocolRedirectEnabled = crossProtocolRedirectEnabled;
+            this.useOkHttp = useOkHttp;
+            // The listener factory is only used by OkHttp.
+            this.okListenerFactory = useOkHttp ? okListenerFactory : null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return crossProtocolRedirectEnabled == key.crossProtocolRedirectEnabled &&
+                    useOkHttp == key.useOkHttp &&
+                    okListenerFactory == key.okListenerFactory &&
+                    headers.equals(key.headers);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = headers.hashCode();
+            result = 31 * result + (crossProtocolRedirectEnabled ? 1 : 0);
+            result = 31 * result + (useOkHttp ? 1 : 0);
+            result = 31 * result + System.identityHashCode(okListenerFactory);
+            return result;
+        }
+    }
+}
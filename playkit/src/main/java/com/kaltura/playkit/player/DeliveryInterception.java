@@ -0,0 +1,194 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+package com.kaltura.playkit.player;
+
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kaltura.android.exoplayer2.C;
+import com.kaltura.android.exoplayer2.upstream.DataSource;
+import com.kaltura.android.exoplayer2.upstream.DataSpec;
+import com.kaltura.android.exoplayer2.upstream.HttpDataSource;
+import com.kaltura.android.exoplayer2.upstream.TransferListener;
+import com.kaltura.playkit.PKLog;
+import com.kaltura.playkit.utils.Consts;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends the requests of one media through a {@link PKDeliveryInterceptor}.
+ * <p>
+ * Passed-through requests go to the usual data sources (with CDN failover and hedging).
+ * Rewritten requests with added headers go straight to http. Served requests never reach the network,
+ * and are not reported to the bandwidth meter. Served and rewritten requests keep their original URL,
+ * so relative URLs in their manifests keep resolving through the interceptor.
+ */
+class DeliveryInterception {
+
+    private static final PKLog log = PKLog.get("DeliveryInterception");
+
+    private final PKDeliveryInterceptor interceptor;
+    private final Map<String, String> headers;
+    private final HttpDataSource.Factory httpDataSourceFactory;
+    private final DeliveryRequestIndex index = new DeliveryRequestIndex();
+
+    /**
+     * @param headers               Headers of the media requests, as passed to the data sources.
+     * @param httpDataSourceFactory For rewritten requests with added headers.
+     */
+    DeliveryInterception(@NonNull PKDeliveryInterceptor interceptor, @Nullable Map<String, String> headers,
+                         @NonNull HttpDataSource.Factory httpDataSourceFactory) {
+        this.interceptor = interceptor;
+        this.headers = headers;
+        this.httpDataSourceFactory = httpDataSourceFactory;
+    }
+
+    @NonNull
+    DeliveryRequestIndex getIndex() {
+        return index;
+    }
+
+    @NonNull
+    DataSource.Factory wrap(@NonNull DataSource.Factory upstreamFactory, @NonNull PKDeliveryRequest.Type defaultType, int defaultTrackType) {
+        return () -> new InterceptingDataSource(upstreamFactory, defaultType, defaultTrackType);
+    }
+
+    private class InterceptingDataSource implements DataSource {
+        private final DataSource.Factory upstreamFactory;
+        private final PKDeliveryRequest.Type defaultType;
+        private final int defaultTrackType;
+        private final List<TransferListener> transferListeners = new ArrayList<>(1);
+
+        private DataSource current;
+        private Uri uri;            // Original URL of a served or rewritten request.
+        private InputStream served;
+        private long bytesRemaining;
+
+        InterceptingDataSource(DataSource.Factory upstreamFactory, PKDeliveryRequest.Type defaultType, int defaultTrackType) {
+            this.upstreamFactory = upstreamFactory;
+            this.defaultType = defaultType;
+            this.defaultTrackType = defaultTrackType;
+        }
+
+        @Override
+        public void addTransferListener(TransferListener transferListener) {
+            transferListeners.add(transferListener);
+        }
+
+        private DataSource addTransferListeners(DataSource dataSource) {
+            for (TransferListener transferListener : transferListeners) {
+                dataSource.addTransferListener(transferListener);
+            }
+            return dataSource;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            final PKDeliveryRequest request = index.buildRequest(dataSpec, headers, defaultType, defaultTrackType);
+            final PKDeliveryResponse response;
+            try {
+                response = interceptor.intercept(request);
+            } catch (RuntimeException e) {
+                throw new IOException("Delivery interceptor failed", e);
+            }
+            if (response == null || response.isPassThrough()) {
+                current = addTransferListeners(upstreamFactory.createDataSource());
+                return current.open(dataSpec);
+            }
+
+            uri = dataSpec.uri;
+            if (response.getData() != null) {
+                log.v("Serving " + request);
+                served = response.getData();
+                final long length = response.getLength() == Consts.NO_VALUE ? C.LENGTH_UNSET : response.getLength();
+                bytesRemaining = dataSpec.length != C.LENGTH_UNSET ? dataSpec.length : length;
+                return bytesRemaining;
+            }
+
+            final Uri rewrittenUri = response.getUrl() != null ? response.getUrl() : dataSpec.uri;
+            final Map<String, String> addedHeaders = response.getHeaders();
+            log.v("Rewriting " + request + " to " + rewrittenUri);
+            if (addedHeaders == null || addedHeaders.isEmpty()) {
+                current = upstreamFactory.createDataSource();
+            } else {
+                final HttpDataSource httpDataSource = httpDataSourceFactory.createDataSource();
+                for (Map.Entry<String, String> header : addedHeaders.entrySet()) {
+                    httpDataSource.setRequestProperty(header.getKey(), header.getValue());
+                }
+                current = httpDataSource;
+            }
+            addTransferListeners(current);
+            return current.open(new DataSpec(rewrittenUri, dataSpec.httpMethod, dataSpec.httpBody, dataSpec.absoluteStreamPosition,
+                    dataSpec.position, dataSpec.length, dataSpec.key, dataSpec.flags));
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            if (served == null) {
+                return current.read(buffer, offset, readLength);
+            }
+            if (readLength == 0) {
+                return 0;
+            }
+            if (bytesRemaining == 0) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            final int toRead = bytesRemaining == C.LENGTH_UNSET ? readLength : (int) Math.min(bytesRemaining, readLength);
+            final int read = served.read(buffer, offset, toRead);
+            if (read == -1) {
+                if (bytesRemaining != C.LENGTH_UNSET) {
+                    throw new EOFException("Served data ended " + bytesRemaining + " bytes early");
+                }
+                return C.RESULT_END_OF_INPUT;
+            }
+            if (bytesRemaining != C.LENGTH_UNSET) {
+                bytesRemaining -= read;
+            }
+            return read;
+        }
+
+        @Nullable
+        @Override
+        public Uri getUri() {
+            // Passed-through requests report redirects, like any request.
+            return uri != null ? uri : current != null ? current.getUri() : null;
+        }
+
+        @Override
+        public Map<String, List<String>> getResponseHeaders() {
+            return current != null ? current.getResponseHeaders() : Collections.emptyMap();
+        }
+
+        @Override
+        public void close() throws IOException {
+            uri = null;
+            try {
+                if (served != null) {
+                    served.close();
+                }
+                if (current != null) {
+                    current.close();
+                }
+            } finally {
+                served = null;
+                current = null;
+            }
+        }
+    }
+}
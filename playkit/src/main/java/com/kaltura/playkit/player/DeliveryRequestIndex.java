@@ -0,0 +1,384 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+package com.kaltura.playkit.player;
+
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kaltura.android.exoplayer2.C;
+import com.kaltura.android.exoplayer2.source.dash.DashSegmentIndex;
+import com.kaltura.android.exoplayer2.source.dash.manifest.AdaptationSet;
+import com.kaltura.android.exoplayer2.source.dash.manifest.DashManifest;
+import com.kaltura.android.exoplayer2.source.dash.manifest.DashManifestParser;
+import com.kaltura.android.exoplayer2.source.dash.manifest.Period;
+import com.kaltura.android.exoplayer2.source.dash.manifest.RangedUri;
+import com.kaltura.android.exoplayer2.source.dash.manifest.Representation;
+import com.kaltura.android.exoplayer2.source.hls.playlist.DefaultHlsPlaylistParserFactory;
+import com.kaltura.android.exoplayer2.source.hls.playlist.HlsMasterPlaylist;
+import com.kaltura.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
+import com.kaltura.android.exoplayer2.source.hls.playlist.HlsPlaylist;
+import com.kaltura.android.exoplayer2.source.hls.playlist.HlsPlaylistParserFactory;
+import com.kaltura.android.exoplayer2.upstream.DataSpec;
+import com.kaltura.android.exoplayer2.upstream.ParsingLoadable;
+import com.kaltura.android.exoplayer2.util.UriUtil;
+import com.kaltura.playkit.utils.Consts;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What each URL of a media is for, taken from its parsed DASH manifest or HLS playlists, so that
+ * {@link PKDeliveryRequest}s carry the type, track type, bitrate and media time of segments.
+ * <p>
+ * Parsing a manifest or playlist only records its representations and media playlists, as
+ * {@link Track}s. The segments of a track are listed the first time a request may be one of them,
+ * i.e. its URL starts like the track's segment URLs, so only the tracks that are played are listed,
+ * and a live update only replaces its tracks.
+ * Segments of an open-ended SegmentTemplate (dynamic DASH) and of SegmentBase representations
+ * (indexed by a sidx box) can't be listed; their requests only carry what is known of their
+ * representation, if anything.
+ */
+class DeliveryRequestIndex {
+
+    private static final int MAX_RESOURCES = 1000;
+    private static final int MAX_DASH_MANIFESTS = 4;
+    private static final int MAX_HLS_MEDIA_PLAYLISTS = 64;
+
+    // Guarded by this.
+    // Whole resources (HLS media playlists, SegmentBase representations) by URL, and their init segments by "URL@offset".
+    private final Map<String, Entry> resources = new LruMap<>(MAX_RESOURCES);
+    // Representations of each DASH manifest, by manifest URL.
+    private final Map<String, List<Track>> dashTracks = new LruMap<>(MAX_DASH_MANIFESTS);
+    // HLS media playlists by URL.
+    private final Map<String, Track> hlsTracks = new LruMap<>(MAX_HLS_MEDIA_PLAYLISTS);
+    // Track of the previous segment request, checked first.
+    private Track lastTrack;
+
+    @NonNull
+    ParsingLoadable.Parser<DashManifest> wrapDashParser() {
+        final DashManifestParser parser = new DashManifestParser();
+        return (uri, inputStream) -> {
+            final DashManifest manifest = parser.parse(uri, inputStream);
+            addDashManifest(uri, manifest);
+            return manifest;
+        };
+    }
+
+    @NonNull
+    HlsPlaylistParserFactory wrapHlsParserFactory() {
+        final HlsPlaylistParserFactory parserFactory = new DefaultHlsPlaylistParserFactory();
+        return new HlsPlaylistParserFactory() {
+            @Override
+            public ParsingLoadable.Parser<HlsPlaylist> createPlaylistParser() {
+                return wrapHlsParser(parserFactory.createPlaylistParser());
+            }
+
+            @Override
+            public ParsingLoadable.Parser<HlsPlaylist> createPlaylistParser(HlsMasterPlaylist masterPlaylist) {
+                return wrapHlsParser(parserFactory.createPlaylistParser(masterPlaylist));
+            }
+        };
+    }
+
+    private ParsingLoadable.Parser<HlsPlaylist> wrapHlsParser(ParsingLoadable.Parser<HlsPlaylist> parser) {
+        return (uri, inputStream) -> {
+            final HlsPlaylist playlist = parser.parse(uri, inputStream);
+            if (playlist instanceof HlsMasterPlaylist) {
+                addHlsMasterPlaylist((HlsMasterPlaylist) playlist);
+            } else if (playlist instanceof HlsMediaPlaylist) {
+                addHlsMediaPlaylist(uri, (HlsMediaPlaylist) playlist);
+            }
+            return playlist;
+        };
+    }
+
+    @NonNull
+    PKDeliveryRequest buildRequest(@NonNull DataSpec dataSpec, @Nullable Map<String, String> headers,
+                                   @NonNull PKDeliveryRequest.Type defaultType, int defaultTrackType) {
+        final String url = dataSpec.uri.toString();
+        final String key = url + "@" + dataSpec.absoluteStreamPosition;
+        Entry entry;
+        synchronized (this) {
+            entry = findSegment(url, key);
+            if (entry == null) {
+                entry = resources.get(key);
+            }
+            if (entry == null) {
+                entry = resources.get(url);
+            }
+        }
+
+        PKDeliveryRequest.Type type = defaultType;
+        int trackType = defaultTrackType;
+        long bitrate = Consts.NO_VALUE;
+        long mediaTimeMs = Consts.TIME_UNSET;
+        if (entry != null) {
+            // A media playlist is still requested as a manifest.
+            type = defaultType == PKDeliveryRequest.Type.MANIFEST ? defaultType : entry.type;
+            trackType = entry.trackType;
+            bitrate = entry.bitrate;
+            mediaTimeMs = entry.mediaTimeMs;
+        }
+        return new PKDeliveryRequest(type, dataSpec.uri, headers, trackType, bitrate, mediaTimeMs,
+                dataSpec.absoluteStreamPosition, dataSpec.length == C.LENGTH_UNSET ? Consts.NO_VALUE : dataSpec.length, dataSpec.httpBody);
+    }
+
+    // Guarded by this
+    @Nullable
+    private Entry findSegment(String url, String key) {
+        if (lastTrack != null && url.startsWith(lastTrack.urlPrefix)) {
+            final Entry entry = lastTrack.getSegments().get(key);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        for (List<Track> tracks : dashTracks.values()) {
+            for (Track track : tracks) {
+                final Entry entry = findSegment(track, url, key);
+                if (entry != null) {
+                    return entry;
+                }
+            }
+        }
+        for (Track track : hlsTracks.values()) {
+            final Entry entry = findSegment(track, url, key);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    // Guarded by this
+    @Nullable
+    private Entry findSegment(Track track, String url, String key) {
+        if (track == lastTrack || !url.startsWith(track.urlPrefix)) {
+            return null;
+        }
+        final Entry entry = track.getSegments().get(key);
+        if (entry != null) {
+            lastTrack = track;
+        }
+        return entry;
+    }
+
+    private void addDashManifest(Uri uri, DashManifest manifest) {
+        final List<Track> tracks = new ArrayList<>();
+        final Map<String, Entry> wholeResources = new HashMap<>();
+        for (int periodIndex = 0; periodIndex < manifest.getPeriodCount(); periodIndex++) {
+            final Period period = manifest.getPeriod(periodIndex);
+            final long periodDurationUs = manifest.getPeriodDurationUs(periodIndex);
+            for (AdaptationSet adaptationSet : period.adaptationSets) {
+                final int trackType = toTrackType(adaptationSet.type);
+                for (Representation representation : adaptationSet.representations) {
+                    addDashRepresentation(representation, trackType, period.startMs, periodDurationUs, tracks, wholeResources);
+                }
+            }
+        }
+        synchronized (this) {
+            resources.putAll(wholeResources);
+            dashTracks.put(uri.toString(), tracks);
+            lastTrack = null;
+        }
+    }
+
+    private static void addDashRepresentation(Representation representation, int trackType, long periodStartMs, long periodDurationUs,
+                                              List<Track> tracks, Map<String, Entry> wholeResources) {
+        final String baseUrl = representation.baseUrl;
+        final long bitrate = representation.format.bitrate == com.kaltura.android.exoplayer2.Format.NO_VALUE ?
+                Consts.NO_VALUE : representation.format.bitrate;
+        final PKDeliveryRequest.Type mediaType = trackType == Consts.TRACK_TYPE_TEXT ?
+                PKDeliveryRequest.Type.SUBTITLE : PKDeliveryRequest.Type.MEDIA_SEGMENT;
+
+        final RangedUri initializationUri = representation.getInitializationUri();
+        final DashSegmentIndex index = representation.getIndex();
+        final int segmentCount = index != null ? index.getSegmentCount(periodDurationUs) : 0;
+        if (index == null || segmentCount == DashSegmentIndex.INDEX_UNBOUNDED || segmentCount == 0) {
+            if (index == null) {
+                // SegmentBase: the whole representation is one resource.
+                wholeResources.put(baseUrl, new Entry(mediaType, trackType, bitrate, Consts.TIME_UNSET));
+            }
+            if (initializationUri != null) {
+                wholeResources.put(initializationUri.resolveUriString(baseUrl) + "@" + initializationUri.start,
+                        new Entry(PKDeliveryRequest.Type.INIT_SEGMENT, trackType, bitrate, Consts.TIME_UNSET));
+            }
+            return;
+        }
+
+        final long firstSegmentNum = index.getFirstSegmentNum();
+        final long lastSegmentNum = firstSegmentNum + segmentCount - 1;
+        String urlPrefix = commonPrefix(index.getSegmentUrl(firstSegmentNum).resolveUriString(baseUrl),
+                index.getSegmentUrl(lastSegmentNum).resolveUriString(baseUrl));
+        if (initializationUri != null) {
+            urlPrefix = commonPrefix(urlPrefix, initializationUri.resolveUriString(baseUrl));
+        }
+        tracks.add(new Track(urlPrefix, trackType, bitrate) {
+            @Override
+            void listSegments(Map<String, Entry> segments) {
+                if (initializationUri != null) {
+                    put(segments, initializationUri.resolveUriString(baseUrl), initializationUri.start,
+                            new Entry(PKDeliveryRequest.Type.INIT_SEGMENT, trackType, bitrate, Consts.TIME_UNSET));
+                }
+                for (long segmentNum = firstSegmentNum; segmentNum <= lastSegmentNum; segmentNum++) {
+                    final RangedUri segmentUri = index.getSegmentUrl(segmentNum);
+                    put(segments, segmentUri.resolveUriString(baseUrl), segmentUri.start,
+                            new Entry(mediaType, trackType, bitrate, periodStartMs + index.getTimeUs(segmentNum) / 1000));
+                }
+            }
+        });
+    }
+
+    private void addHlsMasterPlaylist(HlsMasterPlaylist masterPlaylist) {
+        synchronized (this) {
+            for (HlsMasterPlaylist.Variant variant : masterPlaylist.variants) {
+                addHlsPlaylistUrl(variant.url, Consts.TRACK_TYPE_VIDEO, variant.format.bitrate);
+            }
+            for (HlsMasterPlaylist.Rendition rendition : masterPlaylist.audios) {
+                addHlsPlaylistUrl(rendition.url, Consts.TRACK_TYPE_AUDIO, rendition.format.bitrate);
+            }
+            for (HlsMasterPlaylist.Rendition rendition : masterPlaylist.subtitles) {
+                addHlsPlaylistUrl(rendition.url, Consts.TRACK_TYPE_TEXT, rendition.format.bitrate);
+            }
+        }
+    }
+
+    // Guarded by this
+    private void addHlsPlaylistUrl(@Nullable Uri url, int trackType, int bitrate) {
+        if (url != null) {
+            final PKDeliveryRequest.Type type = trackType == Consts.TRACK_TYPE_TEXT ?
+                    PKDeliveryRequest.Type.SUBTITLE : PKDeliveryRequest.Type.MEDIA_SEGMENT;
+            resources.put(url.toString(), new Entry(type, trackType, bitrate == com.kaltura.android.exoplayer2.Format.NO_VALUE ?
+                    Consts.NO_VALUE : bitrate, Consts.TIME_UNSET));
+        }
+    }
+
+    private void addHlsMediaPlaylist(Uri playlistUri, HlsMediaPlaylist playlist) {
+        final List<HlsMediaPlaylist.Segment> segments = playlist.segments;
+        if (segments.isEmpty()) {
+            return;
+        }
+        String urlPrefix = commonPrefix(UriUtil.resolve(playlist.baseUri, segments.get(0).url),
+                UriUtil.resolve(playlist.baseUri, segments.get(segments.size() - 1).url));
+        final HlsMediaPlaylist.Segment firstInitializationSegment = segments.get(0).initializationSegment;
+        if (firstInitializationSegment != null) {
+            urlPrefix = commonPrefix(urlPrefix, UriUtil.resolve(playlist.baseUri, firstInitializationSegment.url));
+        }
+
+        synchronized (this) {
+            // Media playlists are known from the master playlist, unless the media is a single media playlist.
+            final Entry playlistEntry = resources.get(playlistUri.toString());
+            final PKDeliveryRequest.Type type = playlistEntry != null ? playlistEntry.type : PKDeliveryRequest.Type.MEDIA_SEGMENT;
+            final int trackType = playlistEntry != null ? playlistEntry.trackType : Consts.TRACK_TYPE_UNKNOWN;
+            final long bitrate = playlistEntry != null ? playlistEntry.bitrate : Consts.NO_VALUE;
+
+            hlsTracks.put(playlistUri.toString(), new Track(urlPrefix, trackType, bitrate) {
+                @Override
+                void listSegments(Map<String, Entry> entries) {
+                    for (HlsMediaPlaylist.Segment segment : segments) {
+                        final HlsMediaPlaylist.Segment initializationSegment = segment.initializationSegment;
+                        if (initializationSegment != null) {
+                            put(entries, UriUtil.resolve(playlist.baseUri, initializationSegment.url), initializationSegment.byterangeOffset,
+                                    new Entry(PKDeliveryRequest.Type.INIT_SEGMENT, trackType, bitrate, Consts.TIME_UNSET));
+                        }
+                        put(entries, UriUtil.resolve(playlist.baseUri, segment.url), segment.byterangeOffset,
+                                new Entry(type, trackType, bitrate, (playlist.startTimeUs + segment.relativeStartTimeUs) / 1000));
+                    }
+                }
+            });
+            lastTrack = null;
+        }
+    }
+
+    private static void put(Map<String, Entry> entries, String url, long offset, Entry entry) {
+        entries.put(url + "@" + offset, entry);
+    }
+
+    private static String commonPrefix(String a, String b) {
+        final int length = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < length && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return a.substring(0, i);
+    }
+
+    private static int toTrackType(int exoTrackType) {
+        switch (exoTrackType) {
+            case C.TRACK_TYPE_VIDEO:
+                return Consts.TRACK_TYPE_VIDEO;
+            case C.TRACK_TYPE_AUDIO:
+                return Consts.TRACK_TYPE_AUDIO;
+            case C.TRACK_TYPE_TEXT:
+                return Consts.TRACK_TYPE_TEXT;
+            default:
+                return Consts.TRACK_TYPE_UNKNOWN;
+        }
+    }
+
+    /**
+     * A DASH representation or an HLS media playlist, whose segments are listed on first use.
+     */
+    private abstract static class Track {
+        final String urlPrefix;     // Common to the URLs of all its segments.
+        final int trackType;
+        final long bitrate;
+        private Map<String, Entry> segments;    // By "URL@offset". Guarded by the index.
+
+        Track(String urlPrefix, int trackType, long bitrate) {
+            this.urlPrefix = urlPrefix;
+            this.trackType = trackType;
+            this.bitrate = bitrate;
+        }
+
+        Map<String, Entry> getSegments() {
+            if (segments == null) {
+                segments = new HashMap<>();
+                listSegments(segments);
+            }
+            return segments;
+        }
+
+        abstract void listSegments(Map<String, Entry> segments);
+    }
+
+    private static class Entry {
+        final PKDeliveryRequest.Type type;
+        final int trackType;
+        final long bitrate;
+        final long mediaTimeMs;
+
+        Entry(PKDeliveryRequest.Type type, int trackType, long bitrate, long mediaTimeMs) {
+            this.type = type;
+            this.trackType = trackType;
+            this.bitrate = bitrate;
+            this.mediaTimeMs = mediaTimeMs;
+        }
+    }
+
+    private static class LruMap<K, V> extends LinkedHashMap<K, V> {
+        private final int maxEntries;
+
+        LruMap(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package com.kaltura.playkit.player;
 
+import android.view.Surface;
+
+import androidx.annotation.Nullable;
+
+import com.kaltura.android.exoplayer2.C;
 import com.kaltura.android.exoplayer2.analytics.AnalyticsListener;
 import com.kaltura.android.exoplayer2.source.MediaSourceEventListener;
 
@@ -25,8 +30,7 @@ class ExoAnalyticsAggregator implements AnalyticsListener {
         }
     }
 
-    @Override
-    public void onLoadCompleted(EventTime eventTime, MediaSourceEventListener.LoadEventInfo loadEventInfo, MediaSourceEventListener.MediaLoadData mediaLoadData) {
+    private void onLoadFinished(MediaSourceEventListener.LoadEventInfo loadEventInfo) {
         if (loadEventInfo.bytesLoaded > 0) {
             totalBytesLoaded += loadEventInfo.bytesLoaded;
 
@@ -36,19 +40,62 @@ class ExoAnalyticsAggregator implements AnalyticsListener {
         }
     }
 
+    @Override
+    public void onLoadCompleted(EventTime eventTime, MediaSourceEventListener.LoadEventInfo loadEventInfo, MediaSourceEventListener.MediaLoadData mediaLoadData) {
+        onLoadFinished(loadEventInfo);
+        if (mediaLoadData.dataType == C.DATA_TYPE_MANIFEST && listener != null) {
+            listener.onManifestLoaded();
+        }
+    }
+
     @Override
     public void onLoadCanceled(EventTime eventTime, MediaSourceEventListener.LoadEventInfo loadEventInfo, MediaSourceEventListener.MediaLoadData mediaLoadData) {
-        onLoadCompleted(eventTime, loadEventInfo, mediaLoadData);   // in case there are bytes loaded
+        onLoadFinished(loadEventInfo);   // in case there are bytes loaded
     }
 
     @Override
     public void onLoadError(EventTime eventTime, MediaSourceEventListener.LoadEventInfo loadEventInfo, MediaSourceEventListener.MediaLoadData mediaLoadData, IOException error, boolean wasCanceled) {
-        onLoadCompleted(eventTime, loadEventInfo, mediaLoadData);   // in case there are bytes loaded
+        onLoadFinished(loadEventInfo);   // in case there are bytes loaded
         if (listener != null) {
             listener.onLoadError(error, wasCanceled);
         }
     }
 
+    @Override
+    public void onDrmKeysLoaded(EventTime eventTime) {
+        if (listener != null) {
+            listener.onDrmKeysLoaded();
+        }
+    }
+
+    @Override
+    public void onRenderedFirstFrame(EventTime eventTime, @Nullable Surface surface) {
+        if (listener != null) {
+            listener.onFirstFrameRendered();
+        }
+    }
+
+    // Not an ExoPlayer event; posted by ExoPlayerWrapper.
+    void onHedgedRequest(boolean hedgeWon, long totalRequests, long totalHedges, long totalHedgeWins) {
+        if (listener != null) {
+            listener.onHedgedRequest(hedgeWon, totalRequests, totalHedges, totalHedgeWins);
+        }
+    }
+
+    // Not an ExoPlayer event; posted by ExoPlayerWrapper.
+    void onPlaybackStarted(boolean hasVideo) {
+        if (listener != null) {
+            listener.onPlaybackStarted(hasVideo);
+        }
+    }
+
+    // Not an ExoPlayer event; posted by ExoPlayerWrapper.
+    void onDrmSessionReused(long totalHits, long totalMisses) {
+        if (listener != null) {
+            listener.onDrmSessionReused(totalHits, totalMisses);
+        }
+    }
+
     public void setListener(PlayerEngine.AnalyticsListener listener) {
         this.listener = listener;
     }
@@ -13,28 +13,25 @@
 package com.kaltura.playkit.player;
 
 import android.content.Context;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
 import android.net.Uri;
-import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.kaltura.android.exoplayer2.C;
 import com.kaltura.android.exoplayer2.DefaultLoadControl;
 import com.kaltura.android.exoplayer2.ExoPlaybackException;
 import com.kaltura.android.exoplayer2.ExoPlayerFactory;
-import com.kaltura.android.exoplayer2.ExoPlayerLibraryInfo;
 import com.kaltura.android.exoplayer2.Format;
 import com.kaltura.android.exoplayer2.PlaybackParameters;
 import com.kaltura.android.exoplayer2.Player;
 import com.kaltura.android.exoplayer2.SimpleExoPlayer;
 import com.kaltura.android.exoplayer2.Timeline;
-import com.kaltura.android.exoplayer2.ext.okhttp.OkHttpDataSourceFactory;
 import com.kaltura.android.exoplayer2.metadata.Metadata;
 import com.kaltura.android.exoplayer2.metadata.MetadataOutput;
 import com.kaltura.android.exoplayer2.source.BehindLiveWindowException;
+import com.kaltura.android.exoplayer2.source.ConcatenatingMediaSource;
 import com.kaltura.android.exoplayer2.source.MediaSource;
 import com.kaltura.android.exoplayer2.source.MergingMediaSource;
 import com.kaltura.android.exoplayer2.source.ProgressiveMediaSource;
@@ -49,17 +46,13 @@ import com.kaltura.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.kaltura.android.exoplayer2.ui.SubtitleView;
 import com.kaltura.android.exoplayer2.upstream.BandwidthMeter;
 import com.kaltura.android.exoplayer2.upstream.DataSource;
-import com.kaltura.android.exoplayer2.upstream.DefaultBandwidthMeter;
-import com.kaltura.android.exoplayer2.upstream.DefaultDataSourceFactory;
-import com.kaltura.android.exoplayer2.upstream.DefaultHttpDataSource;
-import com.kaltura.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
 import com.kaltura.android.exoplayer2.upstream.HttpDataSource;
+import com.kaltura.playkit.LocalAssetsManager;
 import com.kaltura.playkit.PKError;
 import com.kaltura.playkit.PKLog;
 import com.kaltura.playkit.PKMediaEntry;
 import com.kaltura.playkit.PKMediaFormat;
 import com.kaltura.playkit.PKRequestParams;
-import com.kaltura.playkit.PlayKitManager;
 import com.kaltura.playkit.PlaybackInfo;
 import com.kaltura.playkit.PlayerEvent;
 import com.kaltura.playkit.PlayerState;
@@ -68,17 +61,10 @@ import com.kaltura.playkit.drm.DrmCallback;
 import com.kaltura.playkit.player.metadata.MetadataConverter;
 import com.kaltura.playkit.player.metadata.PKMetadata;
 import com.kaltura.playkit.utils.Consts;
-import com.kaltura.playkit.utils.NativeCookieJarBridge;
 
-import java.net.CookieHandler;
-import java.net.CookieManager;
-import java.net.CookiePolicy;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
-
-import okhttp3.OkHttpClient;
 
 import static com.kaltura.playkit.utils.Consts.DEFAULT_PITCH_RATE;
 import static com.kaltura.playkit.utils.Consts.TIME_UNSET;
@@ -90,7 +76,7 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
 
     private static final PKLog log = PKLog.get("ExoPlayerWrapper");
 
-    private DefaultBandwidthMeter bandwidthMeter;
+    private PKBandwidthMeter bandwidthMeter;
     @NonNull private PlayerSettings playerSettings;
     private EventListener eventListener;
     private StateChangedListener stateChangedListener;
@@ -106,6 +92,7 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
     private Timeline.Window window;
     private TrackSelectionHelper trackSelectionHelper;
     private DeferredDrmSessionManager drmSessionManager;
+    private DrmCallback drmCallback;
 
     private PlayerEvent.Type currentEvent;
     private PlayerState currentState = PlayerState.IDLE;
@@ -137,10 +124,18 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
     private DeferredDrmSessionManager.DrmSessionListener drmSessionListener = initDrmSessionListener();
 
     private PKMediaSourceConfig sourceConfig;
+    // The media that plays after sourceConfig, already added to playlistMediaSource.
+    @Nullable private PKMediaSourceConfig nextSourceConfig;
+    // Holds the current media at index 0, followed by the next media if one is set.
+    @Nullable private ConcatenatingMediaSource playlistMediaSource;
     @NonNull private Profiler profiler = Profiler.NOOP;
 
     private Timeline.Period period;
 
+    private final DataSourceRegistry dataSourceRegistry;
+    private HedgedRequests hedgedRequests;
+    private BufferHealthMonitor bufferHealthMonitor;
+
     ExoPlayerWrapper(Context context, PlayerSettings playerSettings, PlayerView rootPlayerView) {
         this(context, new ExoPlayerView(context), playerSettings, rootPlayerView);
     }
@@ -150,19 +145,16 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
 
         playerSettings = settings != null ? settings : new PlayerSettings();
         rootView = rootPlayerView;
-        DefaultBandwidthMeter.Builder bandwidthMeterBuilder = new DefaultBandwidthMeter.Builder(context);
-
-        Long initialBitrateEstimate = playerSettings.getAbrSettings().getInitialBitrateEstimate();
-
-        if (initialBitrateEstimate != null && initialBitrateEstimate > 0) {
-            bandwidthMeterBuilder.setInitialBitrateEstimate(initialBitrateEstimate);
+        bandwidthMeter = playerSettings.getBandwidthMeter();
+        if (bandwidthMeter == null) {
+            // Starts with the estimate remembered for the current network, if any.
+            bandwidthMeter = new PKBandwidthMeter(context, playerSettings.getAbrSettings().getInitialBitrateEstimate());
         }
-
-        bandwidthMeter = bandwidthMeterBuilder.build();
         bandwidthMeter.addEventListener(mainHandler, this);
 
         period = new Timeline.Period();
         this.exoPlayerView = exoPlayerView;
+        dataSourceRegistry = new DataSourceRegistry(context);
     }
 
     @Override
@@ -173,7 +165,8 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
     private void initializePlayer() {
         DefaultTrackSelector trackSelector = initializeTrackSelector();
 
-        final DrmCallback drmCallback = new DrmCallback(getHttpDataSourceFactory(null), playerSettings.getLicenseRequestAdapter());
+        drmCallback = new DrmCallback(getHttpDataSourceFactory(null), playerSettings.getLicenseRequestAdapter(),
+                playerSettings.getDeliveryInterceptor());
         drmSessionManager = new DeferredDrmSessionManager(mainHandler, drmCallback, drmSessionListener);
         CustomRendererFactory renderersFactory = new CustomRendererFactory(context, playerSettings.allowClearLead(), playerSettings.enableDecoderFallback(), playerSettings.getLoadControlBuffers().getAllowedVideoJoiningTimeMs());
 
@@ -212,6 +205,18 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
             if (exoAnalyticsListener != null) {
                 player.addAnalyticsListener(exoAnalyticsListener);
             }
+            releaseBufferHealthMonitor();
+            if (playerSettings.getBufferHealthListener() != null) {
+                bufferHealthMonitor = new BufferHealthMonitor(mainHandler, player, playerSettings.getBufferHealthListener(),
+                        playerSettings.getBufferHealthUpdateIntervalMs());
+            }
+        }
+    }
+
+    private void releaseBufferHealthMonitor() {
+        if (bufferHealthMonitor != null) {
+            bufferHealthMonitor.release();
+            bufferHealthMonitor = null;
         }
     }
 
@@ -234,14 +239,19 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
         //reset metadata on prepare.
         metadataList.clear();
 
+        // Like the media requests, license requests follow the interceptor of the current settings.
+        drmCallback.setDeliveryInterceptor(playerSettings.getDeliveryInterceptor());
         if (sourceConfig.mediaSource.hasDrmParams()) {
+            drmSessionManager.setMaxCachedSessions(playerSettings.getDrmSessionCacheSize());
             drmSessionManager.setMediaSource(sourceConfig.mediaSource);
+            prefetchLicenseFromCachedManifest(sourceConfig);
         }
 
         shouldGetTracksInfo = true;
         trackSelectionHelper.applyPlayerSettings(playerSettings);
 
-        MediaSource mediaSource = buildExoMediaSource(sourceConfig);
+        nextSourceConfig = null;
+        MediaSource mediaSource = buildPlaylistMediaSource();
         profiler.onPrepareStarted(sourceConfig);
         boolean haveStartPosition = player.getCurrentWindowIndex() != C.INDEX_UNSET;
         player.prepare(mediaSource, !haveStartPosition, shouldResetPlayerPosition);
@@ -253,6 +263,102 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
         }
     }
 
+    // A prefetched manifest already has the PSSH, so the license request doesn't have to wait for the player to parse it.
+    private void prefetchLicenseFromCachedManifest(@NonNull PKMediaSourceConfig sourceConfig) {
+        final PKManifestCache manifestCache = playerSettings.getManifestCache();
+        if (manifestCache == null || drmSessionManager.isLicensePrefetchStarted()) {
+            return;
+        }
+        final PKRequestParams requestParams = sourceConfig.getRequestParams();
+        final byte[] manifest = manifestCache.peek(requestParams.url, requestParams.headers);
+        if (manifest != null) {
+            drmSessionManager.prefetchLicense(requestParams.url, manifest, sourceConfig.mediaSource.getMediaFormat());
+        }
+    }
+
+    private MediaSource buildPlaylistMediaSource() {
+        playlistMediaSource = new ConcatenatingMediaSource(buildExoMediaSource(sourceConfig));
+        if (nextSourceConfig != null) {
+            playlistMediaSource.addMediaSource(buildExoMediaSource(nextSourceConfig));
+        }
+        return playlistMediaSource;
+    }
+
+    @Override
+    public boolean setNextMedia(@Nullable PKMediaSourceConfig nextSourceConfig) {
+        log.v("setNextMedia");
+        if (!assertPlayerIsNotNull("setNextMedia()") || playlistMediaSource == null) {
+            return false;
+        }
+
+        // Replace the media that was set before, if any.
+        if (playlistMediaSource.getSize() > 1) {
+            playlistMediaSource.removeMediaSource(1);
+        }
+        this.nextSourceConfig = null;
+
+        if (nextSourceConfig == null) {
+            return true;
+        }
+        if (!canPlayGapless(sourceConfig, nextSourceConfig)) {
+            log.d("setNextMedia: next media can't follow the current one without re-preparing");
+            return false;
+        }
+
+        final MediaSource nextMediaSource = buildExoMediaSource(nextSourceConfig);
+        if (nextMediaSource == null) {
+            return false;
+        }
+
+        if (nextSourceConfig.mediaSource.hasDrmParams() && !sourceConfig.mediaSource.hasDrmParams()) {
+            drmSessionManager.setMediaSource(nextSourceConfig.mediaSource);
+        }
+
+        // ExoPlayer prepares the next media (loads its manifest) now, and starts buffering it
+        // once the current media is fully buffered.
+        this.nextSourceConfig = nextSourceConfig;
+        playlistMediaSource.addMediaSource(nextMediaSource);
+        return true;
+    }
+
+    // The DRM session manager serves a single license URL and offline licenses are loaded once,
+    // so the two media must share their DRM configuration, if both have one.
+    private static boolean canPlayGapless(PKMediaSourceConfig current, PKMediaSourceConfig next) {
+        if (next.mediaSource.getMediaFormat() == null) {
+            return false;
+        }
+        final boolean currentHasDrm = current.mediaSource.hasDrmParams();
+        final boolean nextHasDrm = next.mediaSource.hasDrmParams();
+        if ((currentHasDrm && current.mediaSource instanceof LocalAssetsManager.LocalMediaSource) ||
+                (nextHasDrm && next.mediaSource instanceof LocalAssetsManager.LocalMediaSource)) {
+            return false;
+        }
+        if (currentHasDrm && nextHasDrm) {
+            final String currentLicenseUrl = DeferredDrmSessionManager.getLicenseUrl(current.mediaSource);
+            return currentLicenseUrl != null && currentLicenseUrl.equals(DeferredDrmSessionManager.getLicenseUrl(next.mediaSource));
+        }
+        return true;
+    }
+
+    private void switchToNextMedia() {
+        log.d("switchToNextMedia");
+        if (playlistMediaSource != null && playlistMediaSource.getSize() > 1) {
+            playlistMediaSource.removeMediaSource(0);   // Keep the current media at index 0
+        }
+        sourceConfig = nextSourceConfig;
+        nextSourceConfig = null;
+        metadataList.clear();
+        shouldGetTracksInfo = true;
+        analyticsAggregator.reset();
+
+        sendEvent(PlayerEvent.Type.NEXT_MEDIA_STARTED);
+        sendDistinctEvent(PlayerEvent.Type.LOADED_METADATA);
+        if (getDuration() != TIME_UNSET) {
+            sendDistinctEvent(PlayerEvent.Type.DURATION_CHANGE);
+            profiler.onDurationChanged(getDuration());
+        }
+    }
+
     private MediaSource buildExoMediaSource(PKMediaSourceConfig sourceConfig) {
         PKMediaFormat format = sourceConfig.mediaSource.getMediaFormat();
 
@@ -272,26 +378,51 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
         Uri uri = requestParams.url;
 
         final DataSource.Factory dataSourceFactory = getDataSourceFactory(requestParams.headers);
+        final CdnFailover cdnFailover = CdnFailover.create(context, sourceConfig.mediaSource);
+        final PKDeliveryInterceptor deliveryInterceptor = playerSettings.getDeliveryInterceptor();
+        final DeliveryInterception deliveryInterception = deliveryInterceptor != null ?
+                new DeliveryInterception(deliveryInterceptor, requestParams.headers, getHttpDataSourceFactory(requestParams.headers)) : null;
+        final DataSource.Factory mediaDataSourceFactory = getMediaDataSourceFactory(
+                cdnFailover != null ? cdnFailover.wrap(dataSourceFactory) : dataSourceFactory, sourceConfig, deliveryInterception);
+        DataSource.Factory manifestDataSourceFactory = getManifestDataSourceFactory(dataSourceFactory, requestParams.headers);
+        if (cdnFailover != null) {
+            manifestDataSourceFactory = cdnFailover.wrap(manifestDataSourceFactory);
+        }
+        if (deliveryInterception != null) {
+            manifestDataSourceFactory = deliveryInterception.wrap(manifestDataSourceFactory, PKDeliveryRequest.Type.MANIFEST, Consts.TRACK_TYPE_UNKNOWN);
+        }
 
         switch (format) {
             case dash:
-                DashMediaSource dashDataSource = new DashMediaSource.Factory(
-                        new DefaultDashChunkSource.Factory(dataSourceFactory),
-                        dataSourceFactory)
-                        .createMediaSource(uri);
-                return new MergingMediaSource(buildMediaSourceList(dashDataSource, externalSubtitleList));
+                DashMediaSource.Factory dashMediaSourceFactory = new DashMediaSource.Factory(
+                        new DefaultDashChunkSource.Factory(mediaDataSourceFactory),
+                        manifestDataSourceFactory);
+                if (deliveryInterception != null) {
+                    dashMediaSourceFactory.setManifestParser(deliveryInterception.getIndex().wrapDashParser());
+                }
+                DashMediaSource dashDataSource = dashMediaSourceFactory.createMediaSource(uri);
+                return new MergingMediaSource(buildMediaSourceList(dashDataSource, externalSubtitleList, deliveryInterception));
 
             case hls:
-                HlsMediaSource hlsMediaSource = new HlsMediaSource.Factory(dataSourceFactory)
-                        .createMediaSource(uri);
-                return new MergingMediaSource(buildMediaSourceList(hlsMediaSource, externalSubtitleList));
+                // Playlists may come from the manifest cache, segments from the media cache. Keys bypass both.
+                DataSource.Factory keyDataSourceFactory = dataSourceFactory;
+                if (deliveryInterception != null) {
+                    keyDataSourceFactory = deliveryInterception.wrap(keyDataSourceFactory, PKDeliveryRequest.Type.LICENSE, Consts.TRACK_TYPE_UNKNOWN);
+                }
+                HlsMediaSource.Factory hlsMediaSourceFactory = new HlsMediaSource.Factory(
+                        new HlsDataSources(manifestDataSourceFactory, mediaDataSourceFactory, keyDataSourceFactory));
+                if (deliveryInterception != null) {
+                    hlsMediaSourceFactory.setPlaylistParserFactory(deliveryInterception.getIndex().wrapHlsParserFactory());
+                }
+                HlsMediaSource hlsMediaSource = hlsMediaSourceFactory.createMediaSource(uri);
+                return new MergingMediaSource(buildMediaSourceList(hlsMediaSource, externalSubtitleList, deliveryInterception));
 
             // mp4 and mp3 both use ExtractorMediaSource
             case mp4:
             case mp3:
-                ProgressiveMediaSource extractorMediaSource = new ProgressiveMediaSource.Factory(dataSourceFactory)
+                ProgressiveMediaSource extractorMediaSource = new ProgressiveMediaSource.Factory(mediaDataSourceFactory)
                         .createMediaSource(uri);
-                return new MergingMediaSource(buildMediaSourceList(extractorMediaSource, externalSubtitleList));
+                return new MergingMediaSource(buildMediaSourceList(extractorMediaSource, externalSubtitleList, deliveryInterception));
 
             default:
                 throw new IllegalStateException("Unsupported type: " + format);
@@ -301,15 +432,17 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
     /**
      * Return the media source with external subtitles if exists
      * @param externalSubtitleList External subtitle List
+     * @param deliveryInterception Delivery interception of the media, or null
      * @return Media Source array
      */
 
-    private MediaSource[] buildMediaSourceList(MediaSource mediaSource, List<PKExternalSubtitle> externalSubtitleList) {
+    private MediaSource[] buildMediaSourceList(MediaSource mediaSource, List<PKExternalSubtitle> externalSubtitleList,
+                                               DeliveryInterception deliveryInterception) {
         List<MediaSource> streamMediaSources = new ArrayList<>();
 
         if (externalSubtitleList != null && externalSubtitleList.size() > 0) {
             for (int subtitlePosition = 0 ; subtitlePosition < externalSubtitleList.size() ; subtitlePosition ++) {
-                MediaSource subtitleMediaSource = buildExternalSubtitleSource(subtitlePosition, externalSubtitleList.get(subtitlePosition));
+                MediaSource subtitleMediaSource = buildExternalSubtitleSource(subtitlePosition, externalSubtitleList.get(subtitlePosition), deliveryInterception);
                 streamMediaSources.add(subtitleMediaSource);
             }
         }
@@ -326,7 +459,7 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
      */
 
     @NonNull
-    private MediaSource buildExternalSubtitleSource(int subtitleId, PKExternalSubtitle pkExternalSubtitle) {
+    private MediaSource buildExternalSubtitleSource(int subtitleId, PKExternalSubtitle pkExternalSubtitle, DeliveryInterception deliveryInterception) {
         // Build the subtitle MediaSource.
         Format subtitleFormat = Format.createTextContainerFormat(
                 String.valueOf(subtitleId), // An identifier for the track. May be null.
@@ -339,68 +472,61 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
                 pkExternalSubtitle.getRoleFlag(),
                 pkExternalSubtitle.getLanguage()); // The subtitle language. May be null.
 
-        return new SingleSampleMediaSource.Factory(getDataSourceFactory(null))
+        DataSource.Factory subtitleDataSourceFactory = getDataSourceFactory(null);
+        if (deliveryInterception != null) {
+            subtitleDataSourceFactory = deliveryInterception.wrap(subtitleDataSourceFactory, PKDeliveryRequest.Type.SUBTITLE, Consts.TRACK_TYPE_TEXT);
+        }
+        return new SingleSampleMediaSource.Factory(subtitleDataSourceFactory)
                 .createMediaSource(Uri.parse(pkExternalSubtitle.getUrl()), subtitleFormat, C.TIME_UNSET);
     }
 
     private HttpDataSource.Factory getHttpDataSourceFactory(Map<String, String> headers) {
-        HttpDataSource.Factory httpDataSourceFactory;
-        final String userAgent = getUserAgent(context);
-        final boolean crossProtocolRedirectEnabled = playerSettings.crossProtocolRedirectEnabled();
-
-        if (CookieHandler.getDefault() == null) {
-            CookieHandler.setDefault(new CookieManager(null, CookiePolicy.ACCEPT_ORIGINAL_SERVER));
-        }
-
-        if (PKHttpClientManager.useOkHttp()) {
-
-            final OkHttpClient.Builder builder = PKHttpClientManager.newClientBuilder()
-                    .cookieJar(NativeCookieJarBridge.sharedCookieJar)
-                    .followRedirects(true)
-                    .followSslRedirects(crossProtocolRedirectEnabled)
-                    .connectTimeout(DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
-                    .readTimeout(DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
-
-            final okhttp3.EventListener.Factory okListenerFactory = profiler.getOkListenerFactory();
-            if (okListenerFactory != null) {
-                builder.eventListenerFactory(okListenerFactory);
-            }
-
-            httpDataSourceFactory = new OkHttpDataSourceFactory(builder.build(), userAgent);
+        return dataSourceRegistry.getHttpDataSourceFactory(headers, playerSettings.crossProtocolRedirectEnabled(), profiler.getOkListenerFactory());
+    }
 
-        } else {
+    private DataSource.Factory getDataSourceFactory(Map<String, String> headers) {
+        return dataSourceRegistry.getDataSourceFactory(headers, playerSettings.crossProtocolRedirectEnabled(), profiler.getOkListenerFactory());
+    }
 
-            httpDataSourceFactory = new DefaultHttpDataSourceFactory(userAgent,
-                    DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS,
-                    DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS,
-                    crossProtocolRedirectEnabled);
+    // Data source for media segments and progressive media: hedged if enabled, through the delivery interceptor
+    // if there is one, through the media cache if there is one.
+    private DataSource.Factory getMediaDataSourceFactory(DataSource.Factory dataSourceFactory, PKMediaSourceConfig sourceConfig,
+                                                         DeliveryInterception deliveryInterception) {
+        final HedgedRequests hedgedRequests = getHedgedRequests();
+        if (hedgedRequests != null) {
+            dataSourceFactory = hedgedRequests.wrap(dataSourceFactory);
+        }
+        if (deliveryInterception != null) {
+            dataSourceFactory = deliveryInterception.wrap(dataSourceFactory, PKDeliveryRequest.Type.MEDIA_SEGMENT, Consts.TRACK_TYPE_UNKNOWN);
         }
 
-        if (headers != null) {
-            HttpDataSource.RequestProperties defaultRequestProperties = httpDataSourceFactory.getDefaultRequestProperties();
-            for (Map.Entry<String, String> headerEntry : headers.entrySet()) {
-                defaultRequestProperties.set(headerEntry.getKey(), headerEntry.getValue());
-            }
+        final PKMediaCache mediaCache = playerSettings.getMediaCache();
+        if (mediaCache == null || sourceConfig.mediaEntryType == PKMediaEntry.MediaEntryType.Live ||
+                sourceConfig.mediaEntryType == PKMediaEntry.MediaEntryType.DvrLive) {
+            return dataSourceFactory;
         }
-        return httpDataSourceFactory;
+        return mediaCache.wrap(dataSourceFactory);
     }
 
-    private DataSource.Factory getDataSourceFactory(Map<String, String> headers) {
-        return new DefaultDataSourceFactory(context, getHttpDataSourceFactory(headers));
+    // Response times are kept across media of the player, as long as the settings don't change.
+    private HedgedRequests getHedgedRequests() {
+        final HedgedRequestSettings hedgedRequestSettings = playerSettings.getHedgedRequestSettings();
+        if (hedgedRequestSettings == null) {
+            hedgedRequests = null;
+        } else if (hedgedRequests == null || hedgedRequests.getSettings() != hedgedRequestSettings) {
+            hedgedRequests = new HedgedRequests(hedgedRequestSettings, (hedgeWon, totalRequests, totalHedges, totalHedgeWins) ->
+                    mainHandler.post(() -> analyticsAggregator.onHedgedRequest(hedgeWon, totalRequests, totalHedges, totalHedgeWins)));
+        }
+        return hedgedRequests;
     }
 
-    private static String getUserAgent(Context context) {
-        String applicationName;
-        try {
-            String packageName = context.getPackageName();
-            PackageInfo info = context.getPackageManager().getPackageInfo(packageName, 0);
-            applicationName = packageName + "/" + info.versionName;
-        } catch (PackageManager.NameNotFoundException e) {
-            applicationName = "?";
+    // Data source for manifests and playlists, through the manifest cache if there is one.
+    private DataSource.Factory getManifestDataSourceFactory(DataSource.Factory dataSourceFactory, Map<String, String> headers) {
+        final PKManifestCache manifestCache = playerSettings.getManifestCache();
+        if (manifestCache == null) {
+            return dataSourceFactory;
         }
-
-        return PlayKitManager.CLIENT_TAG + " " + applicationName + " (Linux;Android " + Build.VERSION.RELEASE
-                + ") " + "ExoPlayerLib/" + ExoPlayerLibraryInfo.VERSION;
+        return manifestCache.wrap(headers, getHttpDataSourceFactory(headers), dataSourceFactory);
     }
 
     private void changeState(PlayerState newState) {
@@ -439,14 +565,14 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
 
     @Override
     public void onLoadingChanged(boolean isLoading) {
-        log.d("onLoadingChanged. isLoading => " + isLoading);
+        log.d("onLoadingChanged. isLoading => %b", isLoading);
     }
 
     @Override
     public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
         switch (playbackState) {
             case Player.STATE_IDLE:
-                log.d("onPlayerStateChanged. IDLE. playWhenReady => " + playWhenReady);
+                log.d("onPlayerStateChanged. IDLE. playWhenReady => %b", playWhenReady);
                 changeState(PlayerState.IDLE);
                 if (isSeeking) {
                     isSeeking = false;
@@ -454,12 +580,12 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
                 break;
 
             case Player.STATE_BUFFERING:
-                log.d("onPlayerStateChanged. BUFFERING. playWhenReady => " + playWhenReady);
+                log.d("onPlayerStateChanged. BUFFERING. playWhenReady => %b", playWhenReady);
                 changeState(PlayerState.BUFFERING);
                 break;
 
             case Player.STATE_READY:
-                log.d("onPlayerStateChanged. READY. playWhenReady => " + playWhenReady);
+                log.d("onPlayerStateChanged. READY. playWhenReady => %b", playWhenReady);
                 changeState(PlayerState.READY);
 
                 if (isSeeking) {
@@ -473,11 +599,12 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
 
                 if (playWhenReady) {
                     sendDistinctEvent(PlayerEvent.Type.PLAYING);
+                    analyticsAggregator.onPlaybackStarted(hasVideoTrack());
                 }
                 break;
 
             case Player.STATE_ENDED:
-                log.d("onPlayerStateChanged. ENDED. playWhenReady => " + playWhenReady);
+                log.d("onPlayerStateChanged. ENDED. playWhenReady => %b", playWhenReady);
                 pausePlayerAfterEndedEvent();
                 changeState(PlayerState.IDLE);
                 sendDistinctEvent(PlayerEvent.Type.ENDED);
@@ -488,6 +615,17 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
         }
     }
 
+    // False for audio-only media, which never renders a frame.
+    private boolean hasVideoTrack() {
+        final TrackSelectionArray trackSelections = player.getCurrentTrackSelections();
+        for (int i = 0; i < trackSelections.length; i++) {
+            if (trackSelections.get(i) != null && player.getRendererType(i) == C.TRACK_TYPE_VIDEO) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void pausePlayerAfterEndedEvent() {
         if (PlayerEvent.Type.ENDED != currentEvent) {
             log.d("Pause pausePlayerAfterEndedEvent");
@@ -507,7 +645,7 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
 
     @Override
     public void onTimelineChanged(Timeline timeline, Object manifest, int reason) {
-        log.d("onTimelineChanged reason = " + reason + " duration = " + getDuration());
+        log.d("onTimelineChanged reason = %d duration = %d", reason, getDuration());
         if (reason == Player.TIMELINE_CHANGE_REASON_PREPARED) {
             sendDistinctEvent(PlayerEvent.Type.LOADED_METADATA);
             if (getDuration() != TIME_UNSET) {
@@ -527,7 +665,7 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
         log.d("onPlayerError error type => " + error.type);
         if (isBehindLiveWindow(error) && sourceConfig != null) {
             log.d("onPlayerError BehindLiveWindowException received, re-preparing player");
-            player.prepare(buildExoMediaSource(sourceConfig), true, false);
+            player.prepare(buildPlaylistMediaSource(), true, false);
             return;
         }
 
@@ -565,7 +703,11 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
 
     @Override
     public void onPositionDiscontinuity(int reason) {
-        log.d("onPositionDiscontinuity");
+        log.d("onPositionDiscontinuity reason = %d", reason);
+        if (reason == Player.DISCONTINUITY_REASON_PERIOD_TRANSITION && nextSourceConfig != null &&
+                player != null && player.getCurrentWindowIndex() > 0) {
+            switchToNextMedia();
+        }
     }
 
     @Override
@@ -770,8 +912,10 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
         log.v("release");
         if (assertPlayerIsNotNull("release()")) {
             savePlayerPosition();
+            releaseBufferHealthMonitor();
             player.release();
             player = null;
+            drmSessionManager.releaseCachedSessions();
             trackSelectionHelper.release();
             trackSelectionHelper = null;
         }
@@ -812,11 +956,18 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
     public void destroy() {
         log.v("destroy");
         closeProfilerSession();
+        releaseBufferHealthMonitor();
+        bandwidthMeter.removeEventListener(this);
         if (assertPlayerIsNotNull("destroy()")) {
             player.release();
         }
+        if (drmSessionManager != null) {
+            drmSessionManager.releaseCachedSessions();
+        }
         window = null;
         player = null;
+        dataSourceRegistry.clear();
+        hedgedRequests = null;
         if (exoPlayerView != null) {
             exoPlayerView.removeAllViews();
         }
@@ -975,6 +1126,8 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
         }
 
         playerPosition = TIME_UNSET;
+        nextSourceConfig = null;
+        playlistMediaSource = null;
 
         if (assertPlayerIsNotNull("stop()")) {
             player.setPlayWhenReady(false);
@@ -1060,9 +1213,17 @@ public class ExoPlayerWrapper implements PlayerEngine, Player.EventListener, Met
     }
 
     private DeferredDrmSessionManager.DrmSessionListener initDrmSessionListener() {
-        return error -> {
-            currentError = error;
-            sendEvent(PlayerEvent.Type.ERROR);
+        return new DeferredDrmSessionManager.DrmSessionListener() {
+            @Override
+            public void onError(PKError error) {
+                currentError = error;
+                sendEvent(PlayerEvent.Type.ERROR);
+            }
+
+            @Override
+            public void onSessionReused(long totalHits, long totalMisses) {
+                analyticsAggregator.onDrmSessionReused(totalHits, totalMisses);
+            }
         };
     }
 
@@ -0,0 +1,81 @@
+package com.kaltura.playkit.player;
+
+/**
+ * Settings of hedged media segment requests, see {@link com.kaltura.playkit.Player.Settings#setHedgedRequestSettings(HedgedRequestSettings)}.
+ * <p>
+ * A segment request that has not received its response headers within the deadline is sent again,
+ * optionally to an alternate host; the first response wins and the other request is dropped.
+ * The deadline is a percentile of the recent response times of the player, between
+ * {@link #setMinDeadlineMs(long)} and {@link #setMaxDeadlineMs(long)}.
+ */
+public class HedgedRequestSettings {
+
+    public static final int DEFAULT_LATENCY_PERCENTILE = 95;
+    public static final long DEFAULT_MIN_DEADLINE_MS = 300;
+    public static final long DEFAULT_MAX_DEADLINE_MS = 3000;
+    public static final int DEFAULT_MIN_SAMPLES = 10;
+
+    private int latencyPercentile = DEFAULT_LATENCY_PERCENTILE;
+    private long minDeadlineMs = DEFAULT_MIN_DEADLINE_MS;
+    private long maxDeadlineMs = DEFAULT_MAX_DEADLINE_MS;
+    private int minSamples = DEFAULT_MIN_SAMPLES;
+    private String alternateHost;
+
+    /**
+     * @param latencyPercentile - percentile (1-99) of recent response times used as the deadline.
+     * @return - HedgedRequestSettings.
+     */
+    public HedgedRequestSettings setLatencyPercentile(int latencyPercentile) {
+        this.latencyPercentile = Math.max(1, Math.min(99, latencyPercentile));
+        return this;
+    }
+
+    public HedgedRequestSettings setMinDeadlineMs(long minDeadlineMs) {
+        this.minDeadlineMs = minDeadlineMs;
+        return this;
+    }
+
+    public HedgedRequestSettings setMaxDeadlineMs(long maxDeadlineMs) {
+        this.maxDeadlineMs = maxDeadlineMs;
+        return this;
+    }
+
+    /**
+     * @param minSamples - number of response times to collect before hedging starts.
+     * @return - HedgedRequestSettings.
+     */
+    public HedgedRequestSettings setMinSamples(int minSamples) {
+        this.minSamples = minSamples;
+        return this;
+    }
+
+    /**
+     * @param alternateHost - host (and optional port) of another CDN serving the same paths, or null
+     *                      to send the duplicate request to the original host.
+     * @return - HedgedRequestSettings.
+     */
+    public HedgedRequestSettings setAlternateHost(String alternateHost) {
+        this.alternateHost = alternateHost;
+        return this;
+    }
+
+    public int getLatencyPercentile() {
+        return latencyPercentile;
+    }
+
+    public long getMinDeadlineMs() {
+        return minDeadlineMs;
+    }
+
+    public long getMaxDeadlineMs() {
+        return maxDeadlineMs;
+    }
+
+    public int getMinSamples() {
+        return minSamples;
+    }
+
+    public String getAlternateHost() {
+        return alternateHost;
+    }
+}
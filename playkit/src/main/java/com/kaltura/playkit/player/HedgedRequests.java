@@ -0,0 +1,355 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.player;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import android.text.TextUtils;
+
+import com.kaltura.android.exoplayer2.upstream.DataSource;
+import com.kaltura.android.exoplayer2.upstream.DataSpec;
+import com.kaltura.android.exoplayer2.upstream.TransferListener;
+import com.kaltura.playkit.PKLog;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hedged media segment requests of one player, see {@link HedgedRequestSettings}.
+ * <p>
+ * The request is opened on a worker thread while the loader thread waits for it. If the response
+ * headers don't arrive within the deadline, a duplicate request is opened on another worker; the
+ * loader continues with whichever succeeds first. A blocking open can't be interrupted, so the
+ * losing request is closed, without reading its body, as soon as its open returns.
+ * <p>
+ * Requests are opened inline, without hedging, until enough response times are collected, for
+ * non-http URIs, and when the workers are busy.
+ */
+class HedgedRequests {
+
+    private static final PKLog log = PKLog.get("HedgedRequests");
+
+    private static final int MAX_SAMPLES = 64;
+    private static final int MAX_WORKERS = 8;
+
+    // Shared by all players. Workers only wait for response headers, so a few are enough.
+    private static final ThreadPoolExecutor executor = newExecutor();
+
+    interface Listener {
+        /**
+         * Called on a loader thread when a hedged request completes.
+         */
+        void onHedgedRequest(boolean hedgeWon, long totalRequests, long totalHedges, long totalHedgeWins);
+    }
+
+    private final HedgedRequestSettings settings;
+    private final Listener listener;
+
+    // Guarded by this
+    private final long[] samples = new long[MAX_SAMPLES];
+    private int sampleCount;
+    private int nextSample;
+    private long totalRequests;
+    private long totalHedges;
+    private long totalHedgeWins;
+
+    HedgedRequests(@NonNull HedgedRequestSettings settings, @Nullable Listener listener) {
+        this.settings = settings;
+        this.listener = listener;
+    }
+
+    @NonNull
+    HedgedRequestSettings getSettings() {
+        return settings;
+    }
+
+    @NonNull
+    DataSource.Factory wrap(@NonNull DataSource.Factory upstreamFactory) {
+        return () -> new HedgingDataSource(upstreamFactory);
+    }
+
+    // The current deadline in ms, or -1 while there are not enough samples.
+    synchronized long getDeadlineMs() {
+        if (sampleCount < Math.max(1, settings.getMinSamples())) {
+            return -1;
+        }
+        final long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        final int index = Math.min(sampleCount - 1, (sampleCount * settings.getLatencyPercentile()) / 100);
+        return Math.max(settings.getMinDeadlineMs(), Math.min(settings.getMaxDeadlineMs(), sorted[index]));
+    }
+
+    synchronized void addSample(long latencyMs) {
+        samples[nextSample] = latencyMs;
+        nextSample = (nextSample + 1) % MAX_SAMPLES;
+        sampleCount = Math.min(sampleCount + 1, MAX_SAMPLES);
+    }
+
+    private void onRequestCompleted(boolean hedged, boolean hedgeWon) {
+        final long requests, hedges, hedgeWins;
+        synchronized (this) {
+            totalRequests++;
+            if (hedged) {
+                totalHedges++;
+            }
+            if (hedgeWon) {
+                totalHedgeWins++;
+            }
+            requests = totalRequests;
+            hedges = totalHedges;
+            hedgeWins = totalHedgeWins;
+        }
+        if (hedged && listener != null) {
+            listener.onHedgedRequest(hedgeWon, requests, hedges, hedgeWins);
+        }
+    }
+
+    private DataSpec buildHedgeDataSpec(DataSpec dataSpec) {
+        final String alternateHost = settings.getAlternateHost();
+        if (TextUtils.isEmpty(alternateHost)) {
+            return dataSpec;
+        }
+        final Uri uri = dataSpec.uri.buildUpon().encodedAuthority(alternateHost).build();
+        return new DataSpec(uri, dataSpec.httpMethod, dataSpec.httpBody, dataSpec.absoluteStreamPosition,
+                dataSpec.position, dataSpec.length, dataSpec.key, dataSpec.flags);
+    }
+
+    private static boolean isHttp(Uri uri) {
+        final String scheme = uri.getScheme();
+        return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+    }
+
+    private static ThreadPoolExecutor newExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(0, MAX_WORKERS, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "HedgedRequest");
+            thread.setDaemon(true);
+            return thread;
+        });
+        return executor;
+    }
+
+    // One of the racing requests.
+    private class Attempt implements Runnable {
+        final DataSource dataSource;
+        final DataSpec dataSpec;
+        final boolean primary;
+        final Object race;
+        final long startTime = SystemClock.elapsedRealtime();
+
+        // Guarded by race
+        boolean done;
+        boolean abandoned;
+        long length;
+        IOException error;
+
+        Attempt(DataSource dataSource, DataSpec dataSpec, boolean primary, Object race) {
+            this.dataSource = dataSource;
+            this.dataSpec = dataSpec;
+            this.primary = primary;
+            this.race = race;
+        }
+
+        boolean start() {
+            try {
+                executor.execute(this);
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void run() {
+            long openedLength = 0;
+            IOException openError = null;
+            try {
+                openedLength = dataSource.open(dataSpec);
+            } catch (IOException e) {
+                openError = e;
+            } catch (RuntimeException e) {
+                openError = new IOException(e);
+            }
+
+            if (primary && openError == null) {
+                addSample(SystemClock.elapsedRealtime() - startTime);
+            }
+
+            final boolean close;
+            synchronized (race) {
+                done = true;
+                length = openedLength;
+                error = openError;
+                close = abandoned;
+                race.notifyAll();
+            }
+            if (close) {
+                closeQuietly(dataSource);
+            }
+        }
+
+        boolean succeeded() {
+            return done && error == null;
+        }
+
+        // Called with race held.
+        void abandon() {
+            abandoned = true;
+            if (done && error == null) {
+                closeQuietly(dataSource);
+            }
+        }
+    }
+
+    private static void closeQuietly(DataSource dataSource) {
+        try {
+            dataSource.close();
+        } catch (IOException e) {
+            log.d("Failed closing dropped request: " + e);
+        }
+    }
+
+    private class HedgingDataSource implements DataSource {
+        private final DataSource.Factory upstreamFactory;
+        private final List<TransferListener> transferListeners = new ArrayList<>(1);
+        private DataSource current;
+
+        HedgingDataSource(DataSource.Factory upstreamFactory) {
+            this.upstreamFactory = upstreamFactory;
+        }
+
+        @Override
+        public void addTransferListener(TransferListener transferListener) {
+            transferListeners.add(transferListener);
+        }
+
+        private DataSource createDataSource() {
+            final DataSource dataSource = upstreamFactory.createDataSource();
+            for (TransferListener transferListener : transferListeners) {
+                dataSource.addTransferListener(transferListener);
+            }
+            return dataSource;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            final long deadlineMs = isHttp(dataSpec.uri) && dataSpec.httpBody == null ? getDeadlineMs() : -1;
+            final Object race = new Object();
+            final Attempt primary = new Attempt(createDataSource(), dataSpec, true, race);
+
+            if (deadlineMs < 0 || !primary.start()) {
+                current = primary.dataSource;
+                final long length = current.open(dataSpec);
+                if (isHttp(dataSpec.uri)) {
+                    if (deadlineMs < 0) {
+                        addSample(SystemClock.elapsedRealtime() - primary.startTime);
+                    }
+                    onRequestCompleted(false, false);
+                }
+                return length;
+            }
+
+            Attempt hedge = null;
+            Attempt winner = null;
+            try {
+                synchronized (race) {
+                    final long deadline = primary.startTime + deadlineMs;
+                    long now;
+                    while (!primary.done && (now = SystemClock.elapsedRealtime()) < deadline) {
+                        race.wait(deadline - now);
+                    }
+                    if (!primary.done) {
+                        final Attempt attempt = new Attempt(createDataSource(), buildHedgeDataSpec(dataSpec), false, race);
+                        if (attempt.start()) {
+                            hedge = attempt;
+                            log.d("Hedging request after " + deadlineMs + "ms: " + dataSpec.uri);
+                        }
+                    }
+
+                    // Wait for a success, or for all attempts to fail.
+                    while (true) {
+                        if (primary.succeeded()) {
+                            winner = primary;
+                        } else if (hedge != null && hedge.succeeded()) {
+                            winner = hedge;
+                        }
+                        if (winner != null || (primary.done && (hedge == null || hedge.done))) {
+                            break;
+                        }
+                        race.wait();
+                    }
+
+                    if (winner == null) {
+                        throw primary.error;
+                    }
+                    final Attempt loser = winner == primary ? hedge : primary;
+                    if (loser != null) {
+                        loser.abandon();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // The load was canceled.
+                synchronized (race) {
+                    primary.abandon();
+                    if (hedge != null) {
+                        hedge.abandon();
+                    }
+                }
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+
+            onRequestCompleted(hedge != null, winner == hedge);
+            current = winner.dataSource;
+            return winner.length;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            return current.read(buffer, offset, readLength);
+        }
+
+        @Nullable
+        @Override
+        public Uri getUri() {
+            return current != null ? current.getUri() : null;
+        }
+
+        @Override
+        public Map<String, List<String>> getResponseHeaders() {
+            return current != null ? current.getResponseHeaders() : Collections.emptyMap();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                try {
+                    current.close();
+                } finally {
+                    current = null;
+                }
+            }
+        }
+    }
+}
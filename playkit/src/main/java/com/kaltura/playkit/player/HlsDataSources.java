@@ -0,0 +1,51 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.player;
+
+import androidx.annotation.NonNull;
+
+import com.kaltura.android.exoplayer2.C;
+import com.kaltura.android.exoplayer2.source.hls.HlsDataSourceFactory;
+import com.kaltura.android.exoplayer2.upstream.DataSource;
+
+/**
+ * Data sources of an HLS media source. Playlists use the playlist factory, media and init segments use the
+ * media factory (which may cache, hedge and fail over). Everything else, e.g. AES-128 keys ({@link C#DATA_TYPE_DRM}),
+ * uses the plain factory: keys must not be cached on disk or sent twice.
+ */
+class HlsDataSources implements HlsDataSourceFactory {
+
+    private final DataSource.Factory playlistDataSourceFactory;
+    private final DataSource.Factory mediaDataSourceFactory;
+    private final DataSource.Factory plainDataSourceFactory;
+
+    HlsDataSources(@NonNull DataSource.Factory playlistDataSourceFactory, @NonNull DataSource.Factory mediaDataSourceFactory,
+                   @NonNull DataSource.Factory plainDataSourceFactory) {
+        this.playlistDataSourceFactory = playlistDataSourceFactory;
+        this.mediaDataSourceFactory = mediaDataSourceFactory;
+        this.plainDataSourceFactory = plainDataSourceFactory;
+    }
+
+    @Override
+    public DataSource createDataSource(int dataType) {
+        switch (dataType) {
+            case C.DATA_TYPE_MANIFEST:
+                return playlistDataSourceFactory.createDataSource();
+            case C.DATA_TYPE_MEDIA:
+            case C.DATA_TYPE_MEDIA_INITIALIZATION:
+                return mediaDataSourceFactory.createDataSource();
+            default:
+                return plainDataSourceFactory.createDataSource();
+        }
+    }
+}
@@ -0,0 +1,470 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+package com.kaltura.playkit.player;
+
+import android.Manifest;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.telephony.TelephonyManager;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kaltura.android.exoplayer2.upstream.BandwidthMeter;
+import com.kaltura.android.exoplayer2.upstream.DataSource;
+import com.kaltura.android.exoplayer2.upstream.DataSpec;
+import com.kaltura.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.kaltura.android.exoplayer2.upstream.TransferListener;
+import com.kaltura.playkit.PKLog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A bandwidth meter that remembers its estimate per network, see
+ * {@link com.kaltura.playkit.Player.Settings#setBandwidthMeter(PKBandwidthMeter)}.
+ * <p>
+ * Estimates are kept per network type: per Wi-Fi access point (BSSID) when the app may read it,
+ * per cellular generation (2G/3G/4G/5G), or per other network type. A session starts with the last
+ * estimate of its network instead of a generic one, so ABR doesn't have to ramp up from scratch.
+ * Estimates lose weight with age (half-life of a day), towards the configured initial estimate or the
+ * ExoPlayer default, and are forgotten after 30 days. They are shared by all meters and persisted.
+ * <p>
+ * The measuring itself is done by ExoPlayer's {@link DefaultBandwidthMeter}; a fresh one is started
+ * with the right estimate when the network changes. Network changes are tracked with a connectivity
+ * callback, so the estimate is read without IPC calls; moving to another access point of the same
+ * Wi-Fi network is noticed on the next connectivity event.
+ * <p>
+ * One meter may be shared by several players (see {@link #getShared(Context)}), so that they all start
+ * from what any of them measured last.
+ */
+public class PKBandwidthMeter implements BandwidthMeter, TransferListener {
+
+    private static final PKLog log = PKLog.get("PKBandwidthMeter");
+
+    private static final String PREFS_NAME = "PKBandwidthEstimates";
+    static final long HALF_LIFE_MS = 24L * 60 * 60 * 1000;
+    static final long MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+    static final int MAX_NETWORKS = 32;
+    private static final long SAVE_INTERVAL_MS = 10_000;
+    private static final String UNKNOWN_BSSID = "02:00:00:00:00:00";
+
+    // Estimates by network key, shared by all meters. Guarded by PKBandwidthMeter.class
+    private static final Map<String, Estimate> estimates = new HashMap<>();
+    private static SharedPreferences preferences;
+    private static long lastSaveTime;
+
+    private static PKBandwidthMeter shared;
+
+    // The current network, kept up to date by a connectivity callback. Null when offline.
+    private static volatile String currentNetworkKey;
+    private static boolean trackingNetwork;
+
+    private final Context context;
+    private final Long initialBitrateEstimate;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<ListenerHolder> listeners = new CopyOnWriteArrayList<>();
+
+    // Guarded by this
+    private final Map<DataSource, DefaultBandwidthMeter> transfers = new IdentityHashMap<>();
+    private String networkKey;
+    private DefaultBandwidthMeter meter;
+
+    private volatile long defaultBitrateEstimate;
+
+    /**
+     * @return A meter shared by the whole process, starting with the ExoPlayer default estimate on unknown networks.
+     */
+    @NonNull
+    public static synchronized PKBandwidthMeter getShared(@NonNull Context context) {
+        if (shared == null) {
+            shared = new PKBandwidthMeter(context, null);
+        }
+        return shared;
+    }
+
+    public PKBandwidthMeter(@NonNull Context context) {
+        this(context, null);
+    }
+
+    /**
+     * @param initialBitrateEstimate Estimate in bits per second for networks without a remembered estimate,
+     *                               or null for the ExoPlayer default.
+     */
+    public PKBandwidthMeter(@NonNull Context context, @Nullable Long initialBitrateEstimate) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        this.initialBitrateEstimate = initialBitrateEstimate != null && initialBitrateEstimate > 0 ? initialBitrateEstimate : null;
+        loadEstimates(this.context);
+        trackNetwork(this.context);
+    }
+
+    @Override
+    public long getBitrateEstimate() {
+        return getMeter().getBitrateEstimate();
+    }
+
+    @Nullable
+    @Override
+    public TransferListener getTransferListener() {
+        return this;
+    }
+
+    @Override
+    public void addEventListener(Handler eventHandler, EventListener eventListener) {
+        listeners.add(new ListenerHolder(eventHandler, eventListener));
+    }
+
+    @Override
+    public void removeEventListener(EventListener eventListener) {
+        for (ListenerHolder holder : listeners) {
+            if (holder.listener == eventListener) {
+                listeners.remove(holder);
+            }
+        }
+    }
+
+    @Override
+    public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        final DefaultBandwidthMeter transferMeter = getMeter();
+        synchronized (this) {
+            transfers.put(source, transferMeter);
+            transferMeter.onTransferInitializing(source, dataSpec, isNetwork);
+        }
+    }
+
+    @Override
+    public void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        DefaultBandwidthMeter transferMeter;
+        synchronized (this) {
+            transferMeter = transfers.get(source);
+        }
+        if (transferMeter == null) {
+            // Started without onTransferInitializing.
+            transferMeter = getMeter();
+        }
+        synchronized (this) {
+            transfers.put(source, transferMeter);
+            transferMeter.onTransferStart(source, dataSpec, isNetwork);
+        }
+    }
+
+    @Override
+    public synchronized void onBytesTransferred(DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+        final DefaultBandwidthMeter transferMeter = transfers.get(source);
+        if (transferMeter != null) {
+            transferMeter.onBytesTransferred(source, dataSpec, isNetwork, bytesTransferred);
+        }
+    }
+
+    @Override
+    public synchronized void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        // A transfer ends on the meter it started on, even if the network changed meanwhile.
+        final DefaultBandwidthMeter transferMeter = transfers.remove(source);
+        if (transferMeter != null) {
+            transferMeter.onTransferEnd(source, dataSpec, isNetwork);
+        }
+    }
+
+    // Called by ABR on the playback thread. Not holding the lock: building a meter makes IPC calls.
+    private DefaultBandwidthMeter getMeter() {
+        final String key = currentNetworkKey;
+        synchronized (this) {
+            if (meter != null && (key == null || key.equals(networkKey))) {
+                // Same network, or offline: keep measuring on the last network.
+                return meter;
+            }
+        }
+
+        final String newKey = key != null ? key : "unknown";
+        final DefaultBandwidthMeter newMeter = createMeter(newKey);
+
+        final String previousKey;
+        synchronized (this) {
+            if (meter != null && newKey.equals(networkKey)) {
+                // Another thread got there first.
+                return meter;
+            }
+            previousKey = meter != null ? networkKey : null;
+            networkKey = newKey;
+            meter = newMeter;
+        }
+        if (previousKey != null) {
+            log.d("Network changed from " + previousKey + " to " + newKey);
+            saveEstimates(true);
+        }
+        return newMeter;
+    }
+
+    private DefaultBandwidthMeter createMeter(String key) {
+        if (defaultBitrateEstimate == 0) {
+            defaultBitrateEstimate = initialBitrateEstimate != null ? initialBitrateEstimate :
+                    new DefaultBandwidthMeter.Builder(context).build().getBitrateEstimate();
+        }
+        final Estimate remembered;
+        synchronized (PKBandwidthMeter.class) {
+            remembered = estimates.get(key);
+        }
+        final long estimate = getInitialEstimate(remembered, defaultBitrateEstimate, System.currentTimeMillis());
+        log.d("Initial bitrate estimate on " + key + ": " + estimate);
+        final DefaultBandwidthMeter newMeter = new DefaultBandwidthMeter.Builder(context).setInitialBitrateEstimate(estimate).build();
+        newMeter.addEventListener(handler, (elapsedMs, bytes, bitrate) -> onBandwidthSample(key, newMeter, elapsedMs, bytes, bitrate));
+        return newMeter;
+    }
+
+    // On the main thread.
+    private void onBandwidthSample(String key, DefaultBandwidthMeter sampledMeter, int elapsedMs, long bytes, long bitrate) {
+        putEstimate(key, sampledMeter.getBitrateEstimate());
+        for (ListenerHolder holder : listeners) {
+            holder.handler.post(() -> holder.listener.onBandwidthSample(elapsedMs, bytes, bitrate));
+        }
+    }
+
+    /**
+     * @return The remembered estimate, weighted towards the default by its age.
+     */
+    static long getInitialEstimate(@Nullable Estimate estimate, long defaultEstimate, long now) {
+        final long age = estimate != null ? now - estimate.updateTime : Long.MAX_VALUE;
+        if (age < 0 || age > MAX_AGE_MS) {
+            return defaultEstimate;
+        }
+        final double weight = Math.pow(0.5, (double) age / HALF_LIFE_MS);
+        return (long) (defaultEstimate + (estimate.bitrate - defaultEstimate) * weight);
+    }
+
+    private static void putEstimate(String key, long bitrate) {
+        synchronized (PKBandwidthMeter.class) {
+            estimates.put(key, new Estimate(bitrate, System.currentTimeMillis()));
+            saveEstimates(false);
+        }
+    }
+
+    private static synchronized void loadEstimates(Context context) {
+        if (preferences != null) {
+            return;
+        }
+        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        final long now = System.currentTimeMillis();
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            final Estimate estimate = entry.getValue() instanceof String ? Estimate.parse((String) entry.getValue()) : null;
+            if (estimate != null && now - estimate.updateTime < MAX_AGE_MS) {
+                estimates.put(entry.getKey(), estimate);
+            }
+        }
+    }
+
+    private static synchronized void saveEstimates(boolean force) {
+        final long now = SystemClock.elapsedRealtime();
+        if (preferences == null || (!force && lastSaveTime != 0 && now - lastSaveTime < SAVE_INTERVAL_MS)) {
+            return;
+        }
+        lastSaveTime = now;
+
+        pruneEstimates(estimates, MAX_NETWORKS);
+        final SharedPreferences.Editor editor = preferences.edit().clear();
+        for (Map.Entry<String, Estimate> entry : estimates.entrySet()) {
+            editor.putString(entry.getKey(), entry.getValue().toString());
+        }
+        editor.apply();
+    }
+
+    /**
+     * Keep the most recently updated maxNetworks estimates.
+     */
+    static void pruneEstimates(Map<String, Estimate> estimates, int maxNetworks) {
+        final List<Map.Entry<String, Estimate>> entries = new ArrayList<>(estimates.entrySet());
+        while (entries.size() > maxNetworks) {
+            Map.Entry<String, Estimate> oldest = entries.get(0);
+            for (Map.Entry<String, Estimate> entry : entries) {
+                if (entry.getValue().updateTime < oldest.getValue().updateTime) {
+                    oldest = entry;
+                }
+            }
+            entries.remove(oldest);
+            estimates.remove(oldest.getKey());
+        }
+    }
+
+    private static synchronized void trackNetwork(Context context) {
+        if (trackingNetwork) {
+            return;
+        }
+        trackingNetwork = true;
+        currentNetworkKey = getNetworkKey(context);
+        try {
+            final ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && connectivityManager != null) {
+                // Called on the connectivity thread.
+                final ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+                    @Override
+                    public void onAvailable(Network network) {
+                        currentNetworkKey = getNetworkKey(context);
+                    }
+
+                    @Override
+                    public void onCapabilitiesChanged(Network network, NetworkCapabilities networkCapabilities) {
+                        currentNetworkKey = getNetworkKey(context);
+                    }
+
+                    @Override
+                    public void onLost(Network network) {
+                        currentNetworkKey = getNetworkKey(context);
+                    }
+                };
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                    connectivityManager.registerDefaultNetworkCallback(callback);
+                } else {
+                    connectivityManager.registerNetworkCallback(new NetworkRequest.Builder().build(), callback);
+                }
+            } else {
+                // Called on the main thread.
+                context.registerReceiver(new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context receiverContext, Intent intent) {
+                        currentNetworkKey = getNetworkKey(context);
+                    }
+                }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+            }
+        } catch (RuntimeException e) {
+            // Keep the network found above.
+            log.w("Can't track network changes: " + e);
+        }
+    }
+
+    // Null when offline.
+    @Nullable
+    private static String getNetworkKey(Context context) {
+        final NetworkInfo networkInfo;
+        try {
+            final ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            networkInfo = connectivityManager != null ? connectivityManager.getActiveNetworkInfo() : null;
+        } catch (SecurityException e) {
+            return "unknown";
+        }
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return null;
+        }
+        switch (networkInfo.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+                final String bssid = getWifiBssid(context);
+                // Don't persist the access point itself.
+                return bssid != null ? "wifi-" + Integer.toHexString(bssid.hashCode()) : "wifi";
+            case ConnectivityManager.TYPE_ETHERNET:
+                return "ethernet";
+            case ConnectivityManager.TYPE_MOBILE:
+            case ConnectivityManager.TYPE_MOBILE_DUN:
+            case ConnectivityManager.TYPE_WIMAX:
+                return "cell-" + getCellClass(networkInfo.getSubtype());
+            default:
+                return "other";
+        }
+    }
+
+    @Nullable
+    private static String getWifiBssid(Context context) {
+        if (context.checkCallingOrSelfPermission(Manifest.permission.ACCESS_WIFI_STATE) != PackageManager.PERMISSION_GRANTED) {
+            return null;
+        }
+        try {
+            final WifiManager wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+            final WifiInfo wifiInfo = wifiManager != null ? wifiManager.getConnectionInfo() : null;
+            final String bssid = wifiInfo != null ? wifiInfo.getBSSID() : null;
+            // Without location permission, newer Android versions hide the BSSID.
+            return bssid == null || UNKNOWN_BSSID.equals(bssid) ? null : bssid;
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    static String getCellClass(int networkType) {
+        switch (networkType) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return "2g";
+            case TelephonyManager.NETWORK_TYPE_UMTS:
+            case TelephonyManager.NETWORK_TYPE_EVDO_0:
+            case TelephonyManager.NETWORK_TYPE_EVDO_A:
+            case TelephonyManager.NETWORK_TYPE_EVDO_B:
+            case TelephonyManager.NETWORK_TYPE_HSDPA:
+            case TelephonyManager.NETWORK_TYPE_HSUPA:
+            case TelephonyManager.NETWORK_TYPE_HSPA:
+            case TelephonyManager.NETWORK_TYPE_HSPAP:
+            case TelephonyManager.NETWORK_TYPE_EHRPD:
+                return "3g";
+            case TelephonyManager.NETWORK_TYPE_LTE:
+                return "4g";
+            case 20: // TelephonyManager.NETWORK_TYPE_NR, API 29
+                return "5g";
+            default:
+                return "unknown";
+        }
+    }
+
+    static class Estimate {
+        final long bitrate;
+        final long updateTime;
+
+        Estimate(long bitrate, long updateTime) {
+            this.bitrate = bitrate;
+            this.updateTime = updateTime;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return bitrate + "," + updateTime;
+        }
+
+        @Nullable
+        static Estimate parse(String value) {
+            final String[] parts = value.split(",");
+            if (parts.length != 2) {
+                return null;
+            }
+            try {
+                return new Estimate(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private static class ListenerHolder {
+        final Handler handler;
+        final EventListener listener;
+
+        ListenerHolder(Handler handler, EventListener listener) {
+            this.handler = handler;
+            this.listener = listener;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+package com.kaltura.playkit.player;
+
+import androidx.annotation.NonNull;
+
+import com.kaltura.playkit.utils.Consts;
+
+/**
+ * A snapshot of the buffer and playback state of the player, pushed to a {@link Listener} set with
+ * {@link com.kaltura.playkit.Player.Settings#setBufferHealthListener(Listener)}.
+ * <p>
+ * Meant for delivery layers (prefetchers, peer-assisted downloaders, caches) that need to know how
+ * urgent their requests are. Forward buffers are in milliseconds of media ahead of the playhead.
+ */
+public class PKBufferHealth {
+
+    public interface Listener {
+        /**
+         * Called on a background thread, at most once per update interval, and right away when a
+         * stall starts or ends. If the listener is slower than the updates, only the latest is delivered.
+         */
+        void onBufferHealth(@NonNull PKBufferHealth bufferHealth);
+    }
+
+    /** {@link android.os.SystemClock#elapsedRealtime()} of the snapshot. */
+    public final long timestampMs;
+    public final long positionMs;
+    /** Buffer ahead of the playhead that all tracks have, i.e. what playback can rely on. */
+    public final long forwardBufferMs;
+    /** Buffer ahead of the playhead per track type, or {@link Consts#NO_VALUE} if the media has no such track. */
+    public final long videoForwardBufferMs;
+    public final long audioForwardBufferMs;
+    public final long textForwardBufferMs;
+    /** Bitrate of the playing tracks, or {@link Consts#NO_VALUE}. */
+    public final long videoBitrate;
+    public final long audioBitrate;
+    public final float playbackRate;
+    /** The player is playing, or waiting for data to play. */
+    public final boolean playWhenReady;
+    /** The player ran out of data while playing. Buffering until the media is first ready, and after a seek, is not a stall. */
+    public final boolean stalled;
+    /** Duration of the current stall, or 0. */
+    public final long stallDurationMs;
+    /** Number of stalls since the media was prepared. */
+    public final int stallCount;
+
+    public PKBufferHealth(long timestampMs, long positionMs, long forwardBufferMs,
+                          long videoForwardBufferMs, long audioForwardBufferMs, long textForwardBufferMs,
+                          long videoBitrate, long audioBitrate, float playbackRate,
+                          boolean playWhenReady, boolean stalled, long stallDurationMs, int stallCount) {
+        this.timestampMs = timestampMs;
+        this.positionMs = positionMs;
+        this.forwardBufferMs = forwardBufferMs;
+        this.videoForwardBufferMs = videoForwardBufferMs;
+        this.audioForwardBufferMs = audioForwardBufferMs;
+        this.textForwardBufferMs = textForwardBufferMs;
+        this.videoBitrate = videoBitrate;
+        this.audioBitrate = audioBitrate;
+        this.playbackRate = playbackRate;
+        this.playWhenReady = playWhenReady;
+        this.stalled = stalled;
+        this.stallDurationMs = stallDurationMs;
+        this.stallCount = stallCount;
+    }
+
+    /**
+     * @param trackType {@link Consts#TRACK_TYPE_VIDEO}, {@link Consts#TRACK_TYPE_AUDIO} or {@link Consts#TRACK_TYPE_TEXT}.
+     * @return The forward buffer of the track type, or {@link Consts#NO_VALUE}.
+     */
+    public long getForwardBufferMs(int trackType) {
+        switch (trackType) {
+            case Consts.TRACK_TYPE_VIDEO:
+                return videoForwardBufferMs;
+            case Consts.TRACK_TYPE_AUDIO:
+                return audioForwardBufferMs;
+            case Consts.TRACK_TYPE_TEXT:
+                return textForwardBufferMs;
+            default:
+                return Consts.NO_VALUE;
+        }
+    }
+
+    /**
+     * @return Time until playback runs out of data at the current rate, in real time milliseconds.
+     */
+    public long getTimeToStallMs() {
+        return playbackRate > 0 ? (long) (forwardBufferMs / playbackRate) : forwardBufferMs;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "PKBufferHealth{" +
+                "positionMs=" + positionMs +
+                ", forwardBufferMs=" + forwardBufferMs +
+                ", video=" + videoForwardBufferMs + "ms@" + videoBitrate +
+                ", audio=" + audioForwardBufferMs + "ms@" + audioBitrate +
+                ", text=" + textForwardBufferMs + "ms" +
+                ", playbackRate=" + playbackRate +
+                ", playWhenReady=" + playWhenReady +
+                ", stalled=" + stalled +
+                ", stallDurationMs=" + stallDurationMs +
+                ", stallCount=" + stallCount +
+                '}';
+    }
+}
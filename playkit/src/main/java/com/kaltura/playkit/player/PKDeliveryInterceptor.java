@@ -0,0 +1,40 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.player;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * A delivery layer between the player and the network, e.g. for peer-assisted delivery, edge caching
+ * or request signing. Set with {@link com.kaltura.playkit.Player.Settings#setDeliveryInterceptor(PKDeliveryInterceptor)}.
+ * <p>
+ * The interceptor sees every manifest, segment, subtitle and license request before it is sent, and
+ * decides whether to serve it, rewrite it or let it through.
+ */
+public interface PKDeliveryInterceptor {
+
+    /**
+     * Called on a loading thread (never the main thread) before the request is sent. May block, e.g.
+     * while a peer is asked for the data; playback waits for the response.
+     *
+     * @param request The request and what it is for.
+     * @return {@link PKDeliveryResponse#passThrough()}, {@link PKDeliveryResponse#rewrite}, or
+     * {@link PKDeliveryResponse#serve}. Null means pass through.
+     * @throws IOException to fail the request, like a network error would.
+     */
+    @Nullable
+    PKDeliveryResponse intercept(@NonNull PKDeliveryRequest request) throws IOException;
+}
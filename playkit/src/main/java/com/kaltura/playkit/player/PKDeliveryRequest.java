@@ -0,0 +1,84 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.player;
+
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kaltura.playkit.utils.Consts;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A request of the player, as seen by a {@link PKDeliveryInterceptor}.
+ * <p>
+ * Track type, bitrate and media time are known for segments listed in the DASH manifest or in the
+ * HLS playlists; they are unknown (and the type is {@link Type#MEDIA_SEGMENT}) for segments that
+ * are only discovered while loading, such as live DASH with an open-ended SegmentTemplate.
+ */
+public class PKDeliveryRequest {
+
+    public enum Type {
+        MANIFEST,
+        INIT_SEGMENT,
+        MEDIA_SEGMENT,
+        SUBTITLE,
+        LICENSE
+    }
+
+    @NonNull public final Type type;
+    @NonNull public final Uri url;
+    /** Request headers set by the app, e.g. by a {@link com.kaltura.playkit.PKRequestParams.Adapter}. */
+    @NonNull public final Map<String, String> headers;
+    /** One of {@link Consts#TRACK_TYPE_VIDEO}, {@link Consts#TRACK_TYPE_AUDIO}, {@link Consts#TRACK_TYPE_TEXT} or {@link Consts#TRACK_TYPE_UNKNOWN}. */
+    public final int trackType;
+    /** Bitrate of the track in bits per second, or {@link Consts#NO_VALUE}. */
+    public final long bitrate;
+    /** Start time of the segment in the media, in milliseconds, or {@link Consts#TIME_UNSET}. */
+    public final long mediaTimeMs;
+    /** Requested byte range: offset, and length or {@link Consts#NO_VALUE} for the rest of the resource. */
+    public final long position;
+    public final long length;
+    /** Body of license requests. */
+    @Nullable public final byte[] body;
+
+    public PKDeliveryRequest(@NonNull Type type, @NonNull Uri url, @Nullable Map<String, String> headers, int trackType,
+                             long bitrate, long mediaTimeMs, long position, long length, @Nullable byte[] body) {
+        this.type = type;
+        this.url = url;
+        this.headers = headers == null || headers.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(headers));
+        this.trackType = trackType;
+        this.bitrate = bitrate;
+        this.mediaTimeMs = mediaTimeMs;
+        this.position = position;
+        this.length = length;
+        this.body = body;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "PKDeliveryRequest{" +
+                "type=" + type +
+                ", url=" + url +
+                ", trackType=" + trackType +
+                ", bitrate=" + bitrate +
+                ", mediaTimeMs=" + mediaTimeMs +
+                ", position=" + position +
+                ", length=" + length +
+                '}';
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.player;
+
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kaltura.playkit.utils.Consts;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What a {@link PKDeliveryInterceptor} does with a request.
+ */
+public class PKDeliveryResponse {
+
+    private static final PKDeliveryResponse PASS_THROUGH = new PKDeliveryResponse(null, null, null, Consts.NO_VALUE);
+
+    @Nullable private final Uri url;
+    @Nullable private final Map<String, String> headers;
+    @Nullable private final InputStream data;
+    private final long length;
+
+    private PKDeliveryResponse(@Nullable Uri url, @Nullable Map<String, String> headers, @Nullable InputStream data, long length) {
+        this.url = url;
+        this.headers = headers;
+        this.data = data;
+        this.length = length;
+    }
+
+    /**
+     * Send the request as is.
+     */
+    @NonNull
+    public static PKDeliveryResponse passThrough() {
+        return PASS_THROUGH;
+    }
+
+    /**
+     * Send the request to another URL and/or with more headers.
+     *
+     * @param url     The URL to use, or null to keep the original.
+     * @param headers Headers to add to (or replace in) the request, or null.
+     */
+    @NonNull
+    public static PKDeliveryResponse rewrite(@Nullable Uri url, @Nullable Map<String, String> headers) {
+        return new PKDeliveryResponse(url, headers == null ? null : Collections.unmodifiableMap(new HashMap<>(headers)), null, Consts.NO_VALUE);
+    }
+
+    /**
+     * Serve the request without sending it. The data must be the requested byte range.
+     */
+    @NonNull
+    public static PKDeliveryResponse serve(@NonNull byte[] data) {
+        return new PKDeliveryResponse(null, null, new ByteArrayInputStream(data), data.length);
+    }
+
+    /**
+     * Serve the request without sending it, from a stream that the player reads and closes.
+     * The stream must contain the requested byte range.
+     *
+     * @param length Length of the data, or {@link Consts#NO_VALUE} if unknown.
+     */
+    @NonNull
+    public static PKDeliveryResponse serve(@NonNull InputStream data, long length) {
+        return new PKDeliveryResponse(null, null, data, length);
+    }
+
+    public boolean isPassThrough() {
+        return data == null && url == null && (headers == null || headers.isEmpty());
+    }
+
+    /** Rewritten URL, or null. */
+    @Nullable
+    public Uri getUrl() {
+        return url;
+    }
+
+    /** Added headers, or null. */
+    @Nullable
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /** Served data, or null. */
+    @Nullable
+    public InputStream getData() {
+        return data;
+    }
+
+    public long getLength() {
+        return length;
+    }
+}
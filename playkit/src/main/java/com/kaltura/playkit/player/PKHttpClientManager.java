@@ -1,27 +1,32 @@
 package com.kaltura.playkit.player;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import com.kaltura.android.exoplayer2.upstream.DefaultHttpDataSource;
 import com.kaltura.playkit.PKLog;
+import com.kaltura.playkit.PKMediaEntry;
+import com.kaltura.playkit.PKMediaSource;
 import com.kaltura.playkit.PlayKitManager;
+import com.kaltura.playkit.Player;
 
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.Call;
 import okhttp3.ConnectionPool;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.Response;
-import okhttp3.ResponseBody;
 
 public class PKHttpClientManager {
 
@@ -30,14 +35,30 @@ public class PKHttpClientManager {
     static final String HTTP_PROVIDER_OK = "okhttp";
     static final String HTTP_PROVIDER_SYSTEM = "system";
 
-    private static final String warmUpUserAgent = PlayKitManager.CLIENT_TAG + " connectionWarmUp";
+    static final String warmUpUserAgent = PlayKitManager.CLIENT_TAG + " connectionWarmUp";
 
     private static final int MAX_IDLE_CONNECTIONS = 10;
     private static final int KEEP_ALIVE_DURATION = 5;
-    private static final int WARMUP_TIMES = 1;
 
     private static String httpProviderId;
 
+    /**
+     * HTTP protocol used with a host. Only applies to the "okhttp" provider.
+     */
+    public enum HttpProtocolPolicy {
+        /** Only HTTP/1.1. The default. */
+        HTTP_1_1,
+        /** HTTP/2 when the server supports it (negotiated with ALPN over TLS), HTTP/1.1 otherwise. */
+        HTTP_2,
+        /** Like {@link #HTTP_2}, but the host falls back to HTTP/1.1 after an HTTP/2 stream or connection error. */
+        AUTO
+    }
+
+    private static volatile HttpProtocolPolicy defaultProtocolPolicy = HttpProtocolPolicy.HTTP_1_1;
+    private static final Map<String, HttpProtocolPolicy> hostProtocolPolicies = new ConcurrentHashMap<>();
+    // Hosts with the AUTO policy that had an HTTP/2 error.
+    private static final Set<String> fallbackHosts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
     private static final OkHttpClient okClient = new OkHttpClient.Builder()
             .followRedirects(false)     // Only warm up explicitly specified URLs
             .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION, TimeUnit.MINUTES))
@@ -46,11 +67,18 @@ public class PKHttpClientManager {
             .protocols(Collections.singletonList(Protocol.HTTP_1_1))    // Avoid http/2 due to https://github.com/google/ExoPlayer/issues/4078
             .build();
 
+    static final Call.Factory okCallFactory = newCallFactory(okClient);
+
     // Called by the player
     public static OkHttpClient.Builder newClientBuilder() {
         return okClient.newBuilder().followRedirects(true);
     }
 
+    // Called by the player. Sends each request with the protocol policy of its host; the client's protocols are ignored.
+    static Call.Factory newCallFactory(OkHttpClient client) {
+        return new ProtocolCallFactory(client);
+    }
+
     // Called by the player
     static boolean useOkHttp() {
         return HTTP_PROVIDER_OK.equalsIgnoreCase(httpProviderId);
@@ -69,61 +97,172 @@ public class PKHttpClientManager {
         return httpProviderId;
     }
 
+    /**
+     * Set the protocol policy of hosts that don't have their own policy, see {@link #setProtocolPolicy(String, HttpProtocolPolicy)}.
+     * Default is {@link HttpProtocolPolicy#HTTP_1_1}.
+     * @param policy The policy.
+     */
+    public static void setDefaultProtocolPolicy(HttpProtocolPolicy policy) {
+        defaultProtocolPolicy = policy != null ? policy : HttpProtocolPolicy.HTTP_1_1;
+    }
+
+    /**
+     * Set the protocol policy of a host, e.g. allow HTTP/2 for a CDN so that audio, video and text
+     * segments share one connection. Applies to requests made after this call.
+     * @param host Host name, as in the request URL.
+     * @param policy The policy, or null to use the default policy.
+     */
+    public static void setProtocolPolicy(String host, HttpProtocolPolicy policy) {
+        final String key = host.toLowerCase(Locale.US);
+        if (policy == null) {
+            hostProtocolPolicies.remove(key);
+        } else {
+            hostProtocolPolicies.put(key, policy);
+        }
+        fallbackHosts.remove(key);
+    }
+
+    /**
+     * @param host Host name.
+     * @return The protocol policy of the host.
+     */
+    public static HttpProtocolPolicy getProtocolPolicy(String host) {
+        final HttpProtocolPolicy policy = hostProtocolPolicies.get(host.toLowerCase(Locale.US));
+        return policy != null ? policy : defaultProtocolPolicy;
+    }
+
+    // Whether requests to the host may use HTTP/2 now.
+    static boolean allowHttp2(String host) {
+        switch (getProtocolPolicy(host)) {
+            case HTTP_2:
+                return true;
+            case AUTO:
+                return !fallbackHosts.contains(host.toLowerCase(Locale.US));
+            default:
+                return false;
+        }
+    }
+
     /**
      * Warm up the connection to a list of URLs. There should be only one URL per host, and the URLs
      * should resolve to valid pathnames. A good choice might be favicon.ico or crossdomain.xml.
+     * Returns immediately; the warm-up runs in the background. See {@link #getWarmUpResults()}.
+     * Note that earlier versions of this method blocked until all connections were established;
+     * callers that relied on that should wait for the results instead.
      * @param urls List of URLs.
      */
     public static void warmUp(String... urls) {
-        final ExecutorService service = Executors.newCachedThreadPool();
-
-        List<Callable<Void>> calls = new ArrayList<>(urls.length);
         for (String url : urls) {
-            final Callable<Void> callable = useOkHttp() ? getOkCallable(url) : getSystemCallable(url);
+            ConnectionWarmUp.warmUpUrl(url);
+        }
+    }
 
-            for (int i = 0; i < WARMUP_TIMES; i++) {
-                calls.add(callable);
-            }
+    /**
+     * Warm up the connections a player will need for the media: the hosts of the source the player
+     * would select, of its DRM license URLs and of the external subtitles. Use it as soon as the app
+     * knows what the user is about to play. Returns immediately; the warm-up runs in the background.
+     * @param mediaEntry The media.
+     * @param player The player that will play it; its preferred format and request adapters are used.
+     */
+    public static void warmUp(@NonNull PKMediaEntry mediaEntry, @NonNull Player player) {
+        final Player.Settings settings = player.getSettings();
+        final PlayerSettings playerSettings = settings instanceof PlayerSettings ? (PlayerSettings) settings : new PlayerSettings();
+        final PKMediaSource source = SourceSelector.selectSource(mediaEntry, playerSettings.getPreferredMediaFormat());
+        if (source != null) {
+            ConnectionWarmUp.warmUp(mediaEntry, source, playerSettings);
         }
+    }
+
+    /**
+     * @return The recent warm-ups, oldest first, and whether the first real request to each host
+     * reused the warmed up connection.
+     */
+    @NonNull
+    public static List<WarmUpResult> getWarmUpResults() {
+        return ConnectionWarmUp.getResults();
+    }
 
-        try {
-            service.invokeAll(calls, 6, TimeUnit.SECONDS);
-            log.d("All urls finished");
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    public static class WarmUpResult {
+        /** scheme://host:port */
+        public final String origin;
+        public final boolean finished;
+        public final boolean succeeded;
+        public final long durationMs;
+        /** Whether the first real request to the origin got the warmed up connection; null if not known yet, or not known with the "system" provider. */
+        @Nullable public final Boolean reused;
+
+        WarmUpResult(String origin, boolean finished, boolean succeeded, long durationMs, @Nullable Boolean reused) {
+            this.origin = origin;
+            this.finished = finished;
+            this.succeeded = succeeded;
+            this.durationMs = durationMs;
+            this.reused = reused;
+        }
+
+        @Override
+        public String toString() {
+            return "WarmUpResult{origin=" + origin + ", finished=" + finished + ", succeeded=" + succeeded +
+                    ", durationMs=" + durationMs + ", reused=" + reused + "}";
         }
     }
 
-    private static Callable<Void> getSystemCallable(String url) {
-        return () -> {
+    // Picks the HTTP/1.1 or the HTTP/2 variant of the client per request. Both variants share the
+    // connection pool and dispatcher of the client; connections are not shared between them.
+    private static class ProtocolCallFactory implements Call.Factory {
+        private final OkHttpClient http1Client;
+        private final OkHttpClient http2Client;
+
+        ProtocolCallFactory(OkHttpClient client) {
+            client = client.newBuilder()
+                    .addNetworkInterceptor(ConnectionWarmUp::interceptNetwork)
+                    .build();
+            http1Client = client.newBuilder()
+                    .protocols(Collections.singletonList(Protocol.HTTP_1_1))    // Avoid http/2 due to https://github.com/google/ExoPlayer/issues/4078
+                    .build();
+            http2Client = client.newBuilder()
+                    .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                    .addInterceptor(this::fallbackToHttp1)
+                    .build();
+        }
+
+        @Override
+        public Call newCall(Request request) {
+            return (allowHttp2(request.url().host()) ? http2Client : http1Client).newCall(request);
+        }
+
+        private Response fallbackToHttp1(Interceptor.Chain chain) throws IOException {
+            final Request request = chain.request();
             try {
-                final HttpURLConnection urlConnection = ((HttpURLConnection) new URL(url).openConnection());
-                urlConnection.setConnectTimeout(3000);
-                urlConnection.setReadTimeout(3000);
-                urlConnection.addRequestProperty("user-agent", PKHttpClientManager.warmUpUserAgent);
-                final InputStream inputStream = urlConnection.getInputStream();
-                inputStream.close();
-            } catch (Exception e) {
-                e.printStackTrace();
+                return chain.proceed(request);
+            } catch (IOException e) {
+                if (!isHttp2Failure(e)) {
+                    throw e;
+                }
+                final String host = request.url().host();
+                if (getProtocolPolicy(host) != HttpProtocolPolicy.AUTO) {
+                    throw e;
+                }
+                log.w("HTTP/2 error with " + host + ", falling back to HTTP/1.1: " + e);
+                fallbackHosts.add(host.toLowerCase(Locale.US));
+                // Only requests without a body are safe to send again.
+                if (request.body() != null) {
+                    throw e;
+                }
+                return http1Client.newCall(request).execute();
             }
-            return null;
-        };
-    }
+        }
 
-    private static Callable<Void> getOkCallable(String url) {
-        return () -> {
-            final Call call = PKHttpClientManager.okClient.newCall(
-                    new Request.Builder()
-                            .url(url)
-                            .header("user-agent", PKHttpClientManager.warmUpUserAgent)
-                            .build()
-            );
-            final Response response = call.execute();
-            final ResponseBody body = response.body();
-            if (body != null) {
-                body.close();
+        // OkHttp reports HTTP/2 stream and connection failures with classes of its internal packages,
+        // so they are matched by name: a version that moves them only disables the fallback.
+        private static boolean isHttp2Failure(IOException e) {
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                final String name = t.getClass().getName();
+                if (name.startsWith("okhttp3.") &&
+                        (name.endsWith(".StreamResetException") || name.endsWith(".ConnectionShutdownException"))) {
+                    return true;
+                }
             }
-            return null;
-        };
+            return false;
+        }
     }
 }
@@ -0,0 +1,566 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.player;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kaltura.android.exoplayer2.C;
+import com.kaltura.android.exoplayer2.ext.okhttp.OkHttpDataSourceFactory;
+import com.kaltura.android.exoplayer2.source.hls.playlist.HlsMasterPlaylist;
+import com.kaltura.android.exoplayer2.source.hls.playlist.HlsPlaylist;
+import com.kaltura.android.exoplayer2.source.hls.playlist.HlsPlaylistParser;
+import com.kaltura.android.exoplayer2.upstream.DataSource;
+import com.kaltura.android.exoplayer2.upstream.DataSpec;
+import com.kaltura.android.exoplayer2.upstream.DefaultHttpDataSource;
+import com.kaltura.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
+import com.kaltura.android.exoplayer2.upstream.HttpDataSource;
+import com.kaltura.android.exoplayer2.upstream.TransferListener;
+import com.kaltura.playkit.LocalAssetsManager;
+import com.kaltura.playkit.PKLog;
+import com.kaltura.playkit.PKMediaEntry;
+import com.kaltura.playkit.PKMediaFormat;
+import com.kaltura.playkit.PKMediaSource;
+import com.kaltura.playkit.PKRequestParams;
+import com.kaltura.playkit.PlayKitManager;
+import com.kaltura.playkit.Player;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of DASH manifests and HLS master and media playlists, shared by all players that use it.
+ * <p>
+ * Responses are cached according to their {@code Cache-Control} header ({@code max-age}, {@code no-cache},
+ * {@code no-store}); stale responses that have an {@code ETag} or {@code Last-Modified} are revalidated
+ * with a conditional request, so an unchanged manifest costs a 304 instead of a full download.
+ * <p>
+ * {@link #prefetch(PKMediaEntry, Player)} loads the manifest of a media the user is likely to play
+ * (e.g. the focused item of a carousel). The manifest URL is built exactly like the player builds it,
+ * including the {@link PKRequestParams.Adapter} of the player, so a later prepare of the same media finds
+ * it in the cache and skips the round trip. A prefetched VOD manifest without caching headers is served
+ * once, up to {@link #setPrefetchTtlMs(long)} after it was loaded.
+ * <p>
+ * Cache keys are the URLs without their volatile query parameters (by default {@code playSessionId},
+ * which changes on every playback), plus the request headers.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ *     PKManifestCache manifestCache = new PKManifestCache(PKManifestCache.DEFAULT_MAX_BYTES);
+ *     player.getSettings().setManifestCache(manifestCache);
+ *     ...
+ *     manifestCache.prefetch(focusedMediaEntry, player);
+ * </pre>
+ */
+@SuppressWarnings("WeakerAccess")
+public class PKManifestCache {
+
+    private static final PKLog log = PKLog.get("PKManifestCache");
+
+    public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    public static final long DEFAULT_PREFETCH_TTL_MS = 60_000;
+
+    private static final int PREFETCH_THREADS = 2;
+
+    // Shared by all caches; prefetching is not urgent, so two threads are enough.
+    private static final ThreadPoolExecutor prefetchExecutor = newPrefetchExecutor();
+
+    private final long maxBytes;
+    private long sizeBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> pendingPrefetches = new HashSet<>();
+
+    private volatile Set<String> volatileQueryParameters = Collections.singleton("playSessionId");
+    private volatile long prefetchTtlMs = DEFAULT_PREFETCH_TTL_MS;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong revalidatedCount = new AtomicLong();
+
+    /**
+     * @param maxBytes Size cap of the cache; the least recently used manifests are evicted first.
+     */
+    public PKManifestCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Set the query parameters that are ignored when looking up a URL in the cache. Replaces the default,
+     * {@code playSessionId}.
+     */
+    public void setVolatileQueryParameters(@NonNull String... names) {
+        volatileQueryParameters = new HashSet<>(Arrays.asList(names));
+    }
+
+    /**
+     * Set how long a prefetched VOD manifest without caching headers may be served. Default is
+     * {@link #DEFAULT_PREFETCH_TTL_MS}.
+     */
+    public void setPrefetchTtlMs(long prefetchTtlMs) {
+        this.prefetchTtlMs = prefetchTtlMs;
+    }
+
+    /**
+     * Load the manifest of the media in the background, as the player would load it. For HLS, the playlists
+     * of the first variant and the first audio rendition are loaded as well. Does nothing for progressive media.
+     *
+     * @param mediaEntry The media the user is expected to play.
+     * @param player     The player that will play it; its preferred format and content request adapter are used.
+     */
+    public void prefetch(@NonNull PKMediaEntry mediaEntry, @NonNull Player player) {
+        final Player.Settings settings = player.getSettings();
+        final PlayerSettings playerSettings = settings instanceof PlayerSettings ? (PlayerSettings) settings : new PlayerSettings();
+
+        final PKMediaSource source = SourceSelector.selectSource(mediaEntry, playerSettings.getPreferredMediaFormat());
+        if (source == null || source instanceof LocalAssetsManager.LocalMediaSource) {
+            return;
+        }
+        final PKMediaFormat format = source.getMediaFormat();
+        if (format != PKMediaFormat.dash && format != PKMediaFormat.hls) {
+            return;
+        }
+
+        final PKRequestParams requestParams = new PKMediaSourceConfig(source, mediaEntry.getMediaType(), null, playerSettings).getRequestParams();
+        if (!isHttp(requestParams.url)) {
+            return;
+        }
+
+        final String key = buildCacheKey(requestParams.url, requestParams.headers);
+        synchronized (this) {
+            final Entry entry = entries.get(key);
+            if ((entry != null && entry.isFresh(SystemClock.elapsedRealtime())) || !pendingPrefetches.add(key)) {
+                return;
+            }
+        }
+
+        final boolean live = mediaEntry.getMediaType() == PKMediaEntry.MediaEntryType.Live ||
+                mediaEntry.getMediaType() == PKMediaEntry.MediaEntryType.DvrLive;
+        final HttpDataSource.Factory httpDataSourceFactory = newPrefetchDataSourceFactory(requestParams.headers, playerSettings.crossProtocolRedirectEnabled());
+
+        prefetchExecutor.execute(() -> {
+            try {
+                final Entry entry = load(httpDataSourceFactory, requestParams.url, requestParams.headers, !live);
+                if (format == PKMediaFormat.hls) {
+                    prefetchHlsMediaPlaylists(httpDataSourceFactory, entry, requestParams.headers, !live);
+                }
+            } catch (IOException e) {
+                log.w("Failed prefetching " + requestParams.url + ": " + e);
+            } finally {
+                synchronized (PKManifestCache.this) {
+                    pendingPrefetches.remove(key);
+                }
+            }
+        });
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getCacheSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * @return Number of requests that were served from the cache without going to the network.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return Number of requests that downloaded the manifest.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return Number of requests that were revalidated with the server (304 Not Modified).
+     */
+    public long getRevalidatedCount() {
+        return revalidatedCount.get();
+    }
+
+    public void resetStats() {
+        hitCount.set(0);
+        missCount.set(0);
+        revalidatedCount.set(0);
+    }
+
+    /**
+     * Remove all cached manifests.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    // Wrap the data sources of manifests. Called by the player; the headers are the ones set on the factories.
+    @NonNull
+    DataSource.Factory wrap(@Nullable Map<String, String> headers, @NonNull HttpDataSource.Factory httpDataSourceFactory,
+                            @NonNull DataSource.Factory dataSourceFactory) {
+        return () -> new ManifestDataSource(headers, httpDataSourceFactory, dataSourceFactory);
+    }
+
+    @NonNull
+    String buildCacheKey(@NonNull Uri uri, @Nullable Map<String, String> headers) {
+        final String url = PKMediaCache.removeQueryParameters(uri, volatileQueryParameters);
+        return headers == null || headers.isEmpty() ? url : url + " " + new TreeMap<>(headers);
+    }
+
+    // The cached manifest if the player will load it from the cache, without counting a hit.
+    @Nullable
+    synchronized byte[] peek(@NonNull Uri uri, @Nullable Map<String, String> headers) {
+        final Entry entry = entries.get(buildCacheKey(uri, headers));
+        return entry != null && entry.isFresh(SystemClock.elapsedRealtime()) ? entry.data : null;
+    }
+
+    // Returns the cached entry if it can be used without a request, and counts the hit.
+    @Nullable
+    private synchronized Entry getFresh(String key) {
+        final Entry entry = entries.get(key);
+        if (entry == null || !entry.isFresh(SystemClock.elapsedRealtime())) {
+            return null;
+        }
+        if (entry.expiresAt <= SystemClock.elapsedRealtime()) {
+            // Served on the strength of the prefetch, which is single use.
+            entry.prefetchExpiresAt = 0;
+        }
+        hitCount.incrementAndGet();
+        return entry;
+    }
+
+    @NonNull
+    private Entry load(HttpDataSource.Factory httpDataSourceFactory, Uri uri, Map<String, String> headers, boolean prefetch) throws IOException {
+        return load(httpDataSourceFactory.createDataSource(), uri, buildCacheKey(uri, headers), prefetch);
+    }
+
+    // Download or revalidate the manifest, and cache the response if it's allowed.
+    @NonNull
+    private Entry load(HttpDataSource dataSource, Uri uri, String key, boolean prefetch) throws IOException {
+        final Entry previous;
+        synchronized (this) {
+            previous = entries.get(key);
+        }
+        if (previous != null) {
+            if (previous.etag != null) {
+                dataSource.setRequestProperty("If-None-Match", previous.etag);
+            }
+            if (previous.lastModified != null) {
+                dataSource.setRequestProperty("If-Modified-Since", previous.lastModified);
+            }
+        }
+
+        final long now = SystemClock.elapsedRealtime();
+        final Entry entry;
+        try {
+            dataSource.open(new DataSpec(uri, DataSpec.FLAG_ALLOW_GZIP));
+            final byte[] data = readFully(dataSource);
+            final Map<String, List<String>> responseHeaders = dataSource.getResponseHeaders();
+            final Uri finalUri = dataSource.getUri() != null ? dataSource.getUri() : uri;
+            entry = new Entry(data, finalUri, getHeader(responseHeaders, "ETag"), getHeader(responseHeaders, "Last-Modified"),
+                    getExpiresAt(responseHeaders, now));
+            missCount.incrementAndGet();
+        } catch (HttpDataSource.InvalidResponseCodeException e) {
+            if (e.responseCode != 304 || previous == null) {
+                throw e;
+            }
+            entry = new Entry(previous.data, previous.uri, previous.etag, previous.lastModified, getExpiresAt(e.headerFields, now));
+            revalidatedCount.incrementAndGet();
+        } finally {
+            dataSource.close();
+        }
+
+        if (prefetch) {
+            entry.prefetchExpiresAt = now + prefetchTtlMs;
+        }
+        put(key, entry);
+        return entry;
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        final Entry removed = entries.remove(key);
+        if (removed != null) {
+            sizeBytes -= removed.data.length;
+        }
+        if (entry.expiresAt == Entry.NO_STORE || entry.data.length > maxBytes / 4) {
+            return;
+        }
+        entries.put(key, entry);
+        sizeBytes += entry.data.length;
+
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (sizeBytes > maxBytes && iterator.hasNext()) {
+            sizeBytes -= iterator.next().data.length;
+            iterator.remove();
+        }
+    }
+
+    private void prefetchHlsMediaPlaylists(HttpDataSource.Factory httpDataSourceFactory, Entry masterEntry,
+                                           Map<String, String> headers, boolean prefetch) throws IOException {
+
+        final HlsPlaylist playlist = new HlsPlaylistParser().parse(masterEntry.uri, new ByteArrayInputStream(masterEntry.data));
+        if (!(playlist instanceof HlsMasterPlaylist)) {
+            return;
+        }
+        final HlsMasterPlaylist masterPlaylist = (HlsMasterPlaylist) playlist;
+
+        // Which variant ABR starts with is not known yet; the first one is the most likely.
+        final List<Uri> mediaPlaylists = new ArrayList<>(2);
+        if (!masterPlaylist.variants.isEmpty()) {
+            mediaPlaylists.add(masterPlaylist.variants.get(0).url);
+        }
+        for (HlsMasterPlaylist.Rendition audio : masterPlaylist.audios) {
+            if (audio.url != null) {
+                mediaPlaylists.add(audio.url);
+                break;
+            }
+        }
+
+        for (Uri mediaPlaylist : mediaPlaylists) {
+            final String key = buildCacheKey(mediaPlaylist, headers);
+            if (getFresh(key) == null) {
+                load(httpDataSourceFactory.createDataSource(), mediaPlaylist, key, prefetch);
+            }
+        }
+    }
+
+    private static HttpDataSource.Factory newPrefetchDataSourceFactory(Map<String, String> headers, boolean crossProtocolRedirectEnabled) {
+        final String userAgent = PlayKitManager.CLIENT_TAG;
+        final HttpDataSource.Factory factory;
+        if (PKHttpClientManager.useOkHttp()) {
+            factory = new OkHttpDataSourceFactory(PKHttpClientManager.newCallFactory(PKHttpClientManager.newClientBuilder()
+                    .followRedirects(true)
+                    .followSslRedirects(crossProtocolRedirectEnabled)
+                    .build()), userAgent);
+        } else {
+            factory = new DefaultHttpDataSourceFactory(userAgent,
+                    DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                    DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS,
+                    crossProtocolRedirectEnabled);
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            factory.getDefaultRequestProperties().set(header.getKey(), header.getValue());
+        }
+        return factory;
+    }
+
+    private static ThreadPoolExecutor newPrefetchExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "PKManifestCache-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static boolean isHttp(Uri uri) {
+        final String scheme = uri.getScheme();
+        return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+    }
+
+    private static byte[] readFully(DataSource dataSource) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[16 * 1024];
+        int read;
+        while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    @Nullable
+    private static String getHeader(@Nullable Map<String, List<String>> headers, String name) {
+        if (headers == null) {
+            return null;
+        }
+        // Header names are lower case with OkHttp, as sent by the server with HttpURLConnection.
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && header.getValue() != null && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    // Until when the response is fresh, from Cache-Control max-age and Age; 0 if it must be revalidated.
+    static long getExpiresAt(@Nullable Map<String, List<String>> headers, long now) {
+        final String cacheControl = getHeader(headers, "Cache-Control");
+        if (cacheControl == null) {
+            return 0;
+        }
+        long maxAgeSeconds = -1;
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim().toLowerCase();
+            if (directive.equals("no-store")) {
+                return Entry.NO_STORE;
+            } else if (directive.equals("no-cache")) {
+                return 0;
+            } else if (directive.startsWith("max-age=")) {
+                maxAgeSeconds = parseSeconds(directive.substring("max-age=".length()));
+            }
+        }
+        if (maxAgeSeconds <= 0) {
+            return 0;
+        }
+        final long ageSeconds = Math.max(0, parseSeconds(getHeader(headers, "Age")));
+        return maxAgeSeconds > ageSeconds ? now + (maxAgeSeconds - ageSeconds) * 1000 : 0;
+    }
+
+    private static long parseSeconds(@Nullable String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim().replace("\"", ""));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static class Entry {
+        static final long NO_STORE = -1;
+
+        final byte[] data;
+        final Uri uri;  // After redirects, for resolving relative URLs.
+        final String etag;
+        final String lastModified;
+        final long expiresAt;
+        long prefetchExpiresAt;
+
+        Entry(byte[] data, Uri uri, String etag, String lastModified, long expiresAt) {
+            this.data = data;
+            this.uri = uri;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isFresh(long now) {
+            return now < expiresAt || now < prefetchExpiresAt;
+        }
+    }
+
+    // Serves http(s) manifests from the cache, or loads them into it. Other schemes (local files) go to the default data source.
+    private class ManifestDataSource implements DataSource {
+        private final Map<String, String> headers;
+        private final HttpDataSource.Factory httpDataSourceFactory;
+        private final DataSource.Factory dataSourceFactory;
+        private final List<TransferListener> transferListeners = new ArrayList<>(1);
+
+        private DataSource upstream;
+        private Uri uri;
+        private byte[] data;
+        private int readPosition;
+        private int bytesRemaining;
+
+        ManifestDataSource(Map<String, String> headers, HttpDataSource.Factory httpDataSourceFactory, DataSource.Factory dataSourceFactory) {
+            this.headers = headers;
+            this.httpDataSourceFactory = httpDataSourceFactory;
+            this.dataSourceFactory = dataSourceFactory;
+        }
+
+        @Override
+        public void addTransferListener(TransferListener transferListener) {
+            transferListeners.add(transferListener);
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            if (!isHttp(dataSpec.uri)) {
+                upstream = dataSourceFactory.createDataSource();
+                for (TransferListener transferListener : transferListeners) {
+                    upstream.addTransferListener(transferListener);
+                }
+                return upstream.open(dataSpec);
+            }
+
+            final String key = buildCacheKey(dataSpec.uri, headers);
+            Entry entry = getFresh(key);
+            if (entry == null) {
+                final HttpDataSource httpDataSource = httpDataSourceFactory.createDataSource();
+                for (TransferListener transferListener : transferListeners) {
+                    httpDataSource.addTransferListener(transferListener);
+                }
+                entry = load(httpDataSource, dataSpec.uri, key, false);
+            }
+
+            uri = entry.uri;
+            data = entry.data;
+            readPosition = (int) Math.min(dataSpec.position, data.length);
+            bytesRemaining = data.length - readPosition;
+            if (dataSpec.length != C.LENGTH_UNSET) {
+                bytesRemaining = (int) Math.min(bytesRemaining, dataSpec.length);
+            }
+            return bytesRemaining;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            if (upstream != null) {
+                return upstream.read(buffer, offset, readLength);
+            }
+            if (readLength == 0) {
+                return 0;
+            }
+            if (bytesRemaining == 0) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            final int length = Math.min(readLength, bytesRemaining);
+            System.arraycopy(data, readPosition, buffer, offset, length);
+            readPosition += length;
+            bytesRemaining -= length;
+            return length;
+        }
+
+        @Nullable
+        @Override
+        public Uri getUri() {
+            return upstream != null ? upstream.getUri() : uri;
+        }
+
+        @Override
+        public void close() throws IOException {
+            data = null;
+            uri = null;
+            if (upstream != null) {
+                try {
+                    upstream.close();
+                } finally {
+                    upstream = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.player;
+
+import android.content.Context;
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kaltura.android.exoplayer2.database.ExoDatabaseProvider;
+import com.kaltura.android.exoplayer2.upstream.DataSource;
+import com.kaltura.android.exoplayer2.upstream.DataSpec;
+import com.kaltura.android.exoplayer2.upstream.FileDataSource;
+import com.kaltura.android.exoplayer2.upstream.TransferListener;
+import com.kaltura.android.exoplayer2.upstream.cache.CacheDataSink;
+import com.kaltura.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.kaltura.android.exoplayer2.upstream.cache.CacheSpan;
+import com.kaltura.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.kaltura.android.exoplayer2.upstream.cache.SimpleCache;
+import com.kaltura.playkit.PKLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional on-disk cache of media segments and progressive (MP4/MP3) ranges, shared by all players
+ * that use it. It's bounded by size, and the least recently used data is evicted first.
+ * <p>
+ * Manifests are never cached, and neither is live media. Cache keys are the media URLs without
+ * their volatile query parameters (by default {@code playSessionId}, which changes on every playback),
+ * so a segment is found again when the same media is played in another session.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ *     PKMediaCache cache = PKMediaCache.open(context, new File(context.getCacheDir(), "media"), 200 * 1024 * 1024);
+ *     player.getSettings().setMediaCache(cache);
+ *     ...
+ *     log("hits=" + cache.getHitCount() + " misses=" + cache.getMissCount());
+ * </pre>
+ */
+@SuppressWarnings("WeakerAccess")
+public class PKMediaCache {
+
+    private static final PKLog log = PKLog.get("PKMediaCache");
+
+    // Only one SimpleCache may use a directory.
+    private static final Map<File, PKMediaCache> openCaches = new HashMap<>();
+
+    private final File directory;
+    private final long maxBytes;
+    private final SimpleCache cache;
+    private volatile Set<String> volatileQueryParameters = Collections.singleton("playSessionId");
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong hitBytes = new AtomicLong();
+    private final AtomicLong missBytes = new AtomicLong();
+
+    private PKMediaCache(Context context, File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.cache = new SimpleCache(directory, new LeastRecentlyUsedCacheEvictor(maxBytes), new ExoDatabaseProvider(context));
+    }
+
+    /**
+     * Open the cache in the given directory, or return the one that is already open there.
+     *
+     * @param context   Context.
+     * @param directory A directory dedicated to the cache.
+     * @param maxBytes  Size cap of the cache.
+     */
+    @NonNull
+    public static synchronized PKMediaCache open(@NonNull Context context, @NonNull File directory, long maxBytes) {
+        final File key = directory.getAbsoluteFile();
+        PKMediaCache mediaCache = openCaches.get(key);
+        if (mediaCache == null) {
+            mediaCache = new PKMediaCache(context.getApplicationContext() != null ? context.getApplicationContext() : context, key, maxBytes);
+            openCaches.put(key, mediaCache);
+        } else if (mediaCache.maxBytes != maxBytes) {
+            log.w("Cache in " + key + " is already open with maxBytes=" + mediaCache.maxBytes + "; ignoring maxBytes=" + maxBytes);
+        }
+        return mediaCache;
+    }
+
+    /**
+     * Release the cache. It must not be used by a player anymore.
+     */
+    public void release() {
+        synchronized (PKMediaCache.class) {
+            openCaches.remove(directory);
+        }
+        cache.release();
+    }
+
+    /**
+     * Set the query parameters that are ignored when looking up a URL in the cache. Replaces the default,
+     * {@code playSessionId}.
+     */
+    public void setVolatileQueryParameters(@NonNull String... names) {
+        volatileQueryParameters = new HashSet<>(Arrays.asList(names));
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getCacheSizeBytes() {
+        return cache.getCacheSpace();
+    }
+
+    /**
+     * @return Number of requests that were fully served from the cache.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return Number of requests that (at least partly) went to the network.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getHitBytes() {
+        return hitBytes.get();
+    }
+
+    public long getMissBytes() {
+        return missBytes.get();
+    }
+
+    public void resetStats() {
+        hitCount.set(0);
+        missCount.set(0);
+        hitBytes.set(0);
+        missBytes.set(0);
+    }
+
+    /**
+     * Remove all cached media.
+     */
+    public void clear() {
+        for (String key : cache.getKeys()) {
+            for (CacheSpan span : cache.getCachedSpans(key)) {
+                try {
+                    cache.removeSpan(span);
+                } catch (Exception e) {
+                    log.w("Failed removing cached span of " + key + ": " + e);
+                }
+            }
+        }
+    }
+
+    // Wrap the data sources of media segments. Called by the player.
+    @NonNull
+    DataSource.Factory wrap(@NonNull DataSource.Factory upstreamFactory) {
+        return () -> {
+            final CountingDataSource upstream = new CountingDataSource(upstreamFactory.createDataSource());
+            final CacheDataSource cacheDataSource = new CacheDataSource(cache, upstream, new FileDataSource(),
+                    new CacheDataSink(cache, CacheDataSink.DEFAULT_FRAGMENT_SIZE),
+                    CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR, cacheEventListener);
+            return new CacheKeyDataSource(cacheDataSource, upstream);
+        };
+    }
+
+    private final CacheDataSource.EventListener cacheEventListener = new CacheDataSource.EventListener() {
+        @Override
+        public void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead) {
+            hitBytes.addAndGet(cachedBytesRead);
+        }
+
+        @Override
+        public void onCacheIgnored(int reason) {
+            log.d("Cache ignored, reason = %d", reason);
+        }
+    };
+
+    @NonNull
+    String buildCacheKey(@NonNull Uri uri) {
+        return removeQueryParameters(uri, volatileQueryParameters);
+    }
+
+    // The URL without the given query parameters; also used for the keys of PKManifestCache.
+    @NonNull
+    static String removeQueryParameters(@NonNull Uri uri, @NonNull Set<String> ignored) {
+        if (uri.isOpaque() || uri.getQuery() == null || ignored.isEmpty()) {
+            return uri.toString();
+        }
+        final Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            if (ignored.contains(name)) {
+                continue;
+            }
+            for (String value : uri.getQueryParameters(name)) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+        return builder.build().toString();
+    }
+
+    // Sets the normalized cache key on requests, and counts hits and misses.
+    private class CacheKeyDataSource implements DataSource {
+        private final CacheDataSource cacheDataSource;
+        private final CountingDataSource upstream;
+        private boolean opened;
+
+        CacheKeyDataSource(CacheDataSource cacheDataSource, CountingDataSource upstream) {
+            this.cacheDataSource = cacheDataSource;
+            this.upstream = upstream;
+        }
+
+        @Override
+        public void addTransferListener(TransferListener transferListener) {
+            cacheDataSource.addTransferListener(transferListener);
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            final String key = dataSpec.key != null ? dataSpec.key : buildCacheKey(dataSpec.uri);
+            final DataSpec keyed = new DataSpec(dataSpec.uri, dataSpec.httpMethod, dataSpec.httpBody,
+                    dataSpec.absoluteStreamPosition, dataSpec.position, dataSpec.length, key, dataSpec.flags);
+            upstream.opened = false;
+            opened = true;
+            return cacheDataSource.open(keyed);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            return cacheDataSource.read(buffer, offset, readLength);
+        }
+
+        @Nullable
+        @Override
+        public Uri getUri() {
+            return cacheDataSource.getUri();
+        }
+
+        @Override
+        public Map<String, List<String>> getResponseHeaders() {
+            return cacheDataSource.getResponseHeaders();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                cacheDataSource.close();
+            } finally {
+                if (opened) {
+                    opened = false;
+                    (upstream.opened ? missCount : hitCount).incrementAndGet();
+                }
+            }
+        }
+    }
+
+    // The network side of the cache: everything that goes through it is a miss.
+    private class CountingDataSource implements DataSource {
+        private final DataSource dataSource;
+        boolean opened;
+
+        CountingDataSource(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        @Override
+        public void addTransferListener(TransferListener transferListener) {
+            dataSource.addTransferListener(transferListener);
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            opened = true;
+            return dataSource.open(dataSpec);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            final int read = dataSource.read(buffer, offset, readLength);
+            if (read > 0) {
+                missBytes.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Nullable
+        @Override
+        public Uri getUri() {
+            return dataSource.getUri();
+        }
+
+        @Override
+        public Map<String, List<String>> getResponseHeaders() {
+            return dataSource.getResponseHeaders();
+        }
+
+        @Override
+        public void close() throws IOException {
+            dataSource.close();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.player;
+
+import androidx.annotation.NonNull;
+
+import com.kaltura.playkit.utils.Consts;
+
+import java.util.Arrays;
+
+/**
+ * Breakdown of the startup time of the current media, from {@link com.kaltura.playkit.Player#prepare}
+ * to the first rendered frame, or to the start of playback for media without video.
+ * Timestamps are in milliseconds of {@link android.os.SystemClock#elapsedRealtime()}, so they are
+ * monotonic and can be compared with each other, but not with wall clock time.
+ * A phase that was not reached (yet), or doesn't apply to the media (e.g. DRM keys of clear content,
+ * or the manifest of progressive media), has a timestamp of {@link Consts#TIME_UNSET}.
+ */
+public class PKStartupTimings {
+
+    /**
+     * Startup phases, in the order they normally happen.
+     */
+    public enum Phase {
+        SET_MEDIA,              // Player.prepare() was called, before the source is selected.
+        SOURCE_SELECTED,        // A playable source was selected from the media entry.
+        ENGINE_LOAD_STARTED,    // The player engine was asked to load the source.
+        MANIFEST_LOADED,        // The DASH/HLS manifest was downloaded and parsed.
+        METADATA_LOADED,        // The media's metadata was loaded (LOADED_METADATA).
+        DRM_KEYS_LOADED,        // The first DRM license response was applied.
+        ENGINE_LOAD_FINISHED,   // The player engine finished preparing the source and can start playing (CAN_PLAY).
+        FIRST_FRAME_RENDERED,   // The first video frame was rendered.
+        PLAYBACK_STARTED        // The player was first ready while playing.
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    /**
+     * Timings of a player that didn't start any media: no phase was reached.
+     */
+    public static final PKStartupTimings NOT_STARTED = new PKStartupTimings(unsetTimestamps());
+
+    private final long[] timestamps;
+
+    PKStartupTimings(@NonNull long[] timestamps) {
+        this.timestamps = timestamps;
+    }
+
+    private static long[] unsetTimestamps() {
+        final long[] timestamps = new long[PHASES.length];
+        Arrays.fill(timestamps, Consts.TIME_UNSET);
+        return timestamps;
+    }
+
+    /**
+     * @param phase - startup phase.
+     * @return - the time the phase was reached, or {@link Consts#TIME_UNSET}.
+     */
+    public long getTimestamp(@NonNull Phase phase) {
+        return timestamps[phase.ordinal()];
+    }
+
+    public boolean hasReached(@NonNull Phase phase) {
+        return timestamps[phase.ordinal()] != Consts.TIME_UNSET;
+    }
+
+    /**
+     * @param from - start phase.
+     * @param to - end phase.
+     * @return - milliseconds between the two phases, or {@link Consts#TIME_UNSET} if either wasn't reached.
+     */
+    public long getDuration(@NonNull Phase from, @NonNull Phase to) {
+        if (!hasReached(from) || !hasReached(to)) {
+            return Consts.TIME_UNSET;
+        }
+        return getTimestamp(to) - getTimestamp(from);
+    }
+
+    /**
+     * @return - milliseconds from {@link Phase#SET_MEDIA} to {@link Phase#FIRST_FRAME_RENDERED},
+     * or {@link Consts#TIME_UNSET} if no frame was rendered yet.
+     */
+    public long getTimeToFirstFrame() {
+        return getDuration(Phase.SET_MEDIA, Phase.FIRST_FRAME_RENDERED);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("PKStartupTimings{");
+        final long start = getTimestamp(Phase.SET_MEDIA);
+        boolean first = true;
+        for (Phase phase : PHASES) {
+            if (!hasReached(phase)) {
+                continue;
+            }
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+            sb.append(phase).append("=+").append(getTimestamp(phase) - start);
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -15,6 +15,7 @@ package com.kaltura.playkit.player;
 import android.content.Context;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import android.view.View;
 import android.view.ViewGroup;
 
 import com.kaltura.playkit.Assert;
@@ -51,7 +52,8 @@ public class PlayerController implements Player {
     private PKMediaConfig mediaConfig;
     private PKMediaSourceConfig sourceConfig;
     private PlayerSettings playerSettings = new PlayerSettings();
-    private final Runnable updateProgressAction = initProgressAction();
+    private final PlayheadUpdateScheduler playheadUpdateScheduler = new PlayheadUpdateScheduler(this::updateProgress,
+            playerSettings.getPlayheadUpdateIntervalMs(), playerSettings.isPlayheadUpdateAlignedToFrames());
 
     private PlayerEngine player;
     private PlayerEngineType currentPlayerType = PlayerEngineType.Unknown;
@@ -60,6 +62,11 @@ public class PlayerController implements Player {
     private PlayerView playerEngineView;
 
     private String sessionId;
+
+    // Media set with setNextMedia(), queued in the player engine.
+    private PKMediaConfig nextMediaConfig;
+    private PKMediaSourceConfig nextSourceConfig;
+    private String nextSessionId;
     private UUID playerSessionId = UUID.randomUUID();
 
     private long targetSeekPosition;
@@ -68,6 +75,7 @@ public class PlayerController implements Player {
 
     @NonNull
     private Profiler profiler = ProfilerFactory.get();
+    private final StartupTimer startupTimer = new StartupTimer();
 
     private PKEvent.RawListener eventListener;
     private PlayerEngine.EventListener eventTrigger = initEventListener();
@@ -105,6 +113,20 @@ public class PlayerController implements Player {
         };
         ViewGroup.LayoutParams lp = new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT);
         this.rootPlayerView.setLayoutParams(lp);
+
+        // No playhead updates while the player is off-screen.
+        playheadUpdateScheduler.setSurfaceVisible(rootPlayerView.getWindowToken() != null);
+        this.rootPlayerView.addOnAttachStateChangeListener(new View.OnAttachStateChangeListener() {
+            @Override
+            public void onViewAttachedToWindow(View v) {
+                playheadUpdateScheduler.setSurfaceVisible(true);
+            }
+
+            @Override
+            public void onViewDetachedFromWindow(View v) {
+                playheadUpdateScheduler.setSurfaceVisible(false);
+            }
+        });
     }
 
     private void setVideoSurfaceVisibility(boolean isVisible) {
@@ -177,10 +199,104 @@ public class PlayerController implements Player {
 
         if (assertPlayerIsNotNull("prepare()")) {
             player.setProfiler(profiler);
+            startupTimer.mark(PKStartupTimings.Phase.ENGINE_LOAD_STARTED);
             player.load(sourceConfig);
+
+            // Loading drops the queued media from the engine (e.g. when resuming), so queue it again.
+            if (nextSourceConfig != null && !queueNextMedia()) {
+                clearNextMedia();
+            }
+        }
+    }
+
+    @Override
+    public boolean setNextMedia(@Nullable PKMediaConfig nextMediaConfig) {
+        log.v("setNextMedia");
+        clearNextMedia();
+        if (!assertPlayerIsNotNull("setNextMedia()") || sourceConfig == null) {
+            return false;
+        }
+        if (nextMediaConfig == null) {
+            player.setNextMedia(null);
+            return true;
+        }
+        // Ads plugins request the ads of a media in prepare().
+        if (playerEngineWrapper instanceof AdsPlayerEngineWrapper) {
+            log.d("setNextMedia is not supported with ads plugins");
+            player.setNextMedia(null);
+            return false;
+        }
+
+        PKMediaSource source = SourceSelector.selectSource(nextMediaConfig.getMediaEntry(), playerSettings.getPreferredMediaFormat());
+        if (source == null) {
+            log.w("setNextMedia: no playable source found for entry");
+            player.setNextMedia(null);
+            return false;
+        }
+
+        PKMediaSourceConfig sourceConfig = new PKMediaSourceConfig(nextMediaConfig, source, playerSettings);
+        boolean is360Supported = sourceConfig.getVrSettings() != null && playerSettings.isVRPlayerEnabled();
+        if (PlayerEngineFactory.selectPlayerType(source.getMediaFormat(), is360Supported) != currentPlayerType) {
+            log.d("setNextMedia: next media needs a different player engine");
+            player.setNextMedia(null);
+            return false;
+        }
+
+        this.nextMediaConfig = nextMediaConfig;
+        this.nextSourceConfig = sourceConfig;
+        this.nextSessionId = generateSessionId();
+        if (!queueNextMedia()) {
+            clearNextMedia();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean queueNextMedia() {
+        if (playerSettings.getContentRequestAdapter() == null) {
+            return player.setNextMedia(nextSourceConfig);
+        }
+        // The engine builds the next media's requests now; let the request adapter tag them with
+        // the next media's session id, and restore it for the current media afterwards.
+        final String currentSessionId = sessionId;
+        sessionId = nextSessionId;
+        playerSettings.getContentRequestAdapter().updateParams(this);
+        try {
+            return player.setNextMedia(nextSourceConfig);
+        } finally {
+            sessionId = currentSessionId;
+            playerSettings.getContentRequestAdapter().updateParams(this);
         }
     }
 
+    private void clearNextMedia() {
+        nextMediaConfig = null;
+        nextSourceConfig = null;
+        nextSessionId = null;
+    }
+
+    private void switchToNextMedia() {
+        if (nextMediaConfig == null) {
+            log.w("switchToNextMedia: no next media");
+            return;
+        }
+        log.d("switchToNextMedia");
+        mediaConfig = nextMediaConfig;
+        sourceConfig = nextSourceConfig;
+        sessionId = nextSessionId;
+        clearNextMedia();
+        isNewEntry = true;
+
+        profiler.newSession(sessionId, playerSettings);
+        profiler.onSetMedia(mediaConfig);
+        startupTimer.start();
+
+        if (eventListener != null) {
+            eventListener.onEvent(new PlayerEvent.NextMediaStarted(mediaConfig));
+        }
+        eventTrigger.onEvent(PlayerEvent.Type.SOURCE_SELECTED);
+    }
+
     /**
      * Responsible for preparing source configurations before loading it to actual player.
      *
@@ -196,6 +312,7 @@ public class PlayerController implements Player {
         }
 
         sessionId = generateSessionId();
+        clearNextMedia();
 
         if (playerSettings.getContentRequestAdapter() != null) {
             playerSettings.getContentRequestAdapter().updateParams(this);
@@ -203,6 +320,7 @@ public class PlayerController implements Player {
 
         profiler.newSession(sessionId, playerSettings);
         profiler.onSetMedia(mediaConfig);
+        startupTimer.start();
 
         this.mediaConfig = mediaConfig;
         PKMediaSource source = SourceSelector.selectSource(mediaConfig.getMediaEntry(), playerSettings.getPreferredMediaFormat());
@@ -211,8 +329,12 @@ public class PlayerController implements Player {
             sendErrorMessage(PKPlayerErrorType.SOURCE_SELECTION_FAILED, "No playable source found for entry", null);
             return false;
         }
+        startupTimer.mark(PKStartupTimings.Phase.SOURCE_SELECTED);
 
         initSourceConfig(mediaConfig.getMediaEntry(), source);
+        if (playerSettings.isConnectionWarmUpEnabled()) {
+            ConnectionWarmUp.warmUp(mediaConfig.getMediaEntry(), source, playerSettings);
+        }
         eventTrigger.onEvent(PlayerEvent.Type.SOURCE_SELECTED);
 
         return true;
@@ -302,6 +424,7 @@ public class PlayerController implements Player {
         if (eventListener != null && !isPlayerStopped) {
             PlayerEvent event = new PlayerEvent.Generic(PlayerEvent.Type.STOPPED);
             cancelUpdateProgress();
+            clearNextMedia();
 
             log.d("stop() isForceSinglePlayerEngine = " + playerSettings.isForceSinglePlayerEngine());
             if (!playerSettings.isForceSinglePlayerEngine()) {
@@ -462,6 +585,47 @@ public class PlayerController implements Player {
                             eventListener.onEvent(new PlayerEvent.Error(loadError));
                         }
                     }
+
+                    @Override
+                    public void onManifestLoaded() {
+                        startupTimer.mark(PKStartupTimings.Phase.MANIFEST_LOADED);
+                    }
+
+                    @Override
+                    public void onDrmKeysLoaded() {
+                        startupTimer.mark(PKStartupTimings.Phase.DRM_KEYS_LOADED);
+                    }
+
+                    @Override
+                    public void onFirstFrameRendered() {
+                        if (startupTimer.mark(PKStartupTimings.Phase.FIRST_FRAME_RENDERED) && eventListener != null) {
+                            eventListener.onEvent(new PlayerEvent.StartupCompleted(startupTimer.getTimings()));
+                        }
+                    }
+
+                    @Override
+                    public void onPlaybackStarted(boolean hasVideo) {
+                        // Without video there is no first frame; startup completes when playback starts.
+                        if (startupTimer.mark(PKStartupTimings.Phase.PLAYBACK_STARTED) && !hasVideo && eventListener != null) {
+                            eventListener.onEvent(new PlayerEvent.StartupCompleted(startupTimer.getTimings()));
+                        }
+                    }
+
+                    @Override
+                    public void onHedgedRequest(boolean hedgeWon, long totalRequests, long totalHedges, long totalHedgeWins) {
+                        if (eventListener != null) {
+                            eventListener.onEvent(new PlayerEvent.HedgedRequest(hedgeWon, totalRequests, totalHedges, totalHedgeWins));
+                        }
+                    }
+
+                    @Override
+                    public void onDrmSessionReused(long totalHits, long totalMisses) {
+                        // The keys of the reused session are already loaded.
+                        startupTimer.mark(PKStartupTimings.Phase.DRM_KEYS_LOADED);
+                        if (eventListener != null) {
+                            eventListener.onEvent(new PlayerEvent.DrmSessionReused(totalHits, totalMisses));
+                        }
+                    }
                 });
             } else {
                 player.setEventListener(null);
@@ -550,7 +714,7 @@ public class PlayerController implements Player {
     private void resumePlayer() {
         if (assertPlayerIsNotNull("onApplicationResumed()")) {
             player.restore();
-            updateProgress();
+            startUpdateProgress();
         }
         togglePlayerListeners(true);
         prepare(mediaConfig);
@@ -666,6 +830,7 @@ public class PlayerController implements Player {
         }
     }
 
+    // Called by playheadUpdateScheduler, only while playing and someone listens to playhead updates.
     private void updateProgress() {
 
         long position;
@@ -675,19 +840,32 @@ public class PlayerController implements Player {
             return;
         }
 
+        if (isAdDisplayed()) {
+            return;
+        }
+
         position = player.getCurrentPosition();
         duration = player.getDuration();
 
-        if (!isAdDisplayed()) {
-            log.v("updateProgress new position/duration = " + position + "/" + duration);
-            if (eventListener != null && position > 0 && duration > 0) {
-                eventListener.onEvent(new PlayerEvent.PlayheadUpdated(position, duration));
-            }
+        log.v("updateProgress new position/duration = %d/%d", position, duration);
+        if (eventListener != null && position > 0 && duration > 0) {
+            eventListener.onEvent(new PlayerEvent.PlayheadUpdated(position, duration));
         }
-        // Cancel any pending updates and schedule a new one if necessary.
-        player.getView().removeCallbacks(updateProgressAction);
-        player.getView().postDelayed(updateProgressAction, Consts.DEFAULT_PLAYHEAD_UPDATE_MILI);
+    }
+
+    private void startUpdateProgress() {
+        playheadUpdateScheduler.configure(playerSettings.getPlayheadUpdateIntervalMs(), playerSettings.isPlayheadUpdateAlignedToFrames());
+        playheadUpdateScheduler.setPlaying(true);
+    }
 
+    /**
+     * Tell the controller whether anyone listens to {@link PlayerEvent.PlayheadUpdated};
+     * without listeners the playhead is not polled at all. May be called on any thread.
+     *
+     * @param hasListeners - true if there are playhead listeners.
+     */
+    public void setPlayheadListenersPresent(boolean hasListeners) {
+        playheadUpdateScheduler.postHasListeners(hasListeners);
     }
 
     private boolean isAdDisplayed() {
@@ -695,14 +873,8 @@ public class PlayerController implements Player {
         return adController != null && adController.isAdDisplayed();
     }
 
-    private Runnable initProgressAction() {
-        return this::updateProgress;
-    }
-
     private void cancelUpdateProgress() {
-        if (player != null && player.getView() != null) {
-            player.getView().removeCallbacks(updateProgressAction);
-        }
+        playheadUpdateScheduler.setPlaying(false);
     }
 
     public void setEventListener(PKEvent.RawListener eventListener) {
@@ -716,7 +888,7 @@ public class PlayerController implements Player {
                 PKEvent event;
                 switch (eventType) {
                     case PLAYING:
-                        updateProgress();
+                        startUpdateProgress();
                         event = new PlayerEvent.Generic(eventType);
                         break;
                     case PAUSE:
@@ -724,6 +896,17 @@ public class PlayerController implements Player {
                         event = new PlayerEvent.Generic(eventType);
                         cancelUpdateProgress();
                         break;
+                    case NEXT_MEDIA_STARTED:
+                        switchToNextMedia();
+                        return;
+                    case LOADED_METADATA:
+                        startupTimer.mark(PKStartupTimings.Phase.METADATA_LOADED);
+                        event = new PlayerEvent.Generic(eventType);
+                        break;
+                    case CAN_PLAY:
+                        startupTimer.mark(PKStartupTimings.Phase.ENGINE_LOAD_FINISHED);
+                        event = new PlayerEvent.Generic(eventType);
+                        break;
                     case DURATION_CHANGE:
                         event = new PlayerEvent.DurationChanged(getDuration());
                         if (getDuration() != Consts.TIME_UNSET && isNewEntry) {
@@ -813,6 +996,12 @@ public class PlayerController implements Player {
         };
     }
 
+    @NonNull
+    @Override
+    public PKStartupTimings getStartupTimings() {
+        return startupTimer.getTimings();
+    }
+
     private boolean isLiveMediaWithDvr() {
         return (PKMediaEntry.MediaEntryType.DvrLive == sourceConfig.mediaEntryType);
     }
@@ -12,6 +12,8 @@
 
 package com.kaltura.playkit.player;
 
+import androidx.annotation.Nullable;
+
 import com.kaltura.playkit.PKController;
 import com.kaltura.playkit.PKError;
 import com.kaltura.playkit.PlaybackInfo;
@@ -241,6 +243,14 @@ public interface PlayerEngine {
 
     default void setProfiler(Profiler profiler) {}
 
+    /**
+     * Set the media to play when the current one ends, without re-preparing the player.
+     * When playback moves to it, the engine sends {@link PlayerEvent.Type#NEXT_MEDIA_STARTED}.
+     * @param nextSourceConfig - the next media, or null to remove the one that was set.
+     * @return - true if the engine will continue into the next media, false if it can't.
+     */
+    default boolean setNextMedia(@Nullable PKMediaSourceConfig nextSourceConfig) { return false; }
+
     /**
      * Update Subtitle Styles
      * @param subtitleStyleSettings
@@ -279,5 +289,11 @@ public interface PlayerEngine {
         void onDroppedFrames(long droppedVideoFrames, long droppedVideoFramesPeriod, long totalDroppedVideoFrames);
         void onBytesLoaded(long bytesLoaded, long totalBytesLoaded);
         void onLoadError(IOException error, boolean wasCanceled);
+        void onManifestLoaded();
+        void onDrmKeysLoaded();
+        void onFirstFrameRendered();
+        void onPlaybackStarted(boolean hasVideo);
+        void onHedgedRequest(boolean hedgeWon, long totalRequests, long totalHedges, long totalHedgeWins);
+        void onDrmSessionReused(long totalHits, long totalMisses);
     }
 }
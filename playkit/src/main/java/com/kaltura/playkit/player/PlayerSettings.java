@@ -17,6 +17,7 @@ import com.kaltura.playkit.PKRequestParams;
 import com.kaltura.playkit.PKTrackConfig;
 import com.kaltura.playkit.Player;
 import com.kaltura.playkit.player.vr.VRSettings;
+import com.kaltura.playkit.utils.Consts;
 
 public class PlayerSettings implements Player.Settings {
 
@@ -30,6 +31,17 @@ public class PlayerSettings implements Player.Settings {
     private boolean adAutoPlayOnResume = true;
     private boolean vrPlayerEnabled = true;
     private boolean isVideoViewHidden;
+    private long playheadUpdateIntervalMs = Consts.DEFAULT_PLAYHEAD_UPDATE_MILI;
+    private boolean playheadUpdateAlignedToFrames;
+    private PKMediaCache mediaCache;
+    private PKManifestCache manifestCache;
+    private boolean connectionWarmUpEnabled;
+    private HedgedRequestSettings hedgedRequestSettings;
+    private PKDeliveryInterceptor deliveryInterceptor;
+    private PKBufferHealth.Listener bufferHealthListener;
+    private long bufferHealthUpdateIntervalMs = Consts.DEFAULT_BUFFER_HEALTH_UPDATE_MILI;
+    private PKBandwidthMeter bandwidthMeter;
+    private int drmSessionCacheSize = Consts.DEFAULT_DRM_SESSION_CACHE_SIZE;
     private LoadControlBuffers loadControlBuffers = new LoadControlBuffers();
     private SubtitleStyleSettings subtitleStyleSettings;
     private PKAspectRatioResizeMode resizeMode = PKAspectRatioResizeMode.fit;
@@ -133,6 +145,50 @@ public class PlayerSettings implements Player.Settings {
         return forceSinglePlayerEngine;
     }
 
+    public long getPlayheadUpdateIntervalMs() {
+        return playheadUpdateIntervalMs;
+    }
+
+    public boolean isPlayheadUpdateAlignedToFrames() {
+        return playheadUpdateAlignedToFrames;
+    }
+
+    public PKMediaCache getMediaCache() {
+        return mediaCache;
+    }
+
+    public PKManifestCache getManifestCache() {
+        return manifestCache;
+    }
+
+    public boolean isConnectionWarmUpEnabled() {
+        return connectionWarmUpEnabled;
+    }
+
+    public HedgedRequestSettings getHedgedRequestSettings() {
+        return hedgedRequestSettings;
+    }
+
+    public PKDeliveryInterceptor getDeliveryInterceptor() {
+        return deliveryInterceptor;
+    }
+
+    public PKBufferHealth.Listener getBufferHealthListener() {
+        return bufferHealthListener;
+    }
+
+    public long getBufferHealthUpdateIntervalMs() {
+        return bufferHealthUpdateIntervalMs;
+    }
+
+    public PKBandwidthMeter getBandwidthMeter() {
+        return bandwidthMeter;
+    }
+
+    public int getDrmSessionCacheSize() {
+        return drmSessionCacheSize;
+    }
+
     @Override
     public Player.Settings setVRPlayerEnabled(boolean vrPlayerEnabled) {
         this.vrPlayerEnabled = vrPlayerEnabled;
@@ -259,4 +315,72 @@ public class PlayerSettings implements Player.Settings {
         this.vrSettings = vrSettings;
         return this;
     }
+
+    @Override
+    public Player.Settings setPlayheadUpdateInterval(long playheadUpdateIntervalMs) {
+        if (playheadUpdateIntervalMs > 0) {
+            this.playheadUpdateIntervalMs = playheadUpdateIntervalMs;
+        }
+        return this;
+    }
+
+    @Override
+    public Player.Settings setPlayheadUpdateAlignedToFrames(boolean alignedToFrames) {
+        this.playheadUpdateAlignedToFrames = alignedToFrames;
+        return this;
+    }
+
+    @Override
+    public Player.Settings setMediaCache(PKMediaCache mediaCache) {
+        this.mediaCache = mediaCache;
+        return this;
+    }
+
+    @Override
+    public Player.Settings setManifestCache(PKManifestCache manifestCache) {
+        this.manifestCache = manifestCache;
+        return this;
+    }
+
+    @Override
+    public Player.Settings setConnectionWarmUpEnabled(boolean connectionWarmUpEnabled) {
+        this.connectionWarmUpEnabled = connectionWarmUpEnabled;
+        return this;
+    }
+
+    @Override
+    public Player.Settings setHedgedRequestSettings(HedgedRequestSettings hedgedRequestSettings) {
+        this.hedgedRequestSettings = hedgedRequestSettings;
+        return this;
+    }
+
+    @Override
+    public Player.Settings setDeliveryInterceptor(PKDeliveryInterceptor deliveryInterceptor) {
+        this.deliveryInterceptor = deliveryInterceptor;
+        return this;
+    }
+
+    @Override
+    public Player.Settings setBufferHealthListener(PKBufferHealth.Listener bufferHealthListener) {
+        this.bufferHealthListener = bufferHealthListener;
+        return this;
+    }
+
+    @Override
+    public Player.Settings setBufferHealthUpdateInterval(long bufferHealthUpdateIntervalMs) {
+        this.bufferHealthUpdateIntervalMs = bufferHealthUpdateIntervalMs;
+        return this;
+    }
+
+    @Override
+    public Player.Settings setBandwidthMeter(PKBandwidthMeter bandwidthMeter) {
+        this.bandwidthMeter = bandwidthMeter;
+        return this;
+    }
+
+    @Override
+    public Player.Settings setDrmSessionCacheSize(int drmSessionCacheSize) {
+        this.drmSessionCacheSize = drmSessionCacheSize;
+        return this;
+    }
 }
@@ -0,0 +1,146 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.player;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives the periodic playhead update of {@link PlayerController}.
+ * <p>
+ * Ticks only while playback is running, someone listens for playhead updates and the video
+ * surface is visible; otherwise it stays suspended and doesn't query the player engine at all.
+ * Ticks are either timer based, or aligned to display frames via {@link Choreographer}, which
+ * suits UI scrubbers. All methods must be called on the main thread.
+ */
+class PlayheadUpdateScheduler implements Runnable, Choreographer.FrameCallback {
+
+    interface Tick {
+        void onPlayheadTick();
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Tick tick;
+
+    private long intervalMs;
+    private boolean alignToFrames;
+
+    private boolean playing;
+    private boolean hasListeners = true;
+    private boolean surfaceVisible = true;
+
+    private boolean scheduled;
+    private long lastTickNanos;
+
+    PlayheadUpdateScheduler(Tick tick, long intervalMs, boolean alignToFrames) {
+        this.tick = tick;
+        this.intervalMs = intervalMs;
+        this.alignToFrames = alignToFrames;
+    }
+
+    void setPlaying(boolean playing) {
+        this.playing = playing;
+        update();
+    }
+
+    void setHasListeners(boolean hasListeners) {
+        this.hasListeners = hasListeners;
+        update();
+    }
+
+    // Same as setHasListeners(), from any thread.
+    void postHasListeners(boolean hasListeners) {
+        handler.post(() -> setHasListeners(hasListeners));
+    }
+
+    void setSurfaceVisible(boolean surfaceVisible) {
+        this.surfaceVisible = surfaceVisible;
+        update();
+    }
+
+    void configure(long intervalMs, boolean alignToFrames) {
+        if (this.intervalMs == intervalMs && this.alignToFrames == alignToFrames) {
+            return;
+        }
+        cancel();
+        this.intervalMs = intervalMs;
+        this.alignToFrames = alignToFrames;
+        update();
+    }
+
+    boolean isActive() {
+        return playing && hasListeners && surfaceVisible;
+    }
+
+    private void update() {
+        if (!isActive()) {
+            cancel();
+        } else if (!scheduled) {
+            // Report the position right away, like the first update after PLAYING always did.
+            onTick(System.nanoTime());
+        }
+    }
+
+    private void cancel() {
+        if (scheduled) {
+            handler.removeCallbacks(this);
+            Choreographer.getInstance().removeFrameCallback(this);
+            scheduled = false;
+        }
+    }
+
+    private void onTick(long nowNanos) {
+        lastTickNanos = nowNanos;
+        tick.onPlayheadTick();
+        scheduleNext();
+    }
+
+    private void scheduleNext() {
+        // The tick may have paused or stopped the player.
+        if (!isActive()) {
+            scheduled = false;
+            return;
+        }
+        scheduled = true;
+        if (alignToFrames) {
+            Choreographer.getInstance().postFrameCallback(this);
+        } else {
+            handler.postDelayed(this, intervalMs);
+        }
+    }
+
+    @Override
+    public void run() {
+        scheduled = false;
+        if (isActive()) {
+            onTick(System.nanoTime());
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        scheduled = false;
+        if (!isActive()) {
+            return;
+        }
+        // Frame times come from System.nanoTime()'s clock. Skip frames until the interval has passed.
+        if (frameTimeNanos - lastTickNanos >= TimeUnit.MILLISECONDS.toNanos(intervalMs)) {
+            onTick(frameTimeNanos);
+        } else {
+            scheduleNext();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.player;
+
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+
+import com.kaltura.playkit.utils.Consts;
+
+import java.util.Arrays;
+
+/**
+ * Records the {@link PKStartupTimings.Phase}s of the current media. Each phase is recorded once,
+ * the first time it is reached after {@link #start()}.
+ */
+class StartupTimer {
+
+    private final long[] timestamps = new long[PKStartupTimings.Phase.values().length];
+
+    StartupTimer() {
+        Arrays.fill(timestamps, Consts.TIME_UNSET);
+    }
+
+    /**
+     * Start timing a new media, at {@link PKStartupTimings.Phase#SET_MEDIA}.
+     */
+    synchronized void start() {
+        Arrays.fill(timestamps, Consts.TIME_UNSET);
+        timestamps[PKStartupTimings.Phase.SET_MEDIA.ordinal()] = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * @return true if the phase was recorded now, false if it was already recorded or no media was started.
+     */
+    synchronized boolean mark(@NonNull PKStartupTimings.Phase phase) {
+        if (timestamps[PKStartupTimings.Phase.SET_MEDIA.ordinal()] == Consts.TIME_UNSET ||
+                timestamps[phase.ordinal()] != Consts.TIME_UNSET) {
+            return false;
+        }
+        timestamps[phase.ordinal()] = SystemClock.elapsedRealtime();
+        return true;
+    }
+
+    @NonNull
+    synchronized PKStartupTimings getTimings() {
+        return new PKStartupTimings(timestamps.clone());
+    }
+}
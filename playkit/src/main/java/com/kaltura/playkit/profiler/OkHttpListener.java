@@ -143,7 +143,7 @@ class OkHttpListener extends EventListener {
 
     @Override
     public void connectionAcquired(Call call, Connection connection) {
-        log("connectionAcquired");
+        log("connectionAcquired", field("protocol", "" + connection.protocol()));
     }
 
     @Override
@@ -178,7 +178,8 @@ class OkHttpListener extends EventListener {
 
     @Override
     public void responseHeadersEnd(Call call, Response response) {
-        log("responseHeadersEnd");
+        // The protocol the request actually used, after ALPN and any HTTP/2 fallback.
+        log("responseHeadersEnd", field("protocol", "" + response.protocol()), field("code", response.code()));
     }
 
     @Override
@@ -59,6 +59,10 @@ public class Consts {
 
     public static final int DEFAULT_PLAYHEAD_UPDATE_MILI = 100;
 
+    public static final int DEFAULT_BUFFER_HEALTH_UPDATE_MILI = 500;
+
+    public static final int DEFAULT_DRM_SESSION_CACHE_SIZE = 2;
+
     /**
      * Flag that indicates, that this specified track will be
      * selected by the player as default track.